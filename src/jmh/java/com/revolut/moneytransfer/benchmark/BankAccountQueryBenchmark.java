@@ -0,0 +1,40 @@
+package com.revolut.moneytransfer.benchmark;
+
+import com.revolut.moneytransfer.dto.BankAccountDto;
+import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.BankAccount;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link BankAccountDto#getBankAccountById(Long)} for the accounts chosen by the <code>contention</code>
+ * profile
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BankAccountQueryBenchmark {
+    @Param({"UNIFORM", "HOT"})
+    public Contention contention;
+
+    @Param({"100"})
+    public int accountsCount;
+
+    private BankAccountDto bankAccountDto;
+    private BenchmarkAccounts accounts;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ObjectModificationException {
+        bankAccountDto = BankAccountDto.getInstance();
+        accounts = new BenchmarkAccounts(accountsCount, contention);
+    }
+
+    @Benchmark
+    public BankAccount getBankAccountById() {
+        return bankAccountDto.getBankAccountById(accounts.nextId());
+    }
+}
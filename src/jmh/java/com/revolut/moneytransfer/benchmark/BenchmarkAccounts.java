@@ -0,0 +1,57 @@
+package com.revolut.moneytransfer.benchmark;
+
+import com.revolut.moneytransfer.dto.BankAccountDto;
+import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.BankAccount;
+import com.revolut.moneytransfer.model.Currency;
+
+import java.math.BigDecimal;
+
+/**
+ * The set of Bank Accounts created in the in-memory database for the benchmark run. All accounts have a balance
+ * big enough to never run out of money during the run
+ */
+class BenchmarkAccounts {
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1_000_000_000L);
+
+    private final Long[] ids;
+    private final Contention contention;
+
+    BenchmarkAccounts(int accountsCount, Contention contention) throws ObjectModificationException {
+        if (accountsCount < 2) {
+            throw new IllegalArgumentException("At least two accounts are required");
+        }
+
+        this.ids = new Long[accountsCount];
+        this.contention = contention;
+
+        Currency[] currencies = Currency.values();
+        for (int i = 0; i < accountsCount; i++) {
+            ids[i] = BankAccountDto.getInstance().createBankAccount(new BankAccount(
+                    "Benchmark Account " + i,
+                    INITIAL_BALANCE,
+                    currencies[i % currencies.length]
+            )).getId();
+        }
+    }
+
+    /**
+     * @return the id of the account chosen according to the contention profile
+     */
+    Long nextId() {
+        return ids[contention.nextIndex(ids.length)];
+    }
+
+    /**
+     * @return the id of the account chosen according to the contention profile which is not equal to the provided one
+     */
+    Long nextIdExcept(Long id) {
+        Long nextId = nextId();
+
+        while (nextId.equals(id)) {
+            nextId = ids[Contention.UNIFORM.nextIndex(ids.length)];
+        }
+
+        return nextId;
+    }
+}
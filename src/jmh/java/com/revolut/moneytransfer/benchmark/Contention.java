@@ -0,0 +1,35 @@
+package com.revolut.moneytransfer.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The account contention profiles the benchmarks could be run with. Passed as the <code>contention</code>
+ * benchmark parameter (<code>-p contention=HOT</code>)
+ */
+public enum Contention {
+    /**
+     * Every thread works with the accounts chosen uniformly at random
+     */
+    UNIFORM {
+        @Override
+        int nextIndex(int accountsCount) {
+            return ThreadLocalRandom.current().nextInt(accountsCount);
+        }
+    },
+    /**
+     * Nine requests from ten go to the first account, so all threads fight for the same rows
+     */
+    HOT {
+        @Override
+        int nextIndex(int accountsCount) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            return random.nextInt(10) == 0 ? random.nextInt(accountsCount) : 0;
+        }
+    };
+
+    /**
+     * @return the index of the next account to work with from <code>[0, accountsCount)</code>
+     */
+    abstract int nextIndex(int accountsCount);
+}
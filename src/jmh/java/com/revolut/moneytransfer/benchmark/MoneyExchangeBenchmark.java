@@ -0,0 +1,39 @@
+package com.revolut.moneytransfer.benchmark;
+
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.Money;
+import com.revolut.moneytransfer.service.ConstantMoneyExchangeService;
+import com.revolut.moneytransfer.service.MoneyExchangeService;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MoneyExchangeService#exchange(Money, Currency)} of the hardcoded rates for the real conversion
+ * and for the conversion into the same currency
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MoneyExchangeBenchmark {
+    @Param({"GBP", "EUR"})
+    public Currency targetCurrency;
+
+    private MoneyExchangeService moneyExchangeService;
+    private Money amount;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        moneyExchangeService = new ConstantMoneyExchangeService();
+        amount = Money.of(new BigDecimal("1234.5678"), Currency.EUR);
+    }
+
+    @Benchmark
+    public Money exchange() {
+        return moneyExchangeService.exchange(amount, targetCurrency);
+    }
+}
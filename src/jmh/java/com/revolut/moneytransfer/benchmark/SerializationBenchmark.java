@@ -0,0 +1,101 @@
+package com.revolut.moneytransfer.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.revolut.moneytransfer.model.BankAccount;
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.ModelJsonModule;
+import com.revolut.moneytransfer.model.Transaction;
+import com.revolut.moneytransfer.model.TransactionStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Jackson serialization of the {@link Transaction} and {@link BankAccount} models the same way
+ * as they are written into the responses. The <code>mapper</code> parameter chooses between the reflective bean
+ * serialization (<code>reflective</code>) and the serializers of {@link ModelJsonModule} (<code>tuned</code>)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"reflective", "tuned"})
+    public String mapper;
+
+    private ObjectMapper objectMapper;
+    private ObjectReader transactionReader;
+    private Transaction transaction;
+    private List<Transaction> transactionsPage;
+    private BankAccount bankAccount;
+    private byte[] transactionJson;
+    private byte[] bankAccountJson;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JsonProcessingException {
+        objectMapper = new ObjectMapper();
+        if ("tuned".equals(mapper)) {
+            objectMapper.registerModule(new ModelJsonModule());
+        }
+        transactionReader = objectMapper.readerFor(Transaction.class);
+
+        transaction = new Transaction(1L, 2L, new BigDecimal("16.1"), Currency.EUR);
+        transaction.setId(1L);
+        transaction.setCreationDate(new Date());
+        transaction.setUpdateDate(new Date());
+        transaction.setFailMessage("");
+
+        transactionsPage = new ArrayList<>(PAGE_SIZE);
+        for (long id = 1; id <= PAGE_SIZE; id++) {
+            Transaction pageTransaction = new Transaction(id, id + 1, new BigDecimal(id + ".25"), Currency.USD);
+            pageTransaction.setId(id);
+            pageTransaction.setStatus(TransactionStatus.SUCCEED);
+            pageTransaction.setRateVersion(1L);
+            transactionsPage.add(pageTransaction);
+        }
+
+        bankAccount = new BankAccount(1L, "Sakalya Deshpande", new BigDecimal("12.6"), Currency.GBP);
+
+        transactionJson = objectMapper.writeValueAsBytes(transaction);
+        bankAccountJson = objectMapper.writeValueAsBytes(bankAccount);
+    }
+
+    @Benchmark
+    public byte[] serializeTransaction() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(transaction);
+    }
+
+    /**
+     * The page of transactions as returned by the list endpoints
+     */
+    @Benchmark
+    public byte[] serializeTransactionsPage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(transactionsPage);
+    }
+
+    @Benchmark
+    public byte[] serializeBankAccount() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(bankAccount);
+    }
+
+    @Benchmark
+    public Transaction deserializeTransaction() throws IOException {
+        return transactionReader.readValue(transactionJson);
+    }
+
+    @Benchmark
+    public BankAccount deserializeBankAccount() throws IOException {
+        return objectMapper.readValue(bankAccountJson, BankAccount.class);
+    }
+}
@@ -0,0 +1,123 @@
+package com.revolut.moneytransfer.benchmark;
+
+import com.revolut.moneytransfer.db.CommitStrategy;
+import com.revolut.moneytransfer.db.H2DataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the start of the application on the existing file database with <code>transactionsCount</code>
+ * transactions: opening of the database with the schema initialization, loading of all Bank Accounts (as the account
+ * ledger does) and the first page of the PLANNED transactions sweep.
+ * <p>
+ * The database is generated once into the temporary directory and reused by the next runs, generating tens of
+ * millions of transactions takes minutes.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(3)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+    private static final int GENERATION_CHUNK_SIZE = 1_000_000;
+
+    private static final String GET_BANK_ACCOUNTS_SQL = "SELECT id, balance, currency_id FROM bank_account";
+    private static final String GET_PLANNED_TRANSACTIONS_SQL =
+            "SELECT id FROM transaction WHERE status_id = 1 AND id > ? ORDER BY id LIMIT 1000";
+
+    @Param({"10000000"})
+    public long transactionsCount;
+
+    @Param({"10000"})
+    public int accountsCount;
+
+    @Param({"65536"})
+    public int cacheSizeKb;
+
+    private String url;
+    private HikariDataSource dataSource;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        String path = new File(System.getProperty("java.io.tmpdir"),
+                "moneytransfer-startup-" + accountsCount + "-" + transactionsCount).getAbsolutePath();
+        url = H2DataSource.fileUrl(path, cacheSizeKb, CommitStrategy.SYNC, 0);
+
+        if (!new File(path + ".mv.db").exists()) {
+            generate(path);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        if (dataSource != null) {
+            dataSource.close();
+            dataSource = null;
+        }
+    }
+
+    @Benchmark
+    public long startup() throws SQLException {
+        dataSource = H2DataSource.open(url, 1);
+
+        long rows = 0;
+        try (Connection con = dataSource.getConnection()) {
+            try (Statement getBankAccounts = con.createStatement();
+                 ResultSet bankAccountsRS = getBankAccounts.executeQuery(GET_BANK_ACCOUNTS_SQL)) {
+                while (bankAccountsRS.next()) {
+                    rows++;
+                }
+            }
+
+            try (PreparedStatement getPlannedTransactions = con.prepareStatement(GET_PLANNED_TRANSACTIONS_SQL)) {
+                getPlannedTransactions.setLong(1, Long.MIN_VALUE);
+                try (ResultSet transactionsRS = getPlannedTransactions.executeQuery()) {
+                    while (transactionsRS.next()) {
+                        rows++;
+                    }
+                }
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * Generates the database with <code>accountsCount</code> Bank Accounts and <code>transactionsCount</code>
+     * transactions between them. Every 100000th transaction is PLANNED, the rest are SUCCEED
+     */
+    private void generate(String path) throws SQLException {
+        HikariDataSource generator = H2DataSource.open(H2DataSource.fileUrl(path, cacheSizeKb,
+                CommitStrategy.DELAYED, 1000), 1);
+
+        try (Connection con = generator.getConnection();
+             Statement statement = con.createStatement()) {
+            statement.execute("INSERT INTO bank_account (account_holder_name, balance, currency_id) " +
+                    "SELECT 'Startup Account ' || X, 1000000, MOD(X, 3) + 1 FROM SYSTEM_RANGE(1, " +
+                    accountsCount + ")");
+            con.commit();
+
+            for (long from = 1; from <= transactionsCount; from += GENERATION_CHUNK_SIZE) {
+                long to = Math.min(from + GENERATION_CHUNK_SIZE - 1, transactionsCount);
+
+                statement.execute("INSERT INTO transaction (from_account_id, to_account_id, amount, currency_id, " +
+                        "creation_date, update_date, status_id) " +
+                        "SELECT MOD(X, " + accountsCount + ") + 1, MOD(X + 1, " + accountsCount + ") + 1, 1, " +
+                        "MOD(X, 3) + 1, CURRENT_TIMESTAMP(), CURRENT_TIMESTAMP(), " +
+                        "CASEWHEN(MOD(X, 100000) = 0, 1, 4) FROM SYSTEM_RANGE(" + from + ", " + to + ")");
+                con.commit();
+            }
+        } finally {
+            generator.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.revolut.moneytransfer.benchmark;
+
+import com.revolut.moneytransfer.dto.TransactionDto;
+import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.Transaction;
+import com.revolut.moneytransfer.service.ConstantMoneyExchangeService;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the transfer hot path: {@link TransactionDto#createTransaction(Transaction)} and
+ * {@link TransactionDto#executeTransaction(Long)}. Transfers go between the accounts chosen by the
+ * <code>contention</code> profile, the number of concurrent threads is set by the JMH <code>-t</code> option.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+    private static final BigDecimal AMOUNT = BigDecimal.ONE;
+
+    @Param({"UNIFORM", "HOT"})
+    public Contention contention;
+
+    @Param({"100"})
+    public int accountsCount;
+
+    private TransactionDto transactionDto;
+    private BenchmarkAccounts accounts;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ObjectModificationException {
+        transactionDto = TransactionDto.getInstance(new ConstantMoneyExchangeService());
+        accounts = new BenchmarkAccounts(accountsCount, contention);
+    }
+
+    /**
+     * The PLANNED transaction created right before each invocation of {@link #executeTransaction(PlannedTransaction)}
+     */
+    @State(Scope.Thread)
+    public static class PlannedTransaction {
+        Long id;
+
+        @Setup(Level.Invocation)
+        public void create(TransferBenchmark benchmark) throws ObjectModificationException {
+            id = benchmark.createTransaction().getId();
+        }
+    }
+
+    @Benchmark
+    public Transaction createTransaction() throws ObjectModificationException {
+        Long fromBankAccountId = accounts.nextId();
+        Long toBankAccountId = accounts.nextIdExcept(fromBankAccountId);
+
+        return transactionDto.createTransaction(
+                new Transaction(fromBankAccountId, toBankAccountId, AMOUNT, Currency.EUR));
+    }
+
+    @Benchmark
+    public void executeTransaction(PlannedTransaction plannedTransaction) throws ObjectModificationException {
+        transactionDto.executeTransaction(plannedTransaction.id);
+    }
+}
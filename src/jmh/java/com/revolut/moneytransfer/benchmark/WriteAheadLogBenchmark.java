@@ -0,0 +1,113 @@
+package com.revolut.moneytransfer.benchmark;
+
+import com.revolut.moneytransfer.dto.WriteAheadLog;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the {@link WriteAheadLog}: the throughput of durable appends, where concurrent threads (the JMH
+ * <code>-t</code> option) share <code>fsync</code> calls, and the time of replaying <code>recordsCount</code> records
+ * at startup.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class WriteAheadLogBenchmark {
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    @State(Scope.Benchmark)
+    public static class AppendState {
+        private final AtomicLong transactionIds = new AtomicLong();
+
+        private File directory;
+        private WriteAheadLog writeAheadLog;
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            directory = Files.createTempDirectory("moneytransfer-wal").toFile();
+            writeAheadLog = new WriteAheadLog(directory, SEGMENT_SIZE);
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() {
+            writeAheadLog.close();
+            delete(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ReplayState {
+        @Param({"1000000"})
+        public int recordsCount;
+
+        private File directory;
+        private WriteAheadLog writeAheadLog;
+
+        @Setup(Level.Trial)
+        public void generate() throws IOException {
+            directory = Files.createTempDirectory("moneytransfer-wal").toFile();
+
+            WriteAheadLog generatedLog = new WriteAheadLog(directory, SEGMENT_SIZE);
+            long position = 0;
+            for (long id = 1; id <= recordsCount; id++) {
+                position = generatedLog.append(record(id));
+            }
+            generatedLog.awaitDurable(position);
+            generatedLog.close();
+        }
+
+        @Setup(Level.Iteration)
+        public void open() {
+            writeAheadLog = new WriteAheadLog(directory, SEGMENT_SIZE);
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() {
+            writeAheadLog.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() {
+            WriteAheadLogBenchmark.delete(directory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public long appendDurable(AppendState state) {
+        long position = state.writeAheadLog.append(record(state.transactionIds.incrementAndGet()));
+        state.writeAheadLog.awaitDurable(position);
+
+        return position;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public long replay(ReplayState state, Blackhole blackhole) {
+        return state.writeAheadLog.replay(blackhole::consume);
+    }
+
+    private static WriteAheadLog.Record record(long transactionId) {
+        return new WriteAheadLog.Record(transactionId, transactionId % 100, (transactionId + 1) % 100, 10000, 10000,
+                1);
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,392 @@
+package com.revolut.moneytransfer.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.moneytransfer.MoneyTransferApp;
+import com.revolut.moneytransfer.controller.BankAccountsController;
+import com.revolut.moneytransfer.controller.TransactionsController;
+import com.revolut.moneytransfer.model.BankAccount;
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.Transaction;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.glassfish.grizzly.http.server.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The standalone load generator of the REST API. It creates Bank Accounts and then sends the mix of
+ * <code>GET /accounts/{id}</code> and <code>POST /transactions</code> requests at the constant target rate, so the
+ * saturation point of the service is found by raising the rate till the latency grows without bound.
+ * <p>
+ * The load is open: requests are scheduled at their intended times whether the previous ones have been answered or
+ * not, and the latency is measured from the intended time. So the time a request waits for a free connection is
+ * counted and the stalls of the service are not hidden (coordinated omission).
+ * <p>
+ * Every report interval the throughput, p50/p99/p99.9 latencies and error rates of both kinds of requests are printed
+ * and the interval histograms are appended into the HdrHistogram log. The latency distribution of the whole run is
+ * printed at the end. See {@link LoadSettings} for the parameters.
+ */
+public class LoadGenerator {
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1_000_000_000L);
+    private static final BigDecimal TRANSFER_AMOUNT = BigDecimal.ONE;
+    private static final int TIMEOUT_MILLIS = 30000;
+
+    private final LoadSettings settings;
+    private final String baseUrl;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ZipfDistribution accountsDistribution;
+    private final Currency[] currencies;
+    private final int[] cumulativeCurrencyWeights;
+    private final ThreadPoolExecutor connections;
+
+    private final RequestStats reads = new RequestStats("read");
+    private final RequestStats writes = new RequestStats("write");
+    private final LongAdder dropped = new LongAdder();
+
+    private Long[] accountIds;
+    private volatile long recordingStartNanos;
+
+    LoadGenerator(LoadSettings settings, String baseUrl) {
+        this.settings = settings;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.accountsDistribution = new ZipfDistribution(settings.accounts, settings.zipf);
+
+        currencies = settings.currencies.keySet().toArray(new Currency[0]);
+        cumulativeCurrencyWeights = new int[currencies.length];
+        int sum = 0;
+        for (int i = 0; i < currencies.length; i++) {
+            sum += settings.currencies.get(currencies[i]);
+            cumulativeCurrencyWeights[i] = sum;
+        }
+
+        //A second of requests could wait for a connection, the rest are dropped and counted as errors
+        AtomicInteger threadsCount = new AtomicInteger();
+        connections = new ThreadPoolExecutor(settings.connections, settings.connections, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(settings.rps), runnable -> {
+            Thread thread = new Thread(runnable, "load-connection-" + threadsCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadSettings settings = LoadSettings.parse(args);
+
+        HttpServer server = settings.url == null ? MoneyTransferApp.startServer() : null;
+        try {
+            new LoadGenerator(settings, settings.url == null ? MoneyTransferApp.BASE_URI : settings.url).run();
+        } finally {
+            if (server != null) {
+                server.shutdownNow();
+            }
+        }
+    }
+
+    void run() throws IOException, InterruptedException, ExecutionException {
+        System.out.println("Load settings: " + settings);
+
+        createAccounts();
+
+        try (PrintStream histogramLog = openHistogramLog()) {
+            HistogramLogWriter histogramLogWriter = new HistogramLogWriter(histogramLog);
+            histogramLogWriter.outputLogFormatVersion();
+            histogramLogWriter.outputLegend();
+
+            generateLoad(histogramLogWriter);
+        } finally {
+            connections.shutdownNow();
+        }
+
+        System.out.println();
+        reads.printTotal();
+        writes.printTotal();
+        System.out.printf("Dropped requests: %d%n", dropped.sum());
+    }
+
+    /**
+     * Sends requests at their intended times till the end of the run. The interval results are reported by the
+     * same thread once the report interval is over
+     */
+    private void generateLoad(HistogramLogWriter histogramLogWriter) {
+        long startNanos = System.nanoTime();
+        recordingStartNanos = startNanos + TimeUnit.SECONDS.toNanos(settings.warmupSeconds);
+        long endNanos = recordingStartNanos + TimeUnit.SECONDS.toNanos(settings.durationSeconds);
+        long reportIntervalNanos = TimeUnit.SECONDS.toNanos(settings.reportIntervalSeconds);
+        long nextReportNanos = recordingStartNanos + reportIntervalNanos;
+
+        System.out.printf("Warming up for %d seconds%n", settings.warmupSeconds);
+        histogramLogWriter.outputStartTime(System.currentTimeMillis() +
+                TimeUnit.NANOSECONDS.toMillis(recordingStartNanos - startNanos));
+        printReportHeader();
+
+        for (long i = 0; ; i++) {
+            long intendedNanos = startNanos + i * TimeUnit.SECONDS.toNanos(1) / settings.rps;
+            if (intendedNanos >= endNanos) {
+                break;
+            }
+
+            if (intendedNanos >= nextReportNanos) {
+                report(histogramLogWriter, reportIntervalNanos);
+                nextReportNanos += reportIntervalNanos;
+            }
+
+            long delayNanos = intendedNanos - System.nanoTime();
+            if (delayNanos > 0) {
+                LockSupport.parkNanos(delayNanos);
+            }
+
+            boolean read = ThreadLocalRandom.current().nextDouble() < settings.readRatio;
+            try {
+                connections.execute(() -> {
+                    if (read) {
+                        getAccount(intendedNanos);
+                    } else {
+                        createTransaction(intendedNanos);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                if (intendedNanos >= recordingStartNanos) {
+                    dropped.increment();
+                }
+            }
+        }
+
+        report(histogramLogWriter, reportIntervalNanos);
+    }
+
+    private void getAccount(long intendedNanos) {
+        reads.complete(intendedNanos, () -> request("GET",
+                BankAccountsController.BASE_URL + "/" + accountIds[accountsDistribution.next()], null, null));
+    }
+
+    private void createTransaction(long intendedNanos) {
+        Long fromBankAccountId = accountIds[accountsDistribution.next()];
+        Long toBankAccountId = accountIds[accountsDistribution.next()];
+        while (toBankAccountId.equals(fromBankAccountId)) {
+            toBankAccountId = accountIds[ThreadLocalRandom.current().nextInt(accountIds.length)];
+        }
+
+        Transaction transaction = new Transaction(fromBankAccountId, toBankAccountId, TRANSFER_AMOUNT,
+                nextCurrency());
+
+        writes.complete(intendedNanos, () -> request("POST", TransactionsController.BASE_URL,
+                objectMapper.writeValueAsBytes(transaction), null));
+    }
+
+    /**
+     * Creates all Bank Accounts concurrently. Their currencies are chosen by the currency weights
+     */
+    private void createAccounts() throws InterruptedException, ExecutionException {
+        long startNanos = System.nanoTime();
+        List<Future<Long>> futures = new ArrayList<>(settings.accounts);
+
+        for (int i = 0; i < settings.accounts; i++) {
+            BankAccount bankAccount = new BankAccount("Load Account " + i, INITIAL_BALANCE, nextCurrency());
+
+            futures.add(submitWhenQueueIsNotFull(() -> {
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                int status = request("POST", BankAccountsController.BASE_URL,
+                        objectMapper.writeValueAsBytes(bankAccount), response);
+
+                if (status != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("The Bank Account could not be created, the status is " + status);
+                }
+
+                return objectMapper.readValue(response.toByteArray(), BankAccount.class).getId();
+            }));
+        }
+
+        accountIds = new Long[settings.accounts];
+        for (int i = 0; i < accountIds.length; i++) {
+            accountIds[i] = futures.get(i).get();
+        }
+
+        System.out.printf("%d Bank Accounts have been created in %d ms%n", accountIds.length,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private <T> Future<T> submitWhenQueueIsNotFull(Callable<T> task) throws InterruptedException {
+        while (true) {
+            try {
+                return connections.submit(task);
+            } catch (RejectedExecutionException e) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * Sends the request by the connection kept alive by the JDK
+     *
+     * @param body     the JSON body of the request or null if there is no body
+     * @param response the stream the response body is written to or null if it is not needed
+     *
+     * @return the HTTP status of the response
+     */
+    private int request(String method, String path, byte[] body, ByteArrayOutputStream response)
+            throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        con.setConnectTimeout(TIMEOUT_MILLIS);
+        con.setReadTimeout(TIMEOUT_MILLIS);
+        con.setRequestMethod(method);
+
+        if (body != null) {
+            con.setDoOutput(true);
+            con.setRequestProperty("Content-Type", "application/json");
+            con.setFixedLengthStreamingMode(body.length);
+            try (OutputStream requestBody = con.getOutputStream()) {
+                requestBody.write(body);
+            }
+        }
+
+        int status = con.getResponseCode();
+
+        //The response is read till the end, otherwise the connection is not reused
+        try (InputStream responseBody = status < HttpURLConnection.HTTP_BAD_REQUEST ?
+                con.getInputStream() : con.getErrorStream()) {
+            if (responseBody != null) {
+                byte[] buffer = new byte[4096];
+                for (int read; (read = responseBody.read(buffer)) != -1; ) {
+                    if (response != null) {
+                        response.write(buffer, 0, read);
+                    }
+                }
+            }
+        }
+
+        return status;
+    }
+
+    private Currency nextCurrency() {
+        int weight = ThreadLocalRandom.current().nextInt(
+                cumulativeCurrencyWeights[cumulativeCurrencyWeights.length - 1]);
+
+        for (int i = 0; i < cumulativeCurrencyWeights.length; i++) {
+            if (weight < cumulativeCurrencyWeights[i]) {
+                return currencies[i];
+            }
+        }
+
+        return currencies[currencies.length - 1];
+    }
+
+    private PrintStream openHistogramLog() throws FileNotFoundException {
+        File file = new File(settings.histogramLog);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+
+        return new PrintStream(file);
+    }
+
+    private void printReportHeader() {
+        System.out.printf("%8s %6s %10s %8s %10s %10s %10s%n",
+                "time(s)", "kind", "rps", "errors", "p50(ms)", "p99(ms)", "p99.9(ms)");
+    }
+
+    private void report(HistogramLogWriter histogramLogWriter, long reportIntervalNanos) {
+        long elapsedSeconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - recordingStartNanos);
+        if (elapsedSeconds < 0) {
+            return;
+        }
+
+        reads.report(histogramLogWriter, elapsedSeconds, reportIntervalNanos);
+        writes.report(histogramLogWriter, elapsedSeconds, reportIntervalNanos);
+    }
+
+    /**
+     * The latencies and errors of one kind of requests. Latencies are recorded in microseconds
+     */
+    private class RequestStats {
+        private final String kind;
+        private final Recorder recorder = new Recorder(3);
+        private final LongAdder errors = new LongAdder();
+        private final Histogram total = new Histogram(3);
+        private Histogram interval;
+        private long totalErrors;
+
+        RequestStats(String kind) {
+            this.kind = kind;
+        }
+
+        /**
+         * Sends the request and records its latency from the intended time. Requests of the warm up are not recorded
+         */
+        void complete(long intendedNanos, Request request) {
+            boolean succeed;
+            try {
+                int status = request.send();
+                succeed = status >= HttpURLConnection.HTTP_OK && status < HttpURLConnection.HTTP_MULT_CHOICE;
+            } catch (IOException e) {
+                succeed = false;
+            }
+
+            if (intendedNanos < recordingStartNanos) {
+                return;
+            }
+
+            recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedNanos));
+            if (!succeed) {
+                errors.increment();
+            }
+        }
+
+        void report(HistogramLogWriter histogramLogWriter, long elapsedSeconds, long reportIntervalNanos) {
+            interval = recorder.getIntervalHistogram(interval);
+            interval.setTag(kind);
+            histogramLogWriter.outputIntervalHistogram(interval);
+            total.add(interval);
+
+            long intervalErrors = errors.sumThenReset();
+            totalErrors += intervalErrors;
+
+            double seconds = reportIntervalNanos / (double) TimeUnit.SECONDS.toNanos(1);
+            System.out.printf("%8d %6s %10.1f %7.2f%% %10.2f %10.2f %10.2f%n",
+                    elapsedSeconds,
+                    kind,
+                    interval.getTotalCount() / seconds,
+                    interval.getTotalCount() == 0 ? 0 : 100.0 * intervalErrors / interval.getTotalCount(),
+                    interval.getValueAtPercentile(50) / 1000.0,
+                    interval.getValueAtPercentile(99) / 1000.0,
+                    interval.getValueAtPercentile(99.9) / 1000.0);
+        }
+
+        void printTotal() {
+            System.out.printf("Total %s requests: %d, errors: %d, p50: %.2f ms, p99: %.2f ms, p99.9: %.2f ms%n",
+                    kind,
+                    total.getTotalCount(),
+                    totalErrors,
+                    total.getValueAtPercentile(50) / 1000.0,
+                    total.getValueAtPercentile(99) / 1000.0,
+                    total.getValueAtPercentile(99.9) / 1000.0);
+            total.outputPercentileDistribution(System.out, 1000.0);
+        }
+    }
+
+    private interface Request {
+        int send() throws IOException;
+    }
+}
@@ -0,0 +1,104 @@
+package com.revolut.moneytransfer.loadtest;
+
+import com.revolut.moneytransfer.model.Currency;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The parameters of the load generator run. Every parameter is passed as the <code>name=value</code> argument,
+ * absent parameters have the default values:
+ * <ul>
+ *     <li><code>url</code> - the base URL of the service. Once it is absent the service is started in the same JVM</li>
+ *     <li><code>accounts</code> (1000) - the number of Bank Accounts created before the run</li>
+ *     <li><code>zipf</code> (1.0) - the Zipf exponent of the account popularity, 0 chooses accounts uniformly</li>
+ *     <li><code>currencies</code> (EUR:60,USD:30,GBP:10) - the weights of currencies of Bank Accounts and
+ *     transfers</li>
+ *     <li><code>readRatio</code> (0.8) - the share of <code>GET /accounts/{id}</code> requests, the rest are
+ *     <code>POST /transactions</code></li>
+ *     <li><code>rps</code> (1000) - the target number of requests per second</li>
+ *     <li><code>duration</code> (60) - the duration of the run in seconds</li>
+ *     <li><code>warmup</code> (10) - the duration of the warm up in seconds, it is not recorded</li>
+ *     <li><code>connections</code> (64) - the number of concurrent HTTP connections</li>
+ *     <li><code>reportInterval</code> (5) - how often (in seconds) the interval results are reported</li>
+ *     <li><code>histogramLog</code> (target/loadtest.hlog) - the HdrHistogram log of the interval latencies</li>
+ * </ul>
+ */
+class LoadSettings {
+    final String url;
+    final int accounts;
+    final double zipf;
+    final Map<Currency, Integer> currencies;
+    final double readRatio;
+    final int rps;
+    final int durationSeconds;
+    final int warmupSeconds;
+    final int connections;
+    final int reportIntervalSeconds;
+    final String histogramLog;
+
+    private LoadSettings(Map<String, String> values) {
+        url = values.get("url");
+        accounts = Integer.parseInt(values.getOrDefault("accounts", "1000"));
+        zipf = Double.parseDouble(values.getOrDefault("zipf", "1.0"));
+        currencies = parseCurrencies(values.getOrDefault("currencies", "EUR:60,USD:30,GBP:10"));
+        readRatio = Double.parseDouble(values.getOrDefault("readRatio", "0.8"));
+        rps = Integer.parseInt(values.getOrDefault("rps", "1000"));
+        durationSeconds = Integer.parseInt(values.getOrDefault("duration", "60"));
+        warmupSeconds = Integer.parseInt(values.getOrDefault("warmup", "10"));
+        connections = Integer.parseInt(values.getOrDefault("connections", "64"));
+        reportIntervalSeconds = Integer.parseInt(values.getOrDefault("reportInterval", "5"));
+        histogramLog = values.getOrDefault("histogramLog", "target/loadtest.hlog");
+
+        if (accounts < 2) {
+            throw new IllegalArgumentException("At least two accounts are required");
+        }
+        if (readRatio < 0 || readRatio > 1) {
+            throw new IllegalArgumentException("The read ratio should be between 0 and 1");
+        }
+        if (rps <= 0 || durationSeconds <= 0 || connections <= 0 || reportIntervalSeconds <= 0) {
+            throw new IllegalArgumentException(
+                    "The rate, duration, connections and report interval should be positive");
+        }
+    }
+
+    static LoadSettings parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("The argument should be in the name=value form: " + arg);
+            }
+
+            values.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        return new LoadSettings(values);
+    }
+
+    private static Map<Currency, Integer> parseCurrencies(String value) {
+        Map<Currency, Integer> weights = new EnumMap<>(Currency.class);
+
+        for (String currencyWeight : value.split(",")) {
+            String[] parts = currencyWeight.split(":");
+            weights.put(Currency.valueOf(parts[0].trim()), parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1);
+        }
+
+        return weights;
+    }
+
+    @Override
+    public String toString() {
+        return "url=" + (url == null ? "in-process" : url) +
+                " accounts=" + accounts +
+                " zipf=" + zipf +
+                " currencies=" + currencies +
+                " readRatio=" + readRatio +
+                " rps=" + rps +
+                " duration=" + durationSeconds +
+                " warmup=" + warmupSeconds +
+                " connections=" + connections;
+    }
+}
@@ -0,0 +1,39 @@
+package com.revolut.moneytransfer.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Chooses the index from <code>[0, n)</code> with the probability proportional to <code>1 / (index + 1)^s</code>,
+ * so a few first accounts get most of the requests like popular merchants do. The exponent 0 is the uniform
+ * distribution.
+ * <p>
+ * The cumulative distribution is computed once, every sample is the binary search in it.
+ */
+class ZipfDistribution {
+    private final double[] cumulativeProbabilities;
+
+    ZipfDistribution(int n, double exponent) {
+        if (n <= 0 || exponent < 0) {
+            throw new IllegalArgumentException("The number of elements should be positive and exponent non-negative");
+        }
+
+        cumulativeProbabilities = new double[n];
+
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulativeProbabilities[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulativeProbabilities[i] /= sum;
+        }
+    }
+
+    int next() {
+        int index = Arrays.binarySearch(cumulativeProbabilities, ThreadLocalRandom.current().nextDouble());
+
+        //The insertion point is returned if the exact value is not found
+        return Math.min(index >= 0 ? index : -index - 1, cumulativeProbabilities.length - 1);
+    }
+}
@@ -1,7 +1,13 @@
 package com.revolut.moneytransfer;
 
-import com.revolut.moneytransfer.db.DbUtils;
+import com.revolut.moneytransfer.db.H2DataSource;
+import com.revolut.moneytransfer.db.JdbcExecutor;
+import com.revolut.moneytransfer.dto.AccountLedger;
+import com.revolut.moneytransfer.dto.BalanceSlots;
+import com.revolut.moneytransfer.dto.Journal;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.server.ServerProperties;
@@ -9,6 +15,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 
 /**
@@ -31,11 +38,47 @@ public class MoneyTransferApp {
                 BASE_URI));
         System.in.read();
         server.shutdownNow();
+
+        //Writes the balances held by the ledger before the database is closed
+        AccountLedger accountLedger = AccountLedger.getActive();
+        if (accountLedger != null) {
+            accountLedger.shutdown();
+        }
+        Journal journal = Journal.getActive();
+        if (journal != null) {
+            journal.shutdown();
+        }
+        BalanceSlots balanceSlots = BalanceSlots.getActive();
+        if (balanceSlots != null) {
+            balanceSlots.shutdown();
+        }
+        H2DataSource.close();
     }
 
+    /**
+     * Starts the web server. The HTTP worker threads only read requests and write responses, the database work is
+     * done by the separate {@link JdbcExecutor}. So the number of HTTP workers is configured independently by
+     * <code>moneytransfer.http.workers</code> (twice the number of processors by default).
+     */
     public static HttpServer startServer() {
         final ResourceConfig rc = new ResourceConfig().packages("com.revolut.moneytransfer.controller");
         rc.property(ServerProperties.RESPONSE_SET_STATUS_OVER_SEND_ERROR, "true");
-        return GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URI), rc);
+        final HttpServer server = GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URI), rc, false);
+
+        int workers = Integer.getInteger("moneytransfer.http.workers", Runtime.getRuntime().availableProcessors() * 2);
+        for (NetworkListener listener : server.getListeners()) {
+            listener.getTransport().setWorkerThreadPoolConfig(ThreadPoolConfig.defaultConfig().copy()
+                    .setPoolName("http-worker")
+                    .setCorePoolSize(workers)
+                    .setMaxPoolSize(workers));
+        }
+
+        try {
+            server.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return server;
     }
 }
@@ -0,0 +1,64 @@
+package com.revolut.moneytransfer.controller;
+
+import com.revolut.moneytransfer.db.JdbcExecutor;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utilities class used by the resources to move the blocking database work from the HTTP worker threads to the
+ * {@link JdbcExecutor}. The request is suspended till the response is computed by the executor.
+ * <p>
+ * Every request has <code>moneytransfer.request.timeout</code> milliseconds (30 seconds by default) to be processed.
+ * Once the timeout is over or the executor is saturated the request is answered by SERVICE UNAVAILABLE status
+ * without waiting for the database.
+ */
+class AsyncResponses {
+    static final long REQUEST_TIMEOUT_MILLIS = Long.getLong("moneytransfer.request.timeout", 30000);
+
+    private static final JdbcExecutor jdbcExecutor = JdbcExecutor.getInstance();
+
+    private AsyncResponses() {
+    }
+
+    /**
+     * Computes the response by the {@link JdbcExecutor} and resumes the suspended request with it. Any exception
+     * thrown by the supplier is passed to the exception mappers the same way as it is thrown by the resource
+     *
+     * @param asyncResponse    the suspended request
+     * @param responseSupplier the blocking computation of the response
+     */
+    static void resume(AsyncResponse asyncResponse, ResponseSupplier responseSupplier) {
+        asyncResponse.setTimeout(REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        asyncResponse.setTimeoutHandler(response -> response.resume(new WebApplicationException(
+                "The request has not been processed in time", Response.Status.SERVICE_UNAVAILABLE)));
+
+        try {
+            jdbcExecutor.execute(() -> {
+                //The request could be timed out while it was waiting for the thread
+                if (asyncResponse.isDone()) {
+                    return;
+                }
+
+                try {
+                    asyncResponse.resume(responseSupplier.get());
+                } catch (Throwable th) {
+                    asyncResponse.resume(th);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            asyncResponse.resume(new WebApplicationException(e.getMessage(), Response.Status.SERVICE_UNAVAILABLE));
+        }
+    }
+
+    /**
+     * The blocking computation of the response. It is allowed to throw any exception handled by the exception
+     * mappers
+     */
+    interface ResponseSupplier {
+        Response get() throws Exception;
+    }
+}
@@ -1,76 +1,165 @@
 package com.revolut.moneytransfer.controller;
 
-import com.revolut.moneytransfer.exceptions.ObjectModificationException;
 import com.revolut.moneytransfer.model.BankAccount;
 import com.revolut.moneytransfer.service.BankAccountService;
+import com.revolut.moneytransfer.service.ReloadableMoneyExchangeService;
+import com.revolut.moneytransfer.service.TransactionsService;
 
 import javax.validation.Valid;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.net.URI;
-import java.util.Collection;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 
 /**
- * This class is responsible for CRUD operations of Bank Account object
+ * This class is responsible for CRUD operations of Bank Account object. All requests are processed asynchronously
+ * by the {@link AsyncResponses}, so the database work doesn't occupy the HTTP worker threads
  */
 @Path(BankAccountsController.BASE_URL)
 @Produces(MediaType.APPLICATION_JSON)
 public class BankAccountsController {
     public static final String BASE_URL = "/accounts";
     public static final String GET_BANK_ACCOUNT_BY_ID_PATH = "id";
+    public static final String TRANSACTIONS_PATH = "transactions";
+    public static final String TURNOVER_PATH = "turnover";
+    public static final String FROM_PARAM = "from";
+    public static final String TO_PARAM = "to";
+    private static final int DEFAULT_TURNOVER_DAYS = 30;
 
     private final static BankAccountService bankAccountService = BankAccountService.getInstance();
+    private final TransactionsService transactionsService =
+            TransactionsService.getInstance(ReloadableMoneyExchangeService.getInstance());
 
     /**
      * Creates the Bank Account object with the provided parameters. It doesn't mean if provided object will have
      * an ID specified. This ID will be regenerated and returned in the response object
      *
-     * @param bankAccount the Bank Account object to create with parameters specified
-     *
-     * @return Bank Account object with the ID parameter specified.
+     * @param bankAccount   the Bank Account object to create with parameters specified
+     * @param asyncResponse the request resumed with Bank Account object with the ID parameter specified.
      */
     @POST
-    public Response createBankAccount(@Valid BankAccount bankAccount) throws ObjectModificationException {
-        BankAccount createdBankAccount;
+    public void createBankAccount(@Valid BankAccount bankAccount, @Suspended AsyncResponse asyncResponse) {
+        AsyncResponses.resume(asyncResponse, () -> {
+            BankAccount createdBankAccount;
 
-        createdBankAccount = bankAccountService.createBankAccount(bankAccount);
+            createdBankAccount = bankAccountService.createBankAccount(bankAccount);
 
-        return Response.ok(createdBankAccount).build();
+            return Response.ok(createdBankAccount).build();
+        });
     }
 
+    /**
+     * Returns Bank Accounts ordered by id page by page. The cursor of the next page is returned in the
+     * <code>X-Next-Cursor</code> header once the page is full. Once the account ledger is enabled the balances are
+     * taken from it as for the single Bank Account, not from the database which is written asynchronously.
+     *
+     * @param after  the cursor of the page. The first page is returned if it is absent
+     * @param limit  the maximum number of Bank Accounts in the page
+     * @param stream if true all Bank Accounts after the cursor are streamed into the response instead of one page
+     */
     @GET
-    public Response getAllBankAccounts() {
-        Collection<BankAccount> bankAccounts;
-
-        bankAccounts = bankAccountService.getAllBankAccounts();
-
-        if (bankAccounts == null) {
-            Response.noContent().build();
+    public void getAllBankAccounts(@QueryParam(PagingUtils.AFTER_PARAM) Long after,
+                                   @QueryParam(PagingUtils.LIMIT_PARAM)
+                                   @DefaultValue(PagingUtils.DEFAULT_LIMIT) int limit,
+                                   @QueryParam(PagingUtils.STREAM_PARAM) boolean stream,
+                                   @Suspended AsyncResponse asyncResponse) {
+        if (!stream) {
+            PagingUtils.verifyLimit(limit);
         }
 
-        return Response.ok(bankAccounts).build();
+        AsyncResponses.resume(asyncResponse, () -> {
+            if (stream) {
+                return Response.ok(PagingUtils.<BankAccount>jsonArrayOutput(
+                        consumer -> bankAccountService.streamBankAccounts(after, consumer))).build();
+            }
+
+            return PagingUtils.pageResponse(bankAccountService.getBankAccountsPage(after, limit), limit);
+        });
     }
 
     /**
-     * @param id The ID of Bank Account
-     *
-     * @return The Bank Account object which has particular ID. This ID has been generated and returned
-     * during the Bank Account creation by the <code>POST: /bankAccount</code> endpoint
+     * @param id            The ID of Bank Account
+     * @param asyncResponse the request resumed with the Bank Account object which has particular ID. This ID has
+     *                      been generated and returned during the Bank Account creation by the
+     *                      <code>POST: /bankAccount</code> endpoint
      */
     @GET
     @Path("{" + GET_BANK_ACCOUNT_BY_ID_PATH + "}")
-    public Response getBankAccountById(@PathParam(GET_BANK_ACCOUNT_BY_ID_PATH) Long id) {
-        BankAccount bankAccount;
+    public void getBankAccountById(@PathParam(GET_BANK_ACCOUNT_BY_ID_PATH) Long id,
+                                   @Suspended AsyncResponse asyncResponse) {
+        AsyncResponses.resume(asyncResponse, () -> {
+            BankAccount bankAccount = bankAccountService.getBankAccountById(id);
 
+            if (bankAccount == null) {
+                throw new WebApplicationException("The bank account does not exist", Response.Status.NOT_FOUND);
+            }
 
-        bankAccount = bankAccountService.getBankAccountById(id);
+            return Response.ok(bankAccount).build();
+        });
+    }
 
-        if (bankAccount == null) {
-            throw new WebApplicationException("The bank account does not exist", Response.Status.NOT_FOUND);
+    /**
+     * Returns the statement of the Bank Account: its incoming and outgoing transactions, the newest ones first, page
+     * by page. The cursor of the next page is returned in the <code>X-Next-Cursor</code> header once the page is full.
+     *
+     * @param id     The ID of Bank Account
+     * @param before the cursor of the page. The first page with the newest transactions is returned if it is absent
+     * @param limit  the maximum number of transactions in the page
+     */
+    @GET
+    @Path("{" + GET_BANK_ACCOUNT_BY_ID_PATH + "}/" + TRANSACTIONS_PATH)
+    public void getBankAccountTransactions(@PathParam(GET_BANK_ACCOUNT_BY_ID_PATH) Long id,
+                                           @QueryParam(PagingUtils.BEFORE_PARAM) Long before,
+                                           @QueryParam(PagingUtils.LIMIT_PARAM)
+                                           @DefaultValue(PagingUtils.DEFAULT_LIMIT) int limit,
+                                           @Suspended AsyncResponse asyncResponse) {
+        PagingUtils.verifyLimit(limit);
+
+        AsyncResponses.resume(asyncResponse, () -> {
+            if (bankAccountService.getBankAccountById(id) == null) {
+                throw new WebApplicationException("The bank account does not exist", Response.Status.NOT_FOUND);
+            }
+
+            return PagingUtils.pageResponse(transactionsService.getBankAccountTransactionsPage(id, before, limit),
+                    limit);
+        });
+    }
+
+    /**
+     * Returns the amounts debited from and credited to the Bank Account by days. Only the daily aggregate is read,
+     * so the cost depends on the number of days and not on the number of transactions.
+     *
+     * @param id   The ID of Bank Account
+     * @param from the first day of the period in <code>yyyy-MM-dd</code> format. 30 days before <code>to</code> by
+     *             default
+     * @param to   the last day of the period in <code>yyyy-MM-dd</code> format, inclusive. Today by default
+     */
+    @GET
+    @Path("{" + GET_BANK_ACCOUNT_BY_ID_PATH + "}/" + TURNOVER_PATH)
+    public void getBankAccountTurnover(@PathParam(GET_BANK_ACCOUNT_BY_ID_PATH) Long id,
+                                       @QueryParam(FROM_PARAM) String from,
+                                       @QueryParam(TO_PARAM) String to,
+                                       @Suspended AsyncResponse asyncResponse) {
+        LocalDate toDate = parseDate(TO_PARAM, to, LocalDate.now());
+        LocalDate fromDate = parseDate(FROM_PARAM, from, toDate.minusDays(DEFAULT_TURNOVER_DAYS));
+
+        if (fromDate.isAfter(toDate)) {
+            throw new WebApplicationException("The period should not end before it starts",
+                    Response.Status.BAD_REQUEST);
         }
 
-        return Response.ok(bankAccount).build();
+        AsyncResponses.resume(asyncResponse, () -> {
+            BankAccount bankAccount = bankAccountService.getBankAccountById(id);
+
+            if (bankAccount == null) {
+                throw new WebApplicationException("The bank account does not exist", Response.Status.NOT_FOUND);
+            }
+
+            return Response.ok(transactionsService.getDailyTurnover(bankAccount, fromDate, toDate)).build();
+        });
     }
 
     /**
@@ -78,16 +167,29 @@ public class BankAccountsController {
      * updated is searching by the ID which has provided object. You can not update <code>balance</code> and/or
      * <code>blockedAmount</code> fields of the object as it is information maintained only by the system.
      *
-     * @param bankAccount the Bank Account object (id should be specified) which will update the data
-     *
-     * @return updated Bank Account object. In general it should be object with the same parameters as provided had
+     * @param bankAccount   the Bank Account object (id should be specified) which will update the data
+     * @param asyncResponse the request resumed with updated Bank Account object. In general it should be object
+     *                      with the same parameters as provided had
      */
     @PUT
-    public Response updateBankAccount(BankAccount bankAccount) throws ObjectModificationException {
-        BankAccountService.getInstance().updateBankAccount(bankAccount);
+    public void updateBankAccount(BankAccount bankAccount, @Suspended AsyncResponse asyncResponse) {
+        AsyncResponses.resume(asyncResponse, () -> {
+            BankAccountService.getInstance().updateBankAccount(bankAccount);
 
-        return Response.ok(bankAccount).build();
+            return Response.ok(bankAccount).build();
+        });
     }
 
+    private static LocalDate parseDate(String name, String value, LocalDate defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
 
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new WebApplicationException("The " + name + " date should be in yyyy-MM-dd format",
+                    Response.Status.BAD_REQUEST);
+        }
+    }
 }
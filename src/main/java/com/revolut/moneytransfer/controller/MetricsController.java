@@ -0,0 +1,37 @@
+package com.revolut.moneytransfer.controller;
+
+import com.revolut.moneytransfer.service.MetricsService;
+import com.revolut.moneytransfer.service.ReloadableMoneyExchangeService;
+import com.revolut.moneytransfer.service.TransactionsService;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * The resource provides the application's telemetry collected by the {@link MetricsService}. The format is chosen
+ * by the <code>Accept</code> header: the Prometheus text format is returned by default and for
+ * <code>text/plain</code>, JSON object is returned for <code>application/json</code>
+ */
+@Path(MetricsController.BASE_URL)
+public class MetricsController {
+    public static final String BASE_URL = "/metrics";
+    private static final String PROMETHEUS_MEDIA_TYPE = "text/plain;version=0.0.4;charset=utf-8";
+
+    private MetricsService metricsService = MetricsService.getInstance();
+    private TransactionsService transactionsService = TransactionsService.getInstance(ReloadableMoneyExchangeService.getInstance());
+
+    @GET
+    @Produces(MediaType.TEXT_PLAIN + ";qs=1")
+    public Response getPrometheusMetrics() {
+        return Response.ok(metricsService.toPrometheus(transactionsService), PROMETHEUS_MEDIA_TYPE).build();
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON + ";qs=0.5")
+    public Response getJsonMetrics() {
+        return Response.ok(metricsService.toJson(transactionsService)).build();
+    }
+}
@@ -0,0 +1,26 @@
+package com.revolut.moneytransfer.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.moneytransfer.model.ModelJsonModule;
+
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Provides Jersey with the object mapper which writes and reads the models by the serializers of
+ * {@link ModelJsonModule} instead of the reflective ones. The same mapper is used by the resources which write
+ * JSON into the response directly, so all endpoints return the models the same way.
+ */
+@Provider
+public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
+    private static final ObjectMapper objectMapper = new ObjectMapper().registerModule(new ModelJsonModule());
+
+    static ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    @Override
+    public ObjectMapper getContext(Class<?> type) {
+        return objectMapper;
+    }
+}
@@ -0,0 +1,85 @@
+package com.revolut.moneytransfer.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.moneytransfer.model.ModelHasId;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Utilities class used by the resources to return big collections. There are two ways:
+ * <ul>
+ * <li>keyset pagination. The page is a JSON array of objects ordered by id. If the page is full the id of the last
+ * object is returned in the <code>X-Next-Cursor</code> header and should be passed as <code>after</code> parameter to
+ * get the next page, or as <code>before</code> one if the newest objects go first</li>
+ * <li>streaming. All objects are written into the response as a JSON array one by one while they are read from
+ * the database, so the response size doesn't affect the memory consumption</li>
+ * </ul>
+ */
+class PagingUtils {
+    static final String AFTER_PARAM = "after";
+    static final String BEFORE_PARAM = "before";
+    static final String LIMIT_PARAM = "limit";
+    static final String STREAM_PARAM = "stream";
+    static final String DEFAULT_LIMIT = "100";
+    static final int MAX_LIMIT = 1000;
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final ObjectMapper objectMapper = ObjectMapperProvider.getObjectMapper();
+
+    private PagingUtils() {
+    }
+
+    /**
+     * @throws WebApplicationException with BAD REQUEST status if the page limit is out of range
+     */
+    static void verifyLimit(int limit) {
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new WebApplicationException("The limit should be between 1 and " + MAX_LIMIT,
+                    Response.Status.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * @param page  the page of objects ordered by id
+     * @param limit the limit the page has been requested with
+     *
+     * @return the response with the page and the cursor of the next page if there could be one
+     */
+    static <T extends ModelHasId> Response pageResponse(List<T> page, int limit) {
+        Response.ResponseBuilder response = Response.ok(page);
+
+        if (page.size() == limit) {
+            response.header(NEXT_CURSOR_HEADER, page.get(page.size() - 1).getId());
+        }
+
+        return response.build();
+    }
+
+    /**
+     * Creates the output which writes a JSON array of the objects passed by the producer
+     *
+     * @param producer the function which passes all objects to be written to the consumer provided
+     */
+    static <T> StreamingOutput jsonArrayOutput(Consumer<Consumer<T>> producer) {
+        return outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartArray();
+                producer.accept(object -> {
+                    try {
+                        generator.writeObject(object);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            }
+        };
+    }
+}
@@ -0,0 +1,122 @@
+package com.revolut.moneytransfer.controller;
+
+import com.revolut.moneytransfer.service.LatencyHistogram;
+import com.revolut.moneytransfer.service.MetricsService;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Records the latency of every request matched to a resource method into the {@link MetricsService}. The endpoint
+ * is named by the resource class and method, e.g. <code>TransactionsController.createTransaction</code>.
+ * The histogram of the method is resolved once and cached, so the recording itself does not allocate.
+ * <p>
+ * The start time is kept in the mutable holder instead of the boxed <code>Long</code>. Holders are taken from the
+ * fixed pool and returned once the response of their request is filtered, which could happen on another thread when
+ * the request is suspended by {@link javax.ws.rs.container.AsyncResponse}. The search of the free holder starts from
+ * the slot of the current thread, so it is usually found by the first attempt. Only when all
+ * {@value #POOL_SIZE} holders are taken by the requests in flight the new one is allocated.
+ */
+@Provider
+public class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+    private static final String START_TIME_PROPERTY = RequestMetricsFilter.class.getName() + ".startTime";
+
+    private static final int POOL_SIZE = 256;
+
+    private static final ConcurrentMap<Method, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final StartTime[] pool = new StartTime[POOL_SIZE];
+
+    static {
+        for (int i = 0; i < POOL_SIZE; i++) {
+            pool[i] = new StartTime(true);
+        }
+    }
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        StartTime startTime = acquire();
+
+        startTime.nanos = System.nanoTime();
+        requestContext.setProperty(START_TIME_PROPERTY, startTime);
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        StartTime startTime = (StartTime) requestContext.getProperty(START_TIME_PROPERTY);
+        if (startTime == null) {
+            return;
+        }
+
+        long duration = System.nanoTime() - startTime.nanos;
+        startTime.release();
+
+        Method method = resourceInfo.getResourceMethod();
+        if (method != null) {
+            histogramOf(method).record(duration, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return the free holder of the pool or the new one if all of them are taken
+     */
+    private static StartTime acquire() {
+        int first = (int) Thread.currentThread().getId();
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            StartTime startTime = pool[(first + i) & (POOL_SIZE - 1)];
+
+            if (startTime.tryAcquire()) {
+                return startTime;
+            }
+        }
+
+        return new StartTime(false);
+    }
+
+    private LatencyHistogram histogramOf(Method method) {
+        LatencyHistogram histogram = histograms.get(method);
+
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(method, m -> MetricsService.getInstance().getEndpointLatency(
+                    resourceInfo.getResourceClass().getSimpleName() + "." + m.getName()));
+        }
+
+        return histogram;
+    }
+
+    private static final class StartTime {
+        private static final AtomicIntegerFieldUpdater<StartTime> BUSY =
+                AtomicIntegerFieldUpdater.newUpdater(StartTime.class, "busy");
+
+        private final boolean pooled;
+        private volatile int busy;
+        private long nanos;
+
+        private StartTime(boolean pooled) {
+            this.pooled = pooled;
+        }
+
+        private boolean tryAcquire() {
+            return busy == 0 && BUSY.compareAndSet(this, 0, 1);
+        }
+
+        private void release() {
+            if (pooled) {
+                busy = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.revolut.moneytransfer.controller;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.ExceptionType;
+import com.revolut.moneytransfer.model.Transaction;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the body of the batch request item by item. Two formats are supported:
+ * <ul>
+ * <li>JSON array of transactions</li>
+ * <li>NDJSON - one JSON transaction per line. Blank lines are skipped</li>
+ * </ul>
+ * The item which could not be mapped to the transaction doesn't fail the whole batch. It is added as null and its
+ * error is kept by its index. Only the broken JSON array itself makes the request malformed.
+ * <p>
+ * The batch is rejected as soon as it has more items than allowed, so the rest of the body is neither read nor parsed.
+ */
+class TransactionBatchReader {
+    static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+
+    private static final ObjectMapper objectMapper = ObjectMapperProvider.getObjectMapper();
+
+    private final int maxSize;
+    private final List<Transaction> transactions = new ArrayList<>();
+    private final Map<Integer, String> errors = new LinkedHashMap<>();
+
+    private TransactionBatchReader(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param maxSize the maximum number of items in the batch
+     *
+     * @throws WebApplicationException with BAD REQUEST status if the body is not a JSON array
+     * @throws ObjectModificationException if the batch has more than <code>maxSize</code> items
+     */
+    static TransactionBatchReader readJsonArray(InputStream inputStream, int maxSize)
+            throws IOException, ObjectModificationException {
+        TransactionBatchReader reader = new TransactionBatchReader(maxSize);
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(inputStream)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new WebApplicationException("The batch should be a JSON array", Response.Status.BAD_REQUEST);
+            }
+
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                reader.checkSize();
+                reader.add(parser.readValueAsTree());
+            }
+        } catch (JsonParseException e) {
+            throw new WebApplicationException(e.getOriginalMessage(), Response.Status.BAD_REQUEST);
+        }
+
+        return reader;
+    }
+
+    /**
+     * @param maxSize the maximum number of items in the batch
+     *
+     * @throws ObjectModificationException if the batch has more than <code>maxSize</code> items
+     */
+    static TransactionBatchReader readNdjson(InputStream inputStream, int maxSize)
+            throws IOException, ObjectModificationException {
+        TransactionBatchReader reader = new TransactionBatchReader(maxSize);
+
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                reader.checkSize();
+                try {
+                    reader.add(objectMapper.readTree(line));
+                } catch (JsonProcessingException e) {
+                    reader.addError(e.getOriginalMessage());
+                }
+            }
+        }
+
+        return reader;
+    }
+
+    /**
+     * @return read transactions in the order of the batch. Unreadable items are null
+     */
+    List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * @return the errors of unreadable items by their indexes
+     */
+    Map<Integer, String> getErrors() {
+        return errors;
+    }
+
+    private void checkSize() throws ObjectModificationException {
+        if (transactions.size() >= maxSize) {
+            throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED,
+                    "The batch should not contain more than " + maxSize + " transactions");
+        }
+    }
+
+    private void add(JsonNode item) {
+        try {
+            transactions.add(objectMapper.treeToValue(item, Transaction.class));
+        } catch (JsonProcessingException e) {
+            addError(e.getOriginalMessage());
+        }
+    }
+
+    private void addError(String message) {
+        errors.put(transactions.size(), message);
+        transactions.add(null);
+    }
+}
@@ -0,0 +1,167 @@
+package com.revolut.moneytransfer.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.moneytransfer.model.Transaction;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The formats of the transactions export. Every transaction is written into the output as soon as it is read from
+ * the database, so the memory consumption doesn't depend on the number of exported transactions:
+ * <ul>
+ * <li>NDJSON - one JSON transaction per line, the same fields the other endpoints return</li>
+ * <li>CSV - the header line and one line per transaction. Dates are the number of milliseconds since the epoch</li>
+ * </ul>
+ */
+enum TransactionExportFormat {
+    NDJSON("ndjson", TransactionBatchReader.NDJSON_MEDIA_TYPE) {
+        @Override
+        void write(OutputStream outputStream, Consumer<Consumer<Transaction>> producer) throws IOException {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                //Lines are separated explicitly instead of the default space between root values
+                generator.setRootValueSeparator(null);
+                producer.accept(transaction -> {
+                    try {
+                        generator.writeObject(transaction);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        }
+    },
+    CSV("csv", TransactionExportFormat.CSV_MEDIA_TYPE) {
+        @Override
+        void write(OutputStream outputStream, Consumer<Consumer<Transaction>> producer) throws IOException {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8),
+                    BUFFER_SIZE)) {
+                writer.write(CSV_HEADER);
+                producer.accept(transaction -> {
+                    try {
+                        writeCsvLine(writer, transaction);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        }
+    };
+
+    static final String FORMAT_PARAM = "format";
+    static final String CSV_MEDIA_TYPE = "text/csv";
+    static final String GZIP_ENCODING = "gzip";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String CSV_HEADER =
+            "id,fromBankAccountId,toBankAccountId,amount,currency,creationDate,updateDate,status,rateVersion," +
+                    "failMessage\n";
+    private static final ObjectMapper objectMapper = ObjectMapperProvider.getObjectMapper();
+
+    private final String name;
+    private final String mediaType;
+
+    TransactionExportFormat(String name, String mediaType) {
+        this.name = name;
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * @throws WebApplicationException with BAD REQUEST status if the format is unknown
+     */
+    static TransactionExportFormat of(String name) {
+        for (TransactionExportFormat format : values()) {
+            if (format.name.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+
+        throw new WebApplicationException("The format should be ndjson or csv", Response.Status.BAD_REQUEST);
+    }
+
+    String getMediaType() {
+        return mediaType;
+    }
+
+    String getFileName() {
+        return "transactions." + name;
+    }
+
+    /**
+     * Creates the output which writes the transactions passed by the producer in this format
+     *
+     * @param producer the function which passes all transactions to be written to the consumer provided
+     * @param gzip     if true the output is compressed by gzip
+     */
+    StreamingOutput output(Consumer<Consumer<Transaction>> producer, boolean gzip) {
+        return outputStream -> write(gzip ? new GZIPOutputStream(outputStream, BUFFER_SIZE) : outputStream, producer);
+    }
+
+    /**
+     * Writes all transactions passed by the producer into the output stream and closes it, so the gzip trailer is
+     * written as well
+     */
+    abstract void write(OutputStream outputStream, Consumer<Consumer<Transaction>> producer) throws IOException;
+
+    private static void writeCsvLine(Writer writer, Transaction transaction) throws IOException {
+        writer.write(String.valueOf(transaction.getId()));
+        writer.write(',');
+        writer.write(String.valueOf(transaction.getFromBankAccountId()));
+        writer.write(',');
+        writer.write(String.valueOf(transaction.getToBankAccountId()));
+        writer.write(',');
+        writer.write(transaction.getAmount().toBigDecimal().toPlainString());
+        writer.write(',');
+        writer.write(transaction.getCurrency().name());
+        writer.write(',');
+        writeCsvDate(writer, transaction.getCreationDate());
+        writer.write(',');
+        writeCsvDate(writer, transaction.getUpdateDate());
+        writer.write(',');
+        writer.write(transaction.getStatus().name());
+        writer.write(',');
+        if (transaction.getRateVersion() != null) {
+            writer.write(String.valueOf(transaction.getRateVersion()));
+        }
+        writer.write(',');
+        writeCsvString(writer, transaction.getFailMessage());
+        writer.write('\n');
+    }
+
+    private static void writeCsvDate(Writer writer, Date date) throws IOException {
+        if (date != null) {
+            writer.write(String.valueOf(date.getTime()));
+        }
+    }
+
+    /**
+     * Writes the value quoted by RFC 4180 rules if it has commas, quotes or line breaks
+     */
+    private static void writeCsvString(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
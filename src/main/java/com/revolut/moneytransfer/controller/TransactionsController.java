@@ -1,20 +1,33 @@
 package com.revolut.moneytransfer.controller;
 
 import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.ApplicationException;
+import com.revolut.moneytransfer.model.BatchItemResult;
+import com.revolut.moneytransfer.model.ExceptionType;
 import com.revolut.moneytransfer.model.Transaction;
-import com.revolut.moneytransfer.service.ConstantMoneyExchangeService;
+import com.revolut.moneytransfer.service.ReloadableMoneyExchangeService;
 import com.revolut.moneytransfer.service.TransactionsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The resource is responsible for the Transaction entity. Make it possible to create
  * and provide transactions. There is no ability to update an existing transaction as it is controversial operation
- * for this type of object. This object could be modified only by the system itself
+ * for this type of object. This object could be modified only by the system itself.
+ * All requests are processed asynchronously by the {@link AsyncResponses}
  */
 @Path(TransactionsController.BASE_URL)
 @Produces(MediaType.APPLICATION_JSON)
@@ -23,28 +36,97 @@ public class TransactionsController {
 
     public static final String BASE_URL = "/transactions";
     public static final String GET_TRANSACTION_BY_ID_PATH = "id";
+    public static final String BATCH_PATH = "batch";
+    public static final String EXPORT_PATH = "export";
+    public static final String FROM_PARAM = "from";
+    public static final String TO_PARAM = "to";
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
 
-    private TransactionsService transactionsService = TransactionsService.getInstance(new ConstantMoneyExchangeService());
+    private TransactionsService transactionsService = TransactionsService.getInstance(ReloadableMoneyExchangeService.getInstance());
 
     /**
-     * Returns all transactions in the system with there statuses
+     * Returns transactions in the system with there statuses ordered by id page by page. The cursor of the next page
+     * is returned in the <code>X-Next-Cursor</code> header once the page is full.
+     *
+     * @param after  the cursor of the page. The first page is returned if it is absent
+     * @param limit  the maximum number of transactions in the page
+     * @param stream if true all transactions after the cursor are streamed into the response instead of one page
      */
     @GET
-    public Response getAllTransactions() {
-        return Response.ok().entity(transactionsService.getAllTransactions()).build();
+    public void getAllTransactions(@QueryParam(PagingUtils.AFTER_PARAM) Long after,
+                                   @QueryParam(PagingUtils.LIMIT_PARAM)
+                                   @DefaultValue(PagingUtils.DEFAULT_LIMIT) int limit,
+                                   @QueryParam(PagingUtils.STREAM_PARAM) boolean stream,
+                                   @Suspended AsyncResponse asyncResponse) {
+        if (!stream) {
+            PagingUtils.verifyLimit(limit);
+        }
+
+        AsyncResponses.resume(asyncResponse, () -> {
+            if (stream) {
+                return Response.ok(PagingUtils.<Transaction>jsonArrayOutput(
+                        consumer -> transactionsService.streamTransactions(after, consumer))).build();
+            }
+
+            return PagingUtils.pageResponse(transactionsService.getTransactionsPage(after, limit), limit);
+        });
     }
 
     /**
-     * Returns transaction by specified ID
+     * Exports transactions created in the period. Rows are written into the response as they are read by the
+     * forward-only database cursor, so the heap usage doesn't depend on the size of the export. The response has no
+     * length and is sent by chunks. It is compressed by gzip once the client accepts it.
      *
-     * @param id transaction ID
+     * @param format         <code>ndjson</code> (by default) or <code>csv</code>
+     * @param from           the first day of the period in <code>yyyy-MM-dd</code> format. All transactions created
+     *                       before <code>to</code> are exported if it is absent
+     * @param to             the last day of the period in <code>yyyy-MM-dd</code> format, inclusive. All transactions
+     *                       created since <code>from</code> are exported if it is absent
+     * @param acceptEncoding the encodings accepted by the client
+     */
+    @GET
+    @Path(EXPORT_PATH)
+    @Produces({TransactionBatchReader.NDJSON_MEDIA_TYPE, TransactionExportFormat.CSV_MEDIA_TYPE,
+            MediaType.APPLICATION_JSON})
+    public void exportTransactions(@QueryParam(TransactionExportFormat.FORMAT_PARAM) @DefaultValue("ndjson")
+                                           String format,
+                                   @QueryParam(FROM_PARAM) String from,
+                                   @QueryParam(TO_PARAM) String to,
+                                   @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+                                   @Suspended AsyncResponse asyncResponse) {
+        TransactionExportFormat exportFormat = TransactionExportFormat.of(format);
+        LocalDate fromDate = parseDate(FROM_PARAM, from);
+        LocalDate toDate = parseDate(TO_PARAM, to);
+        boolean gzip = acceptEncoding != null &&
+                acceptEncoding.toLowerCase().contains(TransactionExportFormat.GZIP_ENCODING);
+
+        AsyncResponses.resume(asyncResponse, () -> {
+            Response.ResponseBuilder response = Response.ok(exportFormat.output(
+                    consumer -> transactionsService.exportTransactions(fromDate, toDate, consumer), gzip),
+                    exportFormat.getMediaType())
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + exportFormat.getFileName() + "\"")
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+            if (gzip) {
+                response.header(HttpHeaders.CONTENT_ENCODING, TransactionExportFormat.GZIP_ENCODING);
+            }
+
+            return response.build();
+        });
+    }
+
+    /**
+     * Returns transaction by specified ID
      *
-     * @return Transaction with the ID provided
+     * @param id            transaction ID
+     * @param asyncResponse the request resumed with Transaction with the ID provided
      */
     @GET()
     @Path("{" + GET_TRANSACTION_BY_ID_PATH + "}")
-    public Response getTransactionById(@PathParam(GET_TRANSACTION_BY_ID_PATH) Long id) {
-        return Response.ok().entity(transactionsService.getTransactionById(id)).build();
+    public void getTransactionById(@PathParam(GET_TRANSACTION_BY_ID_PATH) Long id,
+                                   @Suspended AsyncResponse asyncResponse) {
+        AsyncResponses.resume(asyncResponse,
+                () -> Response.ok().entity(transactionsService.getTransactionById(id)).build());
     }
 
     /**
@@ -55,13 +137,76 @@ public class TransactionsController {
      * @param transaction The transaction object which should be created. The only required fields are:
      *                    <code>fromBankAccountId, toBankAccountId, amount, currency</code>. All other parameters
      *                    will be ignored and created by the system
+     * @param idempotencyKey the optional key of the request. The retry with the same key returns the transaction
+     *                       created by the first request instead of creating another one
+     * @param asyncResponse  the request resumed with created and updated transaction object provided
+     */
+    @POST()
+    public void createTransaction(Transaction transaction,
+                                  @HeaderParam(IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+                                  @Suspended AsyncResponse asyncResponse) {
+        AsyncResponses.resume(asyncResponse, () -> Response.ok()
+                .entity(transactionsService.createTransaction(transaction, idempotencyKey))
+                .build());
+    }
+
+    /**
+     * Makes it possible to create a lot of money transfers by one request. Every transaction is validated by the same
+     * rules as in {@link #createTransaction(Transaction, String, AsyncResponse)}. Valid transactions are created in as
+     * few database's transactions as possible, invalid ones are reported and don't prevent the creation of the rest
+     * of them. The body is read by the HTTP worker thread, only the creation is done by the database executor.
      *
-     * @return created and updated transaction object provided
+     * @param body          JSON array of transactions
+     * @param asyncResponse the request resumed with the result of every transaction in the order they are provided:
+     *                      the created transaction or the error
      */
     @POST()
-    public Response createTransaction(Transaction transaction) throws ObjectModificationException {
-        transaction = transactionsService.createTransaction(transaction);
+    @Path(BATCH_PATH)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public void createTransactions(InputStream body, @Suspended AsyncResponse asyncResponse)
+            throws IOException, ObjectModificationException {
+        createTransactions(TransactionBatchReader.readJsonArray(body, transactionsService.getMaxBatchSize()),
+                asyncResponse);
+    }
+
+    /**
+     * The form of {@link #createTransactions(InputStream, AsyncResponse)} which accepts one JSON transaction per line,
+     * so the client could stream the batch without building the whole array
+     *
+     * @param body NDJSON transactions
+     */
+    @POST()
+    @Path(BATCH_PATH)
+    @Consumes(TransactionBatchReader.NDJSON_MEDIA_TYPE)
+    public void createTransactionsFromNdjson(InputStream body, @Suspended AsyncResponse asyncResponse)
+            throws IOException, ObjectModificationException {
+        createTransactions(TransactionBatchReader.readNdjson(body, transactionsService.getMaxBatchSize()),
+                asyncResponse);
+    }
+
+    private void createTransactions(TransactionBatchReader batch, AsyncResponse asyncResponse) {
+        AsyncResponses.resume(asyncResponse, () -> {
+            List<BatchItemResult> results = transactionsService.createTransactions(batch.getTransactions());
+
+            for (Map.Entry<Integer, String> error : batch.getErrors().entrySet()) {
+                results.set(error.getKey(), BatchItemResult.failed(error.getKey(),
+                        new ApplicationException(ExceptionType.OBJECT_IS_MALFORMED, error.getValue())));
+            }
+
+            return Response.ok().entity(results).build();
+        });
+    }
+
+    private static LocalDate parseDate(String name, String value) {
+        if (value == null) {
+            return null;
+        }
 
-        return Response.ok().entity(transaction).build();
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new WebApplicationException("The " + name + " date should be in yyyy-MM-dd format",
+                    Response.Status.BAD_REQUEST);
+        }
     }
 }
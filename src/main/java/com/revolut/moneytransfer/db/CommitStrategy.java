@@ -0,0 +1,20 @@
+package com.revolut.moneytransfer.db;
+
+/**
+ * Defines when the changes committed into the file database are written to the disk. Used only by the
+ * {@link StorageMode#FILE} storage.
+ */
+public enum CommitStrategy {
+    /**
+     * Every commit is written into the file before it returns, so nothing committed is lost once the process crashes.
+     * The file is not forced to the disk by <code>fsync</code>, so the commits still held by the operating system
+     * could be lost on the power loss or the kernel crash. The {@link com.revolut.moneytransfer.dto.WriteAheadLog}
+     * forces its records to the disk
+     */
+    SYNC,
+    /**
+     * Commits are written by the background thread every <code>moneytransfer.db.writeDelay</code> milliseconds.
+     * The database stays consistent after the process crash, but the commits of the last delay are lost
+     */
+    DELAYED
+}
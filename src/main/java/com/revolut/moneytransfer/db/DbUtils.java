@@ -6,6 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
+import java.util.List;
 import java.util.function.BiConsumer;
 
 /**
@@ -14,8 +15,16 @@ import java.util.function.BiConsumer;
 public class DbUtils {
     private static final Logger log = LoggerFactory.getLogger(DbUtils.class);
 
+    /**
+     * The number of rows fetched at once by the streaming queries
+     */
+    public static final int STREAM_FETCH_SIZE = Integer.getInteger("moneytransfer.stream.fetchSize", 1000);
+
     private static final DbUtils dbUtils = new DbUtils();
 
+    private final StatementCache statementCache =
+            new StatementCache(Integer.getInteger("moneytransfer.db.statementCacheSize", 64));
+
     private DbUtils() {
     }
 
@@ -49,14 +58,16 @@ public class DbUtils {
     public <E> QueryResult<E> executeQuery(String query, QueryExecutor<E> queryExecutor) {
         Connection con = null;
         PreparedStatement preparedStatement = null;
+        boolean succeed = false;
 
         try {
             con = H2DataSource.getConnection();
-            preparedStatement = con.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
+            preparedStatement = statementCache.prepare(con, query, false);
 
             QueryResult<E> qr = new QueryResult<>(queryExecutor.execute(preparedStatement));
 
             con.commit();
+            succeed = true;
 
             return qr;
         } catch (Throwable th) {
@@ -64,8 +75,42 @@ public class DbUtils {
             log.error("Unexpected exception", th);
             throw new ImpossibleOperationExecution(th);
         } finally {
-            quietlyClose(preparedStatement);
+            statementCache.release(con, query, false, preparedStatement, succeed);
+
+            quietlyClose(con);
+        }
+    }
+
+    /**
+     * The fast form of <code>executeQuery</code> method for the read only queries. The connection is marked as read
+     * only, the prepared statement is forward only and doesn't return generated keys. Nothing is committed as
+     * nothing has been changed. The query should not change anything.
+     *
+     * @param query         the query string which will be passed into <code>Connection.preparedStatement</code> method
+     * @param queryExecutor the executor with only one method accepting <code>PreparedStatement</code> instance created
+     * @return query result object with the only method <code>getResult</code> returns the result of queryExecutor
+     */
+    public <E> QueryResult<E> executeReadOnlyQuery(String query, QueryExecutor<E> queryExecutor) {
+        Connection con = null;
+        PreparedStatement preparedStatement = null;
+        boolean succeed = false;
+
+        try {
+            con = H2DataSource.getConnection();
+            con.setReadOnly(true);
+            preparedStatement = statementCache.prepare(con, query, true);
+
+            QueryResult<E> qr = new QueryResult<>(queryExecutor.execute(preparedStatement));
+            succeed = true;
+
+            return qr;
+        } catch (Throwable th) {
+            log.error("Unexpected exception", th);
+            throw new ImpossibleOperationExecution(th);
+        } finally {
+            statementCache.release(con, query, true, preparedStatement, succeed);
 
+            //The pool makes the connection writable again once it is returned
             quietlyClose(con);
         }
     }
@@ -82,16 +127,79 @@ public class DbUtils {
      */
     public <E> QueryResult<E> executeQueryInConnection(Connection con, String query, QueryExecutor<E> queryExecutor) {
         PreparedStatement preparedStatement = null;
+        boolean succeed = false;
 
         try {
-            preparedStatement = con.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
+            preparedStatement = statementCache.prepare(con, query, false);
+
+            QueryResult<E> qr = new QueryResult<>(queryExecutor.execute(preparedStatement));
+            succeed = true;
 
-            return new QueryResult<>(queryExecutor.execute(preparedStatement));
+            return qr;
         } catch (Throwable th) {
             log.error("Unexpected exception", th);
             throw new ImpossibleOperationExecution(th);
+        } finally {
+            statementCache.release(con, query, false, preparedStatement, succeed);
+        }
+    }
+
+    /**
+     * The form of <code>executeQuery</code> method for the read only queries which result is processed row by row
+     * and should not be held in memory entirely. The prepared statement is forward only with the fetch size provided.
+     * H2 lazy query execution is enabled for the connection while the query is executed, so H2 doesn't materialize
+     * the whole result before the first row is returned.
+     *
+     * @param query         the query string which will be passed into <code>Connection.preparedStatement</code> method
+     * @param fetchSize     the number of rows fetched from the database at once
+     * @param queryExecutor the executor with only one method accepting <code>PreparedStatement</code> instance created
+     * @return query result object with the only method <code>getResult</code> returns the result of queryExecutor
+     */
+    public <E> QueryResult<E> executeStreamingQuery(String query, int fetchSize, QueryExecutor<E> queryExecutor) {
+        Connection con = null;
+        PreparedStatement preparedStatement = null;
+
+        try {
+            con = H2DataSource.getConnection();
+            setLazyQueryExecution(con, true);
+
+            preparedStatement = con.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            preparedStatement.setFetchSize(fetchSize);
+
+            QueryResult<E> qr = new QueryResult<>(queryExecutor.execute(preparedStatement));
+
+            con.commit();
+
+            return qr;
+        } catch (Throwable th) {
+            safeRollback(con);
+            log.error("Unexpected exception", th);
+            throw new ImpossibleOperationExecution(th);
         } finally {
             quietlyClose(preparedStatement);
+
+            if (con != null) {
+                try {
+                    setLazyQueryExecution(con, false);
+                } catch (SQLException e) {
+                    log.error("Unexpected exception", e);
+                }
+            }
+
+            quietlyClose(con);
+        }
+    }
+
+    /**
+     * @return the cache of prepared statements used by the queries
+     */
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    private static void setLazyQueryExecution(Connection con, boolean enabled) throws SQLException {
+        try (Statement statement = con.createStatement()) {
+            statement.execute("SET LAZY_QUERY_EXECUTION " + (enabled ? 1 : 0));
         }
     }
 
@@ -106,8 +214,14 @@ public class DbUtils {
 
     }
 
+    /**
+     * Closes the connection returning it into the pool. The cached statements of the connection are closed by the
+     * pool, so they are evicted from the cache
+     */
     public static void quietlyClose(Connection con) {
         if (con != null) {
+            dbUtils.statementCache.evict(con);
+
             try {
                 con.close();
             } catch (SQLException e) {
@@ -199,4 +313,47 @@ public class DbUtils {
 
         }
     }
+
+    /**
+     * Batch form of {@link CreationQueryExecutor}. All objects are inserted by one JDBC batch and the generated IDs
+     * are assigned to them in the order they have been added to the batch.
+     * <p>
+     * The result will be the list of updated objects provided
+     *
+     * @param <T> - the objects which should be inserted. Used to fill in prepared statement
+     */
+    public static class BatchCreationQueryExecutor<T extends ModelHasId> implements QueryExecutor<List<T>> {
+        private List<T> objects;
+        private BiConsumer<PreparedStatement, T> fillInPreparedStatement;
+
+        public BatchCreationQueryExecutor(List<T> objects, BiConsumer<PreparedStatement, T> fillInPreparedStatement) {
+            this.objects = objects;
+            this.fillInPreparedStatement = fillInPreparedStatement;
+        }
+
+        @Override
+        public List<T> execute(PreparedStatement preparedStatement) throws SQLException {
+            if (objects.isEmpty()) {
+                return objects;
+            }
+
+            for (T object : objects) {
+                fillInPreparedStatement.accept(preparedStatement, object);
+                preparedStatement.addBatch();
+            }
+
+            preparedStatement.executeBatch();
+
+            try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+                for (T object : objects) {
+                    if (!generatedKeys.next()) {
+                        throw new SQLException("The IDs have not been generated for all objects of the batch");
+                    }
+                    object.setId(generatedKeys.getLong(1));
+                }
+            }
+
+            return objects;
+        }
+    }
 }
@@ -2,15 +2,31 @@ package com.revolut.moneytransfer.db;
 
 import com.revolut.moneytransfer.exceptions.ImpossibleOperationExecution;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides a singleton object which has <code>getConnection</code> method and abstracts the application from the
  * particular database implementation.
+ * <p>
+ * The database is held in memory by default. Once <code>moneytransfer.db.mode</code> is set to
+ * {@link StorageMode#FILE} it is held in the H2 MVStore file <code>moneytransfer.db.path</code> and survives restarts.
+ * The file storage is tuned by <code>moneytransfer.db.cacheSize</code> (the page cache size in KB),
+ * <code>moneytransfer.db.commitStrategy</code> and <code>moneytransfer.db.writeDelay</code>.
+ * <p>
+ * H2 keeps up to <code>moneytransfer.db.queryCacheSize</code> parsed queries (64 by default) per session, so the
+ * statements prepared again by the next borrower of the connection are not parsed and planned second time.
+ * <p>
+ * The schema is created by the idempotent DDL on every start, but the initial data is inserted only into the new
+ * database. Opening the existing MVStore file reads only its latest chunk, so the start time doesn't depend on the
+ * number of transactions stored.
  *
  * TODO: Use the interface and provide this object into DTO class constructor directly. To be able replace the database
  *  implementation easily
@@ -18,22 +34,27 @@ import java.sql.SQLException;
 public class H2DataSource {
     private static final Logger log = LoggerFactory.getLogger(H2DataSource.class);
 
+    public static final String MODE_PROPERTY = "moneytransfer.db.mode";
+    public static final String PATH_PROPERTY = "moneytransfer.db.path";
+    public static final String CACHE_SIZE_PROPERTY = "moneytransfer.db.cacheSize";
+    public static final String COMMIT_STRATEGY_PROPERTY = "moneytransfer.db.commitStrategy";
+    public static final String WRITE_DELAY_PROPERTY = "moneytransfer.db.writeDelay";
+    public static final String QUERY_CACHE_SIZE_PROPERTY = "moneytransfer.db.queryCacheSize";
+
+    private static final String MEMORY_URL = "jdbc:h2:mem:test;DB_CLOSE_DELAY=-1;TRACE_LEVEL_FILE=4";
+
     private static final HikariDataSource ds;
 
     static {
-        ds = new HikariDataSource();
-        //initializing the in-memry H2 database and initialize it by the schema and some initial data
-        ds.setJdbcUrl("jdbc:h2:mem:test;" +
-                "INIT=RUNSCRIPT FROM 'classpath:db_schema/schema.sql'\\;RUNSCRIPT FROM 'classpath:db_schema/init_data.sql';" +
-                "TRACE_LEVEL_FILE=4");
-        //TODO login and password should be provided trough system variables
-        ds.setUsername("sa");
-        ds.setPassword("sa");
-        //We are using frequently manual transaction management in the app. So we don't want to have transaction
-        //commit for each request
-        ds.setAutoCommit(false);
+        StorageMode mode = StorageMode.valueOf(System.getProperty(MODE_PROPERTY, StorageMode.MEMORY.name()));
+        String url = mode == StorageMode.MEMORY ? MEMORY_URL : fileUrl(
+                System.getProperty(PATH_PROPERTY, "./data/moneytransfer"),
+                Integer.getInteger(CACHE_SIZE_PROPERTY, 65536),
+                CommitStrategy.valueOf(System.getProperty(COMMIT_STRATEGY_PROPERTY, CommitStrategy.SYNC.name())),
+                Integer.getInteger(WRITE_DELAY_PROPERTY, 500));
 
-        log.info("The database has been initialized");
+        ds = open(url + ";QUERY_CACHE_SIZE=" + Integer.getInteger(QUERY_CACHE_SIZE_PROPERTY, 64),
+                Integer.getInteger("moneytransfer.db.poolSize", 10));
     }
 
     private H2DataSource() {}
@@ -46,4 +67,96 @@ public class H2DataSource {
         }
 
     }
+
+    /**
+     * @return the maximum number of the database connections
+     */
+    public static int getMaximumPoolSize() {
+        return ds.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the statistics of the connection pool or null if the pool has not been started yet
+     */
+    public static HikariPoolMXBean getPoolStatistics() {
+        return ds.getHikariPoolMXBean();
+    }
+
+    /**
+     * Closes all connections. The file database is closed cleanly once its last connection is closed, so it
+     * doesn't need the recovery on the next start
+     */
+    public static void close() {
+        ds.close();
+    }
+
+    /**
+     * Builds the URL of the file database. The database is not closed on the JVM exit by H2 itself, as the
+     * application could write into it from its own shutdown hooks. Once the process is killed the MVStore simply
+     * opens the last chunk written.
+     *
+     * @param path             the path of the database file without the <code>.mv.db</code> extension
+     * @param cacheSizeKb      the size of the page cache in KB
+     * @param commitStrategy   defines when commits are written to the disk
+     * @param writeDelayMillis the delay of writing commits for the {@link CommitStrategy#DELAYED} strategy
+     */
+    public static String fileUrl(String path, int cacheSizeKb, CommitStrategy commitStrategy, int writeDelayMillis) {
+        return "jdbc:h2:file:" + path + ";MV_STORE=TRUE;DB_CLOSE_ON_EXIT=FALSE" +
+                ";CACHE_SIZE=" + cacheSizeKb +
+                ";WRITE_DELAY=" + (commitStrategy == CommitStrategy.SYNC ? 0 : writeDelayMillis) +
+                ";TRACE_LEVEL_FILE=4";
+    }
+
+    /**
+     * Creates the connection pool of the database and initializes the database if it is new
+     *
+     * @param url      the JDBC URL of the database
+     * @param poolSize the maximum number of the database connections
+     */
+    public static HikariDataSource open(String url, int poolSize) {
+        long start = System.nanoTime();
+
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(url);
+        //TODO login and password should be provided trough system variables
+        dataSource.setUsername("sa");
+        dataSource.setPassword("sa");
+        //We are using frequently manual transaction management in the app. So we don't want to have transaction
+        //commit for each request
+        dataSource.setAutoCommit(false);
+        dataSource.setMaximumPoolSize(poolSize);
+
+        try (Connection con = dataSource.getConnection()) {
+            initialize(con);
+        } catch (SQLException e) {
+            dataSource.close();
+            throw new ImpossibleOperationExecution(e);
+        }
+
+        log.info("The database {} has been opened in {} ms", url,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        return dataSource;
+    }
+
+    /**
+     * Creates the schema objects which don't exist yet and fills in the initial data once the database is new
+     */
+    private static void initialize(Connection con) throws SQLException {
+        boolean isNew;
+        try (ResultSet tables = con.getMetaData().getTables(null, null, "BANK_ACCOUNT", null)) {
+            isNew = !tables.next();
+        }
+
+        try (Statement statement = con.createStatement()) {
+            statement.execute("RUNSCRIPT FROM 'classpath:db_schema/schema.sql'");
+
+            if (isNew) {
+                statement.execute("RUNSCRIPT FROM 'classpath:db_schema/init_data.sql'");
+                log.info("The new database has been initialized");
+            }
+
+            con.commit();
+        }
+    }
 }
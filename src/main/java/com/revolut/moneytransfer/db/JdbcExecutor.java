@@ -0,0 +1,130 @@
+package com.revolut.moneytransfer.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The executor of the blocking database work of the requests. It is sized independently of the HTTP worker threads,
+ * so the requests waiting for the database locks or connections don't occupy the threads serving the HTTP I/O.
+ * <p>
+ * The executor is bounded. It runs up to <code>moneytransfer.db.executor.threads</code> tasks at once (the size of
+ * the connection pool by default) and holds up to <code>moneytransfer.db.executor.queueSize</code> tasks (1000 by
+ * default) waiting for the thread. Further tasks are rejected by {@link RejectedExecutionException}.
+ * <p>
+ * Once <code>moneytransfer.db.executor.virtualThreads</code> is enabled and the JDK supports virtual threads, every
+ * task runs in its own virtual thread. The same number of tasks is accepted then, but they wait for the connection
+ * pool instead of the thread.
+ */
+public class JdbcExecutor {
+    private static final Logger log = LoggerFactory.getLogger(JdbcExecutor.class);
+
+    public static final String THREADS_PROPERTY = "moneytransfer.db.executor.threads";
+    public static final String QUEUE_SIZE_PROPERTY = "moneytransfer.db.executor.queueSize";
+    public static final String VIRTUAL_THREADS_PROPERTY = "moneytransfer.db.executor.virtualThreads";
+
+    private static final JdbcExecutor jdbcExecutor = new JdbcExecutor(
+            Integer.getInteger(THREADS_PROPERTY, H2DataSource.getMaximumPoolSize()),
+            Integer.getInteger(QUEUE_SIZE_PROPERTY, 1000),
+            Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY));
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    JdbcExecutor(int threads, int queueSize, boolean virtualThreads) {
+        ExecutorService virtualThreadsExecutor = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+
+        if (virtualThreadsExecutor != null) {
+            executor = virtualThreadsExecutor;
+        } else {
+            AtomicInteger threadNumber = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "jdbc-executor-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize), threadFactory);
+        }
+
+        permits = new Semaphore(threads + queueSize);
+
+        log.info("JDBC executor started with {} {} threads and the queue of {} tasks", threads,
+                virtualThreadsExecutor != null ? "virtual" : "platform", queueSize);
+    }
+
+    public static JdbcExecutor getInstance() {
+        return jdbcExecutor;
+    }
+
+    /**
+     * Executes the task asynchronously
+     *
+     * @throws RejectedExecutionException if the executor is saturated
+     */
+    public void execute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("The database executor is saturated");
+        }
+
+        inFlight.incrementAndGet();
+
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.decrementAndGet();
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            permits.release();
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of tasks which are running or waiting for the thread
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of tasks rejected as the executor has been saturated
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * The virtual threads are created by reflection as the application is built for Java 8
+     *
+     * @return the executor starting the virtual thread for every task or null if the JDK doesn't support them
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads are not supported by this JDK. Platform threads are used instead");
+            return null;
+        }
+    }
+}
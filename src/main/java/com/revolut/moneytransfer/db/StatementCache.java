@@ -0,0 +1,186 @@
+package com.revolut.moneytransfer.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The cache of prepared statements of every borrowed database connection. The same query is often executed a number
+ * of times before the connection is returned into the pool, e.g. by the batch execution of transactions, and every
+ * time it would allocate the new JDBC statement.
+ * <p>
+ * Up to <code>moneytransfer.db.statementCacheSize</code> statements (64 by default, 0 disables the cache) are held
+ * per connection in the LRU order. Statements are prepared on the connection of the pool, so the pool tracks them as
+ * usual: it rolls the connection back if the work has not been committed and closes the statements once the
+ * connection is returned. Their cache is evicted then by {@link #evict(Connection)}. Parsed queries are reused between
+ * the connections by H2 itself, see <code>moneytransfer.db.queryCacheSize</code> of {@link H2DataSource}.
+ * <p>
+ * The statement is borrowed from the cache while it is used, so nested queries of the same connection never share
+ * it. Read only statements are forward only and don't return generated keys, they are cached separately.
+ * <p>
+ * The connection is used by one thread at a time, so the statements of the connection are not synchronized.
+ */
+public class StatementCache {
+    private static final Logger log = LoggerFactory.getLogger(StatementCache.class);
+
+    private final int maxSize;
+    private final Map<Connection, ConnectionStatements> statements = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    StatementCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("The cache size should not be negative");
+        }
+
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached statement of the connection or prepares the new one. The statement should be returned by
+     * {@link #release(Connection, String, boolean, PreparedStatement, boolean)} once it is not used anymore
+     *
+     * @param readOnly if true the statement is forward only and read only, otherwise it returns generated keys
+     */
+    PreparedStatement prepare(Connection con, String query, boolean readOnly) throws SQLException {
+        if (maxSize == 0) {
+            return prepareStatement(con, query, readOnly);
+        }
+
+        PreparedStatement preparedStatement = statementsOf(con).of(readOnly).remove(query);
+
+        if (preparedStatement != null && !preparedStatement.isClosed()) {
+            hits.incrementAndGet();
+            return preparedStatement;
+        }
+
+        misses.incrementAndGet();
+        return prepareStatement(con, query, readOnly);
+    }
+
+    /**
+     * Returns the statement into the cache. The statement is closed instead if the cache is disabled, the query
+     * has failed or the same statement has been cached by the nested query already
+     *
+     * @param succeed false if the query has failed, so the state of the statement is unknown
+     */
+    void release(Connection con, String query, boolean readOnly, PreparedStatement preparedStatement,
+                 boolean succeed) {
+        if (preparedStatement == null) {
+            return;
+        }
+
+        if (maxSize == 0 || !succeed) {
+            quietlyClose(preparedStatement);
+            return;
+        }
+
+        try {
+            preparedStatement.clearParameters();
+
+            Map<String, PreparedStatement> cached = statementsOf(con).of(readOnly);
+
+            if (cached.putIfAbsent(query, preparedStatement) != null) {
+                quietlyClose(preparedStatement);
+            }
+        } catch (SQLException e) {
+            log.error("Unexpected exception", e);
+            quietlyClose(preparedStatement);
+        }
+    }
+
+    /**
+     * Forgets the statements of the connection which is returned into the pool. They are closed by the pool itself
+     */
+    void evict(Connection con) {
+        statements.remove(con);
+    }
+
+    public long getHitsCount() {
+        return hits.get();
+    }
+
+    public long getMissesCount() {
+        return misses.get();
+    }
+
+    private ConnectionStatements statementsOf(Connection con) {
+        ConnectionStatements connectionStatements = statements.get(con);
+
+        if (connectionStatements == null) {
+            //Connections closed without the eviction are forgotten here, their statements are closed by the pool
+            removeClosedConnections();
+
+            connectionStatements = statements.computeIfAbsent(con, c -> new ConnectionStatements());
+        }
+
+        return connectionStatements;
+    }
+
+    private void removeClosedConnections() {
+        Iterator<Connection> iterator = statements.keySet().iterator();
+
+        while (iterator.hasNext()) {
+            try {
+                if (iterator.next().isClosed()) {
+                    iterator.remove();
+                }
+            } catch (SQLException e) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static PreparedStatement prepareStatement(Connection con, String query, boolean readOnly)
+            throws SQLException {
+        if (readOnly) {
+            return con.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        }
+
+        return con.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
+    }
+
+    private static void quietlyClose(PreparedStatement preparedStatement) {
+        try {
+            preparedStatement.close();
+        } catch (SQLException e) {
+            log.error("Unexpected exception", e);
+        }
+    }
+
+    private class ConnectionStatements {
+        private final Map<String, PreparedStatement> readOnlyStatements = new StatementsLru();
+        private final Map<String, PreparedStatement> statements = new StatementsLru();
+
+        Map<String, PreparedStatement> of(boolean readOnly) {
+            return readOnly ? readOnlyStatements : statements;
+        }
+    }
+
+    private class StatementsLru extends LinkedHashMap<String, PreparedStatement> {
+        StatementsLru() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > maxSize) {
+                quietlyClose(eldest.getValue());
+                return true;
+            }
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.revolut.moneytransfer.db;
+
+/**
+ * Defines where the database of the application is held
+ */
+public enum StorageMode {
+    /**
+     * The database is held in memory and created from scratch on every start
+     */
+    MEMORY,
+    /**
+     * The database is held in the H2 MVStore file and survives restarts
+     */
+    FILE
+}
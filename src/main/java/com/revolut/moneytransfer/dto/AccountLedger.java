@@ -0,0 +1,516 @@
+package com.revolut.moneytransfer.dto;
+
+import com.revolut.moneytransfer.db.DbUtils;
+import com.revolut.moneytransfer.db.H2DataSource;
+import com.revolut.moneytransfer.exceptions.ImpossibleOperationExecution;
+import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.BankAccount;
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.ExceptionType;
+import com.revolut.moneytransfer.model.Money;
+import com.revolut.moneytransfer.model.Transaction;
+import com.revolut.moneytransfer.model.TransactionStatus;
+import com.revolut.moneytransfer.service.ExchangeRates;
+import com.revolut.moneytransfer.service.MoneyExchangeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The in-memory ledger which holds balances of all Bank Accounts and applies transfers without going to the database.
+ * Used by {@link TransactionDto} instead of <code>SELECT ... FOR UPDATE</code> once the
+ * <code>moneytransfer.ledger.enabled</code> system property is set to <code>true</code>.
+ * <p>
+ * Bank Accounts are protected by the fixed number of striped locks. A transfer locks the stripes of both Bank
+ * Accounts in ascending order of the stripe index, so transfers between unrelated accounts don't contend with each
+ * other.
+ * <p>
+ * All changes are written back into the database asynchronously every
+ * <code>moneytransfer.ledger.flushInterval</code> milliseconds (50 by default). The changed balances and statuses of
+ * executed transactions are written in one database's transaction together with their {@link AccountTurnover}, so
+ * the database is always consistent. The lag is bounded: once more than <code>moneytransfer.ledger.maxPending</code>
+ * transactions are waiting for the write back the transfer itself flushes the changes.
+ * <p>
+ * Balances are held as the number of {@link Money} minor units, so transfers don't allocate anything under the locks.
+ * <p>
+ * The ledger is loaded from the database at startup. Transactions executed but not written back before the crash
+ * are still PLANNED in the database, so they will be executed again after the restart. Once the
+ * {@link WriteAheadLog} is enabled the transfer returns only after its record is durable, and the records of
+ * transactions which are still PLANNED are replayed by {@link #recover()} instead. The record is appended under the
+ * stripe locks of both Bank Accounts, so the records of the same Bank Account are in the order the transfers have
+ * been applied.
+ */
+public class AccountLedger {
+    private static final Logger log = LoggerFactory.getLogger(AccountLedger.class);
+
+    public static final String ENABLED_PROPERTY = "moneytransfer.ledger.enabled";
+
+    private static final int STRIPES_COUNT = 64;
+
+    private static volatile AccountLedger activeLedger;
+
+    private final BankAccountDto bankAccountDto;
+    private final TransactionDto transactionDto;
+    private final int maxPending;
+    private final WriteAheadLog writeAheadLog;
+
+    private final Map<Long, LedgerEntry> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES_COUNT];
+    //Transfers share this lock while flush takes it exclusively to make the consistent snapshot of changes
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    private final Set<Long> changedBankAccountIds = ConcurrentHashMap.newKeySet();
+    private final Queue<Transaction> executedTransactions = new ConcurrentLinkedQueue<>();
+    //The debit and the credit postings of succeed transfers to be added to the daily turnover
+    private final Queue<Journal.Posting> executedPostings = new ConcurrentLinkedQueue<>();
+    private final Set<Long> notWrittenTransactionIds = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "account-ledger-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    AccountLedger(BankAccountDto bankAccountDto, TransactionDto transactionDto) {
+        this(bankAccountDto, transactionDto,
+                Long.getLong("moneytransfer.ledger.flushInterval", 50),
+                Integer.getInteger("moneytransfer.ledger.maxPending", 10000),
+                WriteAheadLog.isEnabled() ? WriteAheadLog.open() : null);
+    }
+
+    /**
+     * @param writeAheadLog the log transfers are made durable by or null if they are durable only once written
+     *                      into the database
+     */
+    AccountLedger(BankAccountDto bankAccountDto, TransactionDto transactionDto, long flushIntervalMillis,
+                  int maxPending, WriteAheadLog writeAheadLog) {
+        this.bankAccountDto = bankAccountDto;
+        this.transactionDto = transactionDto;
+        this.maxPending = maxPending;
+        this.writeAheadLog = writeAheadLog;
+
+        for (int i = 0; i < STRIPES_COUNT; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+
+        writer.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly, "account-ledger-shutdown"));
+    }
+
+    /**
+     * @return the ledger used by the application to execute transactions or null if transactions are executed by
+     * the SQL queries
+     */
+    public static AccountLedger getActive() {
+        return activeLedger;
+    }
+
+    static void setActive(AccountLedger accountLedger) {
+        activeLedger = accountLedger;
+    }
+
+    /**
+     * Recovery method. Drops all balances held in memory and loads them from the database again.
+     */
+    public void reload() {
+        flushLock.lock();
+        snapshotLock.writeLock().lock();
+        try {
+            entries.clear();
+
+            for (BankAccount bankAccount : bankAccountDto.getAllBankAccounts()) {
+                entries.put(bankAccount.getId(), new LedgerEntry(bankAccount.getCurrency(), bankAccount.getBalance()));
+            }
+
+            log.info("The account ledger has been loaded with {} Bank Accounts", entries.size());
+        } finally {
+            snapshotLock.writeLock().unlock();
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Replays the records of the {@link WriteAheadLog} appended before the restart. Transfers of transactions which
+     * are still PLANNED in the database are applied to the balances loaded by {@link #reload()} and written into the
+     * database at once. Should be called once at startup.
+     * <p>
+     * The record which would overdraw the source Bank Account is not replayed and is reported instead. Its
+     * transaction stays PLANNED, so it is executed again with the balance check.
+     */
+    public void recover() {
+        if (writeAheadLog == null) {
+            return;
+        }
+
+        List<WriteAheadLog.Record> records = new ArrayList<>();
+        writeAheadLog.replay(records::add);
+
+        int recoveredCount = 0;
+        int rejectedCount = 0;
+        for (WriteAheadLog.Record record : records) {
+            Transaction transaction = transactionDto.getTransactionById(record.getTransactionId());
+
+            //The transaction has been written into the database before the crash
+            if (transaction == null || transaction.getStatus() != TransactionStatus.PLANNED) {
+                continue;
+            }
+
+            LedgerEntry from;
+            LedgerEntry to;
+            try {
+                from = getEntry(record.getFromBankAccountId());
+                to = getEntry(record.getToBankAccountId());
+            } catch (ObjectModificationException e) {
+                throw new ImpossibleOperationExecution(e);
+            }
+
+            long newBalance = Math.subtractExact(from.balance, record.getAmountToWithdraw());
+            if (newBalance < 0) {
+                log.error("The write-ahead log record of transaction {} would overdraw Bank Account {}, it is not " +
+                        "replayed", transaction.getId(), record.getFromBankAccountId());
+                rejectedCount++;
+                continue;
+            }
+
+            from.balance = newBalance;
+            to.balance = Math.addExact(to.balance, record.getAmountToTransfer());
+            changedBankAccountIds.add(record.getFromBankAccountId());
+            changedBankAccountIds.add(record.getToBankAccountId());
+
+            transaction.setRateVersion(record.getRateVersion());
+            transaction.setStatus(TransactionStatus.SUCCEED);
+            notWrittenTransactionIds.add(transaction.getId());
+            executedTransactions.add(transaction);
+            executedPostings.add(new Journal.Posting(record.getFromBankAccountId(), transaction.getId(),
+                    Money.ofMinor(-record.getAmountToWithdraw(), from.currency)));
+            executedPostings.add(new Journal.Posting(record.getToBankAccountId(), transaction.getId(),
+                    Money.ofMinor(record.getAmountToTransfer(), to.currency)));
+            recoveredCount++;
+        }
+
+        //Moves the checkpoint past the replayed segments even if nothing has been recovered
+        flush();
+        writeAheadLog.checkpoint(writeAheadLog.getWrittenPosition());
+
+        log.info("{} of {} write-ahead log records have been recovered", recoveredCount, records.size());
+        if (rejectedCount > 0) {
+            log.error("{} write-ahead log records have been rejected, their transactions are left PLANNED",
+                    rejectedCount);
+        }
+    }
+
+    /**
+     * @param bankAccountId the Bank Account id
+     *
+     * @return the actual balance of the Bank Account. It could be ahead of the database for a flush interval.
+     */
+    public Money getBalance(Long bankAccountId) throws ObjectModificationException {
+        LedgerEntry entry = getEntry(bankAccountId);
+        ReentrantLock stripe = stripeOf(bankAccountId);
+
+        stripe.lock();
+        try {
+            return Money.ofMinor(entry.balance, entry.currency);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Checks that the source Bank Account of the transaction has enough money at the moment
+     *
+     * @param transaction the transaction to be created
+     * @param moneyExchangeService the service to convert the transaction amount into the Bank Account currency
+     *
+     * @return true if the balance is enough for the transfer
+     */
+    public boolean hasEnoughMoney(Transaction transaction, MoneyExchangeService moneyExchangeService)
+            throws ObjectModificationException {
+        LedgerEntry entry = getEntry(transaction.getFromBankAccountId());
+
+        Money amountToWithdraw = moneyExchangeService.exchange(
+                transaction.getAmount(),
+                entry.currency
+        );
+
+        return getBalance(transaction.getFromBankAccountId()).compareTo(amountToWithdraw) >= 0;
+    }
+
+    /**
+     * @return true if the transaction has been executed by the ledger or is being executed now, but it has not been
+     * written into the database yet
+     */
+    boolean isNotWritten(Long transactionId) {
+        return notWrittenTransactionIds.contains(transactionId);
+    }
+
+    /**
+     * Applies the PLANNED transaction to the balances held in memory. The transaction gets SUCCEED status or FAILED
+     * one if there is not enough money. The result will be written into the database by the next flush.
+     * <p>
+     * The transaction is read from the database only after it has been registered as executing one. So it could not
+     * be executed twice even if the previous execution has been written back in the middle of this call.
+     * <p>
+     * Once the {@link WriteAheadLog} is enabled the succeed transfer is appended into it before the locks are released
+     * and the method returns only once the record is durable. The transfer is not applied if the record could not be
+     * appended.
+     *
+     * @param transactionId the id of PLANNED transaction to execute
+     * @param moneyExchangeService the service to convert the transaction amount into the Bank Accounts currencies
+     *
+     * @return the executed transaction
+     * @throws ObjectModificationException if transaction is not PLANNED or has been executed already but not
+     *                                     written into the database yet, or if some Bank Account doesn't exist
+     */
+    public Transaction transfer(Long transactionId, MoneyExchangeService moneyExchangeService)
+            throws ObjectModificationException {
+        if (!notWrittenTransactionIds.add(transactionId)) {
+            throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED,
+                    "Could not execute transaction which is not in PLANNED status");
+        }
+
+        Transaction transaction;
+        long logPosition = -1;
+        try {
+            transaction = transactionDto.getTransactionById(transactionId);
+
+            if (transaction == null || transaction.getStatus() != TransactionStatus.PLANNED) {
+                throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED,
+                        "Could not execute transaction which is not in PLANNED status");
+            }
+
+            Long fromBankAccountId = transaction.getFromBankAccountId();
+            Long toBankAccountId = transaction.getToBankAccountId();
+            LedgerEntry from = getEntry(fromBankAccountId);
+            LedgerEntry to = getEntry(toBankAccountId);
+
+            ExchangeRates rates = moneyExchangeService.getRates();
+            Money amount = transaction.getAmount();
+            long amountToWithdraw = rates.exchange(amount.getMinorUnits(), amount.getCurrency(), from.currency);
+            long amountToTransfer = rates.exchange(amount.getMinorUnits(), amount.getCurrency(), to.currency);
+            transaction.setRateVersion(rates.getVersion());
+
+            //Postings are created before the locks are taken, they are queued only if the transfer succeeds
+            Journal.Posting debit = new Journal.Posting(fromBankAccountId, transactionId,
+                    Money.ofMinor(-amountToWithdraw, from.currency));
+            Journal.Posting credit = new Journal.Posting(toBankAccountId, transactionId,
+                    Money.ofMinor(amountToTransfer, to.currency));
+            //Failed transfers change nothing, so they are not logged and are executed again after the crash
+            WriteAheadLog.Record record = writeAheadLog == null ? null : new WriteAheadLog.Record(transactionId,
+                    fromBankAccountId, toBankAccountId, amountToWithdraw, amountToTransfer, rates.getVersion());
+
+            int firstStripe = stripeIndexOf(fromBankAccountId);
+            int secondStripe = stripeIndexOf(toBankAccountId);
+
+            snapshotLock.readLock().lock();
+            stripes[Math.min(firstStripe, secondStripe)].lock();
+            stripes[Math.max(firstStripe, secondStripe)].lock();
+            try {
+                long newBalance = Math.subtractExact(from.balance, amountToWithdraw);
+
+                if (newBalance < 0) {
+                    transaction.setStatus(TransactionStatus.FAILED);
+                    transaction.setFailMessage(String.format("There is no enough money. Current balance is %f",
+                            Money.ofMinor(from.balance, from.currency).toBigDecimal().doubleValue()));
+                } else {
+                    //Appended while both stripes are held, so the log order is the order transfers are applied in
+                    if (record != null) {
+                        logPosition = writeAheadLog.append(record);
+                    }
+
+                    from.balance = newBalance;
+                    to.balance = Math.addExact(to.balance, amountToTransfer);
+                    changedBankAccountIds.add(fromBankAccountId);
+                    changedBankAccountIds.add(toBankAccountId);
+                    executedPostings.add(debit);
+                    executedPostings.add(credit);
+                    transaction.setStatus(TransactionStatus.SUCCEED);
+                }
+
+                executedTransactions.add(transaction);
+            } finally {
+                stripes[Math.max(firstStripe, secondStripe)].unlock();
+                stripes[Math.min(firstStripe, secondStripe)].unlock();
+                snapshotLock.readLock().unlock();
+            }
+        } catch (ObjectModificationException | RuntimeException e) {
+            notWrittenTransactionIds.remove(transactionId);
+            throw e;
+        }
+
+        //The transfer has been applied already, it will be written into the database even if the log fails
+        if (logPosition >= 0) {
+            writeAheadLog.awaitDurable(logPosition);
+        }
+
+        if (pendingCount.incrementAndGet() > maxPending) {
+            flush();
+        }
+
+        return transaction;
+    }
+
+    /**
+     * Writes all changes made since the previous flush into the database in one database's transaction.
+     * If writing fails the changes will be written by the next flush.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<Transaction> transactions = new ArrayList<>();
+            List<Journal.Posting> postings = new ArrayList<>();
+            Map<Long, Money> balances = new HashMap<>();
+            long logPosition = 0;
+
+            snapshotLock.writeLock().lock();
+            try {
+                //Records are appended under the read lock, so the transfers of all records before it are in the
+                //snapshot
+                if (writeAheadLog != null) {
+                    logPosition = writeAheadLog.getWrittenPosition();
+                }
+
+                for (Transaction transaction; (transaction = executedTransactions.poll()) != null; ) {
+                    transactions.add(transaction);
+                }
+                for (Journal.Posting posting; (posting = executedPostings.poll()) != null; ) {
+                    postings.add(posting);
+                }
+                for (Long bankAccountId : changedBankAccountIds) {
+                    LedgerEntry entry = entries.get(bankAccountId);
+                    balances.put(bankAccountId, Money.ofMinor(entry.balance, entry.currency));
+                }
+                changedBankAccountIds.clear();
+                pendingCount.set(0);
+            } finally {
+                snapshotLock.writeLock().unlock();
+            }
+
+            if (transactions.isEmpty() && balances.isEmpty()) {
+                return;
+            }
+
+            try {
+                write(balances, transactions, postings);
+            } catch (RuntimeException | ObjectModificationException e) {
+                executedTransactions.addAll(transactions);
+                executedPostings.addAll(postings);
+                changedBankAccountIds.addAll(balances.keySet());
+                log.error("The account ledger could not be written into the database", e);
+                throw new ImpossibleOperationExecution(e);
+            }
+
+            for (Transaction transaction : transactions) {
+                notWrittenTransactionIds.remove(transaction.getId());
+            }
+
+            if (writeAheadLog != null) {
+                writeAheadLog.checkpoint(logPosition);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    public void shutdown() {
+        writer.shutdown();
+        flushQuietly();
+
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+    }
+
+    private void write(Map<Long, Money> balances, List<Transaction> transactions, List<Journal.Posting> postings)
+            throws ObjectModificationException {
+        Connection con = H2DataSource.getConnection();
+
+        try {
+            bankAccountDto.updateBankAccountBalances(balances, con);
+            transactionDto.updateTransactions(transactions, con);
+            transactionDto.addTurnover(postings, con);
+
+            con.commit();
+        } catch (SQLException e) {
+            DbUtils.safeRollback(con);
+            throw new ImpossibleOperationExecution(e);
+        } catch (RuntimeException | ObjectModificationException e) {
+            DbUtils.safeRollback(con);
+            throw e;
+        } finally {
+            bankAccountDto.completeWrites(con);
+            DbUtils.quietlyClose(con);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Unexpected exception", e);
+        }
+    }
+
+    /**
+     * Returns the ledger entry of the Bank Account. Bank Accounts created after the ledger has been loaded are
+     * loaded from the database on the first access.
+     */
+    private LedgerEntry getEntry(Long bankAccountId) throws ObjectModificationException {
+        LedgerEntry entry = entries.get(bankAccountId);
+
+        if (entry == null) {
+            BankAccount bankAccount = bankAccountDto.getBankAccountById(bankAccountId);
+
+            if (bankAccount == null) {
+                throw new ObjectModificationException(ExceptionType.OBJECT_IS_NOT_FOUND,
+                        "Bank Account with id " + bankAccountId + " does not exist");
+            }
+
+            entry = entries.computeIfAbsent(bankAccountId,
+                    id -> new LedgerEntry(bankAccount.getCurrency(), bankAccount.getBalance()));
+        }
+
+        return entry;
+    }
+
+    private ReentrantLock stripeOf(Long bankAccountId) {
+        return stripes[stripeIndexOf(bankAccountId)];
+    }
+
+    private static int stripeIndexOf(Long bankAccountId) {
+        return Math.floorMod(Long.hashCode(bankAccountId), STRIPES_COUNT);
+    }
+
+    /**
+     * The balance of the Bank Account held in memory. Guarded by the stripe lock of the Bank Account
+     */
+    private static class LedgerEntry {
+        private final Currency currency;
+        private long balance;
+
+        LedgerEntry(Currency currency, Money balance) {
+            this.currency = currency;
+            this.balance = balance.getMinorUnits();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.revolut.moneytransfer.dto;
+
+import com.revolut.moneytransfer.db.DbUtils;
+import com.revolut.moneytransfer.db.H2DataSource;
+import com.revolut.moneytransfer.exceptions.ImpossibleOperationExecution;
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.DailyTurnover;
+import com.revolut.moneytransfer.model.Money;
+import com.revolut.moneytransfer.model.TransactionStatus;
+import com.revolut.moneytransfer.service.ExchangeRates;
+import com.revolut.moneytransfer.service.MoneyExchangeService;
+import org.h2.api.ErrorCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The daily turnover of Bank Accounts aggregated in the <code>account_daily_turnover</code> table: the amounts debited
+ * and credited by succeed transfers per Bank Account per day. The day is the date transfers are written into the
+ * database, the same one their <code>update_date</code> gets.
+ * <p>
+ * The aggregate is maintained incrementally: the debit and the credit postings of transfers are added to it in the
+ * same database's transaction the balances are changed by, so reading the turnover costs the number of days instead
+ * of the number of transactions.
+ * <p>
+ * Debits are added to the slot 0 of the day, they are serialized by the lock of the source Bank Account anyway.
+ * Credits are added to the random one of <code>moneytransfer.turnover.slots</code> slots (8 by default), as recipients
+ * of the {@link Journal} and the hot ones of {@link BalanceSlots} are not locked and concurrent credits should not
+ * wait for each other on the same row. Rows are changed in ascending order of the Bank Account id and the slot, so
+ * concurrent transfers don't deadlock each other. The turnover of the day is the sum of its slots.
+ * <p>
+ * Transactions executed before the aggregate existed are backfilled by {@link #rebuild(MoneyExchangeService)} once
+ * the <code>moneytransfer.turnover.rebuild</code> system property is set to <code>true</code>.
+ */
+public class AccountTurnover {
+    private static final Logger log = LoggerFactory.getLogger(AccountTurnover.class);
+
+    public static final String SLOTS_PROPERTY = "moneytransfer.turnover.slots";
+    public static final String REBUILD_PROPERTY = "moneytransfer.turnover.rebuild";
+
+    private static final String TURNOVER_TABLE_NAME = "account_daily_turnover";
+    private static final String TURNOVER_BANK_ACCOUNT_ID_ROW = "bank_account_id";
+    private static final String TURNOVER_DATE_ROW = "turnover_date";
+    private static final String TURNOVER_SLOT_ROW = "slot";
+    private static final String TURNOVER_DEBITED_ROW = "debited";
+    private static final String TURNOVER_CREDITED_ROW = "credited";
+
+    private static final String ADD_TO_TURNOVER_SQL =
+            "update " + TURNOVER_TABLE_NAME + " set " +
+                    TURNOVER_DEBITED_ROW + " = " + TURNOVER_DEBITED_ROW + " + ?, " +
+                    TURNOVER_CREDITED_ROW + " = " + TURNOVER_CREDITED_ROW + " + ? " +
+                    "where " + TURNOVER_BANK_ACCOUNT_ID_ROW + " = ? " +
+                    "and " + TURNOVER_DATE_ROW + " = ? " +
+                    "and " + TURNOVER_SLOT_ROW + " = ?";
+    private static final String INSERT_TURNOVER_SQL =
+            "insert into " + TURNOVER_TABLE_NAME +
+                    " (" +
+                    TURNOVER_DEBITED_ROW + ", " +
+                    TURNOVER_CREDITED_ROW + ", " +
+                    TURNOVER_BANK_ACCOUNT_ID_ROW + ", " +
+                    TURNOVER_DATE_ROW + ", " +
+                    TURNOVER_SLOT_ROW +
+                    ") values (?, ?, ?, ?, ?)";
+    private static final String DELETE_ALL_TURNOVER_SQL = "delete from " + TURNOVER_TABLE_NAME;
+    private static final String GET_DAILY_TURNOVER_SQL =
+            "select " + TURNOVER_DATE_ROW + ", " +
+                    "sum(" + TURNOVER_DEBITED_ROW + "), " +
+                    "sum(" + TURNOVER_CREDITED_ROW + ") " +
+                    "from " + TURNOVER_TABLE_NAME + " " +
+                    "where " + TURNOVER_BANK_ACCOUNT_ID_ROW + " = ? " +
+                    "and " + TURNOVER_DATE_ROW + " between ? and ? " +
+                    "group by " + TURNOVER_DATE_ROW + " " +
+                    "order by " + TURNOVER_DATE_ROW;
+    private static final String GET_SUCCEED_TRANSFERS_SQL =
+            "select trans.from_account_id, trans.to_account_id, trans.amount, trans.currency_id, " +
+                    "trans.update_date, from_account.currency_id, to_account.currency_id " +
+                    "from transaction trans " +
+                    "join bank_account from_account on from_account.id = trans.from_account_id " +
+                    "join bank_account to_account on to_account.id = trans.to_account_id " +
+                    "where trans.status_id = ?";
+
+    private final DbUtils dbUtils;
+    private final int slotsCount;
+
+    AccountTurnover(DbUtils dbUtils) {
+        this(dbUtils, Integer.getInteger(SLOTS_PROPERTY, 8));
+    }
+
+    AccountTurnover(DbUtils dbUtils, int slotsCount) {
+        if (slotsCount <= 0) {
+            throw new IllegalArgumentException("The number of slots should be positive");
+        }
+
+        this.dbUtils = dbUtils;
+        this.slotsCount = slotsCount;
+    }
+
+    /**
+     * Adds the debit and the credit postings of succeed transfers to the turnover of today in the connection
+     * provided. Nothing is committed.
+     *
+     * @param postings negative postings are debits, positive ones are credits
+     * @param con      the <code>Connection</code> to be used for this query
+     */
+    void add(Collection<Journal.Posting> postings, Connection con) {
+        if (postings.isEmpty()) {
+            return;
+        }
+
+        LocalDate today = LocalDate.now();
+        SortedMap<Key, long[]> changes = new TreeMap<>();
+
+        for (Journal.Posting posting : postings) {
+            long amount = posting.getAmount().getMinorUnits();
+
+            if (amount < 0) {
+                changes.computeIfAbsent(new Key(posting.getBankAccountId(), today, 0), key -> new long[2])[0] -=
+                        amount;
+            } else if (amount > 0) {
+                int slot = ThreadLocalRandom.current().nextInt(slotsCount);
+                changes.computeIfAbsent(new Key(posting.getBankAccountId(), today, slot), key -> new long[2])[1] +=
+                        amount;
+            }
+        }
+
+        int[] results = dbUtils.executeQueryInConnection(con, ADD_TO_TURNOVER_SQL, addToTurnover -> {
+            for (Map.Entry<Key, long[]> change : changes.entrySet()) {
+                fillInPreparedStatement(addToTurnover, change.getKey(), change.getValue());
+                addToTurnover.addBatch();
+            }
+
+            return addToTurnover.executeBatch();
+        }).getResult();
+
+        int i = 0;
+        for (Map.Entry<Key, long[]> change : changes.entrySet()) {
+            //The first change of the slot today
+            if (results[i++] == 0) {
+                insert(change.getKey(), change.getValue(), con);
+            }
+        }
+    }
+
+    /**
+     * Returns the turnover of the Bank Account by days. Only the aggregate is read, days without succeed transfers
+     * are absent.
+     *
+     * @param bankAccountId the id of the Bank Account
+     * @param currency      the currency of the Bank Account
+     * @param from          the first day of the period
+     * @param to            the last day of the period, inclusive
+     *
+     * @return the turnover of days of the period in ascending order of dates
+     */
+    public List<DailyTurnover> getDailyTurnover(Long bankAccountId, Currency currency, LocalDate from, LocalDate to) {
+        return dbUtils.executeReadOnlyQuery(GET_DAILY_TURNOVER_SQL, getTurnover -> {
+            List<DailyTurnover> turnover = new ArrayList<>();
+
+            getTurnover.setLong(1, bankAccountId);
+            getTurnover.setDate(2, Date.valueOf(from));
+            getTurnover.setDate(3, Date.valueOf(to));
+            try (ResultSet turnoverRS = getTurnover.executeQuery()) {
+                while (turnoverRS.next()) {
+                    turnover.add(new DailyTurnover(bankAccountId,
+                            turnoverRS.getDate(1).toLocalDate().toString(),
+                            Money.of(turnoverRS.getBigDecimal(2), currency),
+                            Money.of(turnoverRS.getBigDecimal(3), currency)));
+                }
+            }
+
+            return turnover;
+        }).getResult();
+    }
+
+    /**
+     * Recomputes the whole aggregate from succeed transactions. Should be called at startup before transactions are
+     * executed, as concurrent changes of the turnover are replaced.
+     * <p>
+     * Transactions keep only the version of rates they have been executed with, not the rates themselves. So the
+     * amounts of transfers between different currencies are converted by the current rates and are exact only for
+     * transactions executed with the current version of them.
+     *
+     * @param moneyExchangeService the service to convert the transaction amounts into the Bank Accounts currencies
+     */
+    public void rebuild(MoneyExchangeService moneyExchangeService) {
+        ExchangeRates rates = moneyExchangeService.getRates();
+        SortedMap<Key, long[]> turnover = new TreeMap<>();
+
+        int transactionsCount = dbUtils.executeStreamingQuery(GET_SUCCEED_TRANSFERS_SQL, DbUtils.STREAM_FETCH_SIZE,
+                getTransfers -> {
+                    int count = 0;
+
+                    getTransfers.setInt(1, TransactionStatus.SUCCEED.getId());
+                    try (ResultSet transfersRS = getTransfers.executeQuery()) {
+                        while (transfersRS.next()) {
+                            Money amount = Money.of(transfersRS.getBigDecimal(3),
+                                    Currency.valueOf(transfersRS.getInt(4)));
+                            LocalDate date = transfersRS.getDate(5).toLocalDate();
+
+                            turnover.computeIfAbsent(new Key(transfersRS.getLong(1), date, 0),
+                                    key -> new long[2])[0] +=
+                                    rates.exchange(amount, Currency.valueOf(transfersRS.getInt(6))).getMinorUnits();
+                            turnover.computeIfAbsent(new Key(transfersRS.getLong(2), date, 0),
+                                    key -> new long[2])[1] +=
+                                    rates.exchange(amount, Currency.valueOf(transfersRS.getInt(7))).getMinorUnits();
+                            count++;
+                        }
+                    }
+
+                    return count;
+                }).getResult();
+
+        Connection con = H2DataSource.getConnection();
+
+        try {
+            dbUtils.executeQueryInConnection(con, DELETE_ALL_TURNOVER_SQL, PreparedStatement::executeUpdate);
+            dbUtils.executeQueryInConnection(con, INSERT_TURNOVER_SQL, insertTurnover -> {
+                for (Map.Entry<Key, long[]> day : turnover.entrySet()) {
+                    fillInPreparedStatement(insertTurnover, day.getKey(), day.getValue());
+                    insertTurnover.addBatch();
+                }
+
+                return insertTurnover.executeBatch();
+            });
+
+            con.commit();
+        } catch (RuntimeException | SQLException e) {
+            DbUtils.safeRollback(con);
+            throw new ImpossibleOperationExecution(e);
+        } finally {
+            DbUtils.quietlyClose(con);
+        }
+
+        log.info("The daily turnover has been rebuilt from {} transactions into {} rows", transactionsCount,
+                turnover.size());
+    }
+
+    /**
+     * Inserts the first change of the slot. If the concurrent transfer has inserted it already the change is added to
+     * the existing row instead. H2 rejects the insert by the concurrent update error rather than by the duplicate key
+     * while the row inserted by the concurrent transfer is not committed yet. The update fails the same way then and
+     * the whole transaction is retried by {@link TransactionDto}.
+     */
+    private void insert(Key key, long[] change, Connection con) {
+        int inserted = dbUtils.executeQueryInConnection(con, INSERT_TURNOVER_SQL, insertTurnover -> {
+            fillInPreparedStatement(insertTurnover, key, change);
+
+            try {
+                return insertTurnover.executeUpdate();
+            } catch (SQLException e) {
+                if (!TransactionDto.isDuplicateKey(e) && !TransactionDto.isConcurrentUpdate(e)) {
+                    throw e;
+                }
+
+                return 0;
+            }
+        }).getResult();
+
+        if (inserted == 0) {
+            int updated = dbUtils.executeQueryInConnection(con, ADD_TO_TURNOVER_SQL, addToTurnover -> {
+                fillInPreparedStatement(addToTurnover, key, change);
+                return addToTurnover.executeUpdate();
+            }).getResult();
+
+            //The concurrent transfer has been rolled back, so its row is absent and the insert should be retried
+            if (updated == 0) {
+                throw new ImpossibleOperationExecution(new SQLException("The turnover could not be written", null,
+                        ErrorCode.CONCURRENT_UPDATE_1));
+            }
+        }
+    }
+
+    /**
+     * Fills in both the update and the insert statements, they have the same order of parameters
+     */
+    private static void fillInPreparedStatement(PreparedStatement preparedStatement, Key key, long[] change)
+            throws SQLException {
+        preparedStatement.setBigDecimal(1, BigDecimal.valueOf(change[0], Money.SCALE));
+        preparedStatement.setBigDecimal(2, BigDecimal.valueOf(change[1], Money.SCALE));
+        preparedStatement.setLong(3, key.bankAccountId);
+        preparedStatement.setDate(4, Date.valueOf(key.date));
+        preparedStatement.setInt(5, key.slot);
+    }
+
+    /**
+     * The primary key of the aggregate row
+     */
+    private static class Key implements Comparable<Key> {
+        private final long bankAccountId;
+        private final LocalDate date;
+        private final int slot;
+
+        private Key(long bankAccountId, LocalDate date, int slot) {
+            this.bankAccountId = bankAccountId;
+            this.date = date;
+            this.slot = slot;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int result = Long.compare(bankAccountId, other.bankAccountId);
+            if (result == 0) {
+                result = date.compareTo(other.date);
+            }
+            if (result == 0) {
+                result = Integer.compare(slot, other.slot);
+            }
+
+            return result;
+        }
+    }
+}
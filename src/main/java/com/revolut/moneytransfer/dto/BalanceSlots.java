@@ -0,0 +1,355 @@
+package com.revolut.moneytransfer.dto;
+
+import com.revolut.moneytransfer.db.DbUtils;
+import com.revolut.moneytransfer.db.H2DataSource;
+import com.revolut.moneytransfer.exceptions.ImpossibleOperationExecution;
+import com.revolut.moneytransfer.model.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The balance slots of the hot Bank Accounts, e.g. merchant or settlement ones, which receive many credits at once.
+ * Bank Accounts listed in the <code>moneytransfer.hotAccounts</code> system property (comma separated ids) get
+ * <code>moneytransfer.hotAccounts.slots</code> slots (16 by default) in the <code>bank_account_slot</code> table.
+ * <p>
+ * The credit of the hot Bank Account is added to its random slot, so neither its row is locked nor concurrent credits
+ * wait for each other. Debits lock the Bank Account row and are subtracted from it. The balance is the balance
+ * column plus the sum of all slots, so the row could be negative while the balance is not.
+ * <p>
+ * The rebalancer moves the money of all slots into the row every <code>moneytransfer.hotAccounts.rebalanceInterval</code>
+ * milliseconds (1000 by default). It locks the row and then all slots of the Bank Account, the balance is not changed.
+ * <p>
+ * Slots are not used together with the {@link AccountLedger} or the {@link Journal}, as they don't lock recipients
+ * anyway. Slots of Bank Accounts which are not hot anymore are moved into their rows at startup.
+ */
+public class BalanceSlots {
+    private static final Logger log = LoggerFactory.getLogger(BalanceSlots.class);
+
+    public static final String HOT_ACCOUNTS_PROPERTY = "moneytransfer.hotAccounts";
+    public static final String SLOTS_PROPERTY = "moneytransfer.hotAccounts.slots";
+
+    private static final String SLOT_TABLE_NAME = "bank_account_slot";
+    private static final String SLOT_BANK_ACCOUNT_ID_ROW = "bank_account_id";
+    private static final String SLOT_ROW = "slot";
+    private static final String SLOT_BALANCE_ROW = "balance";
+    private static final String BANK_ACCOUNT_SLOTS_ROW = "balance_slots";
+
+    private static final String GET_SHARDED_BANK_ACCOUNT_IDS_SQL =
+            "select id from bank_account where " + BANK_ACCOUNT_SLOTS_ROW + " > 0";
+    private static final String GET_FOR_UPDATE_BANK_ACCOUNT_SQL =
+            "select id from bank_account where id = ? for update";
+    private static final String GET_FOR_UPDATE_SLOTS_SQL =
+            "select " + SLOT_BALANCE_ROW + " from " + SLOT_TABLE_NAME +
+                    " where " + SLOT_BANK_ACCOUNT_ID_ROW + " = ? " +
+                    "order by " + SLOT_ROW + " for update";
+    private static final String CLEAR_SLOTS_SQL =
+            "update " + SLOT_TABLE_NAME + " set " + SLOT_BALANCE_ROW + " = 0 " +
+                    "where " + SLOT_BANK_ACCOUNT_ID_ROW + " = ?";
+    private static final String DELETE_SLOTS_SQL =
+            "delete from " + SLOT_TABLE_NAME + " where " + SLOT_BANK_ACCOUNT_ID_ROW + " = ?";
+    private static final String INSERT_SLOT_SQL =
+            "insert into " + SLOT_TABLE_NAME +
+                    " (" + SLOT_BANK_ACCOUNT_ID_ROW + ", " + SLOT_ROW + ", " + SLOT_BALANCE_ROW + ") values (?, ?, 0)";
+    private static final String ADD_TO_SLOT_SQL =
+            "update " + SLOT_TABLE_NAME + " set " + SLOT_BALANCE_ROW + " = " + SLOT_BALANCE_ROW + " + ? " +
+                    "where " + SLOT_BANK_ACCOUNT_ID_ROW + " = ? and " + SLOT_ROW + " = ?";
+    private static final String MOVE_INTO_BANK_ACCOUNT_SQL =
+            "update bank_account set balance = balance + ?, " + BANK_ACCOUNT_SLOTS_ROW + " = ? where id = ?";
+
+    private static volatile BalanceSlots activeBalanceSlots;
+
+    private final DbUtils dbUtils;
+    private final Set<Long> hotBankAccountIds;
+    private final int slotsCount;
+
+    private final AtomicLong slotCredits = new AtomicLong();
+    private final AtomicLong rebalances = new AtomicLong();
+
+    private final ScheduledExecutorService rebalancer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "balance-slots-rebalancer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param hotBankAccountIds the ids of the hot Bank Accounts or the empty set if slots should not be used
+     */
+    BalanceSlots(DbUtils dbUtils, Set<Long> hotBankAccountIds) {
+        this(dbUtils, hotBankAccountIds, Integer.getInteger(SLOTS_PROPERTY, 16),
+                Long.getLong("moneytransfer.hotAccounts.rebalanceInterval", 1000));
+    }
+
+    BalanceSlots(DbUtils dbUtils, Set<Long> hotBankAccountIds, int slotsCount, long rebalanceIntervalMillis) {
+        if (slotsCount <= 0) {
+            throw new IllegalArgumentException("The number of slots should be positive");
+        }
+
+        this.dbUtils = dbUtils;
+        this.hotBankAccountIds = Collections.unmodifiableSet(new HashSet<>(hotBankAccountIds));
+        this.slotsCount = slotsCount;
+
+        if (!hotBankAccountIds.isEmpty()) {
+            rebalancer.scheduleWithFixedDelay(this::rebalanceQuietly, rebalanceIntervalMillis, rebalanceIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the ids of Bank Accounts listed in the <code>moneytransfer.hotAccounts</code> system property
+     */
+    static Set<Long> getConfiguredHotBankAccountIds() {
+        Set<Long> ids = new HashSet<>();
+
+        for (String id : System.getProperty(HOT_ACCOUNTS_PROPERTY, "").split(",")) {
+            if (!id.trim().isEmpty()) {
+                ids.add(Long.valueOf(id.trim()));
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * @return the balance slots used by the application or null if they have not been initialized yet
+     */
+    public static BalanceSlots getActive() {
+        return activeBalanceSlots;
+    }
+
+    static void setActive(BalanceSlots balanceSlots) {
+        activeBalanceSlots = balanceSlots;
+    }
+
+    /**
+     * Builds the SQL expression of the sum of the balance slots of the Bank Account
+     *
+     * @param bankAccountAlias the alias of the <code>bank_account</code> table in the query
+     */
+    static String getSlotsSumSql(String bankAccountAlias) {
+        return "coalesce((select sum(s." + SLOT_BALANCE_ROW + ") from " + SLOT_TABLE_NAME + " s " +
+                "where s." + SLOT_BANK_ACCOUNT_ID_ROW + " = " + bankAccountAlias + ".id), 0)";
+    }
+
+    /**
+     * @return true if credits of the Bank Account go to its slots, so its row should not be locked by them
+     */
+    boolean isHot(Long bankAccountId) {
+        return hotBankAccountIds.contains(bankAccountId);
+    }
+
+    /**
+     * Creates slots of the hot Bank Accounts and removes slots of the rest of them. The money of removed slots is
+     * moved into the Bank Account rows. Should be called once at startup.
+     */
+    void initialize() {
+        Set<Long> bankAccountIds = new HashSet<>(hotBankAccountIds);
+        bankAccountIds.addAll(dbUtils.executeReadOnlyQuery(GET_SHARDED_BANK_ACCOUNT_IDS_SQL, getIds -> {
+            List<Long> ids = new ArrayList<>();
+            try (ResultSet idsRS = getIds.executeQuery()) {
+                while (idsRS.next()) {
+                    ids.add(idsRS.getLong(1));
+                }
+            }
+
+            return ids;
+        }).getResult());
+
+        for (Long bankAccountId : bankAccountIds) {
+            int slots = isHot(bankAccountId) ? slotsCount : 0;
+
+            inTransaction(con -> {
+                if (!lockBankAccount(bankAccountId, con)) {
+                    log.warn("The hot Bank Account with id {} doesn't exist", bankAccountId);
+                    return false;
+                }
+
+                BigDecimal slotsSum = lockSlots(bankAccountId, con);
+                dbUtils.executeQueryInConnection(con, DELETE_SLOTS_SQL, deleteSlots -> {
+                    deleteSlots.setLong(1, bankAccountId);
+                    return deleteSlots.executeUpdate();
+                });
+                moveIntoBankAccount(bankAccountId, slotsSum, slots, con);
+
+                if (slots > 0) {
+                    dbUtils.executeQueryInConnection(con, INSERT_SLOT_SQL, insertSlots -> {
+                        for (int slot = 0; slot < slots; slot++) {
+                            insertSlots.setLong(1, bankAccountId);
+                            insertSlots.setInt(2, slot);
+                            insertSlots.addBatch();
+                        }
+
+                        return insertSlots.executeBatch();
+                    });
+                }
+
+                return true;
+            });
+        }
+
+        if (!hotBankAccountIds.isEmpty()) {
+            log.info("{} hot Bank Accounts have {} balance slots each", hotBankAccountIds.size(), slotsCount);
+        }
+    }
+
+    /**
+     * Adds the credits to the random slots of the hot Bank Accounts in the connection provided. Every Bank Account gets
+     * the only slot, and slots are locked in ascending order of the Bank Account ids, so concurrent credits don't
+     * deadlock each other.
+     *
+     * @param credits the positive changes of balances by the hot Bank Account ids in ascending order
+     * @param con     the <code>Connection</code> to be used for this query
+     */
+    void credit(Map<Long, Money> credits, Connection con) {
+        if (credits.isEmpty()) {
+            return;
+        }
+
+        int[] results = dbUtils.executeQueryInConnection(con, ADD_TO_SLOT_SQL, addToSlots -> {
+            for (Map.Entry<Long, Money> credit : credits.entrySet()) {
+                addToSlots.setBigDecimal(1, credit.getValue().toBigDecimal());
+                addToSlots.setLong(2, credit.getKey());
+                addToSlots.setInt(3, ThreadLocalRandom.current().nextInt(slotsCount));
+                addToSlots.addBatch();
+            }
+
+            return addToSlots.executeBatch();
+        }).getResult();
+
+        for (int result : results) {
+            if (result == 0) {
+                throw new ImpossibleOperationExecution(new SQLException("The balance slot doesn't exist"));
+            }
+        }
+
+        slotCredits.addAndGet(credits.size());
+    }
+
+    /**
+     * Moves the money of all slots into the rows of the hot Bank Accounts. Every Bank Account is rebalanced in its
+     * own database's transaction.
+     */
+    public void rebalance() {
+        for (Long bankAccountId : hotBankAccountIds) {
+            inTransaction(con -> {
+                if (!lockBankAccount(bankAccountId, con)) {
+                    return false;
+                }
+
+                BigDecimal slotsSum = lockSlots(bankAccountId, con);
+                if (slotsSum.signum() == 0) {
+                    return false;
+                }
+
+                dbUtils.executeQueryInConnection(con, CLEAR_SLOTS_SQL, clearSlots -> {
+                    clearSlots.setLong(1, bankAccountId);
+                    return clearSlots.executeUpdate();
+                });
+                moveIntoBankAccount(bankAccountId, slotsSum, slotsCount, con);
+
+                rebalances.incrementAndGet();
+                return true;
+            });
+        }
+    }
+
+    /**
+     * @return the number of credits added to the balance slots
+     */
+    public long getSlotCreditsCount() {
+        return slotCredits.get();
+    }
+
+    /**
+     * @return the number of times when the money of slots has been moved into the Bank Account row
+     */
+    public long getRebalancesCount() {
+        return rebalances.get();
+    }
+
+    public void shutdown() {
+        rebalancer.shutdown();
+    }
+
+    private boolean lockBankAccount(Long bankAccountId, Connection con) {
+        return dbUtils.executeQueryInConnection(con, GET_FOR_UPDATE_BANK_ACCOUNT_SQL, getBankAccount -> {
+            getBankAccount.setLong(1, bankAccountId);
+            try (ResultSet bankAccountRS = getBankAccount.executeQuery()) {
+                return bankAccountRS.next();
+            }
+        }).getResult();
+    }
+
+    /**
+     * @return the sum of all locked slots of the Bank Account
+     */
+    private BigDecimal lockSlots(Long bankAccountId, Connection con) {
+        return dbUtils.executeQueryInConnection(con, GET_FOR_UPDATE_SLOTS_SQL, getSlots -> {
+            BigDecimal sum = BigDecimal.ZERO;
+
+            getSlots.setLong(1, bankAccountId);
+            try (ResultSet slotsRS = getSlots.executeQuery()) {
+                while (slotsRS.next()) {
+                    sum = sum.add(slotsRS.getBigDecimal(1));
+                }
+            }
+
+            return sum;
+        }).getResult();
+    }
+
+    private void moveIntoBankAccount(Long bankAccountId, BigDecimal amount, int slots, Connection con) {
+        dbUtils.executeQueryInConnection(con, MOVE_INTO_BANK_ACCOUNT_SQL, moveIntoBankAccount -> {
+            moveIntoBankAccount.setBigDecimal(1, amount);
+            moveIntoBankAccount.setInt(2, slots);
+            moveIntoBankAccount.setLong(3, bankAccountId);
+            return moveIntoBankAccount.executeUpdate();
+        });
+    }
+
+    /**
+     * Runs the work in its own database's transaction. The transaction is committed if the work returns true and
+     * rolled back otherwise
+     */
+    private void inTransaction(Work work) {
+        Connection con = H2DataSource.getConnection();
+
+        try {
+            if (work.run(con)) {
+                con.commit();
+            }
+        } catch (RuntimeException | SQLException e) {
+            DbUtils.safeRollback(con);
+            throw new ImpossibleOperationExecution(e);
+        } finally {
+            DbUtils.quietlyClose(con);
+        }
+    }
+
+    private void rebalanceQuietly() {
+        try {
+            rebalance();
+        } catch (RuntimeException e) {
+            log.error("Balance slots could not be rebalanced, they will be rebalanced by the next cycle", e);
+        }
+    }
+
+    private interface Work {
+        boolean run(Connection con) throws SQLException;
+    }
+}
@@ -0,0 +1,172 @@
+package com.revolut.moneytransfer.dto;
+
+import com.revolut.moneytransfer.model.BankAccount;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The bounded read-through cache of Bank Account snapshots used by {@link BankAccountDto#getBankAccountById(Long)}.
+ * The cache is split into a fixed number of segments, each of them is an LRU map guarded by its own monitor. Up to
+ * <code>moneytransfer.accountCache.maxSize</code> Bank Accounts are held (10000 by default, 0 disables the cache).
+ * <p>
+ * The cache never returns a Bank Account older than the last committed write. Every write of the Bank Account row is
+ * wrapped by {@link #beginWrite(Long)} and {@link #endWrite(Long)}, the latter is called once the database's
+ * transaction is committed or rolled back. While the row is being written it is not cached at all, and the value
+ * loaded from the database is not put into the cache if any write of the segment has begun or ended during the load.
+ * <p>
+ * Cached objects are copied on the way in and out, so callers are free to modify them.
+ */
+public class BankAccountCache {
+    public static final String MAX_SIZE_PROPERTY = "moneytransfer.accountCache.maxSize";
+
+    private static final int SEGMENTS_COUNT = 16;
+
+    private final Segment[] segments;
+    private final boolean enabled;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    BankAccountCache() {
+        this(Integer.getInteger(MAX_SIZE_PROPERTY, 10000));
+    }
+
+    BankAccountCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("The cache size should not be negative");
+        }
+
+        this.enabled = maxSize > 0;
+        this.segments = new Segment[SEGMENTS_COUNT];
+
+        int segmentMaxSize = Math.max(1, (maxSize + SEGMENTS_COUNT - 1) / SEGMENTS_COUNT);
+        for (int i = 0; i < SEGMENTS_COUNT; i++) {
+            segments[i] = new Segment(segmentMaxSize);
+        }
+    }
+
+    /**
+     * Returns the cached Bank Account or loads it by the loader provided. The loaded Bank Account is cached unless
+     * it has been written concurrently.
+     *
+     * @return the copy of the Bank Account or null if the loader has not found it
+     */
+    BankAccount get(Long id, Function<Long, BankAccount> loader) {
+        if (!enabled) {
+            return loader.apply(id);
+        }
+
+        Segment segment = segmentOf(id);
+        long generation;
+
+        synchronized (segment) {
+            BankAccount cached = segment.get(id);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return copyOf(cached);
+            }
+            generation = segment.generation;
+        }
+
+        misses.incrementAndGet();
+        BankAccount loaded = loader.apply(id);
+
+        if (loaded != null) {
+            BankAccount snapshot = copyOf(loaded);
+
+            synchronized (segment) {
+                if (segment.generation == generation && !segment.writesInProgress.containsKey(id)) {
+                    segment.put(id, snapshot);
+                }
+            }
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Should be called before the Bank Account row is written. Removes the Bank Account from the cache and prevents
+     * it from being cached till the corresponding {@link #endWrite(Long)}
+     */
+    void beginWrite(Long id) {
+        Segment segment = segmentOf(id);
+
+        synchronized (segment) {
+            segment.remove(id);
+            segment.writesInProgress.merge(id, 1, Integer::sum);
+            segment.generation++;
+        }
+    }
+
+    /**
+     * Should be called once the database's transaction which has written the Bank Account row is committed or
+     * rolled back
+     */
+    void endWrite(Long id) {
+        Segment segment = segmentOf(id);
+
+        synchronized (segment) {
+            segment.remove(id);
+            segment.writesInProgress.computeIfPresent(id, (key, count) -> count > 1 ? count - 1 : null);
+            segment.generation++;
+        }
+    }
+
+    public long getHitsCount() {
+        return hits.get();
+    }
+
+    public long getMissesCount() {
+        return misses.get();
+    }
+
+    public long getEvictionsCount() {
+        return evictions.get();
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    private Segment segmentOf(Long id) {
+        return segments[Math.floorMod(Long.hashCode(id), SEGMENTS_COUNT)];
+    }
+
+    private static BankAccount copyOf(BankAccount bankAccount) {
+        return new BankAccount(bankAccount.getId(), bankAccount.getAccountHolderName(), bankAccount.getBalance(),
+                bankAccount.getCurrency());
+    }
+
+    private class Segment extends LinkedHashMap<Long, BankAccount> {
+        private final int maxSize;
+        private final Map<Long, Integer> writesInProgress = new HashMap<>();
+        private long generation;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BankAccount> eldest) {
+            if (size() > maxSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+
+            return false;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.revolut.moneytransfer.exceptions.ObjectModificationException;
 import com.revolut.moneytransfer.model.BankAccount;
 import com.revolut.moneytransfer.model.Currency;
 import com.revolut.moneytransfer.model.ExceptionType;
+import com.revolut.moneytransfer.model.Money;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,9 +15,21 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * Encapsulates all logic for Bank Account entity which is related to the database. Implements the singleton pattern.
+ * <p>
+ * Bank Accounts read by id are cached by the {@link BankAccountCache}. Every write of the Bank Account row invalidates
+ * the cache. Writes done in the connection provided by the caller are completed by
+ * {@link #completeWrites(Connection)} which should be called once the connection is committed or rolled back.
+ * <p>
+ * Once the {@link Journal} is enabled the balance column is only the snapshot, so the balance is read as the snapshot
+ * plus the postings appended after it. Otherwise the balance of the hot Bank Account is read as the balance column
+ * plus the sum of its {@link BalanceSlots}.
  */
 public class BankAccountDto {
     private static final String BANK_ACCOUNT_TABLE_NAME = "bank_account";
@@ -25,10 +38,32 @@ public class BankAccountDto {
     private static final String BANK_ACCOUNT_BALANCE_ROW = "balance";
     private static final String BANK_ACCOUNT_CURRENCY_ID_ROW = "currency_id";
 
+    private static final String BANK_ACCOUNT_COLUMNS =
+            "ba." + BANK_ACCOUNT_ID_ROW + ", " +
+                    "ba." + BANK_ACCOUNT_HOLDER_NAME_ROW + ", " +
+                    "ba." + BANK_ACCOUNT_CURRENCY_ID_ROW + ", " +
+                    "ba." + BANK_ACCOUNT_BALANCE_ROW + " + " +
+                    (Journal.isEnabled() ? Journal.getBalanceDeltaSql("ba") : BalanceSlots.getSlotsSumSql("ba")) +
+                    " as " + BANK_ACCOUNT_BALANCE_ROW;
+
+    private static final String ADD_TO_BANK_ACCOUNT_BALANCE_SQL =
+            "update " + BANK_ACCOUNT_TABLE_NAME +
+                    " set " +
+                    BANK_ACCOUNT_BALANCE_ROW + " = " + BANK_ACCOUNT_BALANCE_ROW + " + ? " +
+                    "where " + BANK_ACCOUNT_ID_ROW + " = ?";
+
+    private static final String UPDATE_BANK_ACCOUNT_BALANCE_SQL =
+            "update " + BANK_ACCOUNT_TABLE_NAME +
+                    " set " +
+                    BANK_ACCOUNT_BALANCE_ROW + " = ? " +
+                    "where " + BANK_ACCOUNT_ID_ROW + " = ?";
+
     private static final Logger log = LoggerFactory.getLogger(BankAccountDto.class);
 
     private static final BankAccountDto bas = new BankAccountDto();
     private DbUtils dbUtils = DbUtils.getInstance();
+    private final BankAccountCache cache = new BankAccountCache();
+    private final Map<Connection, List<Long>> writesInProgress = new ConcurrentHashMap<>();
 
     private BankAccountDto() {
     }
@@ -37,20 +72,46 @@ public class BankAccountDto {
         return bas;
     }
 
+    private static final String GET_BANK_ACCOUNTS_PAGE_SQL =
+            "select " + BANK_ACCOUNT_COLUMNS + " from " + BANK_ACCOUNT_TABLE_NAME + " ba " +
+                    "where ba." + BANK_ACCOUNT_ID_ROW + " > ? " +
+                    "order by ba." + BANK_ACCOUNT_ID_ROW + " " +
+                    "limit ?";
+
+    private static final String GET_BANK_ACCOUNTS_AFTER_SQL =
+            "select " + BANK_ACCOUNT_COLUMNS + " from " + BANK_ACCOUNT_TABLE_NAME + " ba " +
+                    "where ba." + BANK_ACCOUNT_ID_ROW + " > ? " +
+                    "order by ba." + BANK_ACCOUNT_ID_ROW;
+
     /**
-     * @return All Bank Accounts which is exists in the database at the moment
-     * <p>
-     * TODO: add multipaging
+     * @return All Bank Accounts which is exists in the database at the moment. The whole table is loaded in memory,
+     * so use {@link #getBankAccountsPage(Long, int)} or {@link #streamBankAccounts(Long, Consumer)} for big tables
      */
     public Collection<BankAccount> getAllBankAccounts() {
-        return dbUtils.executeQuery("select * from " + BANK_ACCOUNT_TABLE_NAME, getBankAccounts -> {
-            Collection<BankAccount> bankAccounts = new ArrayList<>();
+        Collection<BankAccount> bankAccounts = new ArrayList<>();
+
+        streamBankAccounts(null, bankAccounts::add);
+
+        return bankAccounts;
+    }
+
+    /**
+     * Returns the page of Bank Accounts ordered by id. The next page starts after the id of the last Bank Account of
+     * the previous one.
+     *
+     * @param after the id after which the page starts or null to get the first page
+     * @param limit the maximum number of Bank Accounts in the page
+     * @return Bank Accounts with ids more than <code>after</code> in ascending order of ids
+     */
+    public List<BankAccount> getBankAccountsPage(Long after, int limit) {
+        return dbUtils.executeReadOnlyQuery(GET_BANK_ACCOUNTS_PAGE_SQL, getBankAccounts -> {
+            List<BankAccount> bankAccounts = new ArrayList<>(limit);
 
+            getBankAccounts.setLong(1, after == null ? Long.MIN_VALUE : after);
+            getBankAccounts.setInt(2, limit);
             try (ResultSet bankAccountsRS = getBankAccounts.executeQuery()) {
-                if (bankAccountsRS != null) {
-                    while (bankAccountsRS.next()) {
-                        bankAccounts.add(extractBankAccountFromResultSet(bankAccountsRS));
-                    }
+                while (bankAccountsRS.next()) {
+                    bankAccounts.add(extractBankAccountFromResultSet(bankAccountsRS));
                 }
             }
 
@@ -59,17 +120,48 @@ public class BankAccountDto {
     }
 
     /**
-     * Returns Bank Account object by id specified
+     * Passes Bank Accounts ordered by id to the consumer one by one while they are read from the database. Only
+     * {@link DbUtils#STREAM_FETCH_SIZE} rows are held in memory at once.
+     *
+     * @param after    the id after which Bank Accounts are read or null to read all of them
+     * @param consumer the consumer of Bank Accounts
+     */
+    public void streamBankAccounts(Long after, Consumer<BankAccount> consumer) {
+        dbUtils.executeStreamingQuery(GET_BANK_ACCOUNTS_AFTER_SQL, DbUtils.STREAM_FETCH_SIZE, getBankAccounts -> {
+            getBankAccounts.setLong(1, after == null ? Long.MIN_VALUE : after);
+            try (ResultSet bankAccountsRS = getBankAccounts.executeQuery()) {
+                while (bankAccountsRS.next()) {
+                    consumer.accept(extractBankAccountFromResultSet(bankAccountsRS));
+                }
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * @return the cache of Bank Accounts read by id
+     */
+    public BankAccountCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns Bank Account object by id specified. The Bank Account is taken from the cache if it is there.
      *
      * @param id Bank Account object id
      * @return Bank Account object with id specified
      */
     public BankAccount getBankAccountById(Long id) {
+        return cache.get(id, this::loadBankAccountById);
+    }
+
+    private BankAccount loadBankAccountById(Long id) {
         String GET_BANK_ACCOUNT_BY_ID_SQL =
-                "select * from " + BANK_ACCOUNT_TABLE_NAME + " ba " +
+                "select " + BANK_ACCOUNT_COLUMNS + " from " + BANK_ACCOUNT_TABLE_NAME + " ba " +
                         "where ba." + BANK_ACCOUNT_ID_ROW + " = ?";
 
-        return dbUtils.executeQuery(GET_BANK_ACCOUNT_BY_ID_SQL, getBankAccount -> {
+        return dbUtils.executeReadOnlyQuery(GET_BANK_ACCOUNT_BY_ID_SQL, getBankAccount -> {
             getBankAccount.setLong(1, id);
             try (ResultSet bankAccountRS = getBankAccount.executeQuery()) {
                 if (bankAccountRS != null && bankAccountRS.first()) {
@@ -90,7 +182,7 @@ public class BankAccountDto {
      */
     BankAccount getForUpdateBankAccountById(Connection con, Long id) {
         String GET_BANK_ACCOUNT_BY_ID_SQL =
-                "select * from " + BANK_ACCOUNT_TABLE_NAME + " ba " +
+                "select " + BANK_ACCOUNT_COLUMNS + " from " + BANK_ACCOUNT_TABLE_NAME + " ba " +
                         "where ba." + BANK_ACCOUNT_ID_ROW + " = ? " +
                         "for update";
 
@@ -132,7 +224,13 @@ public class BankAccountDto {
             return updateBankAccount.executeUpdate();
         };
 
-        int result = dbUtils.executeQuery(UPDATE_BANK_ACCOUNT_SQL, queryExecutor).getResult();
+        int result;
+        cache.beginWrite(bankAccount.getId());
+        try {
+            result = dbUtils.executeQuery(UPDATE_BANK_ACCOUNT_SQL, queryExecutor).getResult();
+        } finally {
+            cache.endWrite(bankAccount.getId());
+        }
 
         if (result == 0) {
             throw new ObjectModificationException(ExceptionType.OBJECT_IS_NOT_FOUND);
@@ -140,42 +238,99 @@ public class BankAccountDto {
     }
 
     /**
-     * Updates the Bank Account with changed parameters using the id provided by the object passed.
-     * We are using it only inside the related <code>TransactionDto</code>
+     * Adds the changes to the balances of the Bank Accounts by one JDBC batch in the connection provided. Balances are
+     * changed relatively, as the balance read could include the balance slots of the hot Bank Account which are not
+     * in its row. We are using it only inside the related <code>TransactionDto</code>
      *
-     * @param bankAccount Bank Account object which will be updated
-     * @param con         the <code>Connection</code> to be used for this query
-     * @throws ObjectModificationException if Bank Account with the provided id will not be exists in the database at the
-     *                                     moment or object provided is malformed
+     * @param changes the changes of balances by the Bank Account ids. Positive changes are credits, negative ones
+     *                are debits
+     * @param con     the <code>Connection</code> to be used for this query
+     * @throws ObjectModificationException if some of Bank Accounts will not be exists in the database at the moment
      */
-    void updateBankAccount(BankAccount bankAccount, Connection con) throws ObjectModificationException {
-        String UPDATE_BANK_ACCOUNT_SQL =
-                "update " + BANK_ACCOUNT_TABLE_NAME +
-                        " set " +
-                        BANK_ACCOUNT_HOLDER_NAME_ROW + " = ?, " +
-                        BANK_ACCOUNT_BALANCE_ROW + " = ?, " +
-                        BANK_ACCOUNT_CURRENCY_ID_ROW + " = ? " +
-                        "where " + BANK_ACCOUNT_ID_ROW + " = ?";
+    void addToBalances(Map<Long, Money> changes, Connection con) throws ObjectModificationException {
+        if (changes.isEmpty()) {
+            return;
+        }
 
-        verify(bankAccount);
+        for (Long id : changes.keySet()) {
+            beginWrite(con, id);
+        }
 
-        DbUtils.QueryExecutor<Integer> queryExecutor = updateBankAccount -> {
-            fillInPreparedStatement(updateBankAccount, bankAccount);
-            updateBankAccount.setLong(4, bankAccount.getId());
+        int[] results = dbUtils.executeQueryInConnection(con, ADD_TO_BANK_ACCOUNT_BALANCE_SQL, addToBalances -> {
+            for (Map.Entry<Long, Money> change : changes.entrySet()) {
+                addToBalances.setBigDecimal(1, change.getValue().toBigDecimal());
+                addToBalances.setLong(2, change.getKey());
+                addToBalances.addBatch();
+            }
 
-            return updateBankAccount.executeUpdate();
-        };
+            return addToBalances.executeBatch();
+        }).getResult();
 
-        int result;
-        if (con == null) {
-            result = dbUtils.executeQuery(UPDATE_BANK_ACCOUNT_SQL, queryExecutor).getResult();
-        } else {
-            result = dbUtils.executeQueryInConnection(con, UPDATE_BANK_ACCOUNT_SQL, queryExecutor).getResult();
+        for (int result : results) {
+            if (result == 0) {
+                throw new ObjectModificationException(ExceptionType.OBJECT_IS_NOT_FOUND);
+            }
         }
+    }
 
-        if (result == 0) {
-            throw new ObjectModificationException(ExceptionType.OBJECT_IS_NOT_FOUND);
+    /**
+     * Updates only balances of the Bank Accounts by one JDBC batch in the connection provided.
+     * We are using it only inside the related <code>AccountLedger</code>
+     *
+     * @param balances new balances by the Bank Account ids
+     * @param con      the <code>Connection</code> to be used for this query
+     * @throws ObjectModificationException if some of Bank Accounts will not be exists in the database at the moment
+     */
+    void updateBankAccountBalances(Map<Long, Money> balances, Connection con) throws ObjectModificationException {
+        if (balances.isEmpty()) {
+            return;
+        }
+
+        for (Long id : balances.keySet()) {
+            beginWrite(con, id);
         }
+
+        int[] results = dbUtils.executeQueryInConnection(con, UPDATE_BANK_ACCOUNT_BALANCE_SQL, updateBalances -> {
+            for (Map.Entry<Long, Money> balance : balances.entrySet()) {
+                updateBalances.setBigDecimal(1, balance.getValue().toBigDecimal());
+                updateBalances.setLong(2, balance.getKey());
+                updateBalances.addBatch();
+            }
+
+            return updateBalances.executeBatch();
+        }).getResult();
+
+        for (int result : results) {
+            if (result == 0) {
+                throw new ObjectModificationException(ExceptionType.OBJECT_IS_NOT_FOUND);
+            }
+        }
+    }
+
+    /**
+     * Completes all writes of Bank Account rows made in the connection provided, so they could be cached again. Should
+     * be called by the owner of the connection once it is committed or rolled back.
+     *
+     * @param con the <code>Connection</code> passed into the update methods
+     */
+    void completeWrites(Connection con) {
+        List<Long> ids = writesInProgress.remove(con);
+
+        if (ids != null) {
+            for (Long id : ids) {
+                cache.endWrite(id);
+            }
+        }
+    }
+
+    /**
+     * Marks the Bank Account as changed in the connection provided, so it is not cached till the connection is
+     * completed by {@link #completeWrites(Connection)}. Used directly once the balance is changed by the journal
+     * postings rather than the Bank Account row
+     */
+    void beginWrite(Connection con, Long id) {
+        cache.beginWrite(id);
+        writesInProgress.computeIfAbsent(con, c -> new ArrayList<>()).add(id);
     }
 
     /**
@@ -221,8 +376,9 @@ public class BankAccountDto {
         BankAccount bankAccount = new BankAccount();
         bankAccount.setId(bankAccountsRS.getLong(BANK_ACCOUNT_ID_ROW));
         bankAccount.setAccountHolderName(bankAccountsRS.getString(BANK_ACCOUNT_HOLDER_NAME_ROW));
-        bankAccount.setBalance(bankAccountsRS.getBigDecimal(BANK_ACCOUNT_BALANCE_ROW));
         bankAccount.setCurrency(Currency.valueOf(bankAccountsRS.getInt(BANK_ACCOUNT_CURRENCY_ID_ROW)));
+        bankAccount.setBalance(Money.of(bankAccountsRS.getBigDecimal(BANK_ACCOUNT_BALANCE_ROW),
+                bankAccount.getCurrency()));
 
         return bankAccount;
     }
@@ -254,7 +410,7 @@ public class BankAccountDto {
     private static void fillInPreparedStatement(PreparedStatement preparedStatement, BankAccount bankAccount) {
         try {
             preparedStatement.setString(1, bankAccount.getAccountHolderName());
-            preparedStatement.setBigDecimal(2, bankAccount.getBalance());
+            preparedStatement.setBigDecimal(2, bankAccount.getBalance().toBigDecimal());
             preparedStatement.setLong(3, bankAccount.getCurrency().getId());
         } catch (SQLException e) {
             log.error("BankAccount prepared statement could not be initialized by values", e);
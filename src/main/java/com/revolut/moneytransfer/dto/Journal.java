@@ -0,0 +1,319 @@
+package com.revolut.moneytransfer.dto;
+
+import com.revolut.moneytransfer.db.DbUtils;
+import com.revolut.moneytransfer.db.H2DataSource;
+import com.revolut.moneytransfer.exceptions.ImpossibleOperationExecution;
+import com.revolut.moneytransfer.model.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The append-only journal of immutable debit and credit postings. Used by {@link TransactionDto} instead of updating
+ * both Bank Account rows once the <code>moneytransfer.journal.enabled</code> system property is set to
+ * <code>true</code> and the {@link AccountLedger} is not enabled.
+ * <p>
+ * The balance of the Bank Account is its snapshot in the <code>bank_account</code> row plus all postings appended
+ * after the <code>journal_position</code> of the row. A transfer locks only the source Bank Account to check its
+ * balance and appends the debit and the credit postings, the recipient's row is neither locked nor written.
+ * <p>
+ * The compactor rolls postings into the snapshots every <code>moneytransfer.journal.compactInterval</code>
+ * milliseconds (1000 by default). Posting ids are generated before the commit, so the posting with a lower id could
+ * be committed after the one with a higher id. Appends share the lock from the insert till the commit while the
+ * compactor takes it exclusively to read the last posting id, so all postings up to that id are committed already
+ * and none of them is skipped. Postings themselves are never changed or deleted.
+ */
+public class Journal {
+    private static final Logger log = LoggerFactory.getLogger(Journal.class);
+
+    public static final String ENABLED_PROPERTY = "moneytransfer.journal.enabled";
+
+    private static final String JOURNAL_TABLE_NAME = "journal";
+    private static final String JOURNAL_ID_ROW = "id";
+    private static final String JOURNAL_BANK_ACCOUNT_ID_ROW = "bank_account_id";
+    private static final String JOURNAL_TRANSACTION_ID_ROW = "transaction_id";
+    private static final String JOURNAL_AMOUNT_ROW = "amount";
+    private static final String BANK_ACCOUNT_JOURNAL_POSITION_ROW = "journal_position";
+
+    private static final String INSERT_POSTING_SQL =
+            "insert into " + JOURNAL_TABLE_NAME +
+                    " (" +
+                    JOURNAL_BANK_ACCOUNT_ID_ROW + ", " +
+                    JOURNAL_TRANSACTION_ID_ROW + ", " +
+                    JOURNAL_AMOUNT_ROW +
+                    ") values (?, ?, ?)";
+    private static final String GET_LAST_POSTING_ID_SQL =
+            "select max(" + JOURNAL_ID_ROW + ") from " + JOURNAL_TABLE_NAME;
+    private static final String GET_COMPACTED_POSITION_SQL =
+            "select min(" + BANK_ACCOUNT_JOURNAL_POSITION_ROW + ") from bank_account";
+    private static final String GET_POSTED_BANK_ACCOUNT_IDS_SQL =
+            "select distinct " + JOURNAL_BANK_ACCOUNT_ID_ROW + " from " + JOURNAL_TABLE_NAME +
+                    " where " + JOURNAL_ID_ROW + " > ? and " + JOURNAL_ID_ROW + " <= ?";
+    private static final String GET_FOR_UPDATE_JOURNAL_POSITION_SQL =
+            "select " + BANK_ACCOUNT_JOURNAL_POSITION_ROW + " from bank_account where id = ? for update";
+    private static final String GET_POSTINGS_SUM_SQL =
+            "select sum(" + JOURNAL_AMOUNT_ROW + ") from " + JOURNAL_TABLE_NAME +
+                    " where " + JOURNAL_BANK_ACCOUNT_ID_ROW + " = ? " +
+                    "and " + JOURNAL_ID_ROW + " > ? and " + JOURNAL_ID_ROW + " <= ?";
+    private static final String COMPACT_BANK_ACCOUNT_SQL =
+            "update bank_account set balance = balance + ?, " + BANK_ACCOUNT_JOURNAL_POSITION_ROW + " = ? " +
+                    "where id = ?";
+
+    private static volatile Journal activeJournal;
+
+    private final DbUtils dbUtils;
+
+    //Appends share this lock till the commit while the compactor takes it exclusively to read the last posting id
+    private final ReadWriteLock appendLock = new ReentrantReadWriteLock();
+    private volatile long compactedPosition = -1;
+
+    private final AtomicLong compactedBankAccounts = new AtomicLong();
+
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    Journal(DbUtils dbUtils) {
+        this(dbUtils, Long.getLong("moneytransfer.journal.compactInterval", 1000));
+    }
+
+    Journal(DbUtils dbUtils, long compactIntervalMillis) {
+        this.dbUtils = dbUtils;
+
+        compactor.scheduleWithFixedDelay(this::compactQuietly, compactIntervalMillis, compactIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if transfers should be written into the journal. The {@link AccountLedger} writes balances
+     * directly, so the journal is never used together with it
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY) && !Boolean.getBoolean(AccountLedger.ENABLED_PROPERTY);
+    }
+
+    /**
+     * @return the journal used by the application to execute transactions or null if it is not enabled
+     */
+    public static Journal getActive() {
+        return activeJournal;
+    }
+
+    static void setActive(Journal journal) {
+        activeJournal = journal;
+    }
+
+    /**
+     * Builds the SQL expression of the sum of postings appended after the snapshot of the Bank Account
+     *
+     * @param bankAccountAlias the alias of the <code>bank_account</code> table in the query
+     */
+    static String getBalanceDeltaSql(String bankAccountAlias) {
+        return "coalesce((select sum(j." + JOURNAL_AMOUNT_ROW + ") from " + JOURNAL_TABLE_NAME + " j " +
+                "where j." + JOURNAL_BANK_ACCOUNT_ID_ROW + " = " + bankAccountAlias + ".id " +
+                "and j." + JOURNAL_ID_ROW + " > " + bankAccountAlias + "." + BANK_ACCOUNT_JOURNAL_POSITION_ROW +
+                "), 0)";
+    }
+
+    /**
+     * Should be called before the postings are appended. The caller should call {@link #endAppend()} once the
+     * connection is committed or rolled back. Nothing else should be waited for in between, as the compactor waits
+     * for all appends in progress.
+     */
+    void beginAppend() {
+        appendLock.readLock().lock();
+    }
+
+    void endAppend() {
+        appendLock.readLock().unlock();
+    }
+
+    /**
+     * Appends postings by one JDBC batch in the connection provided. Should be called between {@link #beginAppend()}
+     * and {@link #endAppend()}
+     *
+     * @param postings the postings to be appended
+     * @param con      the <code>Connection</code> to be used for this query
+     */
+    void append(Collection<Posting> postings, Connection con) {
+        if (postings.isEmpty()) {
+            return;
+        }
+
+        dbUtils.executeQueryInConnection(con, INSERT_POSTING_SQL, insertPostings -> {
+            for (Posting posting : postings) {
+                insertPostings.setLong(1, posting.bankAccountId);
+                insertPostings.setLong(2, posting.transactionId);
+                insertPostings.setBigDecimal(3, posting.amount.toBigDecimal());
+                insertPostings.addBatch();
+            }
+
+            return insertPostings.executeBatch();
+        });
+    }
+
+    /**
+     * Rolls all committed postings into the snapshots of their Bank Accounts. Every Bank Account is compacted in its
+     * own database's transaction, so its row is locked only for a moment. The balance read by anyone is the same
+     * before and after the compaction.
+     */
+    public void compact() {
+        if (compactedPosition < 0) {
+            compactedPosition = dbUtils.executeReadOnlyQuery(GET_COMPACTED_POSITION_SQL, this::getLong).getResult();
+        }
+
+        long lastPostingId;
+        //The connection is taken before the lock, as appends waiting for the lock hold their connections
+        Connection con = H2DataSource.getConnection();
+        try {
+            appendLock.writeLock().lock();
+            try {
+                lastPostingId = dbUtils.executeQueryInConnection(con, GET_LAST_POSTING_ID_SQL, this::getLong)
+                        .getResult();
+            } finally {
+                appendLock.writeLock().unlock();
+            }
+        } finally {
+            DbUtils.quietlyClose(con);
+        }
+
+        if (lastPostingId <= compactedPosition) {
+            return;
+        }
+
+        List<Long> bankAccountIds = dbUtils.executeReadOnlyQuery(GET_POSTED_BANK_ACCOUNT_IDS_SQL, getBankAccountIds -> {
+            List<Long> ids = new ArrayList<>();
+
+            getBankAccountIds.setLong(1, compactedPosition);
+            getBankAccountIds.setLong(2, lastPostingId);
+            try (ResultSet bankAccountIdsRS = getBankAccountIds.executeQuery()) {
+                while (bankAccountIdsRS.next()) {
+                    ids.add(bankAccountIdsRS.getLong(1));
+                }
+            }
+
+            return ids;
+        }).getResult();
+
+        for (Long bankAccountId : bankAccountIds) {
+            compact(bankAccountId, lastPostingId);
+        }
+
+        compactedPosition = lastPostingId;
+    }
+
+    /**
+     * @return the id of the last posting rolled into the snapshots or -1 if the journal has not been compacted yet
+     */
+    public long getCompactedPosition() {
+        return compactedPosition;
+    }
+
+    /**
+     * @return the number of times when the snapshot of the Bank Account has been changed by the compactor
+     */
+    public long getCompactedBankAccountsCount() {
+        return compactedBankAccounts.get();
+    }
+
+    public void shutdown() {
+        compactor.shutdown();
+    }
+
+    private void compact(Long bankAccountId, long lastPostingId) {
+        Connection con = H2DataSource.getConnection();
+
+        try {
+            Long position = dbUtils.executeQueryInConnection(con, GET_FOR_UPDATE_JOURNAL_POSITION_SQL, getPosition -> {
+                getPosition.setLong(1, bankAccountId);
+                try (ResultSet positionRS = getPosition.executeQuery()) {
+                    return positionRS.next() ? positionRS.getLong(1) : null;
+                }
+            }).getResult();
+
+            if (position == null || position >= lastPostingId) {
+                return;
+            }
+
+            BigDecimal postingsSum = dbUtils.executeQueryInConnection(con, GET_POSTINGS_SUM_SQL, getSum -> {
+                getSum.setLong(1, bankAccountId);
+                getSum.setLong(2, position);
+                getSum.setLong(3, lastPostingId);
+                try (ResultSet sumRS = getSum.executeQuery()) {
+                    BigDecimal sum = sumRS.next() ? sumRS.getBigDecimal(1) : null;
+                    return sum == null ? BigDecimal.ZERO : sum;
+                }
+            }).getResult();
+
+            dbUtils.executeQueryInConnection(con, COMPACT_BANK_ACCOUNT_SQL, compactBankAccount -> {
+                compactBankAccount.setBigDecimal(1, postingsSum);
+                compactBankAccount.setLong(2, lastPostingId);
+                compactBankAccount.setLong(3, bankAccountId);
+
+                return compactBankAccount.executeUpdate();
+            });
+
+            con.commit();
+
+            compactedBankAccounts.incrementAndGet();
+        } catch (RuntimeException | SQLException e) {
+            DbUtils.safeRollback(con);
+            throw new ImpossibleOperationExecution(e);
+        } finally {
+            DbUtils.quietlyClose(con);
+        }
+    }
+
+    private long getLong(PreparedStatement preparedStatement) throws SQLException {
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            log.error("The journal could not be compacted, it will be compacted by the next cycle", e);
+        }
+    }
+
+    /**
+     * The change of the Bank Account balance made by the transaction. Debits are negative, credits are positive
+     */
+    static class Posting {
+        private final Long bankAccountId;
+        private final Long transactionId;
+        private final Money amount;
+
+        Posting(Long bankAccountId, Long transactionId, Money amount) {
+            this.bankAccountId = bankAccountId;
+            this.transactionId = transactionId;
+            this.amount = amount;
+        }
+
+        Long getBankAccountId() {
+            return bankAccountId;
+        }
+
+        Money getAmount() {
+            return amount;
+        }
+    }
+}
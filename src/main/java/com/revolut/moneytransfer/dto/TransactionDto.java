@@ -4,17 +4,32 @@ import com.revolut.moneytransfer.db.DbUtils;
 import com.revolut.moneytransfer.db.H2DataSource;
 import com.revolut.moneytransfer.exceptions.ImpossibleOperationExecution;
 import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.service.ExchangeRates;
 import com.revolut.moneytransfer.service.MoneyExchangeService;
 import com.revolut.moneytransfer.model.*;
+import org.h2.api.ErrorCode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.math.BigDecimal;
 import java.sql.*;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Encapsulates all logic for Transaction entity which is related to the database. Implements the singleton pattern
@@ -32,24 +47,128 @@ public class TransactionDto {
     private static final String TRANSACTION_UPDATE_DATE_ROW = "update_date";
     private static final String TRANSACTION_STATUS_ROW = "status_id";
     private static final String FAIL_MESSAGE_ROW = "failMessage";
+    private static final String TRANSACTION_RATE_VERSION_ROW = "rate_version";
+    private static final String TRANSACTION_IDEMPOTENCY_KEY_ROW = "idempotency_key";
+    private static final String TRANSACTION_STATUS_INDEX = "transaction_status_id_idx";
+    private static final String TRANSACTION_FROM_ACCOUNT_INDEX = "transaction_from_account_id_idx";
+    private static final String TRANSACTION_TO_ACCOUNT_INDEX = "transaction_to_account_id_idx";
+    private static final String TRANSACTION_CREATION_DATE_INDEX = "transaction_creation_date_idx";
 
     public static final String GET_ALL_TRANSACTIONS_SQL = "select * from " + TRANSACTION_TABLE_NAME;
+    public static final String GET_TRANSACTIONS_PAGE_SQL =
+            "select * from " + TRANSACTION_TABLE_NAME + " trans " +
+                    "where trans." + TRANSACTION_ID_ROW + " > ? " +
+                    "order by trans." + TRANSACTION_ID_ROW + " " +
+                    "limit ?";
+    public static final String GET_TRANSACTIONS_AFTER_SQL =
+            "select * from " + TRANSACTION_TABLE_NAME + " trans " +
+                    "where trans." + TRANSACTION_ID_ROW + " > ? " +
+                    "order by trans." + TRANSACTION_ID_ROW;
+    public static final String GET_TRANSACTIONS_CREATED_BETWEEN_SQL =
+            "select * from " + TRANSACTION_TABLE_NAME + " trans use index (" + TRANSACTION_CREATION_DATE_INDEX + ") " +
+                    "where trans." + TRANSACTION_CREATION_DATE_ROW + " >= ? " +
+                    "and trans." + TRANSACTION_CREATION_DATE_ROW + " < ? " +
+                    //Ordering by the index columns lets H2 stream rows lazily instead of sorting the whole result
+                    "order by trans." + TRANSACTION_CREATION_DATE_ROW + ", trans." + TRANSACTION_ID_ROW;
     public static final String GET_TRANSACTIONS_BY_STATUS_SQL =
             "select id from " + TRANSACTION_TABLE_NAME + " trans " +
                     "where trans." + TRANSACTION_STATUS_ROW + " = ?";
+    public static final String GET_TRANSACTIONS_PAGE_BY_STATUS_SQL =
+            "select * from " + TRANSACTION_TABLE_NAME + " trans use index (" + TRANSACTION_STATUS_INDEX + ") " +
+                    "where trans." + TRANSACTION_STATUS_ROW + " = ? " +
+                    "and trans." + TRANSACTION_ID_ROW + " > ? " +
+                    //Ordering by both index columns lets H2 read the index in order and stop at the limit
+                    "order by trans." + TRANSACTION_STATUS_ROW + ", trans." + TRANSACTION_ID_ROW + " " +
+                    "limit ?";
+    public static final String GET_OUTGOING_TRANSACTIONS_PAGE_SQL =
+            getBankAccountTransactionsPageSql(TRANSACTION_FROM_ACCOUNT_ROW, TRANSACTION_FROM_ACCOUNT_INDEX);
+    public static final String GET_INCOMING_TRANSACTIONS_PAGE_SQL =
+            getBankAccountTransactionsPageSql(TRANSACTION_TO_ACCOUNT_ROW, TRANSACTION_TO_ACCOUNT_INDEX);
     public static final String GET_TRANSACTIONS_BY_ID_SQL =
             "select * from " + TRANSACTION_TABLE_NAME + " trans " +
                     "where trans." + TRANSACTION_ID_ROW + " = ?";
+    public static final String GET_TRANSACTION_BY_IDEMPOTENCY_KEY_SQL =
+            "select * from " + TRANSACTION_TABLE_NAME + " trans " +
+                    "where trans." + TRANSACTION_IDEMPOTENCY_KEY_ROW + " = ?";
     public static final String GET_TRANSACTIONS_FOR_UPDATE_BY_ID_SQL =
             GET_TRANSACTIONS_BY_ID_SQL + " for update";
+    private static final String INSERT_TRANSACTION_SQL =
+            "insert into " + TRANSACTION_TABLE_NAME +
+                    " (" +
+                    TRANSACTION_FROM_ACCOUNT_ROW + ", " +
+                    TRANSACTION_TO_ACCOUNT_ROW + ", " +
+                    TRANSACTION_AMOUNT_ROW + ", " +
+                    TRANSACTION_CURRENCY_ROW + ", " +
+                    TRANSACTION_STATUS_ROW + ", " +
+                    FAIL_MESSAGE_ROW + ", " +
+                    TRANSACTION_CREATION_DATE_ROW + ", " +
+                    TRANSACTION_UPDATE_DATE_ROW + ", " +
+                    TRANSACTION_IDEMPOTENCY_KEY_ROW +
+                    ") values (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_TRANSACTION_SQL =
+            "update " + TRANSACTION_TABLE_NAME +
+                    " set " +
+                    TRANSACTION_STATUS_ROW + " = ?, " +
+                    FAIL_MESSAGE_ROW + " = ?, " +
+                    TRANSACTION_RATE_VERSION_ROW + " = ?, " +
+                    TRANSACTION_UPDATE_DATE_ROW + " = ? " +
+                    "where " + TRANSACTION_ID_ROW + " = ?";
+
+    private static final String NOT_ENOUGH_MONEY_FAIL_MESSAGE = "There is no enough money. Current balance is %f";
+    private static final String NOT_ENOUGH_MONEY_MESSAGE =
+            "The specified bank account could not transfer this amount of money. " +
+                    "His balance does not have enough money";
+
+    private static final long BASE_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 200;
 
     private static TransactionDto transactionDto;
     private BankAccountDto bankAccountDto = BankAccountDto.getInstance();
     private DbUtils dbUtils = DbUtils.getInstance();
     private MoneyExchangeService moneyExchangeService;
+    private int maxLockAttempts = Integer.getInteger("moneytransfer.lock.maxAttempts", 5);
+    private int batchCommitSize = Integer.getInteger("moneytransfer.batch.commitSize", 1000);
+    private final AtomicLong lockConflicts = new AtomicLong();
+    private final AtomicLong lockRetries = new AtomicLong();
+    private AccountLedger accountLedger;
+    private Journal journal;
+    private BalanceSlots balanceSlots;
+    private AccountTurnover accountTurnover;
 
     private TransactionDto(MoneyExchangeService moneyExchangeService) {
+        this(moneyExchangeService, Boolean.getBoolean(AccountLedger.ENABLED_PROPERTY));
+        AccountLedger.setActive(accountLedger);
+        Journal.setActive(journal);
+        BalanceSlots.setActive(balanceSlots);
+    }
+
+    /**
+     * @param useLedger if true all balances checks and transfers will be done by the in-memory {@link AccountLedger}
+     *                  instead of the SQL queries. Otherwise transfers are written into the {@link Journal} if it is
+     *                  enabled. Credits of the hot Bank Accounts go to their {@link BalanceSlots} only if neither of
+     *                  them is used
+     */
+    TransactionDto(MoneyExchangeService moneyExchangeService, boolean useLedger) {
         this.moneyExchangeService = moneyExchangeService;
+
+        //Slots are moved into the rows before the ledger loads balances
+        balanceSlots = new BalanceSlots(dbUtils, useLedger || Journal.isEnabled() ?
+                Collections.emptySet() : BalanceSlots.getConfiguredHotBankAccountIds());
+        balanceSlots.initialize();
+
+        //The turnover is rebuilt before the ledger writes the recovered transfers into it
+        accountTurnover = new AccountTurnover(dbUtils);
+        if (Boolean.getBoolean(AccountTurnover.REBUILD_PROPERTY)) {
+            accountTurnover.rebuild(moneyExchangeService);
+        }
+
+        if (useLedger) {
+            accountLedger = new AccountLedger(bankAccountDto, this);
+            accountLedger.reload();
+            accountLedger.recover();
+        } else if (Journal.isEnabled()) {
+            journal = new Journal(dbUtils);
+        }
     }
 
     //Just for testing purpose
@@ -69,12 +188,39 @@ public class TransactionDto {
     }
 
     /**
-     * @return All Transactions which is exists in the database at the moment
-     *
-     * TODO: add multipaging
+     * @return the in-memory ledger used to execute transactions or null if transactions are executed by the SQL queries
+     */
+    public AccountLedger getAccountLedger() {
+        return accountLedger;
+    }
+
+    /**
+     * @return the journal transfers are appended into or null if balances are updated in place
+     */
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return the balance slots credits of the hot Bank Accounts are added to
+     */
+    public BalanceSlots getBalanceSlots() {
+        return balanceSlots;
+    }
+
+    /**
+     * @return the daily turnover aggregate maintained by transaction execution
+     */
+    public AccountTurnover getAccountTurnover() {
+        return accountTurnover;
+    }
+
+    /**
+     * @return All Transactions which is exists in the database at the moment. The whole table is loaded in memory,
+     * so use {@link #getTransactionsPage(Long, int)} or {@link #streamTransactions(Long, Consumer)} for big tables
      */
     public Collection<Transaction> getAllTransactions() {
-        return dbUtils.executeQuery(GET_ALL_TRANSACTIONS_SQL, getAllTransactions -> {
+        return dbUtils.executeReadOnlyQuery(GET_ALL_TRANSACTIONS_SQL, getAllTransactions -> {
             Collection<Transaction> transactions = new ArrayList<>();
 
             try (ResultSet transactionsRS = getAllTransactions.executeQuery()) {
@@ -89,6 +235,145 @@ public class TransactionDto {
         }).getResult();
     }
 
+    /**
+     * Returns the page of Transactions ordered by id. The next page starts after the id of the last Transaction of
+     * the previous one.
+     *
+     * @param after the id after which the page starts or null to get the first page
+     * @param limit the maximum number of Transactions in the page
+     *
+     * @return Transactions with ids more than <code>after</code> in ascending order of ids
+     */
+    public List<Transaction> getTransactionsPage(Long after, int limit) {
+        return dbUtils.executeReadOnlyQuery(GET_TRANSACTIONS_PAGE_SQL, getTransactions -> {
+            List<Transaction> transactions = new ArrayList<>(limit);
+
+            getTransactions.setLong(1, after == null ? Long.MIN_VALUE : after);
+            getTransactions.setInt(2, limit);
+            try (ResultSet transactionsRS = getTransactions.executeQuery()) {
+                while (transactionsRS.next()) {
+                    transactions.add(extractTransactionFromResultSet(transactionsRS));
+                }
+            }
+
+            return transactions;
+        }).getResult();
+    }
+
+    /**
+     * Passes Transactions ordered by id to the consumer one by one while they are read from the database. Only
+     * {@link DbUtils#STREAM_FETCH_SIZE} rows are held in memory at once.
+     *
+     * @param after    the id after which Transactions are read or null to read all of them
+     * @param consumer the consumer of Transactions
+     */
+    public void streamTransactions(Long after, Consumer<Transaction> consumer) {
+        dbUtils.executeStreamingQuery(GET_TRANSACTIONS_AFTER_SQL, DbUtils.STREAM_FETCH_SIZE, getTransactions -> {
+            getTransactions.setLong(1, after == null ? Long.MIN_VALUE : after);
+            try (ResultSet transactionsRS = getTransactions.executeQuery()) {
+                while (transactionsRS.next()) {
+                    consumer.accept(extractTransactionFromResultSet(transactionsRS));
+                }
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * Passes Transactions created in the period to the consumer one by one while they are read from the database by
+     * the forward-only cursor. Only {@link DbUtils#STREAM_FETCH_SIZE} rows are held in memory at once. Transactions
+     * are ordered by the creation date and then by id.
+     *
+     * @param from     the first day of the period or null to read from the first Transaction
+     * @param to       the last day of the period, inclusive, or null to read till the last Transaction
+     * @param consumer the consumer of Transactions
+     */
+    public void streamTransactions(LocalDate from, LocalDate to, Consumer<Transaction> consumer) {
+        if (from == null && to == null) {
+            streamTransactions((Long) null, consumer);
+            return;
+        }
+
+        dbUtils.executeStreamingQuery(GET_TRANSACTIONS_CREATED_BETWEEN_SQL, DbUtils.STREAM_FETCH_SIZE,
+                getTransactions -> {
+                    getTransactions.setDate(1, from == null ? new Date(0) : Date.valueOf(from));
+                    getTransactions.setDate(2, to == null ? Date.valueOf(LocalDate.of(9999, 12, 31)) :
+                            Date.valueOf(to.plusDays(1)));
+                    try (ResultSet transactionsRS = getTransactions.executeQuery()) {
+                        while (transactionsRS.next()) {
+                            consumer.accept(extractTransactionFromResultSet(transactionsRS));
+                        }
+                    }
+
+                    return null;
+                });
+    }
+
+    /**
+     * Returns the page of incoming and outgoing Transactions of the Bank Account, the newest ones first. The next page
+     * starts before the id of the last Transaction of the previous one.
+     * <p>
+     * Outgoing and incoming Transactions are read by the <code>(from_account_id, id DESC)</code> and
+     * <code>(to_account_id, id DESC)</code> indexes. Each query reads at most <code>limit</code> index entries right
+     * from the cursor, and the two pages are merged in memory. So the cost of the page doesn't depend on the size of
+     * the Bank Account history.
+     *
+     * @param bankAccountId the id of the Bank Account
+     * @param before        the id before which the page starts or null to get the first page
+     * @param limit         the maximum number of Transactions in the page
+     *
+     * @return Transactions with ids less than <code>before</code> in descending order of ids
+     */
+    public List<Transaction> getBankAccountTransactionsPage(Long bankAccountId, Long before, int limit) {
+        List<Transaction> outgoing = getBankAccountTransactionsPage(GET_OUTGOING_TRANSACTIONS_PAGE_SQL,
+                bankAccountId, before, limit);
+        List<Transaction> incoming = getBankAccountTransactionsPage(GET_INCOMING_TRANSACTIONS_PAGE_SQL,
+                bankAccountId, before, limit);
+
+        List<Transaction> transactions = new ArrayList<>(limit);
+        int outgoingIndex = 0;
+        int incomingIndex = 0;
+
+        while (transactions.size() < limit && (outgoingIndex < outgoing.size() || incomingIndex < incoming.size())) {
+            if (incomingIndex == incoming.size() || outgoingIndex < outgoing.size() &&
+                    outgoing.get(outgoingIndex).getId() > incoming.get(incomingIndex).getId()) {
+                transactions.add(outgoing.get(outgoingIndex++));
+            } else {
+                transactions.add(incoming.get(incomingIndex++));
+            }
+        }
+
+        return transactions;
+    }
+
+    private List<Transaction> getBankAccountTransactionsPage(String query, Long bankAccountId, Long before,
+                                                             int limit) {
+        return dbUtils.executeReadOnlyQuery(query, getTransactions -> {
+            List<Transaction> transactions = new ArrayList<>(limit);
+
+            getTransactions.setLong(1, bankAccountId);
+            getTransactions.setLong(2, before == null ? Long.MAX_VALUE : before);
+            getTransactions.setInt(3, limit);
+            try (ResultSet transactionsRS = getTransactions.executeQuery()) {
+                while (transactionsRS.next()) {
+                    transactions.add(extractTransactionFromResultSet(transactionsRS));
+                }
+            }
+
+            return transactions;
+        }).getResult();
+    }
+
+    private static String getBankAccountTransactionsPageSql(String bankAccountRow, String index) {
+        return "select * from " + TRANSACTION_TABLE_NAME + " trans use index (" + index + ") " +
+                "where trans." + bankAccountRow + " = ? " +
+                "and trans." + TRANSACTION_ID_ROW + " < ? " +
+                //Ordering in the index order lets H2 read the index from the cursor and stop at the limit
+                "order by trans." + bankAccountRow + ", trans." + TRANSACTION_ID_ROW + " desc " +
+                "limit ?";
+    }
+
     /**
      * Returns the list of Transactions which has specified status
      *
@@ -101,7 +386,7 @@ public class TransactionDto {
             return null;
         }
 
-        return dbUtils.executeQuery(GET_TRANSACTIONS_BY_STATUS_SQL, getTransactionsByStatus -> {
+        return dbUtils.executeReadOnlyQuery(GET_TRANSACTIONS_BY_STATUS_SQL, getTransactionsByStatus -> {
             Collection<Long> transactionIds = new ArrayList<>();
 
             getTransactionsByStatus.setLong(1, transactionStatus.getId());
@@ -117,6 +402,41 @@ public class TransactionDto {
         }).getResult();
     }
 
+    /**
+     * Returns the page of Transactions which has specified status in the order of creation. Unlike
+     * {@link #getAllTransactionIdsByStatus(TransactionStatus)} the whole objects are returned, so the caller is able
+     * to distribute them by the related Bank Accounts.
+     * <p>
+     * The query is served by the <code>(status_id, id)</code> index, so its cost depends on the number of
+     * Transactions in the status and not on the size of the whole history.
+     *
+     * @param transactionStatus transaction's status to be returned
+     * @param after             the id after which the page starts or null to get the first page
+     * @param limit             the maximum number of Transactions in the page
+     *
+     * @return list of Transactions which has the status provided ordered by id
+     */
+    public List<Transaction> getTransactionsByStatus(TransactionStatus transactionStatus, Long after, int limit) {
+        if (transactionStatus == null) {
+            return null;
+        }
+
+        return dbUtils.executeReadOnlyQuery(GET_TRANSACTIONS_PAGE_BY_STATUS_SQL, getTransactionsByStatus -> {
+            List<Transaction> transactions = new ArrayList<>(limit);
+
+            getTransactionsByStatus.setLong(1, transactionStatus.getId());
+            getTransactionsByStatus.setLong(2, after == null ? Long.MIN_VALUE : after);
+            getTransactionsByStatus.setInt(3, limit);
+            try (ResultSet transactionsRS = getTransactionsByStatus.executeQuery()) {
+                while (transactionsRS.next()) {
+                    transactions.add(extractTransactionFromResultSet(transactionsRS));
+                }
+            }
+
+            return transactions;
+        }).getResult();
+    }
+
     /**
      * Returns Transaction object by id specified
      *
@@ -125,7 +445,7 @@ public class TransactionDto {
      * @return Trnasaction object with id specified
      */
     public Transaction getTransactionById(Long id) {
-        return dbUtils.executeQuery(GET_TRANSACTIONS_BY_ID_SQL, getTransactionById -> {
+        return dbUtils.executeReadOnlyQuery(GET_TRANSACTIONS_BY_ID_SQL, getTransactionById -> {
             getTransactionById.setLong(1, id);
             try (ResultSet transactionRS = getTransactionById.executeQuery()) {
                 if (transactionRS != null && transactionRS.first()) {
@@ -137,6 +457,42 @@ public class TransactionDto {
         }).getResult();
     }
 
+    /**
+     * @param id Transaction id
+     *
+     * @return true if the transaction is not in PLANNED status any more or the {@link AccountLedger} has executed it
+     * already but has not written it into the database yet
+     */
+    public boolean isExecuted(Long id) {
+        if (accountLedger != null && accountLedger.isNotWritten(id)) {
+            return true;
+        }
+
+        Transaction transaction = getTransactionById(id);
+
+        return transaction != null && transaction.getStatus() != TransactionStatus.PLANNED;
+    }
+
+    /**
+     * Returns Transaction object created with the idempotency key specified
+     *
+     * @param idempotencyKey the key provided by the client on the transaction creation
+     *
+     * @return Transaction object with the key specified or null if there is no such transaction
+     */
+    public Transaction getTransactionByIdempotencyKey(String idempotencyKey) {
+        return dbUtils.executeReadOnlyQuery(GET_TRANSACTION_BY_IDEMPOTENCY_KEY_SQL, getTransaction -> {
+            getTransaction.setString(1, idempotencyKey);
+            try (ResultSet transactionRS = getTransaction.executeQuery()) {
+                if (transactionRS != null && transactionRS.first()) {
+                    return extractTransactionFromResultSet(transactionRS);
+                }
+            }
+
+            return null;
+        }).getResult();
+    }
+
     /**
      * The method is creating the Transaction object provided. The main idea of the implementation is to make all the
      * operations related to transaction creation in one database's transaction. Operations are:
@@ -149,10 +505,14 @@ public class TransactionDto {
      * one instance of the server will be broken.
      *
      * If something goes wrong all changes will be rolled back.
+     * Once the {@link AccountLedger} is used the balance is checked in memory and only the transaction is inserted.
      * Another problem is multithreading. To resolve this problem we are using database locking mechanism
      * <code>SELECT ... FOR UPDATE</code>. All rows returned by this clause will be blocked until transaction will
      * be commited.
      *
+     * If the transaction has the idempotency key which has been used already the transaction created with this key
+     * is returned instead. The unique index of the key guarantees that only one of concurrent duplicates is created.
+     *
      * @param transaction Transaction to be created.
      *
      * @return created transaction with ID generated. null or exception if object has not been created
@@ -160,46 +520,65 @@ public class TransactionDto {
      * @throws ObjectModificationException will be thrown if balance of the customer will be not enough for the moment.
      */
     public Transaction createTransaction(Transaction transaction) throws ObjectModificationException {
-        String INSERT_TRANSACTION_SQL =
-                "insert into " + TRANSACTION_TABLE_NAME +
-                        " (" +
-                        TRANSACTION_FROM_ACCOUNT_ROW + ", " +
-                        TRANSACTION_TO_ACCOUNT_ROW + ", " +
-                        TRANSACTION_AMOUNT_ROW + ", " +
-                        TRANSACTION_CURRENCY_ROW + ", " +
-                        TRANSACTION_STATUS_ROW + ", " +
-                        FAIL_MESSAGE_ROW + ", " +
-                        TRANSACTION_CREATION_DATE_ROW + ", " +
-                        TRANSACTION_UPDATE_DATE_ROW +
-                        ") values (?, ?, ?, ?, ?, ?, ?, ?)";
+        try {
+            return insertTransaction(transaction);
+        } catch (ImpossibleOperationExecution e) {
+            if (transaction.getIdempotencyKey() != null && isDuplicateKey(e)) {
+                Transaction originalTransaction = getTransactionByIdempotencyKey(transaction.getIdempotencyKey());
 
+                if (originalTransaction != null) {
+                    return originalTransaction;
+                }
+            }
+
+            throw e;
+        }
+    }
+
+    private Transaction insertTransaction(Transaction transaction) throws ObjectModificationException {
         verify(transaction);
 
+        if (accountLedger != null) {
+            if (!accountLedger.hasEnoughMoney(transaction, moneyExchangeService)) {
+                throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED, NOT_ENOUGH_MONEY_MESSAGE);
+            }
+
+            TransactionCreationQueryExecutor creation = new TransactionCreationQueryExecutor(transaction);
+            transaction = dbUtils.executeQuery(INSERT_TRANSACTION_SQL, creation).getResult();
+
+            if (creation.duplicateKey != null) {
+                throw new ImpossibleOperationExecution(creation.duplicateKey);
+            }
+            if (transaction == null) {
+                throw new ObjectModificationException(ExceptionType.COULD_NOT_OBTAIN_ID);
+            }
+
+            return transaction;
+        }
+
         Connection con = H2DataSource.getConnection();
 
         try {
             BankAccount fromBankAccount = bankAccountDto.
                     getForUpdateBankAccountById(con, transaction.getFromBankAccountId());
 
-            BigDecimal amountToWithdraw = moneyExchangeService.exchange(
+            Money amountToWithdraw = moneyExchangeService.exchange(
                     transaction.getAmount(),
-                    transaction.getCurrency(),
                     fromBankAccount.getCurrency()
             );
 
-            //Check that from bank account has enough money
+            //Check that from bank account has enough money. The lock is held till the transaction is inserted
             if (fromBankAccount.getBalance()
                     .compareTo(amountToWithdraw) < 0) {
-                throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED,
-                        "The specified bank account could not transfer this amount of money. " +
-                                "His balance does not have enough money");
+                throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED, NOT_ENOUGH_MONEY_MESSAGE);
             }
 
-            bankAccountDto.updateBankAccount(fromBankAccount, con);
-
-            transaction = dbUtils.executeQueryInConnection(con, INSERT_TRANSACTION_SQL,
-                    new DbUtils.CreationQueryExecutor<>(transaction, TransactionDto::fillInPreparedStatement)).getResult();
+            TransactionCreationQueryExecutor creation = new TransactionCreationQueryExecutor(transaction);
+            transaction = dbUtils.executeQueryInConnection(con, INSERT_TRANSACTION_SQL, creation).getResult();
 
+            if (creation.duplicateKey != null) {
+                throw creation.duplicateKey;
+            }
             if (transaction == null) {
                 throw new ObjectModificationException(ExceptionType.COULD_NOT_OBTAIN_ID);
             }
@@ -207,9 +586,14 @@ public class TransactionDto {
             con.commit();
         } catch (RuntimeException | SQLException e) {
             DbUtils.safeRollback(con);
-            log.error("Unexpected exception", e);
+            if (isDuplicateKey(e)) {
+                log.debug("The idempotency key of the transaction has been used already", e);
+            } else {
+                log.error("Unexpected exception", e);
+            }
             throw new ImpossibleOperationExecution(e);
         } finally {
+            bankAccountDto.completeWrites(con);
             DbUtils.quietlyClose(con);
         }
 
@@ -217,6 +601,159 @@ public class TransactionDto {
 
     }
 
+    /**
+     * Batch form of {@link #createTransaction(Transaction)}. Transactions are created by chunks of
+     * <code>moneytransfer.batch.commitSize</code> transactions. Each chunk is created in one database's transaction:
+     * all related Bank Accounts are locked once in ascending order of their ids, balances are checked and accepted
+     * transactions are inserted by one JDBC batch before the commit.
+     *
+     * If one transaction could not be created it is reported and the rest of them will be created anyway. If the
+     * chunk could not lock the rows in time it is retried up to <code>moneytransfer.lock.maxAttempts</code> times,
+     * after that all transactions of the chunk are reported as failed ones.
+     *
+     * @param transactions Transactions to be created
+     *
+     * @return the list of the same size as provided one. The element is null if the corresponding transaction has been
+     * created and has ID generated, otherwise it is the reason why the transaction has not been created
+     */
+    public List<ObjectModificationException> createTransactions(List<Transaction> transactions) {
+        List<ObjectModificationException> errors = new ArrayList<>(transactions.size());
+
+        for (int from = 0; from < transactions.size(); from += batchCommitSize) {
+            List<Transaction> chunk = transactions.subList(from, Math.min(from + batchCommitSize, transactions.size()));
+
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    errors.addAll(createTransactionsChunk(chunk));
+                    break;
+                } catch (ImpossibleOperationExecution e) {
+                    if (attempt < maxLockAttempts && isLockConflict(e)) {
+                        lockRetries.incrementAndGet();
+                        backoff(attempt);
+                        continue;
+                    }
+
+                    ObjectModificationException error = new ObjectModificationException(
+                            ExceptionType.UNEXPECTED_EXCEPTION, e.getCause());
+                    for (int i = 0; i < chunk.size(); i++) {
+                        errors.add(error);
+                    }
+                    break;
+                }
+            }
+        }
+
+        return errors;
+    }
+
+    private List<ObjectModificationException> createTransactionsChunk(List<Transaction> transactions) {
+        List<ObjectModificationException> errors = new ArrayList<>(transactions.size());
+        List<Transaction> acceptedTransactions = new ArrayList<>(transactions.size());
+
+        Connection con = H2DataSource.getConnection();
+
+        try {
+            Map<Long, BankAccount> lockedBankAccounts = accountLedger == null ?
+                    lockBankAccounts(transactions, con) : Collections.emptyMap();
+
+            for (Transaction transaction : transactions) {
+                try {
+                    verify(transaction);
+                    verifyTransfer(transaction, lockedBankAccounts);
+
+                    acceptedTransactions.add(transaction);
+                    errors.add(null);
+                } catch (ObjectModificationException e) {
+                    errors.add(e);
+                }
+            }
+
+            dbUtils.executeQueryInConnection(con, INSERT_TRANSACTION_SQL, new DbUtils.BatchCreationQueryExecutor<>(
+                    acceptedTransactions, TransactionDto::fillInPreparedStatement));
+
+            con.commit();
+        } catch (RuntimeException | SQLException e) {
+            DbUtils.safeRollback(con);
+            for (Transaction transaction : acceptedTransactions) {
+                transaction.setId(null);
+            }
+            if (isLockConflict(e)) {
+                lockConflicts.incrementAndGet();
+            }
+            log.error("Unexpected exception", e);
+            throw new ImpossibleOperationExecution(e);
+        } finally {
+            DbUtils.quietlyClose(con);
+        }
+
+        return errors;
+    }
+
+    /**
+     * Locks all Bank Accounts related to the transactions in ascending order of their ids. The hot recipients are
+     * not locked as their credits don't need the row
+     *
+     * @return locked Bank Accounts by their ids. Absent Bank Accounts are not in the map
+     */
+    private Map<Long, BankAccount> lockBankAccounts(List<Transaction> transactions, Connection con) {
+        SortedSet<Long> bankAccountIds = new TreeSet<>();
+        for (Transaction transaction : transactions) {
+            if (transaction.getFromBankAccountId() != null && transaction.getToBankAccountId() != null) {
+                bankAccountIds.add(transaction.getFromBankAccountId());
+                if (!isHot(transaction.getToBankAccountId())) {
+                    bankAccountIds.add(transaction.getToBankAccountId());
+                }
+            }
+        }
+
+        Map<Long, BankAccount> lockedBankAccounts = new HashMap<>();
+        for (Long bankAccountId : bankAccountIds) {
+            BankAccount bankAccount = bankAccountDto.getForUpdateBankAccountById(con, bankAccountId);
+            if (bankAccount != null) {
+                lockedBankAccounts.put(bankAccountId, bankAccount);
+            }
+        }
+
+        return lockedBankAccounts;
+    }
+
+    /**
+     * Checks that both Bank Accounts of the transaction exist and the source one has enough money. Once the
+     * {@link AccountLedger} is used the balance is checked in memory, otherwise locked Bank Accounts are used.
+     *
+     * @throws ObjectModificationException if the transaction could not be created
+     */
+    private void verifyTransfer(Transaction transaction, Map<Long, BankAccount> lockedBankAccounts)
+            throws ObjectModificationException {
+        if (accountLedger != null) {
+            //Throws the exception if the recipient doesn't exist
+            accountLedger.getBalance(transaction.getToBankAccountId());
+
+            if (!accountLedger.hasEnoughMoney(transaction, moneyExchangeService)) {
+                throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED, NOT_ENOUGH_MONEY_MESSAGE);
+            }
+
+            return;
+        }
+
+        BankAccount fromBankAccount = lockedBankAccounts.get(transaction.getFromBankAccountId());
+        Long toBankAccountId = transaction.getToBankAccountId();
+        if (fromBankAccount == null || !lockedBankAccounts.containsKey(toBankAccountId) &&
+                (!isHot(toBankAccountId) || bankAccountDto.getBankAccountById(toBankAccountId) == null)) {
+            throw new ObjectModificationException(ExceptionType.OBJECT_IS_NOT_FOUND,
+                    "The sender or recipient Bank Account doesn't exist");
+        }
+
+        Money amountToWithdraw = moneyExchangeService.exchange(
+                transaction.getAmount(),
+                fromBankAccount.getCurrency()
+        );
+
+        if (fromBankAccount.getBalance().compareTo(amountToWithdraw) < 0) {
+            throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED, NOT_ENOUGH_MONEY_MESSAGE);
+        }
+    }
+
     /**
      * Transaction execution method. The logic is to get IN PROGRESS transaction and make all necessary changes in
      * linked bank accounts:
@@ -227,20 +764,61 @@ public class TransactionDto {
      *     <li>Set SUCCESS status for the transaction</li>
      *     <li>Update all changed objects in the database</li>
      * </ul>
-     * The same synchronization logic is used as in {@link #createTransaction(Transaction)}
-     * Once transaction execution will be failed it will be marked with FAILED status and failMessage will be added
-     * to the transaction
+     * The same synchronization logic is used as in {@link #createTransaction(Transaction)}. Bank Accounts are always
+     * locked in ascending order of their ids, so two opposite transfers between the same accounts could not
+     * deadlock each other.
+     *
+     * If the rows could not be locked in time the changes are rolled back and execution is retried up to
+     * <code>moneytransfer.lock.maxAttempts</code> times with the jittered exponential backoff. If all attempts are
+     * exhausted the transaction is left in PLANNED status to be executed by the next executor's cycle.
+     * Once transaction execution will be failed by any other reason it will be marked with FAILED status and
+     * failMessage will be added to the transaction
+     *
+     * Once the {@link AccountLedger} is used the transfer is applied in memory and will be written into the database
+     * by the ledger asynchronously.
+     * Once the {@link Journal} is used only the source Bank Account is locked and the transfer is appended as the debit
+     * and the credit postings, Bank Account rows are not written.
+     * Once the recipient is hot its row is not locked either and the credit is added to one of its {@link BalanceSlots}.
+     * The debit and the credit of the succeed transfer are added to the {@link AccountTurnover} in the same database's
+     * transaction.
      *
      * @param id Transaction id to execute
+     *
+     * @return the status of the transaction after the execution: SUCCEED or FAILED, or PLANNED if the rows could not
+     * be locked in all attempts
      * @throws ObjectModificationException if provided ID will be null or transaction with that ID will be already
      * executed somehow
      */
-    public void executeTransaction(Long id) throws ObjectModificationException {
+    public TransactionStatus executeTransaction(Long id) throws ObjectModificationException {
         if (id == null) {
             throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED,
                     "The specified transaction doesn't exists");
         }
 
+        if (accountLedger != null) {
+            return accountLedger.transfer(id, moneyExchangeService).getStatus();
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return executeTransactionAttempt(id, attempt < maxLockAttempts);
+            } catch (ImpossibleOperationExecution e) {
+                if (!isLockConflict(e)) {
+                    throw e;
+                }
+                if (attempt >= maxLockAttempts) {
+                    log.warn("Transaction with id {} stays PLANNED as the rows could not be locked", id);
+                    return TransactionStatus.PLANNED;
+                }
+
+                lockRetries.incrementAndGet();
+                backoff(attempt);
+            }
+        }
+    }
+
+    private TransactionStatus executeTransactionAttempt(Long id, boolean retryAllowed)
+            throws ObjectModificationException {
         Connection con = H2DataSource.getConnection();
 
         Transaction transaction = null;
@@ -252,62 +830,565 @@ public class TransactionDto {
                         "Could not execute transaction which is not in PLANNED status");
             }
 
-            BankAccount fromBankAccount = bankAccountDto.
-                    getForUpdateBankAccountById(con, transaction.getFromBankAccountId());
+            if (journal != null) {
+                transferInJournal(transaction, con);
+                return transaction.getStatus();
+            }
 
-            BankAccount toBankAccount = bankAccountDto.
-                    getForUpdateBankAccountById(con, transaction.getToBankAccountId());
+            Long fromBankAccountId = transaction.getFromBankAccountId();
+            Long toBankAccountId = transaction.getToBankAccountId();
 
-            BigDecimal amountToWithdraw = moneyExchangeService.exchange(
-                    transaction.getAmount(),
-                    transaction.getCurrency(),
-                    fromBankAccount.getCurrency()
-            );
-            BigDecimal newBalance = fromBankAccount.getBalance().subtract(amountToWithdraw);
+            BankAccount fromBankAccount;
+            BankAccount toBankAccount;
 
-            if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
-                transaction.setStatus(TransactionStatus.FAILED);
-                transaction.setFailMessage(String.format("There is no enough money. Current balance is %f",
-                        fromBankAccount.getBalance().doubleValue()));
+            if (isHot(toBankAccountId)) {
+                //The credit goes to the slot, so the recipient row is not locked
+                fromBankAccount = bankAccountDto.getForUpdateBankAccountById(con, fromBankAccountId);
+                toBankAccount = bankAccountDto.getBankAccountById(toBankAccountId);
             } else {
-                fromBankAccount.setBalance(newBalance);
+                BankAccount firstBankAccount = bankAccountDto.getForUpdateBankAccountById(con,
+                        Math.min(fromBankAccountId, toBankAccountId));
+                BankAccount secondBankAccount = bankAccountDto.getForUpdateBankAccountById(con,
+                        Math.max(fromBankAccountId, toBankAccountId));
 
-                bankAccountDto.updateBankAccount(fromBankAccount, con);
-
-                BigDecimal amountToTransfer = moneyExchangeService.exchange(
-                        transaction.getAmount(),
-                        transaction.getCurrency(),
-                        toBankAccount.getCurrency()
-                );
+                fromBankAccount = fromBankAccountId < toBankAccountId ? firstBankAccount : secondBankAccount;
+                toBankAccount = fromBankAccountId < toBankAccountId ? secondBankAccount : firstBankAccount;
+            }
 
-                toBankAccount.setBalance(toBankAccount.getBalance().add(amountToTransfer));
+            AccountBalance from = AccountBalance.of(fromBankAccount);
+            AccountBalance to = AccountBalance.of(toBankAccount);
 
-                bankAccountDto.updateBankAccount(toBankAccount, con);
+            List<Journal.Posting> postings = new ArrayList<>(2);
+            if (applyTransfer(transaction, from, to, postings)) {
+                SortedMap<Long, Money> balanceChanges = new TreeMap<>();
+                addBalanceChange(balanceChanges, from);
+                addBalanceChange(balanceChanges, to);
 
-                transaction.setStatus(TransactionStatus.SUCCEED);
+                writeBalanceChanges(balanceChanges, con);
+                addTurnover(postings, con);
             }
 
             updateTransaction(transaction, con);
 
             con.commit();
+
+            return transaction.getStatus();
         } catch (RuntimeException | SQLException e) {
             DbUtils.safeRollback(con);
+            if (isLockConflict(e)) {
+                lockConflicts.incrementAndGet();
+                log.warn("Transaction with id {} could not lock the rows. Retry allowed: {}", id, retryAllowed);
+                throw new ImpossibleOperationExecution(e);
+            }
             if (transaction != null) {
                 transaction.setStatus(TransactionStatus.FAILED);
                 StringWriter sw = new StringWriter();
                 e.printStackTrace(new PrintWriter(sw));
                 String exceptionAsString = String.format("Transaction has been rolled back as it was unexpected exception: %s",
-                        sw.toString()).substring(0, 4000);
-                transaction.setFailMessage(exceptionAsString);
+                        sw.toString());
+                transaction.setFailMessage(exceptionAsString.substring(0, Math.min(exceptionAsString.length(), 4000)));
                 updateTransaction(transaction);
             }
             log.error("Unexpected exception", e);
             throw new ImpossibleOperationExecution(e);
         } finally {
+            bankAccountDto.completeWrites(con);
             DbUtils.quietlyClose(con);
         }
     }
 
+    /**
+     * Applies the transfer by appending the debit and the credit postings into the {@link Journal} and commits the
+     * connection. Only the source Bank Account is locked to check its balance. The recipient is neither locked nor
+     * written, only its currency is needed, so it is read from the cache.
+     */
+    private void transferInJournal(Transaction transaction, Connection con)
+            throws ObjectModificationException, SQLException {
+        AccountBalance from = AccountBalance.of(bankAccountDto.getForUpdateBankAccountById(con,
+                transaction.getFromBankAccountId()));
+        AccountBalance to = AccountBalance.of(bankAccountDto.getBankAccountById(transaction.getToBankAccountId()));
+
+        List<Journal.Posting> postings = new ArrayList<>(2);
+        if (applyTransfer(transaction, from, to, postings)) {
+            bankAccountDto.beginWrite(con, from.bankAccountId);
+            bankAccountDto.beginWrite(con, to.bankAccountId);
+        }
+
+        updateTransaction(transaction, con);
+        addTurnover(postings, con);
+
+        journal.beginAppend();
+        try {
+            journal.append(postings, con);
+            con.commit();
+        } finally {
+            journal.endAppend();
+        }
+    }
+
+    /**
+     * Batch form of {@link #executeTransaction(Long)}. All provided transactions are executed inside one database's
+     * transaction which is committed once. All related Bank Accounts are locked once per batch in ascending order of
+     * their ids and their balances are tracked in memory, so every next transfer of the batch sees the changes made
+     * by the previous ones. Changed Bank Accounts and Transactions are written by JDBC batch updates right before
+     * the commit.
+     *
+     * If one transfer of the batch could not be executed it falls out of the batch and the rest of them will be
+     * committed anyway:
+     * <ul>
+     *     <li>if transaction is absent or is not in PLANNED status it is skipped</li>
+     *     <li>if the database could not lock the related rows the transaction is left in PLANNED status to be
+     *     executed by the next executor's cycle</li>
+     *     <li>if the transfer is impossible by any other reason the transaction is marked with FAILED status</li>
+     * </ul>
+     * Once the database detects a deadlock it rolls back the whole batch, so the locks taken before are lost. The batch
+     * is rolled back the same way when the turnover row of the day could not be changed, e.g. as it has been inserted
+     * by the concurrent transfer not committed yet. The batch is executed again from the beginning up to <code>moneytransfer.lock.maxAttempts</code> times then.
+     * Once the {@link Journal} is used only the source Bank Accounts are locked and the transfers are appended as
+     * postings instead of updating Bank Accounts. The hot recipients are not locked either, their credits are added
+     * to {@link BalanceSlots}.
+     *
+     * @param ids Transaction ids to execute
+     *
+     * @return the number of transactions by their status after the execution. Executed transactions are counted as
+     * SUCCEED or FAILED, transactions fallen out of the batch by the lock conflict are counted as PLANNED. Skipped
+     * transactions are not counted.
+     * @throws ObjectModificationException if some of changed objects could not be saved. Nothing is committed then.
+     */
+    public Map<TransactionStatus, Integer> executeTransactions(Collection<Long> ids)
+            throws ObjectModificationException {
+        if (accountLedger != null) {
+            return executeTransactionsInLedger(ids);
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return executeTransactionsAttempt(ids);
+            } catch (ImpossibleOperationExecution e) {
+                //Rows of the batch which could not be locked fall out of it, so only the deadlock or the conflict on
+                //the turnover rows is thrown here
+                if (attempt >= maxLockAttempts || !isLockConflict(e)) {
+                    throw e;
+                }
+
+                lockRetries.incrementAndGet();
+                log.warn("The batch of transactions {} has been rolled back by the lock conflict and will be retried",
+                        ids);
+                backoff(attempt);
+            }
+        }
+    }
+
+    private Map<TransactionStatus, Integer> executeTransactionsAttempt(Collection<Long> ids)
+            throws ObjectModificationException {
+        Map<TransactionStatus, Integer> statusCounts = new EnumMap<>(TransactionStatus.class);
+
+        Connection con = H2DataSource.getConnection();
+
+        try {
+            List<Transaction> plannedTransactions = new ArrayList<>(ids.size());
+
+            for (Long id : ids) {
+                try {
+                    Transaction transaction = getForUpdateTransactionById(id, con);
+
+                    if (transaction == null || transaction.getStatus() != TransactionStatus.PLANNED) {
+                        log.warn("Transaction with id {} could not be executed as it is not in PLANNED status", id);
+                        continue;
+                    }
+
+                    plannedTransactions.add(transaction);
+                } catch (ImpossibleOperationExecution e) {
+                    fallOut(id, e);
+                    statusCounts.merge(TransactionStatus.PLANNED, 1, Integer::sum);
+                }
+            }
+
+            //Bank Accounts are locked in ascending order of their ids to avoid deadlocks with concurrent executions
+            SortedSet<Long> bankAccountIds = new TreeSet<>();
+            for (Transaction transaction : plannedTransactions) {
+                bankAccountIds.add(transaction.getFromBankAccountId());
+                //Balances of recipients are not checked, so neither the journal nor hot recipients lock them
+                if (journal == null && !isHot(transaction.getToBankAccountId())) {
+                    bankAccountIds.add(transaction.getToBankAccountId());
+                }
+            }
+
+            Map<Long, AccountBalance> lockedBalances = new HashMap<>();
+            for (Long bankAccountId : bankAccountIds) {
+                try {
+                    lockedBalances.put(bankAccountId,
+                            AccountBalance.of(bankAccountDto.getForUpdateBankAccountById(con, bankAccountId)));
+                } catch (ImpossibleOperationExecution e) {
+                    if (isDeadlock(e)) {
+                        throw e;
+                    }
+                    if (isLockConflict(e)) {
+                        lockConflicts.incrementAndGet();
+                    }
+                    log.warn("Bank Account with id {} could not be locked", bankAccountId, e);
+                }
+            }
+
+            Map<Long, AccountBalance> unlockedRecipients = new HashMap<>();
+            List<Transaction> executedTransactions = new ArrayList<>(plannedTransactions.size());
+            List<Journal.Posting> postings = new ArrayList<>();
+
+            for (Transaction transaction : plannedTransactions) {
+                Long toBankAccountId = transaction.getToBankAccountId();
+
+                if (!lockedBalances.containsKey(transaction.getFromBankAccountId()) || journal == null &&
+                        !isHot(toBankAccountId) && !lockedBalances.containsKey(toBankAccountId)) {
+                    log.warn("Transaction with id {} falls out of the batch and stays PLANNED", transaction.getId());
+                    statusCounts.merge(TransactionStatus.PLANNED, 1, Integer::sum);
+                    continue;
+                }
+
+                AccountBalance from = lockedBalances.get(transaction.getFromBankAccountId());
+                AccountBalance to = lockedBalances.containsKey(toBankAccountId) ?
+                        lockedBalances.get(toBankAccountId) :
+                        unlockedRecipients.computeIfAbsent(toBankAccountId,
+                                bankAccountId -> AccountBalance.of(bankAccountDto.getBankAccountById(bankAccountId)));
+
+                try {
+                    applyTransfer(transaction, from, to, postings);
+                } catch (RuntimeException e) {
+                    log.error("Unexpected exception", e);
+                    transaction.setStatus(TransactionStatus.FAILED);
+                    transaction.setFailMessage(String.format(
+                            "Transaction has been rolled back as it was unexpected exception: %s", e));
+                }
+
+                executedTransactions.add(transaction);
+            }
+
+            //Balances are tracked in minor units while transfers are applied, the changes are collected once per account
+            SortedMap<Long, Money> balanceChanges = new TreeMap<>();
+            for (AccountBalance balance : lockedBalances.values()) {
+                addBalanceChange(balanceChanges, balance);
+            }
+            for (AccountBalance balance : unlockedRecipients.values()) {
+                addBalanceChange(balanceChanges, balance);
+            }
+
+            if (journal != null) {
+                for (Long bankAccountId : balanceChanges.keySet()) {
+                    bankAccountDto.beginWrite(con, bankAccountId);
+                }
+                updateTransactions(executedTransactions, con);
+                addTurnover(postings, con);
+
+                journal.beginAppend();
+                try {
+                    journal.append(postings, con);
+                    con.commit();
+                } finally {
+                    journal.endAppend();
+                }
+            } else {
+                writeBalanceChanges(balanceChanges, con);
+                updateTransactions(executedTransactions, con);
+                addTurnover(postings, con);
+
+                con.commit();
+            }
+
+            for (Transaction transaction : executedTransactions) {
+                statusCounts.merge(transaction.getStatus(), 1, Integer::sum);
+            }
+        } catch (RuntimeException | SQLException e) {
+            DbUtils.safeRollback(con);
+            if (isLockConflict(e)) {
+                lockConflicts.incrementAndGet();
+            } else {
+                log.error("Unexpected exception", e);
+            }
+            throw e instanceof ImpossibleOperationExecution ? (ImpossibleOperationExecution) e :
+                    new ImpossibleOperationExecution(e);
+        } finally {
+            bankAccountDto.completeWrites(con);
+            DbUtils.quietlyClose(con);
+        }
+
+        return statusCounts;
+    }
+
+    /**
+     * The form of {@link #executeTransactions(Collection)} used with the {@link AccountLedger}. As transfers are
+     * applied in memory and written back by the ledger in batches, each transaction is executed separately.
+     */
+    private Map<TransactionStatus, Integer> executeTransactionsInLedger(Collection<Long> ids) {
+        Map<TransactionStatus, Integer> statusCounts = new EnumMap<>(TransactionStatus.class);
+
+        for (Long id : ids) {
+            try {
+                statusCounts.merge(accountLedger.transfer(id, moneyExchangeService).getStatus(), 1, Integer::sum);
+            } catch (ObjectModificationException | RuntimeException e) {
+                log.error("Could not execute transaction with id {}", id, e);
+            }
+        }
+
+        return statusCounts;
+    }
+
+    /**
+     * @return the number of times when transaction execution could not lock the database rows in time
+     */
+    public long getLockConflictsCount() {
+        return lockConflicts.get();
+    }
+
+    /**
+     * @return the number of times when transaction execution has been retried after the lock conflict
+     */
+    public long getLockRetriesCount() {
+        return lockRetries.get();
+    }
+
+    /**
+     * @return true if credits of the Bank Account go to its {@link BalanceSlots}
+     */
+    private boolean isHot(Long bankAccountId) {
+        return balanceSlots != null && balanceSlots.isHot(bankAccountId);
+    }
+
+    /**
+     * Writes the changes of balances in the connection provided. Credits of the hot Bank Accounts are added to their
+     * slots, the rest of changes are added to the Bank Account rows which have been locked already.
+     *
+     * @param balanceChanges the changes of balances by the Bank Account ids in ascending order
+     */
+    private void writeBalanceChanges(SortedMap<Long, Money> balanceChanges, Connection con)
+            throws ObjectModificationException {
+        SortedMap<Long, Money> slotCredits = new TreeMap<>();
+        Map<Long, Money> rowChanges = new LinkedHashMap<>();
+
+        for (Map.Entry<Long, Money> change : balanceChanges.entrySet()) {
+            if (isHot(change.getKey()) && change.getValue().signum() > 0) {
+                slotCredits.put(change.getKey(), change.getValue());
+            } else if (change.getValue().signum() != 0) {
+                rowChanges.put(change.getKey(), change.getValue());
+            }
+        }
+
+        if (!slotCredits.isEmpty()) {
+            for (Long bankAccountId : slotCredits.keySet()) {
+                bankAccountDto.beginWrite(con, bankAccountId);
+            }
+            balanceSlots.credit(slotCredits, con);
+        }
+        bankAccountDto.addToBalances(rowChanges, con);
+    }
+
+    /**
+     * Adds the postings of succeed transfers to the {@link AccountTurnover} in the connection the balances are changed
+     * in
+     */
+    void addTurnover(Collection<Journal.Posting> postings, Connection con) {
+        if (accountTurnover != null) {
+            accountTurnover.add(postings, con);
+        }
+    }
+
+    /**
+     * Adds the change of the balance made by the applied transfers if there is any
+     */
+    private static void addBalanceChange(Map<Long, Money> balanceChanges, AccountBalance balance) {
+        if (balance.change != 0) {
+            balanceChanges.merge(balance.bankAccountId, Money.ofMinor(balance.change, balance.currency), Money::add);
+        }
+    }
+
+    /**
+     * Leaves the transaction which could not be read for update in PLANNED status. The deadlock has rolled back the
+     * whole batch, so it is rethrown to execute the batch again
+     */
+    private void fallOut(Long id, ImpossibleOperationExecution e) {
+        if (isDeadlock(e)) {
+            throw e;
+        }
+        if (isLockConflict(e)) {
+            lockConflicts.incrementAndGet();
+        }
+        log.warn("Transaction with id {} falls out of the batch and stays PLANNED", id, e);
+    }
+
+    /**
+     * @return true if provided exception is caused by the lock timeout or deadlock detected by the database
+     */
+    static boolean isLockConflict(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                int errorCode = ((SQLException) cause).getErrorCode();
+
+                if (errorCode == ErrorCode.LOCK_TIMEOUT_1 || errorCode == ErrorCode.DEADLOCK_1 ||
+                        errorCode == ErrorCode.CONCURRENT_UPDATE_1) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if provided exception is caused by the deadlock. The database rolls back the whole transaction then
+     */
+    static boolean isDeadlock(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && ((SQLException) cause).getErrorCode() == ErrorCode.DEADLOCK_1) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if provided exception is caused by the row changed by the concurrent transaction which is not
+     * committed yet
+     */
+    static boolean isConcurrentUpdate(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException &&
+                    ((SQLException) cause).getErrorCode() == ErrorCode.CONCURRENT_UPDATE_1) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if provided exception is caused by the violation of the unique index
+     */
+    static boolean isDuplicateKey(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException &&
+                    ((SQLException) cause).getErrorCode() == ErrorCode.DUPLICATE_KEY_1) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Sleeps before the next attempt. The delay is chosen randomly between zero and exponentially growing limit,
+     * so concurrent executions retried after the same conflict don't collide again
+     */
+    private static void backoff(int attempt) {
+        long maxDelay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelay + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImpossibleOperationExecution(e);
+        }
+    }
+
+    /**
+     * Applies the transfer to the balances provided. Both balances are changed only if source Bank Account has
+     * enough money. Otherwise the transaction is marked with FAILED status. Nothing is saved into the database.
+     * The amounts are converted and added in minor units, so nothing is allocated for the balance math.
+     *
+     * @param postings the list the debit and the credit postings of the transfer are added to or null if they are
+     *                 not needed
+     * @return true if balances have been changed and transaction has SUCCEED status
+     */
+    private boolean applyTransfer(Transaction transaction, AccountBalance from, AccountBalance to,
+                                  List<Journal.Posting> postings) {
+        ExchangeRates rates = moneyExchangeService.getRates();
+        transaction.setRateVersion(rates.getVersion());
+
+        long amount = transaction.getAmount().getMinorUnits();
+        Currency currency = transaction.getAmount().getCurrency();
+
+        long amountToWithdraw = rates.exchange(amount, currency, from.currency);
+        long newFromBalance = Math.subtractExact(from.balance, amountToWithdraw);
+
+        if (newFromBalance < 0) {
+            transaction.setStatus(TransactionStatus.FAILED);
+            transaction.setFailMessage(String.format(NOT_ENOUGH_MONEY_FAIL_MESSAGE,
+                    Money.ofMinor(from.balance, from.currency).toBigDecimal().doubleValue()));
+
+            return false;
+        }
+
+        long amountToTransfer = rates.exchange(amount, currency, to.currency);
+        long newFromChange = Math.subtractExact(from.change, amountToWithdraw);
+        //The source and the recipient could be the same Bank Account, so its balance is read once more
+        long newToBalance = Math.addExact(from == to ? newFromBalance : to.balance, amountToTransfer);
+        long newToChange = Math.addExact(from == to ? newFromChange : to.change, amountToTransfer);
+
+        from.balance = newFromBalance;
+        from.change = newFromChange;
+        to.balance = newToBalance;
+        to.change = newToChange;
+        transaction.setStatus(TransactionStatus.SUCCEED);
+
+        if (postings != null) {
+            postings.add(new Journal.Posting(from.bankAccountId, transaction.getId(),
+                    Money.ofMinor(Math.negateExact(amountToWithdraw), from.currency)));
+            postings.add(new Journal.Posting(to.bankAccountId, transaction.getId(),
+                    Money.ofMinor(amountToTransfer, to.currency)));
+        }
+
+        return true;
+    }
+
+    /**
+     * The balance of the Bank Account in minor units which is changed while transfers are applied. The change is
+     * the sum of all transfers applied to the balance read from the database
+     */
+    private static final class AccountBalance {
+        private final Long bankAccountId;
+        private final Currency currency;
+        private long balance;
+        private long change;
+
+        private AccountBalance(BankAccount bankAccount) {
+            this.bankAccountId = bankAccount.getId();
+            this.currency = bankAccount.getCurrency();
+            this.balance = bankAccount.getBalance().getMinorUnits();
+        }
+
+        /**
+         * @return the balance of the Bank Account or null if it doesn't exist
+         */
+        static AccountBalance of(BankAccount bankAccount) {
+            return bankAccount == null ? null : new AccountBalance(bankAccount);
+        }
+    }
+
+    /**
+     * Inserts the transaction like {@link DbUtils.CreationQueryExecutor}, but the violation of the idempotency key
+     * index is kept instead of being thrown. The duplicate is the expected outcome of the retried request, so
+     * {@link DbUtils} should not log it as the unexpected exception
+     */
+    private static final class TransactionCreationQueryExecutor extends DbUtils.CreationQueryExecutor<Transaction> {
+        private SQLException duplicateKey;
+
+        private TransactionCreationQueryExecutor(Transaction transaction) {
+            super(transaction, TransactionDto::fillInPreparedStatement);
+        }
+
+        @Override
+        public Transaction execute(PreparedStatement preparedStatement) throws SQLException {
+            try {
+                return super.execute(preparedStatement);
+            } catch (SQLException e) {
+                if (!isDuplicateKey(e)) {
+                    throw e;
+                }
+
+                duplicateKey = e;
+                return null;
+            }
+        }
+    }
+
     /**
      * Returns the Transaction by the ID specified. Method which is not closing the connection once
      * result will be obtained.
@@ -350,21 +1431,14 @@ public class TransactionDto {
      * @param con the <code>Connection</code> to be used for this query
      */
     private void updateTransaction(Transaction transaction, Connection con) throws ObjectModificationException {
-        String UPDATE_TRANSACTION_SQL =
-                "update " + TRANSACTION_TABLE_NAME +
-                        " set " +
-                        TRANSACTION_STATUS_ROW + " = ?, " +
-                        FAIL_MESSAGE_ROW + " = ?, " +
-                        TRANSACTION_UPDATE_DATE_ROW + " = ? " +
-                        "where " + TRANSACTION_ID_ROW + " = ?";
-
         verify(transaction);
 
         DbUtils.QueryExecutor<Integer> queryExecutor = updateTransaction -> {
             updateTransaction.setInt(1, transaction.getStatus().getId());
             updateTransaction.setString(2, transaction.getFailMessage());
-            updateTransaction.setDate(3, new Date(new java.util.Date().getTime()));
-            updateTransaction.setLong(4, transaction.getId());
+            updateTransaction.setObject(3, transaction.getRateVersion(), Types.BIGINT);
+            updateTransaction.setDate(4, new Date(new java.util.Date().getTime()));
+            updateTransaction.setLong(5, transaction.getId());
 
             return updateTransaction.executeUpdate();
         };
@@ -381,6 +1455,45 @@ public class TransactionDto {
         }
     }
 
+    /**
+     * Batch form of {@link #updateTransaction(Transaction, Connection)}. All transactions are updated by one JDBC
+     * batch in the connection provided
+     *
+     * @param transactions Transaction objects to be updated
+     * @param con the <code>Connection</code> to be used for this query
+     */
+    void updateTransactions(Collection<Transaction> transactions, Connection con)
+            throws ObjectModificationException {
+        if (transactions.isEmpty()) {
+            return;
+        }
+
+        for (Transaction transaction : transactions) {
+            verify(transaction);
+        }
+
+        int[] results = dbUtils.executeQueryInConnection(con, UPDATE_TRANSACTION_SQL, updateTransactions -> {
+            Date updateDate = new Date(new java.util.Date().getTime());
+
+            for (Transaction transaction : transactions) {
+                updateTransactions.setInt(1, transaction.getStatus().getId());
+                updateTransactions.setString(2, transaction.getFailMessage());
+                updateTransactions.setObject(3, transaction.getRateVersion(), Types.BIGINT);
+                updateTransactions.setDate(4, updateDate);
+                updateTransactions.setLong(5, transaction.getId());
+                updateTransactions.addBatch();
+            }
+
+            return updateTransactions.executeBatch();
+        }).getResult();
+
+        for (int result : results) {
+            if (result == 0) {
+                throw new ObjectModificationException(ExceptionType.OBJECT_IS_NOT_FOUND);
+            }
+        }
+    }
+
     /**
      * Verifies the validity of the Transaction object to be saved into the database.
      *
@@ -407,12 +1520,13 @@ public class TransactionDto {
         try {
             preparedStatement.setLong(1, transaction.getFromBankAccountId());
             preparedStatement.setLong(2, transaction.getToBankAccountId());
-            preparedStatement.setBigDecimal(3, transaction.getAmount());
+            preparedStatement.setBigDecimal(3, transaction.getAmount().toBigDecimal());
             preparedStatement.setInt(4, transaction.getCurrency().getId());
             preparedStatement.setInt(5, transaction.getStatus().getId());
             preparedStatement.setString(6, transaction.getFailMessage());
             preparedStatement.setDate(7, new java.sql.Date(transaction.getCreationDate().getTime()));
             preparedStatement.setDate(8, new java.sql.Date(transaction.getUpdateDate().getTime()));
+            preparedStatement.setString(9, transaction.getIdempotencyKey());
         } catch (SQLException e) {
             log.error("Transactions prepared statement could not be initialized by values", e);
         }
@@ -434,12 +1548,16 @@ public class TransactionDto {
         transaction.setId(transactionsRS.getLong(TRANSACTION_ID_ROW));
         transaction.setFromBankAccountId(transactionsRS.getLong(TRANSACTION_FROM_ACCOUNT_ROW));
         transaction.setToBankAccountId(transactionsRS.getLong(TRANSACTION_TO_ACCOUNT_ROW));
-        transaction.setAmount(transactionsRS.getBigDecimal(TRANSACTION_AMOUNT_ROW));
         transaction.setCurrency(Currency.valueOf(transactionsRS.getInt(TRANSACTION_CURRENCY_ROW)));
+        transaction.setAmount(Money.of(transactionsRS.getBigDecimal(TRANSACTION_AMOUNT_ROW),
+                transaction.getCurrency()));
         transaction.setStatus(TransactionStatus.valueOf(transactionsRS.getInt(TRANSACTION_STATUS_ROW)));
         transaction.setFailMessage(transactionsRS.getString(TRANSACTION_STATUS_ROW));
         transaction.setCreationDate(transactionsRS.getDate(TRANSACTION_CREATION_DATE_ROW));
         transaction.setUpdateDate(transactionsRS.getDate(TRANSACTION_UPDATE_DATE_ROW));
+        long rateVersion = transactionsRS.getLong(TRANSACTION_RATE_VERSION_ROW);
+        transaction.setRateVersion(transactionsRS.wasNull() ? null : rateVersion);
+        transaction.setIdempotencyKey(transactionsRS.getString(TRANSACTION_IDEMPOTENCY_KEY_ROW));
         return transaction;
     }
 }
@@ -0,0 +1,474 @@
+package com.revolut.moneytransfer.dto;
+
+import com.revolut.moneytransfer.exceptions.ImpossibleOperationExecution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * The write-ahead log of transfers executed by the {@link AccountLedger}. The ledger writes balances back into the
+ * database once per flush interval, so the transfer is acknowledged only once its record is durable in the log.
+ * The log is enabled by the <code>moneytransfer.wal.enabled</code> system property together with the ledger.
+ * <p>
+ * Records are appended into memory-mapped segment files of <code>moneytransfer.wal.segmentSize</code> bytes (64 MB
+ * by default) stored in the <code>moneytransfer.wal.path</code> directory. The segment is pre-allocated once it is
+ * created, so appends never extend the file. Every record is framed by its length and the CRC32 of its payload, so
+ * the torn record written right before the crash is detected and ends the replay.
+ * <p>
+ * Appends only copy the record into the mapped buffer. Durability is provided by the syncer thread which forces all
+ * records appended since its previous pass by one <code>fsync</code>, so concurrent transfers share it.
+ * <p>
+ * Once the ledger has written its changes into the database it moves the checkpoint, and segments which are entirely
+ * before it are deleted. Records after the checkpoint are replayed at startup.
+ */
+public class WriteAheadLog {
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    public static final String ENABLED_PROPERTY = "moneytransfer.wal.enabled";
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE_NAME = "checkpoint";
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int PAYLOAD_SIZE = 6 * Long.BYTES;
+    private static final int FRAME_SIZE = HEADER_SIZE + PAYLOAD_SIZE;
+
+    private final File directory;
+    private final int segmentSize;
+
+    private final FileChannel checkpointChannel;
+    private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(2 * Long.BYTES);
+    private long checkpointPosition;
+    //Segments of this run start from this position, the ones before it could be replayed
+    private final long firstPosition;
+
+    //Guarded by this
+    private Segment segment;
+    private final List<Segment> unsyncedSegments = new ArrayList<>();
+    private long writtenPosition;
+    private long durablePosition;
+    private boolean closed;
+
+    private final ThreadLocal<Frame> frames = ThreadLocal.withInitial(Frame::new);
+    private final Thread syncer;
+
+    /**
+     * Opens the log in the directory provided. Existing segments are kept for {@link #replay(Consumer)}, new records
+     * are appended into the new segment.
+     *
+     * @param segmentSize the size of the segment file in bytes
+     */
+    public WriteAheadLog(File directory, int segmentSize) {
+        if (segmentSize < FRAME_SIZE) {
+            throw new IllegalArgumentException("The segment should fit at least one record");
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create the directory " + directory);
+            }
+
+            checkpointChannel = new RandomAccessFile(new File(directory, CHECKPOINT_FILE_NAME), "rw").getChannel();
+            checkpointPosition = readCheckpoint();
+
+            List<Long> segmentIndexes = listSegmentIndexes();
+            //New records never go before the checkpoint, otherwise they would be skipped by the next replay
+            long nextIndex = (checkpointPosition + segmentSize - 1) / segmentSize;
+            if (!segmentIndexes.isEmpty()) {
+                nextIndex = Math.max(nextIndex, segmentIndexes.get(segmentIndexes.size() - 1) + 1);
+            }
+            firstPosition = nextIndex * segmentSize;
+            writtenPosition = firstPosition;
+            durablePosition = firstPosition;
+            segment = new Segment(nextIndex);
+        } catch (IOException e) {
+            throw new ImpossibleOperationExecution(e);
+        }
+
+        syncer = new Thread(this::syncLoop, "wal-syncer");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /**
+     * Opens the log configured by the system properties
+     */
+    static WriteAheadLog open() {
+        return new WriteAheadLog(new File(System.getProperty("moneytransfer.wal.path", "./data/wal")),
+                Integer.getInteger("moneytransfer.wal.segmentSize", 64 * 1024 * 1024));
+    }
+
+    static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Appends the record into the current segment. The record is not durable till
+     * {@link #awaitDurable(long)} returns
+     *
+     * @return the position right after the record
+     */
+    public long append(Record record) {
+        Frame frame = frames.get();
+        frame.encode(record);
+
+        synchronized (this) {
+            if (closed) {
+                throw new ImpossibleOperationExecution(new IOException("The write-ahead log is closed"));
+            }
+
+            if (segment.buffer.remaining() < FRAME_SIZE) {
+                roll();
+            }
+
+            frame.buffer.rewind();
+            segment.buffer.put(frame.buffer);
+            writtenPosition = segment.index * segmentSize + segment.buffer.position();
+            notifyAll();
+
+            return writtenPosition;
+        }
+    }
+
+    /**
+     * Waits till all records appended before the position provided are forced to the disk
+     */
+    public synchronized void awaitDurable(long position) {
+        try {
+            while (durablePosition < position) {
+                if (closed) {
+                    throw new ImpossibleOperationExecution(new IOException("The write-ahead log is closed"));
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImpossibleOperationExecution(e);
+        }
+    }
+
+    /**
+     * @return the position right after the last appended record
+     */
+    public synchronized long getWrittenPosition() {
+        return writtenPosition;
+    }
+
+    /**
+     * Reads all valid records after the checkpoint which have been appended before the log was opened. Reading stops
+     * at the end of the last segment or at the first torn record.
+     *
+     * @return the number of records replayed
+     */
+    public long replay(Consumer<Record> consumer) {
+        long count = 0;
+
+        try {
+            for (Long index : listSegmentIndexes()) {
+                long segmentPosition = index * segmentSize;
+
+                if (segmentPosition >= firstPosition || segmentPosition + segmentSize <= checkpointPosition) {
+                    continue;
+                }
+
+                try (FileChannel channel = new RandomAccessFile(segmentFile(index), "r").getChannel()) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    buffer.position((int) Math.max(0, checkpointPosition - segmentPosition));
+
+                    Frame frame = new Frame();
+                    while (buffer.remaining() >= FRAME_SIZE) {
+                        Record record = frame.decode(buffer);
+                        if (record == null) {
+                            break;
+                        }
+
+                        consumer.accept(record);
+                        count++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new ImpossibleOperationExecution(e);
+        }
+
+        return count;
+    }
+
+    /**
+     * Moves the checkpoint once all records before the position have been written into the database. Segments
+     * entirely before the checkpoint are deleted.
+     */
+    public void checkpoint(long position) {
+        try {
+            synchronized (checkpointChannel) {
+                if (position <= checkpointPosition) {
+                    return;
+                }
+
+                checkpointBuffer.clear();
+                checkpointBuffer.putLong(position).putLong(~position).flip();
+                checkpointChannel.write(checkpointBuffer, 0);
+                checkpointChannel.force(false);
+                checkpointPosition = position;
+            }
+
+            for (Long index : listSegmentIndexes()) {
+                if ((index + 1) * segmentSize <= position && !segmentFile(index).delete()) {
+                    log.warn("The write-ahead log segment {} could not be deleted", index);
+                }
+            }
+        } catch (IOException e) {
+            throw new ImpossibleOperationExecution(e);
+        }
+    }
+
+    /**
+     * Forces all appended records and stops the syncer. Appends are rejected once the log is closed
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            syncer.join();
+            sync();
+            segment.channel.close();
+            checkpointChannel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Unexpected exception", e);
+        }
+    }
+
+    private void syncLoop() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (durablePosition == writtenPosition && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                }
+
+                sync();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("The write-ahead log could not be forced to the disk, it is closed", e);
+
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Forces all records appended so far. Full segments are forced and closed first
+     */
+    private void sync() {
+        long position;
+        List<Segment> segments;
+        Segment current;
+
+        synchronized (this) {
+            position = writtenPosition;
+            segments = new ArrayList<>(unsyncedSegments);
+            unsyncedSegments.clear();
+            current = segment;
+        }
+
+        try {
+            for (Segment fullSegment : segments) {
+                fullSegment.buffer.force();
+                fullSegment.channel.close();
+            }
+            current.buffer.force();
+        } catch (IOException e) {
+            throw new ImpossibleOperationExecution(e);
+        }
+
+        synchronized (this) {
+            durablePosition = Math.max(durablePosition, position);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Starts the next segment. Guarded by this
+     */
+    private void roll() {
+        try {
+            unsyncedSegments.add(segment);
+            segment = new Segment(segment.index + 1);
+            writtenPosition = segment.index * segmentSize;
+        } catch (IOException e) {
+            throw new ImpossibleOperationExecution(e);
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        checkpointBuffer.clear();
+        if (checkpointChannel.read(checkpointBuffer, 0) < checkpointBuffer.capacity()) {
+            return 0;
+        }
+
+        checkpointBuffer.flip();
+        long position = checkpointBuffer.getLong();
+        //The torn checkpoint is ignored, replaying records written into the database already is harmless
+        return checkpointBuffer.getLong() == ~position ? position : 0;
+    }
+
+    private List<Long> listSegmentIndexes() {
+        List<Long> indexes = new ArrayList<>();
+        String[] names = directory.list();
+
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    indexes.add(Long.valueOf(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                }
+            }
+        }
+
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    private File segmentFile(long index) {
+        return new File(directory, String.format("%016d%s", index, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * The transfer applied by the ledger. Amounts are the numbers of minor units in the currencies of the Bank
+     * Accounts
+     */
+    public static class Record {
+        private final long transactionId;
+        private final long fromBankAccountId;
+        private final long toBankAccountId;
+        private final long amountToWithdraw;
+        private final long amountToTransfer;
+        private final long rateVersion;
+
+        public Record(long transactionId, long fromBankAccountId, long toBankAccountId, long amountToWithdraw,
+                      long amountToTransfer, long rateVersion) {
+            this.transactionId = transactionId;
+            this.fromBankAccountId = fromBankAccountId;
+            this.toBankAccountId = toBankAccountId;
+            this.amountToWithdraw = amountToWithdraw;
+            this.amountToTransfer = amountToTransfer;
+            this.rateVersion = rateVersion;
+        }
+
+        public long getTransactionId() {
+            return transactionId;
+        }
+
+        public long getFromBankAccountId() {
+            return fromBankAccountId;
+        }
+
+        public long getToBankAccountId() {
+            return toBankAccountId;
+        }
+
+        public long getAmountToWithdraw() {
+            return amountToWithdraw;
+        }
+
+        public long getAmountToTransfer() {
+            return amountToTransfer;
+        }
+
+        public long getRateVersion() {
+            return rateVersion;
+        }
+    }
+
+    /**
+     * The pre-allocated segment file mapped into memory for appends
+     */
+    private class Segment {
+        private final long index;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        Segment(long index) throws IOException {
+            this.index = index;
+
+            RandomAccessFile file = new RandomAccessFile(segmentFile(index), "rw");
+            file.setLength(segmentSize);
+            channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    /**
+     * The reusable buffer of one framed record: the payload length, the CRC32 of the payload and the payload itself
+     */
+    private static class Frame {
+        private final ByteBuffer buffer = ByteBuffer.allocate(FRAME_SIZE);
+        private final CRC32 crc = new CRC32();
+
+        void encode(Record record) {
+            buffer.clear();
+            buffer.position(HEADER_SIZE);
+            buffer.putLong(record.transactionId)
+                    .putLong(record.fromBankAccountId)
+                    .putLong(record.toBankAccountId)
+                    .putLong(record.amountToWithdraw)
+                    .putLong(record.amountToTransfer)
+                    .putLong(record.rateVersion);
+
+            crc.reset();
+            crc.update(buffer.array(), HEADER_SIZE, PAYLOAD_SIZE);
+            buffer.putInt(0, PAYLOAD_SIZE);
+            buffer.putInt(Integer.BYTES, (int) crc.getValue());
+        }
+
+        /**
+         * @return the record at the buffer position or null if it is the end of the segment or the torn record
+         */
+        Record decode(ByteBuffer source) {
+            if (source.getInt(source.position()) != PAYLOAD_SIZE) {
+                return null;
+            }
+
+            source.get(buffer.array(), 0, FRAME_SIZE);
+
+            crc.reset();
+            crc.update(buffer.array(), HEADER_SIZE, PAYLOAD_SIZE);
+            if (buffer.getInt(Integer.BYTES) != (int) crc.getValue()) {
+                return null;
+            }
+
+            buffer.position(HEADER_SIZE);
+            return new Record(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                    buffer.getLong(), buffer.getLong());
+        }
+    }
+}
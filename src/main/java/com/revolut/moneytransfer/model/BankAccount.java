@@ -19,7 +19,7 @@ public class BankAccount implements ModelHasId{
     @Size(min=1)
     private String accountHolderName;
 
-    private BigDecimal balance;
+    private Money balance;
 
     @NotNull
     private Currency currency;
@@ -32,10 +32,14 @@ public class BankAccount implements ModelHasId{
     }
 
     public BankAccount(Long id, String accountHolderName, BigDecimal balance, Currency currency) {
+        this(id, accountHolderName, balance == null ? null : Money.of(balance, currency), currency);
+    }
+
+    public BankAccount(Long id, String accountHolderName, Money balance, Currency currency) {
         this.id = id;
         this.accountHolderName = accountHolderName;
-        this.balance = balance;
         this.currency = currency;
+        setBalance(balance);
     }
 
     public BankAccount(Long id, String accountHolderName) {
@@ -59,12 +63,15 @@ public class BankAccount implements ModelHasId{
         this.accountHolderName = accountHolderName;
     }
 
-    public BigDecimal getBalance() {
+    public Money getBalance() {
         return balance;
     }
 
-    public void setBalance(BigDecimal balance) {
-        this.balance = balance;
+    /**
+     * Sets the balance tagging it by the Bank Account currency
+     */
+    public void setBalance(Money balance) {
+        this.balance = balance == null ? null : balance.withCurrency(currency);
     }
 
     public Currency getCurrency() {
@@ -73,6 +80,9 @@ public class BankAccount implements ModelHasId{
 
     public void setCurrency(Currency currency) {
         this.currency = currency;
+        if (balance != null) {
+            balance = balance.withCurrency(currency);
+        }
     }
 
     @Override
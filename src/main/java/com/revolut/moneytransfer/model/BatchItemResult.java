@@ -0,0 +1,60 @@
+package com.revolut.moneytransfer.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+
+/**
+ * The result of one item of the batch request. Contains the position of the item in the batch and either the created
+ * <code>transaction</code> or the <code>error</code> explaining why the item has not been created
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult {
+    private int index;
+    private Transaction transaction;
+    private ApplicationException error;
+
+    public BatchItemResult() {
+    }
+
+    public BatchItemResult(int index, Transaction transaction, ApplicationException error) {
+        this.index = index;
+        this.transaction = transaction;
+        this.error = error;
+    }
+
+    public static BatchItemResult created(int index, Transaction transaction) {
+        return new BatchItemResult(index, transaction, null);
+    }
+
+    public static BatchItemResult failed(int index, ObjectModificationException exception) {
+        return new BatchItemResult(index, null, new ApplicationException(exception.getType(), exception.getMessage()));
+    }
+
+    public static BatchItemResult failed(int index, ApplicationException error) {
+        return new BatchItemResult(index, null, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public void setTransaction(Transaction transaction) {
+        this.transaction = transaction;
+    }
+
+    public ApplicationException getError() {
+        return error;
+    }
+
+    public void setError(ApplicationException error) {
+        this.error = error;
+    }
+}
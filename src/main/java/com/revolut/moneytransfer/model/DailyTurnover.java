@@ -0,0 +1,67 @@
+package com.revolut.moneytransfer.model;
+
+/**
+ * The turnover of the Bank Account for one day: the total amount debited from it and credited to it by succeed
+ * transfers executed that day. Both amounts are in the currency of the Bank Account.
+ */
+public class DailyTurnover {
+    private Long bankAccountId;
+    /**
+     * The day in ISO-8601 <code>yyyy-MM-dd</code> format
+     */
+    private String date;
+    private Money debited;
+    private Money credited;
+    private Currency currency;
+
+    public DailyTurnover() {
+    }
+
+    public DailyTurnover(Long bankAccountId, String date, Money debited, Money credited) {
+        this.bankAccountId = bankAccountId;
+        this.date = date;
+        this.debited = debited;
+        this.credited = credited;
+        this.currency = debited.getCurrency();
+    }
+
+    public Long getBankAccountId() {
+        return bankAccountId;
+    }
+
+    public void setBankAccountId(Long bankAccountId) {
+        this.bankAccountId = bankAccountId;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public void setDate(String date) {
+        this.date = date;
+    }
+
+    public Money getDebited() {
+        return debited;
+    }
+
+    public void setDebited(Money debited) {
+        this.debited = debited;
+    }
+
+    public Money getCredited() {
+        return credited;
+    }
+
+    public void setCredited(Money credited) {
+        this.credited = credited;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public void setCurrency(Currency currency) {
+        this.currency = currency;
+    }
+}
@@ -0,0 +1,368 @@
+package com.revolut.moneytransfer.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Jackson module with the hand-written serializers and deserializers of {@link Transaction} and {@link BankAccount}.
+ * They replace the reflective bean serialization of the models returned by every endpoint and produce exactly
+ * the same JSON: the same field order, <code>null</code> values, amounts as decimal numbers and enums by their names.
+ * <code>java.util.Date</code> and <code>Timestamp</code> values are written as the mapper writes dates; other dates,
+ * like <code>java.sql.Date</code> read from the database, are written by the serializer of their class as the
+ * reflective serialization does. Field names and enum names are encoded only once and amounts are
+ * formatted from the minor units.
+ * <p>
+ * Deserializers read the common tokens directly and pass any other value to the default deserializer of the
+ * property type, so lenient values like amounts in strings are accepted and errors are reported as before.
+ */
+public class ModelJsonModule extends SimpleModule {
+    private static final SerializedString ID = new SerializedString("id");
+    private static final SerializedString FROM_BANK_ACCOUNT_ID = new SerializedString("fromBankAccountId");
+    private static final SerializedString TO_BANK_ACCOUNT_ID = new SerializedString("toBankAccountId");
+    private static final SerializedString AMOUNT = new SerializedString("amount");
+    private static final SerializedString CURRENCY = new SerializedString("currency");
+    private static final SerializedString CREATION_DATE = new SerializedString("creationDate");
+    private static final SerializedString UPDATE_DATE = new SerializedString("updateDate");
+    private static final SerializedString STATUS = new SerializedString("status");
+    private static final SerializedString FAIL_MESSAGE = new SerializedString("failMessage");
+    private static final SerializedString RATE_VERSION = new SerializedString("rateVersion");
+    private static final SerializedString ACCOUNT_HOLDER_NAME = new SerializedString("accountHolderName");
+    private static final SerializedString BALANCE = new SerializedString("balance");
+
+    private static final long MINOR_UNITS_PER_UNIT = (long) Math.pow(10, Money.SCALE);
+
+    private static final SerializedString[] CURRENCY_NAMES = enumNames(Currency.values());
+    private static final SerializedString[] STATUS_NAMES = enumNames(TransactionStatus.values());
+    private static final Map<String, Currency> CURRENCIES = enumsByName(Currency.values());
+    private static final Map<String, TransactionStatus> STATUSES = enumsByName(TransactionStatus.values());
+
+    public ModelJsonModule() {
+        super(ModelJsonModule.class.getSimpleName(), Version.unknownVersion());
+
+        addSerializer(Transaction.class, new TransactionSerializer());
+        addDeserializer(Transaction.class, new TransactionDeserializer());
+        addSerializer(BankAccount.class, new BankAccountSerializer());
+        addDeserializer(BankAccount.class, new BankAccountDeserializer());
+    }
+
+    static class TransactionSerializer extends StdSerializer<Transaction> {
+        TransactionSerializer() {
+            super(Transaction.class);
+        }
+
+        @Override
+        public void serialize(Transaction transaction, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            gen.writeStartObject();
+            writeLong(gen, ID, transaction.getId());
+            writeLong(gen, FROM_BANK_ACCOUNT_ID, transaction.getFromBankAccountId());
+            writeLong(gen, TO_BANK_ACCOUNT_ID, transaction.getToBankAccountId());
+            writeMoney(gen, AMOUNT, transaction.getAmount());
+            writeEnum(gen, CURRENCY, transaction.getCurrency(), CURRENCY_NAMES);
+            writeDate(gen, provider, CREATION_DATE, transaction.getCreationDate());
+            writeDate(gen, provider, UPDATE_DATE, transaction.getUpdateDate());
+            writeEnum(gen, STATUS, transaction.getStatus(), STATUS_NAMES);
+            writeString(gen, FAIL_MESSAGE, transaction.getFailMessage());
+            writeLong(gen, RATE_VERSION, transaction.getRateVersion());
+            gen.writeEndObject();
+        }
+    }
+
+    static class BankAccountSerializer extends StdSerializer<BankAccount> {
+        BankAccountSerializer() {
+            super(BankAccount.class);
+        }
+
+        @Override
+        public void serialize(BankAccount bankAccount, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            gen.writeStartObject();
+            writeLong(gen, ID, bankAccount.getId());
+            writeString(gen, ACCOUNT_HOLDER_NAME, bankAccount.getAccountHolderName());
+            writeMoney(gen, BALANCE, bankAccount.getBalance());
+            writeEnum(gen, CURRENCY, bankAccount.getCurrency(), CURRENCY_NAMES);
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Sets the properties in the order they are read like the bean deserializer does, so the amount is tagged by
+     * the currency whichever goes first. Unknown properties are skipped as the model ignores them
+     */
+    static class TransactionDeserializer extends StdDeserializer<Transaction> {
+        TransactionDeserializer() {
+            super(Transaction.class);
+        }
+
+        @Override
+        public Transaction deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (!p.isExpectedStartObjectToken() && !p.hasToken(JsonToken.FIELD_NAME)) {
+                return (Transaction) ctxt.handleUnexpectedToken(Transaction.class, p);
+            }
+
+            Transaction transaction = new Transaction();
+            for (String name = nextFieldName(p); name != null; name = p.nextFieldName()) {
+                p.nextToken();
+                switch (name) {
+                    case "id":
+                        transaction.setId(readLong(p, ctxt));
+                        break;
+                    case "fromBankAccountId":
+                        transaction.setFromBankAccountId(readLong(p, ctxt));
+                        break;
+                    case "toBankAccountId":
+                        transaction.setToBankAccountId(readLong(p, ctxt));
+                        break;
+                    case "amount":
+                        transaction.setAmount(readMoney(p, ctxt));
+                        break;
+                    case "currency":
+                        transaction.setCurrency(readEnum(p, ctxt, Currency.class, CURRENCIES));
+                        break;
+                    case "creationDate":
+                        transaction.setCreationDate(readDate(p, ctxt));
+                        break;
+                    case "updateDate":
+                        transaction.setUpdateDate(readDate(p, ctxt));
+                        break;
+                    case "status":
+                        transaction.setStatus(readEnum(p, ctxt, TransactionStatus.class, STATUSES));
+                        break;
+                    case "failMessage":
+                        transaction.setFailMessage(readString(p, ctxt));
+                        break;
+                    case "rateVersion":
+                        transaction.setRateVersion(readLong(p, ctxt));
+                        break;
+                    default:
+                        p.skipChildren();
+                }
+            }
+
+            return transaction;
+        }
+    }
+
+    /**
+     * Unknown properties are reported to the context, so they fail the deserialization unless it is disabled
+     */
+    static class BankAccountDeserializer extends StdDeserializer<BankAccount> {
+        private static final List<Object> PROPERTY_NAMES =
+                Arrays.asList(ID.getValue(), ACCOUNT_HOLDER_NAME.getValue(), BALANCE.getValue(), CURRENCY.getValue());
+
+        BankAccountDeserializer() {
+            super(BankAccount.class);
+        }
+
+        @Override
+        public BankAccount deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (!p.isExpectedStartObjectToken() && !p.hasToken(JsonToken.FIELD_NAME)) {
+                return (BankAccount) ctxt.handleUnexpectedToken(BankAccount.class, p);
+            }
+
+            BankAccount bankAccount = new BankAccount();
+            for (String name = nextFieldName(p); name != null; name = p.nextFieldName()) {
+                p.nextToken();
+                switch (name) {
+                    case "id":
+                        bankAccount.setId(readLong(p, ctxt));
+                        break;
+                    case "accountHolderName":
+                        bankAccount.setAccountHolderName(readString(p, ctxt));
+                        break;
+                    case "balance":
+                        bankAccount.setBalance(readMoney(p, ctxt));
+                        break;
+                    case "currency":
+                        bankAccount.setCurrency(readEnum(p, ctxt, Currency.class, CURRENCIES));
+                        break;
+                    default:
+                        ctxt.handleUnknownProperty(p, this, bankAccount, name);
+                }
+            }
+
+            return bankAccount;
+        }
+
+        @Override
+        public Collection<Object> getKnownPropertyNames() {
+            return PROPERTY_NAMES;
+        }
+    }
+
+    private static void writeLong(JsonGenerator gen, SerializedString name, Long value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeNumber(value);
+        }
+    }
+
+    private static void writeMoney(JsonGenerator gen, SerializedString name, Money value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeNumber(formatMinorUnits(value.getMinorUnits()));
+        }
+    }
+
+    /**
+     * Formats the amount the same way as <code>toBigDecimal().toString()</code> does without creating the decimal.
+     * The scale is positive so it is always the plain notation with all the fraction digits
+     */
+    static String formatMinorUnits(long minorUnits) {
+        long integerPart = minorUnits / MINOR_UNITS_PER_UNIT;
+        long fraction = Math.abs(minorUnits % MINOR_UNITS_PER_UNIT);
+
+        StringBuilder builder = new StringBuilder(24);
+        if (minorUnits < 0 && integerPart == 0) {
+            builder.append('-');
+        }
+        builder.append(integerPart).append('.');
+        for (long digit = MINOR_UNITS_PER_UNIT / 10; digit > fraction && digit > 1; digit /= 10) {
+            builder.append('0');
+        }
+
+        return builder.append(fraction).toString();
+    }
+
+    private static void writeEnum(JsonGenerator gen, SerializedString name, Enum<?> value, SerializedString[] names)
+            throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeString(names[value.ordinal()]);
+        }
+    }
+
+    private static void writeDate(JsonGenerator gen, SerializerProvider provider, SerializedString name, Date value)
+            throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else if (value.getClass() == Date.class || value.getClass() == Timestamp.class) {
+            provider.defaultSerializeDateValue(value, gen);
+        } else {
+            provider.findValueSerializer(value.getClass()).serialize(value, gen, provider);
+        }
+    }
+
+    private static void writeString(JsonGenerator gen, SerializedString name, String value) throws IOException {
+        gen.writeFieldName(name);
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeString(value);
+        }
+    }
+
+    /**
+     * @return the name of the first field if the parser is at the start of the object or the name of the current one
+     */
+    private static String nextFieldName(JsonParser p) throws IOException {
+        return p.hasToken(JsonToken.FIELD_NAME) ? p.getCurrentName() : p.nextFieldName();
+    }
+
+    private static Long readLong(JsonParser p, DeserializationContext ctxt) throws IOException {
+        switch (p.getCurrentToken()) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+                return p.getLongValue();
+            default:
+                return ctxt.readValue(p, Long.class);
+        }
+    }
+
+    private static Money readMoney(JsonParser p, DeserializationContext ctxt) throws IOException {
+        switch (p.getCurrentToken()) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                try {
+                    return Money.fromJson(p.getDecimalValue());
+                } catch (ArithmeticException e) {
+                    //The default deserializer reports the amount which doesn't fit into minor units the same way
+                    return ctxt.readValue(p, Money.class);
+                }
+            default:
+                return ctxt.readValue(p, Money.class);
+        }
+    }
+
+    private static <E extends Enum<E>> E readEnum(JsonParser p, DeserializationContext ctxt, Class<E> type,
+                                                  Map<String, E> byName) throws IOException {
+        switch (p.getCurrentToken()) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                E value = byName.get(p.getText());
+                if (value != null) {
+                    return value;
+                }
+            default:
+                return ctxt.readValue(p, type);
+        }
+    }
+
+    private static Date readDate(JsonParser p, DeserializationContext ctxt) throws IOException {
+        switch (p.getCurrentToken()) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+                return new Date(p.getLongValue());
+            default:
+                return ctxt.readValue(p, Date.class);
+        }
+    }
+
+    private static String readString(JsonParser p, DeserializationContext ctxt) throws IOException {
+        switch (p.getCurrentToken()) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                return p.getText();
+            default:
+                return ctxt.readValue(p, String.class);
+        }
+    }
+
+    private static SerializedString[] enumNames(Enum<?>[] values) {
+        SerializedString[] names = new SerializedString[values.length];
+        for (Enum<?> value : values) {
+            names[value.ordinal()] = new SerializedString(value.name());
+        }
+
+        return names;
+    }
+
+    private static <E extends Enum<E>> Map<String, E> enumsByName(E[] values) {
+        Map<String, E> byName = new HashMap<>();
+        for (E value : values) {
+            byName.put(value.name(), value);
+        }
+
+        return byName;
+    }
+}
@@ -0,0 +1,232 @@
+package com.revolut.moneytransfer.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Objects;
+
+/**
+ * Immutable money amount kept as a number of minor units in the <code>long</code> value. One minor unit is
+ * 1/10000 of the currency unit which is the same precision as <code>DECIMAL(19,4)</code> database columns have.
+ * <p>
+ * The amount is tagged by the {@link Currency}. The tag could be absent while the amount is not bound to the model yet
+ * (e.g. when it is deserialized before the currency field). Arithmetic operations are allowed only between amounts
+ * of the same currency. All operations check the overflow and throw <code>ArithmeticException</code> instead of
+ * returning the wrong value. Conversions which need rounding require the rounding mode to be specified explicitly.
+ * <p>
+ * In JSON the amount is represented as a decimal number. More precise amounts in JSON are rounded.
+ */
+public final class Money implements Comparable<Money> {
+    public static final int SCALE = 4;
+    /**
+     * The rounding of amounts passed in JSON with more than {@link #SCALE} fraction digits
+     */
+    public static final RoundingMode JSON_ROUNDING_MODE = RoundingMode.HALF_UP;
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L
+    };
+
+    private final long minorUnits;
+    private final Currency currency;
+
+    private Money(long minorUnits, Currency currency) {
+        this.minorUnits = minorUnits;
+        this.currency = currency;
+    }
+
+    public static Money ofMinor(long minorUnits, Currency currency) {
+        return new Money(minorUnits, currency);
+    }
+
+    public static Money zero(Currency currency) {
+        return new Money(0, currency);
+    }
+
+    /**
+     * Creates the amount from the decimal value. The value should not have more than {@link #SCALE} fraction digits.
+     *
+     * @throws ArithmeticException if the value needs rounding or does not fit into the <code>long</code> minor units
+     */
+    public static Money of(BigDecimal amount, Currency currency) {
+        return of(amount, currency, RoundingMode.UNNECESSARY);
+    }
+
+    /**
+     * Creates the amount from the decimal value rounding it to {@link #SCALE} fraction digits with the mode provided.
+     *
+     * @throws ArithmeticException if the value does not fit into the <code>long</code> minor units
+     */
+    public static Money of(BigDecimal amount, Currency currency, RoundingMode roundingMode) {
+        return new Money(amount.setScale(SCALE, roundingMode).unscaledValue().longValueExact(), currency);
+    }
+
+    /**
+     * Creates the amount from the JSON decimal number. More precise amounts are rounded by {@link #JSON_ROUNDING_MODE}
+     * the same way as <code>DECIMAL(19,4)</code> columns round the stored values.
+     *
+     * @throws ArithmeticException if the value does not fit into the <code>long</code> minor units
+     */
+    @JsonCreator
+    static Money fromJson(BigDecimal amount) {
+        return of(amount, null, JSON_ROUNDING_MODE);
+    }
+
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    /**
+     * @return the same amount tagged by the currency provided
+     */
+    public Money withCurrency(Currency currency) {
+        return this.currency == currency ? this : new Money(minorUnits, currency);
+    }
+
+    public Money add(Money other) {
+        checkCurrency(other);
+        return new Money(Math.addExact(minorUnits, other.minorUnits), currency);
+    }
+
+    public Money subtract(Money other) {
+        checkCurrency(other);
+        return new Money(Math.subtractExact(minorUnits, other.minorUnits), currency);
+    }
+
+    public Money multiply(long multiplier) {
+        return new Money(Math.multiplyExact(minorUnits, multiplier), currency);
+    }
+
+    /**
+     * Converts the amount into another currency.
+     *
+     * @param rate          the conversion rate as a fixed point number with <code>rateScale</code> fraction digits.
+     *                      E.g. the rate 1.16 with scale 6 is 1160000
+     * @param rateScale     the number of fraction digits of the rate. Not more than 9
+     * @param currency      the target currency
+     * @param roundingMode  the rounding mode applied to the result
+     *
+     * @return the converted amount tagged by the target currency
+     * @throws ArithmeticException if the result does not fit into the <code>long</code> minor units or rounding is
+     *                             necessary with {@link RoundingMode#UNNECESSARY} mode
+     */
+    public Money convert(long rate, int rateScale, Currency currency, RoundingMode roundingMode) {
+        return new Money(convert(minorUnits, rate, rateScale, roundingMode), currency);
+    }
+
+    /**
+     * The allocation free form of {@link #convert(long, int, Currency, RoundingMode)} working with minor units
+     */
+    public static long convert(long minorUnits, long rate, int rateScale, RoundingMode roundingMode) {
+        long divisor = POWERS_OF_TEN[rateScale];
+        long product;
+
+        try {
+            product = Math.multiplyExact(minorUnits, rate);
+        } catch (ArithmeticException e) {
+            //The product doesn't fit into long but the result still could
+            return BigDecimal.valueOf(minorUnits)
+                    .multiply(BigDecimal.valueOf(rate))
+                    .divide(BigDecimal.valueOf(divisor), 0, roundingMode)
+                    .longValueExact();
+        }
+
+        return divide(product, divisor, roundingMode);
+    }
+
+    public int signum() {
+        return Long.signum(minorUnits);
+    }
+
+    public boolean isNegative() {
+        return minorUnits < 0;
+    }
+
+    @JsonValue
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        checkCurrency(other);
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Money money = (Money) o;
+        return minorUnits == money.minorUnits && currency == money.currency;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(minorUnits, currency);
+    }
+
+    @Override
+    public String toString() {
+        return currency == null ? toBigDecimal().toPlainString() : toBigDecimal().toPlainString() + " " + currency;
+    }
+
+    private void checkCurrency(Money other) {
+        if (currency != null && other.currency != null && currency != other.currency) {
+            throw new IllegalArgumentException("Could not operate with amounts in different currencies: " +
+                    currency + " and " + other.currency);
+        }
+    }
+
+    /**
+     * Divides the values rounding the result with the mode provided. The divisor should be positive.
+     */
+    static long divide(long dividend, long divisor, RoundingMode roundingMode) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+
+        if (remainder == 0) {
+            return quotient;
+        }
+
+        int signum = Long.signum(dividend);
+        boolean awayFromZero;
+
+        switch (roundingMode) {
+            case UNNECESSARY:
+                throw new ArithmeticException("Rounding necessary");
+            case DOWN:
+                awayFromZero = false;
+                break;
+            case UP:
+                awayFromZero = true;
+                break;
+            case FLOOR:
+                awayFromZero = signum < 0;
+                break;
+            case CEILING:
+                awayFromZero = signum > 0;
+                break;
+            default:
+                int half = Long.compare(Math.abs(remainder), divisor - Math.abs(remainder));
+
+                if (half != 0) {
+                    awayFromZero = half > 0;
+                } else if (roundingMode == RoundingMode.HALF_UP) {
+                    awayFromZero = true;
+                } else if (roundingMode == RoundingMode.HALF_DOWN) {
+                    awayFromZero = false;
+                } else {
+                    awayFromZero = (quotient & 1) != 0;
+                }
+        }
+
+        return awayFromZero ? quotient + signum : quotient;
+    }
+}
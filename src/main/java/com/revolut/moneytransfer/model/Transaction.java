@@ -1,5 +1,6 @@
 package com.revolut.moneytransfer.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import java.math.BigDecimal;
@@ -11,18 +12,23 @@ import java.util.Objects;
  * which is initialized by <code>fromBankAccount</code> who wants to transfer money to the <code>toBankAccount</code>
  * of <code>amount</code> in <code>currency</code> currency. Additionally this class controls the creation and last
  * update dates alongside with the actual {@link TransactionStatus} <code>status</code>  and <code>failMessage</code> in case of FAIL status.
+ * Once executed, the transaction keeps the <code>rateVersion</code> of exchange rates the amount has been converted with.
+ * The <code>idempotencyKey</code> is taken from the request header and is not a part of the JSON representation.
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Transaction implements ModelHasId{
     private Long id;
     private Long fromBankAccountId;
     private Long toBankAccountId;
-    private BigDecimal amount;
+    private Money amount;
     private Currency currency;
     private Date creationDate;
     private Date updateDate;
     private TransactionStatus status;
     private String failMessage;
+    private Long rateVersion;
+    @JsonIgnore
+    private String idempotencyKey;
 
     public Transaction() {
         this.creationDate = new Date();
@@ -35,8 +41,16 @@ public class Transaction implements ModelHasId{
         this();
         this.fromBankAccountId = fromBankAccountId;
         this.toBankAccountId = toBankAccountId;
-        this.amount = amount;
         this.currency = currency;
+        this.amount = amount == null ? null : Money.of(amount, currency);
+    }
+
+    public Transaction(Long fromBankAccountId, Long toBankAccountId, Money amount, Currency currency) {
+        this();
+        this.fromBankAccountId = fromBankAccountId;
+        this.toBankAccountId = toBankAccountId;
+        this.currency = currency;
+        setAmount(amount);
     }
 
     public Long getId() {
@@ -63,12 +77,15 @@ public class Transaction implements ModelHasId{
         this.toBankAccountId = toBankAccountId;
     }
 
-    public BigDecimal getAmount() {
+    public Money getAmount() {
         return amount;
     }
 
-    public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+    /**
+     * Sets the amount tagging it by the transaction currency
+     */
+    public void setAmount(Money amount) {
+        this.amount = amount == null ? null : amount.withCurrency(currency);
     }
 
     public Currency getCurrency() {
@@ -77,6 +94,9 @@ public class Transaction implements ModelHasId{
 
     public void setCurrency(Currency currency) {
         this.currency = currency;
+        if (amount != null) {
+            amount = amount.withCurrency(currency);
+        }
     }
 
     public Date getCreationDate() {
@@ -111,6 +131,29 @@ public class Transaction implements ModelHasId{
         this.failMessage = failMessage;
     }
 
+    /**
+     * @return the version of exchange rates the amount has been converted with or null if transaction has not been
+     * executed yet
+     */
+    public Long getRateVersion() {
+        return rateVersion;
+    }
+
+    public void setRateVersion(Long rateVersion) {
+        this.rateVersion = rateVersion;
+    }
+
+    /**
+     * @return the key provided by the client to create the transaction only once or null if it has not been provided
+     */
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
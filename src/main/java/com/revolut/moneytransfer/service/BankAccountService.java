@@ -1,16 +1,26 @@
 package com.revolut.moneytransfer.service;
 
+import com.revolut.moneytransfer.dto.AccountLedger;
 import com.revolut.moneytransfer.dto.BankAccountDto;
 import com.revolut.moneytransfer.exceptions.ObjectModificationException;
 import com.revolut.moneytransfer.model.BankAccount;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Right now the proxy service under the {@link BankAccountDto}. Should be used to abstract the presentation layer
- * from the persistence layer
+ * from the persistence layer.
+ *
+ * Once transactions are executed by the {@link AccountLedger} the balances are taken from the ledger as the database
+ * could be behind it for a flush interval.
  */
 public class BankAccountService {
+    private static final Logger log = LoggerFactory.getLogger(BankAccountService.class);
+
     private static final BankAccountService bas = new BankAccountService();
 
     public static BankAccountService getInstance() {
@@ -18,11 +28,32 @@ public class BankAccountService {
     }
 
     public Collection<BankAccount> getAllBankAccounts() {
-        return BankAccountDto.getInstance().getAllBankAccounts();
+        Collection<BankAccount> bankAccounts = BankAccountDto.getInstance().getAllBankAccounts();
+
+        for (BankAccount bankAccount : bankAccounts) {
+            withLedgerBalance(bankAccount);
+        }
+
+        return bankAccounts;
+    }
+
+    public List<BankAccount> getBankAccountsPage(Long after, int limit) {
+        List<BankAccount> bankAccounts = BankAccountDto.getInstance().getBankAccountsPage(after, limit);
+
+        for (BankAccount bankAccount : bankAccounts) {
+            withLedgerBalance(bankAccount);
+        }
+
+        return bankAccounts;
+    }
+
+    public void streamBankAccounts(Long after, Consumer<BankAccount> consumer) {
+        BankAccountDto.getInstance().streamBankAccounts(after,
+                bankAccount -> consumer.accept(withLedgerBalance(bankAccount)));
     }
 
     public BankAccount getBankAccountById(Long id) {
-        return BankAccountDto.getInstance().getBankAccountById(id);
+        return withLedgerBalance(BankAccountDto.getInstance().getBankAccountById(id));
     }
 
     public void updateBankAccount(BankAccount bankAccount) throws ObjectModificationException {
@@ -32,4 +63,18 @@ public class BankAccountService {
     public BankAccount createBankAccount(BankAccount bankAccount) throws ObjectModificationException {
         return BankAccountDto.getInstance().createBankAccount(bankAccount);
     }
+
+    private static BankAccount withLedgerBalance(BankAccount bankAccount) {
+        AccountLedger accountLedger = AccountLedger.getActive();
+
+        if (bankAccount != null && accountLedger != null) {
+            try {
+                bankAccount.setBalance(accountLedger.getBalance(bankAccount.getId()));
+            } catch (ObjectModificationException e) {
+                log.error("Bank Account with id {} is absent in the account ledger", bankAccount.getId(), e);
+            }
+        }
+
+        return bankAccount;
+    }
 }
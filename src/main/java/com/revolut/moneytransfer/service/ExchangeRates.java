@@ -0,0 +1,94 @@
+package com.revolut.moneytransfer.service;
+
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.Money;
+
+import java.math.RoundingMode;
+
+/**
+ * The immutable versioned snapshot of exchange rates. Rates are held in a dense currency by currency matrix indexed
+ * by the {@link Currency} ordinals. Every rate is a fixed point number with {@link #RATE_SCALE} fraction digits.
+ * The converted amount is rounded to the {@link Money} precision by {@link #ROUNDING_MODE}.
+ * <p>
+ * The lookup of the rate is an array access, so the conversion doesn't allocate anything except the resulting
+ * {@link Money}. The conversion of minor units doesn't allocate at all.
+ */
+public final class ExchangeRates {
+    public static final int RATE_SCALE = 6;
+    public static final RoundingMode ROUNDING_MODE = RoundingMode.HALF_EVEN;
+    /**
+     * The rate between the same currencies
+     */
+    public static final long ONE = 1_000_000L;
+
+    private static final Currency[] CURRENCIES = Currency.values();
+
+    private final long version;
+    private final long[] rates;
+
+    /**
+     * @param version the version of the snapshot
+     * @param rates   the rates matrix: the rate from currency <code>a</code> to currency <code>b</code> is placed at
+     *                <code>a.ordinal() * Currency.values().length + b.ordinal()</code>. Rates between the same
+     *                currencies are ignored
+     */
+    ExchangeRates(long version, long[] rates) {
+        if (rates.length != CURRENCIES.length * CURRENCIES.length) {
+            throw new IllegalArgumentException("The rates matrix should have a rate for every pair of currencies");
+        }
+
+        this.version = version;
+        this.rates = rates.clone();
+
+        for (Currency currency : CURRENCIES) {
+            this.rates[indexOf(currency, currency)] = ONE;
+        }
+        for (long rate : this.rates) {
+            if (rate <= 0) {
+                throw new IllegalArgumentException("The rate should be more than 0");
+            }
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the fixed point rate with {@link #RATE_SCALE} fraction digits to convert from one currency to another
+     */
+    public long getRate(Currency from, Currency to) {
+        return rates[indexOf(from, to)];
+    }
+
+    /**
+     * Converts the amount into the target currency. The source currency is the currency the amount is tagged by.
+     *
+     * @return the converted amount tagged by the target currency
+     */
+    public Money exchange(Money amount, Currency targetCurrency) {
+        if (amount.getCurrency() == targetCurrency) {
+            return amount;
+        }
+
+        return amount.convert(getRate(amount.getCurrency(), targetCurrency), RATE_SCALE, targetCurrency,
+                ROUNDING_MODE);
+    }
+
+    /**
+     * The allocation free form of {@link #exchange(Money, Currency)} working with minor units
+     *
+     * @return the converted amount in minor units of the target currency
+     */
+    public long exchange(long minorUnits, Currency currency, Currency targetCurrency) {
+        if (currency == targetCurrency) {
+            return minorUnits;
+        }
+
+        return Money.convert(minorUnits, getRate(currency, targetCurrency), RATE_SCALE, ROUNDING_MODE);
+    }
+
+    static int indexOf(Currency from, Currency to) {
+        return from.ordinal() * CURRENCIES.length + to.ordinal();
+    }
+}
@@ -0,0 +1,118 @@
+package com.revolut.moneytransfer.service;
+
+import com.revolut.moneytransfer.model.Transaction;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The bounded cache of recently created transactions by their idempotency keys. It holds up to
+ * <code>moneytransfer.idempotency.maxSize</code> keys (10000 by default) for
+ * <code>moneytransfer.idempotency.ttl</code> seconds (1 hour by default).
+ * <p>
+ * The key is registered with the future of the transaction before the transaction is created, so the concurrent
+ * duplicate gets the future of the in-flight original and waits for it instead of creating the transaction second
+ * time. Keys are kept in the order of registration, therefore both expired and evicted keys are removed from the head.
+ */
+public class IdempotencyCache {
+    public static final String MAX_SIZE_PROPERTY = "moneytransfer.idempotency.maxSize";
+    public static final String TTL_PROPERTY = "moneytransfer.idempotency.ttl";
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    IdempotencyCache() {
+        this(Integer.getInteger(MAX_SIZE_PROPERTY, 10000), Long.getLong(TTL_PROPERTY, 3600), System::nanoTime);
+    }
+
+    /**
+     * @param maxSize    the maximum number of keys held
+     * @param ttlSeconds how long the key is held after its registration
+     * @param nanoClock  the source of the current time in nanoseconds
+     */
+    IdempotencyCache(int maxSize, long ttlSeconds, LongSupplier nanoClock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The cache size should be positive");
+        }
+
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Registers the future of the transaction which is going to be created with the key provided unless the key
+     * is registered already
+     *
+     * @return the future of the original transaction created with the same key or null if the key has been registered
+     */
+    synchronized CompletableFuture<Transaction> putIfAbsent(String key, CompletableFuture<Transaction> future) {
+        long now = nanoClock.getAsLong();
+        removeExpired(now);
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.future;
+        }
+
+        entries.put(key, new Entry(future, now));
+
+        if (entries.size() > maxSize) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes the key if it is still registered with the future provided. Used once the transaction has not been
+     * created, so the next retry will try to create it again
+     */
+    synchronized void remove(String key, CompletableFuture<Transaction> future) {
+        Entry entry = entries.get(key);
+
+        if (entry != null && entry.future == future) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * @return the number of requests answered by the future of the original transaction
+     */
+    public long getHitsCount() {
+        return hits.get();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    private void removeExpired(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while (iterator.hasNext() && now - iterator.next().registrationTime >= ttlNanos) {
+            iterator.remove();
+        }
+    }
+
+    private static class Entry {
+        private final CompletableFuture<Transaction> future;
+        private final long registrationTime;
+
+        Entry(CompletableFuture<Transaction> future, long registrationTime) {
+            this.future = future;
+            this.registrationTime = registrationTime;
+        }
+    }
+}
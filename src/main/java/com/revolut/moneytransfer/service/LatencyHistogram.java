@@ -0,0 +1,152 @@
+package com.revolut.moneytransfer.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of latencies in microseconds. Like HdrHistogram every power of two range is split
+ * into {@link #SUB_BUCKETS} linear buckets, so the relative error of the recorded value is not more than 1/64 (about
+ * 1.6%). Values of 2^({@value #MAX_EXPONENT} + 1) microseconds and more are counted in the separate overflow bucket
+ * which has no upper bound.
+ * <p>
+ * Recording is a couple of atomic increments and does not allocate any memory, so it could be done on the
+ * request path. Reading is not atomic with respect to recording, so the snapshot could be slightly inconsistent
+ * under the load.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int MAX_EXPONENT = 27;
+    static final int OVERFLOW_BUCKET = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    static final int BUCKETS_COUNT = OVERFLOW_BUCKET + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long duration, TimeUnit unit) {
+        recordMicros(unit.toMicros(duration));
+    }
+
+    public void recordMicros(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+
+        long currentMax = max.get();
+        while (micros > currentMax && !max.compareAndSet(currentMax, micros)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * @return the number of the bucket the value belongs to
+     */
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return OVERFLOW_BUCKET;
+        }
+
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the exclusive upper bound of the bucket in microseconds, <code>Long.MAX_VALUE</code> for the overflow
+     * bucket
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        if (bucket == OVERFLOW_BUCKET) {
+            return Long.MAX_VALUE;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+
+        return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of all recorded values in microseconds
+     */
+    public long getSumMicros() {
+        return sum.get();
+    }
+
+    /**
+     * @return the maximum recorded value in microseconds
+     */
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    /**
+     * @return the number of values recorded into the bucket
+     */
+    public long getBucketCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    public int getBucketsCount() {
+        return BUCKETS_COUNT;
+    }
+
+    /**
+     * @return the number of the last bucket which counts the values bigger than the bounds of the rest of buckets
+     */
+    public int getOverflowBucket() {
+        return OVERFLOW_BUCKET;
+    }
+
+    /**
+     * @return the exclusive upper bound of the bucket in microseconds, <code>Long.MAX_VALUE</code> for the overflow
+     * bucket
+     */
+    public long getBucketUpperBoundMicros(int bucket) {
+        return upperBoundOf(bucket);
+    }
+
+    /**
+     * @param percentile the percentile from 0 to 100
+     *
+     * @return the upper bound of the bucket the percentile belongs to in microseconds, but not more than the maximum
+     * recorded value. 0 if nothing has been recorded yet
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKETS_COUNT; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), max.get());
+            }
+        }
+
+        return max.get();
+    }
+}
@@ -0,0 +1,332 @@
+package com.revolut.moneytransfer.service;
+
+import com.revolut.moneytransfer.db.DbUtils;
+import com.revolut.moneytransfer.db.H2DataSource;
+import com.revolut.moneytransfer.db.JdbcExecutor;
+import com.revolut.moneytransfer.db.StatementCache;
+import com.revolut.moneytransfer.dto.BankAccountCache;
+import com.revolut.moneytransfer.dto.BankAccountDto;
+import com.revolut.moneytransfer.dto.BalanceSlots;
+import com.revolut.moneytransfer.dto.Journal;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the application's telemetry and provides it in the Prometheus text format and as a JSON object:
+ * <ul>
+ *     <li>latency histograms of each endpoint</li>
+ *     <li>the database connection pool and executor usage</li>
+ *     <li>the duration of the transaction executor's cycles and the backlog of PLANNED transactions</li>
+ *     <li>the number of executed and failed transfers</li>
+ *     <li>the hits, misses and evictions of the Bank Accounts cache</li>
+ *     <li>the hits and misses of the prepared statements cache</li>
+ *     <li>the progress of the journal compactor once the journal is enabled</li>
+ *     <li>the credits and rebalances of the balance slots of the hot Bank Accounts</li>
+ * </ul>
+ * All counters are updated without locks. Once the histogram of the endpoint is registered recording of the request
+ * latency does not allocate any memory.
+ */
+public class MetricsService {
+    private static final String PREFIX = "moneytransfer_";
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final MetricsService ms = new MetricsService();
+
+    private final ConcurrentMap<String, LatencyHistogram> endpointLatencies = new ConcurrentHashMap<>();
+    private final LatencyHistogram executorCycles = new LatencyHistogram();
+    private final AtomicLong lastCyclePlannedCount = new AtomicLong();
+
+    public static MetricsService getInstance() {
+        return ms;
+    }
+
+    /**
+     * @return the latency histogram of the endpoint. It is created once the endpoint is requested first time
+     */
+    public LatencyHistogram getEndpointLatency(String endpoint) {
+        LatencyHistogram histogram = endpointLatencies.get(endpoint);
+
+        return histogram != null ? histogram : endpointLatencies.computeIfAbsent(endpoint, e -> new LatencyHistogram());
+    }
+
+    /**
+     * @param durationNanos the duration of the transaction executor's cycle
+     * @param plannedCount  the number of PLANNED transactions found by the cycle
+     */
+    public void recordExecutorCycle(long durationNanos, long plannedCount) {
+        executorCycles.record(durationNanos, TimeUnit.NANOSECONDS);
+        lastCyclePlannedCount.set(plannedCount);
+    }
+
+    /**
+     * @return all metrics in the Prometheus text exposition format
+     */
+    public String toPrometheus(TransactionsService transactionsService) {
+        StringBuilder sb = new StringBuilder();
+
+        appendHeader(sb, "http_request_duration_seconds", "histogram", "The latency of the requests by endpoint");
+        for (Map.Entry<String, LatencyHistogram> entry : endpointLatencies.entrySet()) {
+            appendHistogram(sb, "http_request_duration_seconds", "endpoint=\"" + entry.getKey() + "\"",
+                    entry.getValue());
+        }
+
+        Map<String, Long> pool = getPoolMetrics();
+        appendHeader(sb, "db_pool_connections", "gauge", "The number of the database connections by state");
+        appendSample(sb, "db_pool_connections", "state=\"active\"", pool.get("active"));
+        appendSample(sb, "db_pool_connections", "state=\"idle\"", pool.get("idle"));
+        appendSample(sb, "db_pool_connections", "state=\"total\"", pool.get("total"));
+        appendHeader(sb, "db_pool_waiting_threads", "gauge", "The number of threads waiting for a connection");
+        appendSample(sb, "db_pool_waiting_threads", null, pool.get("waiting"));
+        appendHeader(sb, "db_executor_in_flight", "gauge",
+                "The number of requests processed or queued by the database executor");
+        appendSample(sb, "db_executor_in_flight", null, pool.get("executorInFlight"));
+        appendHeader(sb, "db_executor_rejected_total", "counter",
+                "The number of requests rejected as the database executor has been saturated");
+        appendSample(sb, "db_executor_rejected_total", null, pool.get("executorRejected"));
+
+        appendHeader(sb, "executor_cycle_duration_seconds", "histogram",
+                "The duration of the transaction executor's cycles");
+        appendHistogram(sb, "executor_cycle_duration_seconds", null, executorCycles);
+        appendHeader(sb, "executor_backlog", "gauge", "The number of transactions waiting for the execution");
+        appendSample(sb, "executor_backlog", "source=\"queued\"", transactionsService.getQueuedTransactionsCount());
+        appendSample(sb, "executor_backlog", "source=\"last_cycle\"", lastCyclePlannedCount.get());
+
+        Map<String, Long> transfers = getTransferMetrics(transactionsService);
+        appendHeader(sb, "transfers_total", "counter", "The number of executed transfers by their final status");
+        appendSample(sb, "transfers_total", "result=\"succeed\"", transfers.get("succeeded"));
+        appendSample(sb, "transfers_total", "result=\"failed\"", transfers.get("failed"));
+        appendHeader(sb, "transfer_fall_outs_total", "counter",
+                "The number of transfers left PLANNED as the rows could not be locked in time");
+        appendSample(sb, "transfer_fall_outs_total", null, transfers.get("fellOut"));
+        appendHeader(sb, "transfer_errors_total", "counter",
+                "The number of transfers which execution has been interrupted with an exception");
+        appendSample(sb, "transfer_errors_total", null, transfers.get("errors"));
+        appendHeader(sb, "lock_conflicts_total", "counter", "The number of lock conflicts during the execution");
+        appendSample(sb, "lock_conflicts_total", null, transfers.get("lockConflicts"));
+        appendHeader(sb, "lock_retries_total", "counter", "The number of retries after lock conflicts");
+        appendSample(sb, "lock_retries_total", null, transfers.get("lockRetries"));
+        appendHeader(sb, "idempotent_replays_total", "counter",
+                "The number of requests answered by the transaction created with the same idempotency key");
+        appendSample(sb, "idempotent_replays_total", null, transfers.get("idempotentReplays"));
+
+        Map<String, Long> accountCache = getAccountCacheMetrics();
+        appendHeader(sb, "account_cache_requests_total", "counter", "The number of Bank Accounts cache lookups");
+        appendSample(sb, "account_cache_requests_total", "result=\"hit\"", accountCache.get("hits"));
+        appendSample(sb, "account_cache_requests_total", "result=\"miss\"", accountCache.get("misses"));
+        appendHeader(sb, "account_cache_evictions_total", "counter", "The number of Bank Accounts evicted from cache");
+        appendSample(sb, "account_cache_evictions_total", null, accountCache.get("evictions"));
+        appendHeader(sb, "account_cache_size", "gauge", "The number of Bank Accounts in the cache");
+        appendSample(sb, "account_cache_size", null, accountCache.get("size"));
+
+        Map<String, Long> statementCache = getStatementCacheMetrics();
+        appendHeader(sb, "db_statement_cache_requests_total", "counter",
+                "The number of prepared statements cache lookups");
+        appendSample(sb, "db_statement_cache_requests_total", "result=\"hit\"", statementCache.get("hits"));
+        appendSample(sb, "db_statement_cache_requests_total", "result=\"miss\"", statementCache.get("misses"));
+
+        Map<String, Long> journal = getJournalMetrics();
+        if (journal != null) {
+            appendHeader(sb, "journal_compacted_position", "gauge",
+                    "The id of the last journal posting rolled into the Bank Account snapshots");
+            appendSample(sb, "journal_compacted_position", null, journal.get("compactedPosition"));
+            appendHeader(sb, "journal_compactions_total", "counter",
+                    "The number of times when the Bank Account snapshot has been changed by the compactor");
+            appendSample(sb, "journal_compactions_total", null, journal.get("compactions"));
+        }
+
+        Map<String, Long> balanceSlots = getBalanceSlotsMetrics();
+        if (balanceSlots != null) {
+            appendHeader(sb, "balance_slot_credits_total", "counter",
+                    "The number of credits added to the balance slots of the hot Bank Accounts");
+            appendSample(sb, "balance_slot_credits_total", null, balanceSlots.get("credits"));
+            appendHeader(sb, "balance_slot_rebalances_total", "counter",
+                    "The number of times when the balance slots have been moved into the Bank Account row");
+            appendSample(sb, "balance_slot_rebalances_total", null, balanceSlots.get("rebalances"));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * @return all metrics as a tree of maps ready to be written as a JSON object
+     */
+    public Map<String, Object> toJson(TransactionsService transactionsService) {
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : endpointLatencies.entrySet()) {
+            endpoints.put(entry.getKey(), histogramToJson(entry.getValue()));
+        }
+
+        Map<String, Object> executor = new LinkedHashMap<>();
+        executor.put("cycles", histogramToJson(executorCycles));
+        executor.put("queued", transactionsService.getQueuedTransactionsCount());
+        executor.put("lastCyclePlanned", lastCyclePlannedCount.get());
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("endpoints", endpoints);
+        result.put("pool", getPoolMetrics());
+        result.put("executor", executor);
+        result.put("transfers", getTransferMetrics(transactionsService));
+        result.put("accountCache", getAccountCacheMetrics());
+        result.put("statementCache", getStatementCacheMetrics());
+        Map<String, Long> journal = getJournalMetrics();
+        if (journal != null) {
+            result.put("journal", journal);
+        }
+        Map<String, Long> balanceSlots = getBalanceSlotsMetrics();
+        if (balanceSlots != null) {
+            result.put("balanceSlots", balanceSlots);
+        }
+
+        return result;
+    }
+
+    private static Map<String, Long> getPoolMetrics() {
+        HikariPoolMXBean pool = H2DataSource.getPoolStatistics();
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("active", pool == null ? 0L : pool.getActiveConnections());
+        result.put("idle", pool == null ? 0L : pool.getIdleConnections());
+        result.put("total", pool == null ? 0L : pool.getTotalConnections());
+        result.put("waiting", pool == null ? 0L : pool.getThreadsAwaitingConnection());
+        result.put("executorInFlight", (long) JdbcExecutor.getInstance().getInFlightCount());
+        result.put("executorRejected", JdbcExecutor.getInstance().getRejectedCount());
+
+        return result;
+    }
+
+    private static Map<String, Long> getTransferMetrics(TransactionsService transactionsService) {
+        long succeeded = 0;
+        long failed = 0;
+        long fellOut = 0;
+        long errors = 0;
+        for (TransactionExecutor.WorkerStatistics statistics : transactionsService.getExecutorStatistics()) {
+            succeeded += statistics.getSucceeded();
+            failed += statistics.getFailed();
+            fellOut += statistics.getFellOut();
+            errors += statistics.getErrors();
+        }
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("succeeded", succeeded);
+        result.put("failed", failed);
+        result.put("fellOut", fellOut);
+        result.put("errors", errors);
+        result.put("lockConflicts", transactionsService.getLockConflictsCount());
+        result.put("lockRetries", transactionsService.getLockRetriesCount());
+        result.put("idempotentReplays", transactionsService.getIdempotentReplaysCount());
+
+        return result;
+    }
+
+    private static Map<String, Long> getAccountCacheMetrics() {
+        BankAccountCache cache = BankAccountDto.getInstance().getCache();
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("hits", cache.getHitsCount());
+        result.put("misses", cache.getMissesCount());
+        result.put("evictions", cache.getEvictionsCount());
+        result.put("size", (long) cache.getSize());
+
+        return result;
+    }
+
+    private static Map<String, Long> getStatementCacheMetrics() {
+        StatementCache cache = DbUtils.getInstance().getStatementCache();
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("hits", cache.getHitsCount());
+        result.put("misses", cache.getMissesCount());
+
+        return result;
+    }
+
+    /**
+     * @return the metrics of the journal or null if it is not enabled
+     */
+    private static Map<String, Long> getJournalMetrics() {
+        Journal journal = Journal.getActive();
+        if (journal == null) {
+            return null;
+        }
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("compactedPosition", journal.getCompactedPosition());
+        result.put("compactions", journal.getCompactedBankAccountsCount());
+
+        return result;
+    }
+
+    /**
+     * @return the metrics of the balance slots or null if they have not been initialized
+     */
+    private static Map<String, Long> getBalanceSlotsMetrics() {
+        BalanceSlots balanceSlots = BalanceSlots.getActive();
+        if (balanceSlots == null) {
+            return null;
+        }
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("credits", balanceSlots.getSlotCreditsCount());
+        result.put("rebalances", balanceSlots.getRebalancesCount());
+
+        return result;
+    }
+
+    private static Map<String, Object> histogramToJson(LatencyHistogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", histogram.getCount());
+        result.put("sumMicros", histogram.getSumMicros());
+        result.put("maxMicros", histogram.getMaxMicros());
+        for (double percentile : PERCENTILES) {
+            result.put("p" + String.valueOf(percentile).replace(".0", "").replace(".", "_") + "Micros",
+                    histogram.getPercentileMicros(percentile));
+        }
+
+        return result;
+    }
+
+    private static void appendHeader(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendSample(StringBuilder sb, String name, String labels, Object value) {
+        sb.append(PREFIX).append(name);
+        if (labels != null) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static void appendHistogram(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+        String labelsPrefix = labels == null ? "" : labels + ",";
+        long cumulativeCount = 0;
+
+        // Only the bounds of the power of two ranges are exported: the linear sub-buckets are needed for the precise
+        // percentiles, but thousands of series per endpoint are too much for Prometheus
+        for (int bucket = 0; bucket < histogram.getOverflowBucket(); bucket++) {
+            cumulativeCount += histogram.getBucketCount(bucket);
+            if ((bucket + 1) % LatencyHistogram.SUB_BUCKETS != 0) {
+                continue;
+            }
+            appendSample(sb, name + "_bucket",
+                    labelsPrefix + "le=\"" + toSeconds(histogram.getBucketUpperBoundMicros(bucket)) + "\"",
+                    cumulativeCount);
+        }
+        // The total is taken from the same reads as the buckets, so it is never less than the last finite one
+        cumulativeCount += histogram.getBucketCount(histogram.getOverflowBucket());
+        appendSample(sb, name + "_bucket", labelsPrefix + "le=\"+Inf\"", cumulativeCount);
+        appendSample(sb, name + "_sum", labels, toSeconds(histogram.getSumMicros()));
+        appendSample(sb, name + "_count", labels, cumulativeCount);
+    }
+
+    private static double toSeconds(long micros) {
+        return micros / 1_000_000.0;
+    }
+}
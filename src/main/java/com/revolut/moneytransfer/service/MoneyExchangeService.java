@@ -1,13 +1,26 @@
 package com.revolut.moneytransfer.service;
 
 import com.revolut.moneytransfer.model.Currency;
-
-import java.math.BigDecimal;
+import com.revolut.moneytransfer.model.Money;
 
 /**
  * The interface specifies the service which could make currency conversion. Used to abstract the transferring service
  * from the specific implementation of the service.
  */
 public interface MoneyExchangeService {
-    BigDecimal exchange(BigDecimal amount, Currency amountCurrency, Currency targetCurrency);
+    /**
+     * @return the current snapshot of exchange rates. Conversions made by one snapshot are consistent with each other
+     * even if the rates are changed in the meantime
+     */
+    ExchangeRates getRates();
+
+    /**
+     * Converts the amount into the target currency by the current rates. The source currency is the currency the
+     * amount is tagged by.
+     *
+     * @return the converted amount tagged by the target currency
+     */
+    default Money exchange(Money amount, Currency targetCurrency) {
+        return getRates().exchange(amount, targetCurrency);
+    }
 }
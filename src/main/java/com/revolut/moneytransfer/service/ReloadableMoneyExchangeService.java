@@ -0,0 +1,166 @@
+package com.revolut.moneytransfer.service;
+
+import com.revolut.moneytransfer.model.Currency;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <code>MoneyExchangeService</code> which takes exchange rates from the local file and reloads them once the file
+ * is changed. The file is set by the <code>moneytransfer.fx.ratesFile</code> system property and is checked every
+ * <code>moneytransfer.fx.reloadInterval</code> seconds (10 by default). Until the file is loaded successfully the
+ * hardcoded rates of {@link ConstantMoneyExchangeService} are used.
+ * <p>
+ * The file is a properties file with the snapshot version and the rate for every pair of different currencies:
+ * <pre>
+ * version=2
+ * GBP.EUR=1.16
+ * GBP.USD=1.3
+ * ...
+ * </pre>
+ * The snapshot is accepted only if all rates are present and its version is more than the current one. Accepted
+ * snapshot replaces the current one atomically, readers never take a lock.
+ */
+public class ReloadableMoneyExchangeService implements MoneyExchangeService {
+    private static final Logger log = LoggerFactory.getLogger(ReloadableMoneyExchangeService.class);
+
+    public static final String RATES_FILE_PROPERTY = "moneytransfer.fx.ratesFile";
+    public static final String RELOAD_INTERVAL_PROPERTY = "moneytransfer.fx.reloadInterval";
+
+    private static final String VERSION_KEY = "version";
+
+    private static ReloadableMoneyExchangeService mes;
+
+    private final Path ratesFile;
+    private volatile ExchangeRates rates = ConstantMoneyExchangeService.RATES;
+    private long lastModified = -1;
+    private ScheduledExecutorService reloader;
+
+    /**
+     * @param ratesFile the file to load the rates from or null to use the hardcoded rates only
+     */
+    ReloadableMoneyExchangeService(Path ratesFile) {
+        this.ratesFile = ratesFile;
+
+        if (ratesFile != null) {
+            reload();
+        }
+    }
+
+    public static ReloadableMoneyExchangeService getInstance() {
+        if (mes == null) {
+            synchronized (ReloadableMoneyExchangeService.class) {
+                if (mes == null) {
+                    String ratesFile = System.getProperty(RATES_FILE_PROPERTY);
+                    ReloadableMoneyExchangeService service =
+                            new ReloadableMoneyExchangeService(ratesFile == null ? null : Paths.get(ratesFile));
+
+                    if (ratesFile != null) {
+                        service.startReloading(Integer.getInteger(RELOAD_INTERVAL_PROPERTY, 10));
+                    }
+                    mes = service;
+                }
+            }
+        }
+        return mes;
+    }
+
+    @Override
+    public ExchangeRates getRates() {
+        return rates;
+    }
+
+    /**
+     * Loads the rates file if it has been changed since the last load
+     *
+     * @return true if the new snapshot has been accepted
+     */
+    synchronized boolean reload() {
+        try {
+            long modified = Files.getLastModifiedTime(ratesFile).toMillis();
+            if (modified == lastModified) {
+                return false;
+            }
+            lastModified = modified;
+
+            ExchangeRates loaded = load(ratesFile);
+            if (loaded.getVersion() <= rates.getVersion()) {
+                log.warn("Exchange rates of version {} are ignored as version {} is already used",
+                        loaded.getVersion(), rates.getVersion());
+                return false;
+            }
+
+            rates = loaded;
+            log.info("Exchange rates of version {} have been loaded from {}", loaded.getVersion(), ratesFile);
+
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.error("Exchange rates could not be loaded from {}. Version {} is still used", ratesFile,
+                    rates.getVersion(), e);
+
+            return false;
+        }
+    }
+
+    public void shutdown() {
+        if (reloader != null) {
+            reloader.shutdown();
+        }
+    }
+
+    private void startReloading(int intervalSeconds) {
+        reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "exchange-rates-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloader.scheduleWithFixedDelay(this::reload, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the version or some of the rates are absent or malformed
+     */
+    static ExchangeRates load(Path ratesFile) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(ratesFile)) {
+            properties.load(inputStream);
+        }
+
+        String version = properties.getProperty(VERSION_KEY);
+        if (version == null) {
+            throw new IllegalArgumentException("The version of exchange rates is absent");
+        }
+
+        Currency[] currencies = Currency.values();
+        long[] rates = new long[currencies.length * currencies.length];
+
+        for (Currency from : currencies) {
+            for (Currency to : currencies) {
+                if (from == to) {
+                    continue;
+                }
+
+                String rate = properties.getProperty(from.name() + "." + to.name());
+                if (rate == null) {
+                    throw new IllegalArgumentException("The rate from " + from + " to " + to + " is absent");
+                }
+
+                rates[ExchangeRates.indexOf(from, to)] = new BigDecimal(rate.trim())
+                        .setScale(ExchangeRates.RATE_SCALE, ExchangeRates.ROUNDING_MODE)
+                        .unscaledValue().longValueExact();
+            }
+        }
+
+        return new ExchangeRates(Long.parseLong(version.trim()), rates);
+    }
+}
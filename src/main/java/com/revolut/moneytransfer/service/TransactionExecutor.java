@@ -0,0 +1,299 @@
+package com.revolut.moneytransfer.service;
+
+import com.revolut.moneytransfer.dto.TransactionDto;
+import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.Transaction;
+import com.revolut.moneytransfer.model.TransactionStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes PLANNED transactions on a number of single threaded workers. Transactions are partitioned between the
+ * workers by the source Bank Account id. So all transfers from the same account are executed one by one in the
+ * order they have been submitted, while transfers from unrelated accounts are executed in parallel.
+ * <p>
+ * The partitioning serializes only the withdrawals. Transfers to the same account from different sources are executed
+ * by different workers, so they still contend on the row lock of the recipient and could wait for each other or time
+ * out and be retried by {@link TransactionDto}. Routing by both accounts would not help: the transaction runs on one
+ * worker only, which could not be the worker of its source and the worker of its recipient at the same time. Credits
+ * of the hot recipient are better spread by the balance slots of <code>moneytransfer.hotAccounts</code>.
+ * <p>
+ * The number of workers could be configured by the <code>moneytransfer.executor.workers</code> system property.
+ * By default it is equal to the number of available processors.
+ * <p>
+ * When a number of transactions is executed at once they are grouped into batches of
+ * <code>moneytransfer.executor.batchSize</code> transactions (100 by default). Each batch is executed by
+ * {@link TransactionDto#executeTransactions(Collection)} in one database's transaction.
+ * <p>
+ * Transactions submitted one by one by {@link #submit(Transaction)} are remembered till their execution, so
+ * {@link #executeAll(Collection)} does not execute them second time. The transaction is submitted once its creation
+ * is committed, so the executor's cycle could still read it as PLANNED right before that. Such transaction is
+ * executed by the first worker and the second execution finds it executed already and does nothing.
+ */
+public class TransactionExecutor {
+    private static final Logger log = LoggerFactory.getLogger(TransactionExecutor.class);
+
+    public static final String WORKERS_PROPERTY = "moneytransfer.executor.workers";
+    public static final String BATCH_SIZE_PROPERTY = "moneytransfer.executor.batchSize";
+
+    private final TransactionDto transactionDto;
+    private final int batchSize;
+    private final ExecutorService[] workers;
+    private final WorkerStatistics[] statistics;
+    private final Set<Long> queuedIds = ConcurrentHashMap.newKeySet();
+
+    public TransactionExecutor(TransactionDto transactionDto) {
+        this(transactionDto,
+                Integer.getInteger(WORKERS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger(BATCH_SIZE_PROPERTY, 100));
+    }
+
+    public TransactionExecutor(TransactionDto transactionDto, int workersCount, int batchSize) {
+        if (workersCount <= 0) {
+            throw new IllegalArgumentException("The number of workers should be more than 0");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size should be more than 0");
+        }
+
+        this.transactionDto = transactionDto;
+        this.batchSize = batchSize;
+        this.workers = new ExecutorService[workersCount];
+        this.statistics = new WorkerStatistics[workersCount];
+
+        for (int i = 0; i < workersCount; i++) {
+            String threadName = "transaction-executor-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+            statistics[i] = new WorkerStatistics(i);
+        }
+
+        log.info("Transaction executor started with {} workers and batch size {}", workersCount, batchSize);
+    }
+
+    /**
+     * Plans the execution of the transaction on the worker responsible for its source Bank Account
+     *
+     * @param transaction the PLANNED transaction to be executed
+     *
+     * @return the future which will be completed once transaction will be executed
+     */
+    public Future<?> submit(Transaction transaction) {
+        int partition = partitionOf(transaction.getFromBankAccountId());
+        Long transactionId = transaction.getId();
+
+        queuedIds.add(transactionId);
+
+        return workers[partition].submit(() -> {
+            try {
+                execute(transactionId, statistics[partition]);
+            } finally {
+                queuedIds.remove(transactionId);
+            }
+        });
+    }
+
+    /**
+     * Executes all provided transactions and waits until all of them will be processed. The order of transactions
+     * from the same source Bank Account is preserved. Transactions of each worker are executed by batches.
+     * Transactions which are already waiting for the execution after {@link #submit(Transaction)} are not executed
+     * second time, but the method waits for them as well.
+     *
+     * @param transactions the PLANNED transactions to be executed
+     */
+    public void executeAll(Collection<Transaction> transactions) {
+        List<List<Long>> partitions = new ArrayList<>(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            partitions.add(new ArrayList<>());
+        }
+
+        boolean[] hasQueued = new boolean[workers.length];
+
+        for (Transaction transaction : transactions) {
+            int partition = partitionOf(transaction.getFromBankAccountId());
+
+            if (queuedIds.contains(transaction.getId())) {
+                hasQueued[partition] = true;
+                continue;
+            }
+            partitions.get(partition).add(transaction.getId());
+        }
+
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int partition = 0; partition < workers.length; partition++) {
+            //Workers are FIFO, so the empty task completes once already queued transactions are executed
+            if (hasQueued[partition] && partitions.get(partition).isEmpty()) {
+                futures.add(workers[partition].submit(() -> { }));
+            }
+        }
+
+        for (int partition = 0; partition < workers.length; partition++) {
+            List<Long> transactionIds = partitions.get(partition);
+            WorkerStatistics workerStatistics = statistics[partition];
+
+            for (int from = 0; from < transactionIds.size(); from += batchSize) {
+                List<Long> batch = transactionIds.subList(from, Math.min(from + batchSize, transactionIds.size()));
+
+                futures.add(workers[partition].submit(() -> execute(batch, workerStatistics)));
+            }
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.error("Unexpected exception", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return the number of the worker responsible for the Bank Account provided
+     */
+    int partitionOf(Long bankAccountId) {
+        return Math.floorMod(Long.hashCode(bankAccountId), workers.length);
+    }
+
+    /**
+     * @return the throughput counters of each worker
+     */
+    public List<WorkerStatistics> getStatistics() {
+        List<WorkerStatistics> result = new ArrayList<>(statistics.length);
+        Collections.addAll(result, statistics);
+
+        return result;
+    }
+
+    /**
+     * @return the number of transactions submitted one by one which are waiting for the execution
+     */
+    public int getQueuedCount() {
+        return queuedIds.size();
+    }
+
+    public int getWorkersCount() {
+        return workers.length;
+    }
+
+    public void shutdown() {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    private void execute(Long transactionId, WorkerStatistics workerStatistics) {
+        try {
+            workerStatistics.count(transactionDto.executeTransaction(transactionId), 1);
+        } catch (ObjectModificationException e) {
+            //The cycle could read the transaction as PLANNED right before it is submitted or executed after creation
+            if (transactionDto.isExecuted(transactionId)) {
+                log.debug("Transaction with id {} has been executed already", transactionId);
+                return;
+            }
+
+            workerStatistics.errors.incrementAndGet();
+            log.error("Could not execute transaction with id {}", transactionId, e);
+        } catch (Exception e) {
+            workerStatistics.errors.incrementAndGet();
+            log.error("Could not execute transaction with id {}", transactionId, e);
+        }
+    }
+
+    private void execute(List<Long> transactionIds, WorkerStatistics workerStatistics) {
+        if (transactionIds.size() == 1) {
+            execute(transactionIds.get(0), workerStatistics);
+            return;
+        }
+
+        try {
+            Map<TransactionStatus, Integer> statusCounts = transactionDto.executeTransactions(transactionIds);
+            for (Map.Entry<TransactionStatus, Integer> entry : statusCounts.entrySet()) {
+                workerStatistics.count(entry.getKey(), entry.getValue());
+            }
+        } catch (Exception e) {
+            workerStatistics.errors.addAndGet(transactionIds.size());
+            log.error("Could not execute batch of transactions {}", transactionIds, e);
+        }
+    }
+
+    /**
+     * The throughput counters of the particular worker. Executed transfers are counted by their final status, the
+     * transfers which stay PLANNED after the lock conflicts and the ones interrupted by an exception are counted
+     * separately.
+     */
+    public static class WorkerStatistics {
+        private final int worker;
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong fellOut = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        WorkerStatistics(int worker) {
+            this.worker = worker;
+        }
+
+        private void count(TransactionStatus status, int count) {
+            if (status == TransactionStatus.SUCCEED) {
+                succeeded.addAndGet(count);
+            } else if (status == TransactionStatus.FAILED) {
+                failed.addAndGet(count);
+            } else if (status == TransactionStatus.PLANNED) {
+                fellOut.addAndGet(count);
+            }
+        }
+
+        public int getWorker() {
+            return worker;
+        }
+
+        /**
+         * @return the number of transactions which have been executed by the worker with SUCCEED status
+         */
+        public long getSucceeded() {
+            return succeeded.get();
+        }
+
+        /**
+         * @return the number of transactions which have been executed by the worker with FAILED status, e.g. for the
+         * lack of money
+         */
+        public long getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * @return the number of transactions which stay PLANNED as their rows could not be locked in time. They are
+         * executed again by the next executor's cycle
+         */
+        public long getFellOut() {
+            return fellOut.get();
+        }
+
+        /**
+         * @return the number of transactions which execution has been interrupted with an exception
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+    }
+}
@@ -1,32 +1,52 @@
 package com.revolut.moneytransfer.service;
 
 import com.revolut.moneytransfer.dto.TransactionDto;
+import com.revolut.moneytransfer.exceptions.ImpossibleOperationExecution;
 import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.BankAccount;
+import com.revolut.moneytransfer.model.BatchItemResult;
+import com.revolut.moneytransfer.model.DailyTurnover;
 import com.revolut.moneytransfer.model.ExceptionType;
 import com.revolut.moneytransfer.model.Transaction;
 import com.revolut.moneytransfer.model.TransactionStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Right now the proxy service under the {@link TransactionDto}. Should be used to abstract the presentation layer
  * from the persistence layer.
  *
- * Additionally it schedule the transaction execution service.
+ * Additionally it executes transactions. Every created transaction is submitted to the {@link TransactionExecutor}
+ * right away, so it is executed in milliseconds. The scheduled sweep of PLANNED transactions is just a safety net for
+ * transactions which have been lost (e.g. on restart) or left PLANNED after lock conflicts. It runs every
+ * <code>moneytransfer.executor.sweepInterval</code> seconds (30 by default).
  *
  * TODO: make TransactionDto as an interface and pass it into the constructor. Use DI.
  */
 public class TransactionsService {
     private static final Logger log = LoggerFactory.getLogger(TransactionsService.class);
 
+    static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
     private static TransactionsService ts;
     private TransactionDto transactionDto;
+    private TransactionExecutor transactionExecutor;
+    private int scanLimit = Integer.getInteger("moneytransfer.executor.scanLimit", 1000);
+    private IdempotencyCache idempotencyCache = new IdempotencyCache();
+    private int maxBatchSize = Integer.getInteger("moneytransfer.batch.maxSize", 10000);
+    private static int sweepInterval = Integer.getInteger("moneytransfer.executor.sweepInterval", 30);
     private static ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
 
     /**
@@ -34,9 +54,10 @@ public class TransactionsService {
      */
     TransactionsService(TransactionDto transactionDto) {
         this.transactionDto = transactionDto;
+        this.transactionExecutor = new TransactionExecutor(transactionDto);
         executorService.scheduleAtFixedRate(() ->
                         ts.executeTransactions(),
-                0, 5, TimeUnit.SECONDS);
+                0, sweepInterval, TimeUnit.SECONDS);
         log.info("Transaction Executor planned");
     }
 
@@ -55,8 +76,25 @@ public class TransactionsService {
         return transactionDto.getAllTransactions();
     }
 
-    private Collection<Long> getAllTransactionIdsByStatus(TransactionStatus transactionStatus) {
-        return transactionDto.getAllTransactionIdsByStatus(transactionStatus);
+    public List<Transaction> getTransactionsPage(Long after, int limit) {
+        return transactionDto.getTransactionsPage(after, limit);
+    }
+
+    public List<Transaction> getBankAccountTransactionsPage(Long bankAccountId, Long before, int limit) {
+        return transactionDto.getBankAccountTransactionsPage(bankAccountId, before, limit);
+    }
+
+    public List<DailyTurnover> getDailyTurnover(BankAccount bankAccount, LocalDate from, LocalDate to) {
+        return transactionDto.getAccountTurnover().getDailyTurnover(bankAccount.getId(), bankAccount.getCurrency(),
+                from, to);
+    }
+
+    public void exportTransactions(LocalDate from, LocalDate to, Consumer<Transaction> consumer) {
+        transactionDto.streamTransactions(from, to, consumer);
+    }
+
+    public void streamTransactions(Long after, Consumer<Transaction> consumer) {
+        transactionDto.streamTransactions(after, consumer);
     }
 
     public Transaction getTransactionById(Long id) {
@@ -65,7 +103,8 @@ public class TransactionsService {
 
     /**
      * Make it possible to create money transfer from one account to another.
-     * The result of execution is created transaction with actual status. Usually it is "IN PROGRESS"
+     * The result of execution is created transaction with actual status. Usually it is "PLANNED".
+     * The created transaction is submitted for the execution immediately.
      *
      * The transaction <code>fromBankAccount</code> and <code>toBankAccount</code> may have not specified any
      * fields except id
@@ -73,6 +112,122 @@ public class TransactionsService {
      * @return transaction object with the actual ID
      */
     public Transaction createTransaction(Transaction transaction) throws ObjectModificationException {
+        verifyNewTransaction(transaction);
+
+        Transaction createdTransaction = transactionDto.createTransaction(transaction);
+
+        submit(createdTransaction);
+
+        return createdTransaction;
+    }
+
+    /**
+     * The form of {@link #createTransaction(Transaction)} which creates the transaction only once per idempotency key,
+     * so the client is able to retry the request safely. The retry is answered by the transaction created with
+     * the same key:
+     * <ul>
+     *     <li>recently used keys are held by the {@link IdempotencyCache}, so most of retries don't touch the
+     *     database. The concurrent duplicate waits for the original request in flight</li>
+     *     <li>older keys are found in the database by the unique column of the transaction</li>
+     * </ul>
+     * The key is forgotten if the transaction has not been created, so the next retry will try to create it again.
+     *
+     * @param idempotencyKey the key provided by the client. The transaction is created as usual if it is null
+     *
+     * @return the transaction created with the key provided
+     * @throws ObjectModificationException if the key has been used for another transfer
+     */
+    public Transaction createTransaction(Transaction transaction, String idempotencyKey)
+            throws ObjectModificationException {
+        if (idempotencyKey == null) {
+            return createTransaction(transaction);
+        }
+
+        verifyNewTransaction(transaction);
+        if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED,
+                    "The idempotency key should have from 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+        }
+
+        CompletableFuture<Transaction> createdTransaction = new CompletableFuture<>();
+        CompletableFuture<Transaction> originalTransaction =
+                idempotencyCache.putIfAbsent(idempotencyKey, createdTransaction);
+
+        if (originalTransaction != null) {
+            return verifySameTransfer(transaction, await(originalTransaction));
+        }
+
+        try {
+            transaction.setIdempotencyKey(idempotencyKey);
+            createdTransaction.complete(createTransaction(transaction));
+        } catch (ObjectModificationException | RuntimeException e) {
+            idempotencyCache.remove(idempotencyKey, createdTransaction);
+            createdTransaction.completeExceptionally(e);
+            throw e;
+        }
+
+        return verifySameTransfer(transaction, createdTransaction.join());
+    }
+
+    /**
+     * Batch form of {@link #createTransaction(Transaction)}. Every transaction is validated by the same rules, valid
+     * ones are created by {@link TransactionDto#createTransactions(List)} in as few database's transactions as
+     * possible. Invalid transactions don't prevent the creation of the rest of them.
+     *
+     * @param transactions Transactions to be created. The null element is treated as malformed transaction
+     *
+     * @return the result of every transaction in the order they are provided
+     * @throws ObjectModificationException if the batch is bigger than <code>moneytransfer.batch.maxSize</code>
+     */
+    public List<BatchItemResult> createTransactions(List<Transaction> transactions)
+            throws ObjectModificationException {
+        if (transactions.size() > maxBatchSize) {
+            throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED,
+                    "The batch should not contain more than " + maxBatchSize + " transactions");
+        }
+
+        List<BatchItemResult> results = new ArrayList<>(Collections.nCopies(transactions.size(), null));
+        List<Transaction> validTransactions = new ArrayList<>(transactions.size());
+        List<Integer> validIndexes = new ArrayList<>(transactions.size());
+
+        for (int i = 0; i < transactions.size(); i++) {
+            try {
+                verifyNewTransaction(transactions.get(i));
+
+                validTransactions.add(transactions.get(i));
+                validIndexes.add(i);
+            } catch (ObjectModificationException e) {
+                results.set(i, BatchItemResult.failed(i, e));
+            }
+        }
+
+        List<ObjectModificationException> errors = transactionDto.createTransactions(validTransactions);
+
+        for (int i = 0; i < validTransactions.size(); i++) {
+            int index = validIndexes.get(i);
+
+            if (errors.get(i) != null) {
+                results.set(index, BatchItemResult.failed(index, errors.get(i)));
+                continue;
+            }
+
+            results.set(index, BatchItemResult.created(index, validTransactions.get(i)));
+            submit(validTransactions.get(i));
+        }
+
+        return results;
+    }
+
+    /**
+     * Verifies the transaction provided by the client before it will be created
+     *
+     * @throws ObjectModificationException if the transaction is malformed
+     */
+    private static void verifyNewTransaction(Transaction transaction) throws ObjectModificationException {
+        if (transaction == null) {
+            throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED,
+                    "The transaction has not been provided");
+        }
         if (transaction.getFromBankAccountId() == null || transaction.getToBankAccountId() == null) {
             throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED,
                     "The transaction has not provided from Bank Account or to Bank Account values");
@@ -81,29 +236,131 @@ public class TransactionsService {
             throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED,
                     "The sender and recipient should not be same");
         }
-        if (transaction.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+        if (transaction.getAmount() == null || transaction.getAmount().signum() <= 0) {
             throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED,
                     "The amount should be more than 0");
         }
+    }
+
+    /**
+     * Waits for the transaction created by the original request with the same idempotency key
+     *
+     * @throws ObjectModificationException if the original request has failed with it
+     */
+    private static Transaction await(CompletableFuture<Transaction> originalTransaction)
+            throws ObjectModificationException {
+        try {
+            return originalTransaction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImpossibleOperationExecution(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ObjectModificationException) {
+                throw (ObjectModificationException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ImpossibleOperationExecution(e.getCause());
+        }
+    }
+
+    /**
+     * @return the transaction created with the idempotency key if it is the same transfer as requested one
+     *
+     * @throws ObjectModificationException if the idempotency key has been used for another transfer
+     */
+    private static Transaction verifySameTransfer(Transaction requested, Transaction created)
+            throws ObjectModificationException {
+        if (!requested.getFromBankAccountId().equals(created.getFromBankAccountId()) ||
+                !requested.getToBankAccountId().equals(created.getToBankAccountId()) ||
+                requested.getCurrency() != created.getCurrency() ||
+                !requested.getAmount().equals(created.getAmount())) {
+            throw new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED,
+                    "The idempotency key has been used for another transaction");
+        }
 
-        return transactionDto.createTransaction(transaction);
+        return created;
+    }
+
+    private void submit(Transaction createdTransaction) {
+        if (createdTransaction != null && createdTransaction.getStatus() == TransactionStatus.PLANNED) {
+            transactionExecutor.submit(createdTransaction);
+        }
     }
 
     /**
-     * Here we are taking all PLANNED transactions and executing them.
-     * After execution the transaction status will be changed
+     * Here we are taking all PLANNED transactions which are not queued for execution yet and executing them
+     * in parallel. The method returns once all of them will be processed. After execution the transaction status
+     * will be changed
+     * <p>
+     * PLANNED transactions are read in the order of creation by pages of <code>moneytransfer.executor.scanLimit</code>
+     * transactions. Transactions which are still PLANNED after the execution (e.g. because of lock conflicts) are
+     * left for the next cycle.
      */
     public void executeTransactions() {
         log.info("Starting of Transaction executor");
-        Collection<Long> plannedTransactionIds = getAllTransactionIdsByStatus(TransactionStatus.PLANNED);
+        long startTime = System.nanoTime();
+        long plannedCount = 0;
+        List<Transaction> plannedTransactions;
+        Long after = null;
 
-        for (Long transactionId : plannedTransactionIds) {
-            try {
-                transactionDto.executeTransaction(transactionId);
-            } catch (ObjectModificationException e) {
-                log.error("Could not execute transaction with id %d", transactionId, e);
+        do {
+            plannedTransactions = transactionDto.getTransactionsByStatus(TransactionStatus.PLANNED, after, scanLimit);
+
+            if (plannedTransactions.isEmpty()) {
+                break;
             }
-        }
+
+            plannedCount += plannedTransactions.size();
+            transactionExecutor.executeAll(plannedTransactions);
+            after = plannedTransactions.get(plannedTransactions.size() - 1).getId();
+        } while (plannedTransactions.size() == scanLimit);
+
+        MetricsService.getInstance().recordExecutorCycle(System.nanoTime() - startTime, plannedCount);
         log.info("Transaction executor ended");
     }
+
+    /**
+     * @return the maximum number of transactions in one batch. It is configured by
+     * <code>moneytransfer.batch.maxSize</code>
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return the number of created transactions which are waiting for the execution
+     */
+    public int getQueuedTransactionsCount() {
+        return transactionExecutor.getQueuedCount();
+    }
+
+    /**
+     * @return the number of requests answered by the transaction created with the same idempotency key
+     */
+    public long getIdempotentReplaysCount() {
+        return idempotencyCache.getHitsCount();
+    }
+
+    /**
+     * @return the throughput counters of each transaction executor's worker
+     */
+    public List<TransactionExecutor.WorkerStatistics> getExecutorStatistics() {
+        return transactionExecutor.getStatistics();
+    }
+
+    /**
+     * @return the number of times when transaction execution could not lock the database rows in time
+     */
+    public long getLockConflictsCount() {
+        return transactionDto.getLockConflictsCount();
+    }
+
+    /**
+     * @return the number of times when transaction execution has been retried after the lock conflict
+     */
+    public long getLockRetriesCount() {
+        return transactionDto.getLockRetriesCount();
+    }
 }
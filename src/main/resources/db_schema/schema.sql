@@ -27,9 +27,55 @@ CREATE TABLE IF NOT EXISTS transaction (
   update_date TIMESTAMP,
   status_id INT NOT NULL,
   failMessage VARCHAR(4000),
+  rate_version BIGINT,
+  idempotency_key VARCHAR(255) UNIQUE,
 
   FOREIGN KEY(from_account_id) REFERENCES bank_account(id),
   FOREIGN KEY(to_account_id) REFERENCES bank_account(id),
   FOREIGN KEY(currency_id) REFERENCES currency(id),
   FOREIGN KEY(status_id) REFERENCES transaction_status(id)
-)
\ No newline at end of file
+);
+
+CREATE INDEX IF NOT EXISTS transaction_status_id_idx ON transaction(status_id, id);
+
+CREATE INDEX IF NOT EXISTS transaction_from_account_id_idx ON transaction(from_account_id, id DESC);
+
+CREATE INDEX IF NOT EXISTS transaction_to_account_id_idx ON transaction(to_account_id, id DESC);
+
+CREATE INDEX IF NOT EXISTS transaction_creation_date_idx ON transaction(creation_date, id);
+
+ALTER TABLE bank_account ADD COLUMN IF NOT EXISTS journal_position BIGINT DEFAULT 0 NOT NULL;
+
+CREATE TABLE IF NOT EXISTS journal (
+  id IDENTITY,
+  bank_account_id BIGINT NOT NULL,
+  transaction_id BIGINT NOT NULL,
+  amount DECIMAL(19,4) NOT NULL,
+
+  FOREIGN KEY(bank_account_id) REFERENCES bank_account(id),
+  FOREIGN KEY(transaction_id) REFERENCES transaction(id)
+);
+
+CREATE INDEX IF NOT EXISTS journal_bank_account_id_idx ON journal(bank_account_id, id);
+
+ALTER TABLE bank_account ADD COLUMN IF NOT EXISTS balance_slots INT DEFAULT 0 NOT NULL;
+
+CREATE TABLE IF NOT EXISTS bank_account_slot (
+  bank_account_id BIGINT NOT NULL,
+  slot INT NOT NULL,
+  balance DECIMAL(19,4) NOT NULL,
+
+  PRIMARY KEY(bank_account_id, slot),
+  FOREIGN KEY(bank_account_id) REFERENCES bank_account(id)
+);
+
+CREATE TABLE IF NOT EXISTS account_daily_turnover (
+  bank_account_id BIGINT NOT NULL,
+  turnover_date DATE NOT NULL,
+  slot INT NOT NULL,
+  debited DECIMAL(19,4) NOT NULL,
+  credited DECIMAL(19,4) NOT NULL,
+
+  PRIMARY KEY(bank_account_id, turnover_date, slot),
+  FOREIGN KEY(bank_account_id) REFERENCES bank_account(id)
+);
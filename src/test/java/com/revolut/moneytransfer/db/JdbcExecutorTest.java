@@ -0,0 +1,65 @@
+package com.revolut.moneytransfer.db;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class JdbcExecutorTest {
+
+    /**
+     * Tests that the task is rejected once all threads are busy and the queue is full, and that the executor accepts
+     * tasks again once they are done
+     */
+    @Test
+    public void testSaturation() throws InterruptedException {
+        JdbcExecutor executor = new JdbcExecutor(1, 1, false);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+
+        Runnable blockingTask = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        };
+
+        executor.execute(blockingTask);
+        executor.execute(blockingTask);
+        assertEquals(executor.getInFlightCount(), 2);
+
+        try {
+            executor.execute(blockingTask);
+            fail("The saturated executor should reject the task");
+        } catch (RejectedExecutionException e) {
+            assertEquals(executor.getRejectedCount(), 1L);
+        }
+
+        release.countDown();
+        while (executor.getInFlightCount() > 0) {
+            Thread.sleep(10);
+        }
+
+        executor.execute(done::countDown);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that tasks are executed once virtual threads are enabled. Platform threads are used if the JDK doesn't
+     * support virtual ones
+     */
+    @Test
+    public void testVirtualThreads() throws InterruptedException {
+        JdbcExecutor executor = new JdbcExecutor(1, 1, true);
+        CountDownLatch done = new CountDownLatch(1);
+
+        executor.execute(done::countDown);
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+}
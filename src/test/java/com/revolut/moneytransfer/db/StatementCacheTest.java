@@ -0,0 +1,173 @@
+package com.revolut.moneytransfer.db;
+
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class StatementCacheTest {
+    private static final String QUERY = "SELECT * FROM bank_account WHERE id = ?";
+
+    /**
+     * Tests that the released statement is reused by the next query of the same connection
+     */
+    @Test
+    public void testStatementIsReused() throws Exception {
+        StatementCache cache = new StatementCache(10);
+        TestConnection con = new TestConnection();
+
+        PreparedStatement first = cache.prepare(con.proxy, QUERY, true);
+        cache.release(con.proxy, QUERY, true, first, true);
+        PreparedStatement second = cache.prepare(con.proxy, QUERY, true);
+
+        assertSame(second, first);
+        assertEquals(con.prepared.size(), 1);
+        assertEquals(cache.getHitsCount(), 1L);
+        assertEquals(cache.getMissesCount(), 1L);
+    }
+
+    /**
+     * Tests that the nested query never gets the statement which is used already and read only statements are not
+     * mixed with the statements returning generated keys
+     */
+    @Test
+    public void testBorrowedStatementIsNotShared() throws Exception {
+        StatementCache cache = new StatementCache(10);
+        TestConnection con = new TestConnection();
+
+        PreparedStatement outer = cache.prepare(con.proxy, QUERY, false);
+        PreparedStatement nested = cache.prepare(con.proxy, QUERY, false);
+        assertNotSame(nested, outer);
+
+        cache.release(con.proxy, QUERY, false, nested, true);
+        cache.release(con.proxy, QUERY, false, outer, true);
+        assertTrue(con.closed.contains(outer));
+
+        assertNotSame(cache.prepare(con.proxy, QUERY, true), nested);
+        assertEquals(con.prepared.size(), 3);
+    }
+
+    /**
+     * Tests that the statement of the failed query and the least recently used statement are closed
+     */
+    @Test
+    public void testStatementsAreClosed() throws Exception {
+        StatementCache cache = new StatementCache(1);
+        TestConnection con = new TestConnection();
+
+        PreparedStatement failed = cache.prepare(con.proxy, QUERY, false);
+        cache.release(con.proxy, QUERY, false, failed, false);
+        assertTrue(con.closed.contains(failed));
+
+        PreparedStatement first = cache.prepare(con.proxy, QUERY, false);
+        cache.release(con.proxy, QUERY, false, first, true);
+        PreparedStatement second = cache.prepare(con.proxy, "SELECT 1", false);
+        cache.release(con.proxy, "SELECT 1", false, second, true);
+
+        assertTrue(con.closed.contains(first));
+        assertFalse(con.closed.contains(second));
+    }
+
+    /**
+     * Tests that the statements of the connection returned into the pool are not reused by the next borrower
+     */
+    @Test
+    public void testEvictedStatementsAreNotReused() throws Exception {
+        StatementCache cache = new StatementCache(10);
+        TestConnection con = new TestConnection();
+
+        PreparedStatement first = cache.prepare(con.proxy, QUERY, true);
+        cache.release(con.proxy, QUERY, true, first, true);
+        cache.evict(con.proxy);
+
+        assertNotSame(cache.prepare(con.proxy, QUERY, true), first);
+        assertEquals(cache.getMissesCount(), 2L);
+    }
+
+    /**
+     * Tests that the pool rolls back the work done by the cached statements once the connection is closed without
+     * the commit, even bypassing {@link DbUtils#quietlyClose(Connection)}, and H2 caches the parsed queries
+     */
+    @Test
+    public void testPoolTracksCachedStatements() throws SQLException {
+        DbUtils dbUtils = DbUtils.getInstance();
+
+        dbUtils.executeQuery("create table if not exists statement_cache_test (id int primary key, amount int)",
+                PreparedStatement::executeUpdate);
+        dbUtils.executeQuery("merge into statement_cache_test values (1, 0)", PreparedStatement::executeUpdate);
+
+        Connection con = H2DataSource.getConnection();
+        dbUtils.executeQueryInConnection(con, "update statement_cache_test set amount = 1 where id = 1",
+                PreparedStatement::executeUpdate);
+        con.close();
+
+        //The row would stay locked by the connection if it had not been rolled back
+        dbUtils.executeQuery("update statement_cache_test set amount = amount + 2 where id = 1",
+                PreparedStatement::executeUpdate);
+
+        assertEquals(readString(dbUtils, "select amount from statement_cache_test where id = 1"), "2");
+        assertEquals(readString(dbUtils,
+                "select value from information_schema.settings where name = 'QUERY_CACHE_SIZE'"), "64");
+    }
+
+    private static String readString(DbUtils dbUtils, String query) {
+        return dbUtils.executeReadOnlyQuery(query, preparedStatement -> {
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                assertTrue(resultSet.next());
+                return resultSet.getString(1);
+            }
+        }).getResult();
+    }
+
+    /**
+     * Records the statements prepared and closed instead of the real database connection
+     */
+    private static class TestConnection {
+        private final List<PreparedStatement> prepared = new ArrayList<>();
+        private final List<PreparedStatement> closed = new ArrayList<>();
+
+        private final Connection proxy = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{Connection.class}, (connection, method, args) -> {
+                    switch (method.getName()) {
+                        case "prepareStatement":
+                            PreparedStatement preparedStatement = newStatement();
+                            prepared.add(preparedStatement);
+                            return preparedStatement;
+                        case "isClosed":
+                            return false;
+                        case "hashCode":
+                            return System.identityHashCode(connection);
+                        case "equals":
+                            return connection == args[0];
+                        default:
+                            return null;
+                    }
+                });
+
+        private PreparedStatement newStatement() {
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[]{PreparedStatement.class}, (statement, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                closed.add((PreparedStatement) statement);
+                                return null;
+                            case "isClosed":
+                                return closed.contains(statement);
+                            case "hashCode":
+                                return System.identityHashCode(statement);
+                            case "equals":
+                                return statement == args[0];
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+}
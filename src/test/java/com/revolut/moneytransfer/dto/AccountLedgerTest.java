@@ -0,0 +1,261 @@
+package com.revolut.moneytransfer.dto;
+
+import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.BankAccount;
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.Transaction;
+import com.revolut.moneytransfer.model.TransactionStatus;
+import com.revolut.moneytransfer.service.BankAccountService;
+import com.revolut.moneytransfer.service.ConstantMoneyExchangeService;
+import com.revolut.moneytransfer.service.MoneyExchangeService;
+import org.hamcrest.Matchers;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.testng.Assert.*;
+
+public class AccountLedgerTest {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    //Nothing is flushed by the ledger's writer while the test runs
+    private static final long FLUSH_INTERVAL_MILLIS = 3_600_000;
+
+    private MoneyExchangeService moneyExchangeService = new ConstantMoneyExchangeService();
+    private BankAccountDto bankAccountDto = BankAccountDto.getInstance();
+    private TransactionDto transactionDto;
+
+    private BankAccount from;
+    private BankAccount to;
+
+    @BeforeClass
+    public void initData() throws ObjectModificationException {
+        from = bankAccountDto.createBankAccount(new BankAccount("Ledger From", BigDecimal.valueOf(100), Currency.EUR));
+        to = bankAccountDto.createBankAccount(new BankAccount("Ledger To", BigDecimal.ZERO, Currency.EUR));
+
+        transactionDto = new TransactionDto(moneyExchangeService, true);
+    }
+
+    /**
+     * Tests that the transfer is applied in memory at once and written into the database by the flush
+     */
+    @Test
+    public void testTransferAndFlush() throws ObjectModificationException {
+        AccountLedger accountLedger = transactionDto.getAccountLedger();
+
+        Transaction transaction = transactionDto.createTransaction(
+                new Transaction(from.getId(), to.getId(), BigDecimal.valueOf(40), Currency.EUR));
+        transactionDto.executeTransaction(transaction.getId());
+
+        assertThat(accountLedger.getBalance(from.getId()).toBigDecimal(), Matchers.comparesEqualTo(BigDecimal.valueOf(60)));
+        assertThat(accountLedger.getBalance(to.getId()).toBigDecimal(), Matchers.comparesEqualTo(BigDecimal.valueOf(40)));
+
+        accountLedger.flush();
+
+        assertEquals(transactionDto.getTransactionById(transaction.getId()).getStatus(), TransactionStatus.SUCCEED);
+        assertThat(bankAccountDto.getBankAccountById(from.getId()).getBalance().toBigDecimal(),
+                Matchers.comparesEqualTo(BigDecimal.valueOf(60)));
+        assertThat(bankAccountDto.getBankAccountById(to.getId()).getBalance().toBigDecimal(),
+                Matchers.comparesEqualTo(BigDecimal.valueOf(40)));
+    }
+
+    /**
+     * Tests that the lists of Bank Accounts, both pages and the stream, show the balances of the ledger before they are
+     * written into the database, the same as the Bank Account read by id
+     */
+    @Test
+    public void testListsShowLedgerBalances() throws ObjectModificationException {
+        BankAccount payer = bankAccountDto.createBankAccount(
+                new BankAccount("Ledger List Payer", BigDecimal.valueOf(50), Currency.EUR));
+        BankAccount payee = bankAccountDto.createBankAccount(
+                new BankAccount("Ledger List Payee", BigDecimal.ZERO, Currency.EUR));
+        Long after = Math.min(payer.getId(), payee.getId()) - 1;
+
+        transactionDto.executeTransaction(transactionDto.createTransaction(
+                new Transaction(payer.getId(), payee.getId(), BigDecimal.valueOf(20), Currency.EUR)).getId());
+
+        AccountLedger previousLedger = AccountLedger.getActive();
+        AccountLedger.setActive(transactionDto.getAccountLedger());
+        try {
+            BankAccountService bankAccountService = BankAccountService.getInstance();
+            Map<Long, BankAccount> streamed = new HashMap<>();
+            bankAccountService.streamBankAccounts(after, bankAccount -> streamed.put(bankAccount.getId(), bankAccount));
+            Map<Long, BankAccount> paged = new HashMap<>();
+            for (BankAccount bankAccount : bankAccountService.getBankAccountsPage(after, 2)) {
+                paged.put(bankAccount.getId(), bankAccount);
+            }
+
+            for (Map<Long, BankAccount> bankAccounts : Arrays.asList(streamed, paged)) {
+                assertThat(bankAccounts.get(payer.getId()).getBalance().toBigDecimal(),
+                        Matchers.comparesEqualTo(BigDecimal.valueOf(30)));
+                assertThat(bankAccounts.get(payee.getId()).getBalance().toBigDecimal(),
+                        Matchers.comparesEqualTo(BigDecimal.valueOf(20)));
+            }
+            assertThat(bankAccountService.getBankAccountById(payee.getId()).getBalance().toBigDecimal(),
+                    Matchers.comparesEqualTo(BigDecimal.valueOf(20)));
+        } finally {
+            AccountLedger.setActive(previousLedger);
+        }
+
+        assertThat(bankAccountDto.getBankAccountById(payee.getId()).getBalance().toBigDecimal(),
+                Matchers.comparesEqualTo(BigDecimal.ZERO));
+    }
+
+    /**
+     * Tests that the same transaction could not be executed twice even before it is written into the database
+     */
+    @Test(expectedExceptions = ObjectModificationException.class)
+    public void testDoubleExecution() throws ObjectModificationException {
+        Transaction transaction = transactionDto.createTransaction(
+                new Transaction(to.getId(), from.getId(), BigDecimal.ONE, Currency.EUR));
+
+        transactionDto.executeTransaction(transaction.getId());
+        transactionDto.executeTransaction(transaction.getId());
+    }
+
+    /**
+     * Tests that the transaction creation is rejected by the balance held in memory
+     */
+    @Test(expectedExceptions = ObjectModificationException.class)
+    public void testNotEnoughMoney() throws ObjectModificationException {
+        transactionDto.createTransaction(
+                new Transaction(from.getId(), to.getId(), BigDecimal.valueOf(1000), Currency.EUR));
+    }
+
+    /**
+     * Tests that the ledger reloaded from the database has the same balances once all changes are written
+     */
+    @Test(dependsOnMethods = {"testTransferAndFlush", "testDoubleExecution"})
+    public void testReload() throws ObjectModificationException {
+        AccountLedger accountLedger = transactionDto.getAccountLedger();
+        BigDecimal fromBalance = accountLedger.getBalance(from.getId()).toBigDecimal();
+        BigDecimal toBalance = accountLedger.getBalance(to.getId()).toBigDecimal();
+
+        accountLedger.flush();
+        accountLedger.reload();
+
+        assertThat(accountLedger.getBalance(from.getId()).toBigDecimal(), Matchers.comparesEqualTo(fromBalance));
+        assertThat(accountLedger.getBalance(to.getId()).toBigDecimal(), Matchers.comparesEqualTo(toBalance));
+    }
+
+    /**
+     * Tests that transfers logged but not written into the database before the crash are replayed in the log order,
+     * so the credit is recovered before the transfer which spends it
+     */
+    @Test
+    public void testRecover() throws ObjectModificationException, IOException {
+        TransactionDto sqlTransactionDto = new TransactionDto(moneyExchangeService, false);
+        RecoveryAccounts accounts = new RecoveryAccounts(sqlTransactionDto);
+
+        recover(sqlTransactionDto, recordOf(accounts.credit), recordOf(accounts.spend));
+
+        assertEquals(sqlTransactionDto.getTransactionById(accounts.credit.getId()).getStatus(),
+                TransactionStatus.SUCCEED);
+        assertEquals(sqlTransactionDto.getTransactionById(accounts.spend.getId()).getStatus(),
+                TransactionStatus.SUCCEED);
+        assertBalance(accounts.source, 80);
+        assertBalance(accounts.middle, 20);
+        assertBalance(accounts.target, 40);
+    }
+
+    /**
+     * Tests that the logged transfer which would overdraw the Bank Account is not replayed and its transaction is left
+     * PLANNED, while the rest of the records are recovered
+     */
+    @Test
+    public void testRecoverRejectsOverdraw() throws ObjectModificationException, IOException {
+        TransactionDto sqlTransactionDto = new TransactionDto(moneyExchangeService, false);
+        RecoveryAccounts accounts = new RecoveryAccounts(sqlTransactionDto);
+
+        recover(sqlTransactionDto, recordOf(accounts.spend), recordOf(accounts.credit));
+
+        assertEquals(sqlTransactionDto.getTransactionById(accounts.credit.getId()).getStatus(),
+                TransactionStatus.SUCCEED);
+        assertEquals(sqlTransactionDto.getTransactionById(accounts.spend.getId()).getStatus(),
+                TransactionStatus.PLANNED);
+        assertBalance(accounts.source, 80);
+        assertBalance(accounts.middle, 60);
+        assertBalance(accounts.target, 0);
+    }
+
+    /**
+     * Writes the records into the new log and recovers them by the ledger opened on it like at startup
+     */
+    private void recover(TransactionDto sqlTransactionDto, WriteAheadLog.Record... records) throws IOException {
+        File directory = Files.createTempDirectory("ledger-wal").toFile();
+
+        try {
+            WriteAheadLog writeAheadLog = new WriteAheadLog(directory, SEGMENT_SIZE);
+            for (WriteAheadLog.Record record : records) {
+                writeAheadLog.awaitDurable(writeAheadLog.append(record));
+            }
+            writeAheadLog.close();
+
+            AccountLedger accountLedger = new AccountLedger(bankAccountDto, sqlTransactionDto, FLUSH_INTERVAL_MILLIS,
+                    Integer.MAX_VALUE, new WriteAheadLog(directory, SEGMENT_SIZE));
+            accountLedger.reload();
+            accountLedger.recover();
+            accountLedger.shutdown();
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    private WriteAheadLog.Record recordOf(Transaction transaction) {
+        long amount = transaction.getAmount().getMinorUnits();
+
+        return new WriteAheadLog.Record(transaction.getId(), transaction.getFromBankAccountId(),
+                transaction.getToBankAccountId(), amount, amount, moneyExchangeService.getRates().getVersion());
+    }
+
+    private void assertBalance(BankAccount bankAccount, long expected) {
+        assertThat(bankAccountDto.getBankAccountById(bankAccount.getId()).getBalance().toBigDecimal(),
+                Matchers.comparesEqualTo(BigDecimal.valueOf(expected)));
+    }
+
+    /**
+     * Three Bank Accounts and two PLANNED transactions: the credit of 50 from the source to the middle Bank Account
+     * and the spend of 40 from the middle one to the target. The middle Bank Account has only 10 in the database and
+     * the source has 130, so the spend could be applied only after the credit
+     */
+    private class RecoveryAccounts {
+        private final BankAccount source;
+        private final BankAccount middle;
+        private final BankAccount target;
+        private final Transaction credit;
+        private final Transaction spend;
+
+        RecoveryAccounts(TransactionDto sqlTransactionDto) throws ObjectModificationException {
+            source = bankAccountDto.createBankAccount(
+                    new BankAccount("Recovery Source", BigDecimal.valueOf(100), Currency.EUR));
+            middle = bankAccountDto.createBankAccount(
+                    new BankAccount("Recovery Middle", BigDecimal.valueOf(40), Currency.EUR));
+            target = bankAccountDto.createBankAccount(
+                    new BankAccount("Recovery Target", BigDecimal.ZERO, Currency.EUR));
+
+            spend = sqlTransactionDto.createTransaction(
+                    new Transaction(middle.getId(), target.getId(), BigDecimal.valueOf(40), Currency.EUR));
+
+            //Leaves 10 in the middle Bank Account, the spend is still PLANNED
+            Transaction withdrawal = sqlTransactionDto.createTransaction(
+                    new Transaction(middle.getId(), source.getId(), BigDecimal.valueOf(30), Currency.EUR));
+            sqlTransactionDto.executeTransaction(withdrawal.getId());
+
+            credit = sqlTransactionDto.createTransaction(
+                    new Transaction(source.getId(), middle.getId(), BigDecimal.valueOf(50), Currency.EUR));
+        }
+    }
+}
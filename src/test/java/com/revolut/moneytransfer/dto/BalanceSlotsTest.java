@@ -0,0 +1,232 @@
+package com.revolut.moneytransfer.dto;
+
+import com.revolut.moneytransfer.db.DbUtils;
+import com.revolut.moneytransfer.db.H2DataSource;
+import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.BankAccount;
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.Transaction;
+import com.revolut.moneytransfer.model.TransactionStatus;
+import com.revolut.moneytransfer.service.ConstantMoneyExchangeService;
+import org.hamcrest.Matchers;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.testng.Assert.*;
+
+public class BalanceSlotsTest {
+    private static final int SLOTS_COUNT = 4;
+    private static final String GET_ROW_SQL = "select balance, balance_slots from bank_account where id = ?";
+    private static final String GET_SLOTS_SQL =
+            "select count(*), coalesce(sum(balance), 0) from bank_account_slot where bank_account_id = ?";
+
+    private BankAccountDto bankAccountDto = BankAccountDto.getInstance();
+    private TransactionDto transactionDto;
+    private BalanceSlots balanceSlots;
+
+    private BankAccount hot;
+    private BankAccount firstPayer;
+    private BankAccount secondPayer;
+    private BankAccount recipient;
+
+    @BeforeClass
+    public void initData() throws ObjectModificationException {
+        hot = bankAccountDto.createBankAccount(new BankAccount("Hot Merchant", BigDecimal.ZERO, Currency.EUR));
+        firstPayer = bankAccountDto.createBankAccount(new BankAccount("Hot Payer 1", BigDecimal.valueOf(100), Currency.EUR));
+        secondPayer = bankAccountDto.createBankAccount(new BankAccount("Hot Payer 2", BigDecimal.valueOf(100), Currency.EUR));
+        recipient = bankAccountDto.createBankAccount(new BankAccount("Hot Recipient", BigDecimal.ZERO, Currency.EUR));
+
+        //Slots are rebalanced only when the test calls it
+        System.setProperty(BalanceSlots.HOT_ACCOUNTS_PROPERTY, String.valueOf(hot.getId()));
+        System.setProperty(BalanceSlots.SLOTS_PROPERTY, String.valueOf(SLOTS_COUNT));
+        System.setProperty("moneytransfer.hotAccounts.rebalanceInterval", String.valueOf(Long.MAX_VALUE / 2));
+        try {
+            transactionDto = new TransactionDto(new ConstantMoneyExchangeService(), false);
+        } finally {
+            System.clearProperty(BalanceSlots.HOT_ACCOUNTS_PROPERTY);
+            System.clearProperty(BalanceSlots.SLOTS_PROPERTY);
+            System.clearProperty("moneytransfer.hotAccounts.rebalanceInterval");
+        }
+        balanceSlots = transactionDto.getBalanceSlots();
+    }
+
+    @AfterClass
+    public void shutdown() {
+        balanceSlots.shutdown();
+    }
+    @AfterMethod
+    public void clearProperty() {
+        System.clearProperty(BalanceSlots.HOT_ACCOUNTS_PROPERTY);
+    }
+
+    /**
+     * Tests that the hot Bank Accounts are read from the comma separated list of ids
+     */
+    @Test
+    public void testConfiguredHotBankAccountIds() {
+        assertTrue(BalanceSlots.getConfiguredHotBankAccountIds().isEmpty());
+
+        System.setProperty(BalanceSlots.HOT_ACCOUNTS_PROPERTY, " 1, 5,,7 ");
+
+        assertEquals(BalanceSlots.getConfiguredHotBankAccountIds(), new HashSet<>(Arrays.asList(1L, 5L, 7L)));
+    }
+
+    /**
+     * Tests that only configured Bank Accounts are hot
+     */
+    @Test
+    public void testIsHot() {
+        BalanceSlots balanceSlots = new BalanceSlots(null, Collections.singleton(1L), 4, 1000);
+
+        try {
+            assertTrue(balanceSlots.isHot(1L));
+            assertFalse(balanceSlots.isHot(2L));
+        } finally {
+            balanceSlots.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSlotsCountShouldBePositive() {
+        new BalanceSlots(null, Collections.emptySet(), 0, 1000);
+    }
+
+    /**
+     * Tests that credits of the hot Bank Account, single and batched ones, go to its slots and the balance read is
+     * the row plus the slots
+     */
+    @Test
+    public void testCredit() throws ObjectModificationException, SQLException {
+        assertRow(hot, 0, SLOTS_COUNT);
+        assertSlots(hot, SLOTS_COUNT, 0);
+
+        execute(firstPayer, hot, 30);
+        execute(secondPayer, hot, 20);
+        transactionDto.executeTransactions(Arrays.asList(
+                createTransaction(firstPayer, hot, 10).getId(),
+                createTransaction(secondPayer, hot, 5).getId()));
+
+        assertBalance(hot, 65);
+        assertBalance(firstPayer, 60);
+        assertBalance(secondPayer, 75);
+        assertRow(hot, 0, SLOTS_COUNT);
+        assertSlots(hot, SLOTS_COUNT, 65);
+        //The batch adds the sum of its credits to one slot
+        assertEquals(balanceSlots.getSlotCreditsCount(), 3L);
+    }
+
+    /**
+     * Tests that the debit is checked against the row plus the slots, so it takes the money which is still in the
+     * slots and the row goes negative, while the debit bigger than the balance fails
+     */
+    @Test(dependsOnMethods = "testCredit")
+    public void testDebit() throws ObjectModificationException, SQLException {
+        //Created while the balance is still enough for it
+        Transaction overdraft = createTransaction(hot, recipient, 20);
+
+        assertEquals(execute(hot, recipient, 50).getStatus(), TransactionStatus.SUCCEED);
+
+        assertBalance(hot, 15);
+        assertBalance(recipient, 50);
+        assertRow(hot, -50, SLOTS_COUNT);
+        assertSlots(hot, SLOTS_COUNT, 65);
+
+        transactionDto.executeTransaction(overdraft.getId());
+
+        assertEquals(transactionDto.getTransactionById(overdraft.getId()).getStatus(), TransactionStatus.FAILED);
+        assertBalance(hot, 15);
+        assertRow(hot, -50, SLOTS_COUNT);
+    }
+
+    /**
+     * Tests that the rebalance moves the money of all slots into the row and keeps the balance
+     */
+    @Test(dependsOnMethods = "testDebit")
+    public void testRebalance() throws SQLException {
+        long rebalances = balanceSlots.getRebalancesCount();
+
+        balanceSlots.rebalance();
+
+        assertEquals(balanceSlots.getRebalancesCount(), rebalances + 1);
+        assertBalance(hot, 15);
+        assertRow(hot, 15, SLOTS_COUNT);
+        assertSlots(hot, SLOTS_COUNT, 0);
+    }
+
+    /**
+     * Tests that the Bank Account which is not hot anymore gets the money left in its slots at startup and its slots
+     * are removed
+     */
+    @Test(dependsOnMethods = "testRebalance")
+    public void testInitializeSweepsLeftoverSlots() throws ObjectModificationException, SQLException {
+        execute(firstPayer, hot, 7);
+        assertRow(hot, 15, SLOTS_COUNT);
+        assertSlots(hot, SLOTS_COUNT, 7);
+
+        BalanceSlots notHotSlots = new BalanceSlots(DbUtils.getInstance(), Collections.emptySet(), SLOTS_COUNT, 1000);
+        notHotSlots.initialize();
+
+        assertBalance(hot, 22);
+        assertRow(hot, 22, 0);
+        assertSlots(hot, 0, 0);
+    }
+
+    private Transaction createTransaction(BankAccount from, BankAccount to, long amount)
+            throws ObjectModificationException {
+        return transactionDto.createTransaction(
+                new Transaction(from.getId(), to.getId(), BigDecimal.valueOf(amount), Currency.EUR));
+    }
+
+    private Transaction execute(BankAccount from, BankAccount to, long amount) throws ObjectModificationException {
+        Transaction transaction = createTransaction(from, to, amount);
+        transactionDto.executeTransaction(transaction.getId());
+
+        return transactionDto.getTransactionById(transaction.getId());
+    }
+
+    private void assertBalance(BankAccount bankAccount, long expected) {
+        assertThat(bankAccountDto.getBankAccountById(bankAccount.getId()).getBalance().toBigDecimal(),
+                Matchers.comparesEqualTo(BigDecimal.valueOf(expected)));
+    }
+
+    /**
+     * Checks the balance column and the number of slots stored in the Bank Account row
+     */
+    private void assertRow(BankAccount bankAccount, long expectedBalance, int expectedSlots) throws SQLException {
+        try (Connection con = H2DataSource.getConnection();
+             PreparedStatement getRow = con.prepareStatement(GET_ROW_SQL)) {
+            getRow.setLong(1, bankAccount.getId());
+
+            try (ResultSet row = getRow.executeQuery()) {
+                assertTrue(row.next());
+                assertThat(row.getBigDecimal(1), Matchers.comparesEqualTo(BigDecimal.valueOf(expectedBalance)));
+                assertEquals(row.getInt(2), expectedSlots);
+            }
+        }
+    }
+
+    private void assertSlots(BankAccount bankAccount, int expectedCount, long expectedSum) throws SQLException {
+        try (Connection con = H2DataSource.getConnection();
+             PreparedStatement getSlots = con.prepareStatement(GET_SLOTS_SQL)) {
+            getSlots.setLong(1, bankAccount.getId());
+
+            try (ResultSet slots = getSlots.executeQuery()) {
+                assertTrue(slots.next());
+                assertEquals(slots.getInt(1), expectedCount);
+                assertThat(slots.getBigDecimal(2), Matchers.comparesEqualTo(BigDecimal.valueOf(expectedSum)));
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.revolut.moneytransfer.dto;
+
+import com.revolut.moneytransfer.model.BankAccount;
+import com.revolut.moneytransfer.model.Currency;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.testng.Assert.*;
+
+public class BankAccountCacheTest {
+
+    /**
+     * Tests that the Bank Account is loaded once and the least recently used one is evicted
+     */
+    @Test
+    public void testHitsAndEvictions() {
+        BankAccountCache cache = new BankAccountCache(16);
+        AtomicInteger loads = new AtomicInteger();
+        Function<Long, BankAccount> loader = id -> {
+            loads.incrementAndGet();
+            return createBankAccount(id, BigDecimal.TEN);
+        };
+
+        //All ids belong to the same segment which could hold one Bank Account
+        cache.get(0L, loader);
+        cache.get(0L, loader);
+        cache.get(16L, loader);
+        cache.get(0L, loader);
+
+        assertEquals(loads.get(), 3);
+        assertEquals(cache.getHitsCount(), 1L);
+        assertEquals(cache.getMissesCount(), 3L);
+        assertEquals(cache.getEvictionsCount(), 2L);
+    }
+
+    /**
+     * Tests that the cached Bank Account could not be modified by the caller
+     */
+    @Test
+    public void testCachedObjectIsCopied() {
+        BankAccountCache cache = new BankAccountCache(16);
+
+        BankAccount bankAccount = cache.get(1L, id -> createBankAccount(id, BigDecimal.TEN));
+        bankAccount.setAccountHolderName("Changed");
+
+        assertEquals(cache.get(1L, id -> null).getAccountHolderName(), "Test Account");
+    }
+
+    /**
+     * Tests that the Bank Account is not cached while it is written and the value loaded before the commit
+     * is not cached after it
+     */
+    @Test
+    public void testWriteInvalidation() {
+        BankAccountCache cache = new BankAccountCache(16);
+
+        cache.get(1L, id -> createBankAccount(id, BigDecimal.TEN));
+        cache.beginWrite(1L);
+
+        //The value loaded during the write is the last committed one, but it should not be cached
+        BankAccount loadedDuringWrite = cache.get(1L, id -> createBankAccount(id, BigDecimal.TEN));
+        assertEquals(loadedDuringWrite.getBalance().toBigDecimal().compareTo(BigDecimal.TEN), 0);
+
+        cache.endWrite(1L);
+
+        BankAccount loadedAfterCommit = cache.get(1L, id -> createBankAccount(id, BigDecimal.ONE));
+        assertEquals(loadedAfterCommit.getBalance().toBigDecimal().compareTo(BigDecimal.ONE), 0);
+
+        //The load overlapped by the commit should not put the value it has read into the cache
+        cache.beginWrite(2L);
+        cache.get(2L, id -> {
+            cache.endWrite(2L);
+            return createBankAccount(id, BigDecimal.TEN);
+        });
+
+        BankAccount reloaded = cache.get(2L, id -> createBankAccount(id, BigDecimal.ONE));
+        assertEquals(reloaded.getBalance().toBigDecimal().compareTo(BigDecimal.ONE), 0);
+    }
+
+    /**
+     * Tests that the disabled cache always goes to the loader
+     */
+    @Test
+    public void testDisabledCache() {
+        BankAccountCache cache = new BankAccountCache(0);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(1L, id -> {
+            loads.incrementAndGet();
+            return createBankAccount(id, BigDecimal.TEN);
+        });
+        cache.get(1L, id -> {
+            loads.incrementAndGet();
+            return createBankAccount(id, BigDecimal.TEN);
+        });
+
+        assertEquals(loads.get(), 2);
+        assertEquals(cache.getSize(), 0);
+    }
+
+    private static BankAccount createBankAccount(Long id, BigDecimal balance) {
+        return new BankAccount(id, "Test Account", balance, Currency.EUR);
+    }
+}
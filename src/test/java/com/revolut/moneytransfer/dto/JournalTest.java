@@ -0,0 +1,171 @@
+package com.revolut.moneytransfer.dto;
+
+import com.revolut.moneytransfer.db.H2DataSource;
+import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.BankAccount;
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.Transaction;
+import com.revolut.moneytransfer.model.TransactionStatus;
+import com.revolut.moneytransfer.service.ConstantMoneyExchangeService;
+import com.revolut.moneytransfer.service.MoneyExchangeService;
+import org.hamcrest.Matchers;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.testng.Assert.*;
+
+/**
+ * Tests transfers written into the {@link Journal}. The balance read of {@link BankAccountDto} is chosen once its
+ * class is loaded, so these tests are run by the separate JVM with <code>moneytransfer.journal.enabled</code> set
+ * (the <code>journal</code> execution of the surefire plugin).
+ */
+@Test(groups = "journal")
+public class JournalTest {
+    private static final String GET_SNAPSHOT_SQL = "select balance, journal_position from bank_account where id = ?";
+
+    private MoneyExchangeService moneyExchangeService = new ConstantMoneyExchangeService();
+    private BankAccountDto bankAccountDto = BankAccountDto.getInstance();
+    private TransactionDto transactionDto;
+    private Journal journal;
+
+    private BankAccount first;
+    private BankAccount second;
+    private BankAccount third;
+
+    @BeforeClass
+    public void initData() throws ObjectModificationException {
+        assertTrue(Journal.isEnabled(), "The journal tests should be run with -D" + Journal.ENABLED_PROPERTY + "=true");
+
+        //The compactor runs only when the test calls it
+        System.setProperty("moneytransfer.journal.compactInterval", String.valueOf(Long.MAX_VALUE / 2));
+        transactionDto = new TransactionDto(moneyExchangeService, false);
+        journal = transactionDto.getJournal();
+        assertNotNull(journal);
+
+        first = bankAccountDto.createBankAccount(new BankAccount("Journal First", BigDecimal.valueOf(100), Currency.EUR));
+        second = bankAccountDto.createBankAccount(new BankAccount("Journal Second", BigDecimal.ZERO, Currency.EUR));
+        third = bankAccountDto.createBankAccount(new BankAccount("Journal Third", BigDecimal.ZERO, Currency.EUR));
+    }
+
+    @AfterClass
+    public void shutdown() {
+        journal.shutdown();
+        System.clearProperty("moneytransfer.journal.compactInterval");
+    }
+
+    /**
+     * Tests that the transfer is appended as postings: the balance includes them, while the snapshot rows are not
+     * changed
+     */
+    @Test
+    public void testTransfer() throws ObjectModificationException, SQLException {
+        Transaction transaction = createTransaction(first, second, 30);
+        transactionDto.executeTransaction(transaction.getId());
+
+        assertEquals(transactionDto.getTransactionById(transaction.getId()).getStatus(), TransactionStatus.SUCCEED);
+        assertBalance(first, 70);
+        assertBalance(second, 30);
+        assertSnapshot(first, 100, 0);
+        assertSnapshot(second, 0, 0);
+    }
+
+    /**
+     * Tests that the batch appends postings of every transfer and the next transfer of the batch sees the previous
+     * ones
+     */
+    @Test(dependsOnMethods = "testTransfer")
+    public void testBatchTransfer() throws ObjectModificationException {
+        Transaction toThird = createTransaction(first, third, 20);
+        Transaction fromSecond = createTransaction(second, third, 10);
+        Transaction overdraft = createTransaction(first, second, 40);
+        Transaction secondOverdraft = createTransaction(first, third, 40);
+
+        transactionDto.executeTransactions(Arrays.asList(toThird.getId(), fromSecond.getId(), overdraft.getId(),
+                secondOverdraft.getId()));
+
+        assertEquals(transactionDto.getTransactionById(toThird.getId()).getStatus(), TransactionStatus.SUCCEED);
+        assertEquals(transactionDto.getTransactionById(fromSecond.getId()).getStatus(), TransactionStatus.SUCCEED);
+        assertEquals(transactionDto.getTransactionById(overdraft.getId()).getStatus(), TransactionStatus.SUCCEED);
+        //Only 10 is left once the previous transfers of the batch are applied
+        assertEquals(transactionDto.getTransactionById(secondOverdraft.getId()).getStatus(), TransactionStatus.FAILED);
+
+        assertBalance(first, 10);
+        assertBalance(second, 60);
+        assertBalance(third, 30);
+    }
+
+    /**
+     * Tests that the compaction rolls postings into the snapshots and moves their journal positions without changing
+     * the balances, and the next compaction takes only postings appended after the previous one
+     */
+    @Test(dependsOnMethods = "testBatchTransfer")
+    public void testCompact() throws ObjectModificationException, SQLException {
+        journal.compact();
+
+        long position = journal.getCompactedPosition();
+        assertTrue(position > 0);
+        assertBalance(first, 10);
+        assertBalance(second, 60);
+        assertBalance(third, 30);
+        assertSnapshot(first, 10, position);
+        assertSnapshot(second, 60, position);
+        assertSnapshot(third, 30, position);
+
+        Transaction transaction = createTransaction(third, first, 5);
+        transactionDto.executeTransaction(transaction.getId());
+
+        assertBalance(first, 15);
+        assertBalance(third, 25);
+        assertSnapshot(first, 10, position);
+        assertSnapshot(third, 30, position);
+
+        journal.compact();
+
+        long nextPosition = journal.getCompactedPosition();
+        assertTrue(nextPosition > position);
+        assertBalance(first, 15);
+        assertBalance(second, 60);
+        assertBalance(third, 25);
+        assertSnapshot(first, 15, nextPosition);
+        assertSnapshot(third, 25, nextPosition);
+        //Nothing has been posted to the second Bank Account since the previous compaction
+        assertSnapshot(second, 60, position);
+    }
+
+    private Transaction createTransaction(BankAccount from, BankAccount to, long amount)
+            throws ObjectModificationException {
+        return transactionDto.createTransaction(
+                new Transaction(from.getId(), to.getId(), BigDecimal.valueOf(amount), Currency.EUR));
+    }
+
+    private void assertBalance(BankAccount bankAccount, long expected) {
+        assertThat(bankAccountDto.getBankAccountById(bankAccount.getId()).getBalance().toBigDecimal(),
+                Matchers.comparesEqualTo(BigDecimal.valueOf(expected)));
+    }
+
+    /**
+     * Checks the balance column and the journal position stored in the Bank Account row
+     */
+    private void assertSnapshot(BankAccount bankAccount, long expectedBalance, long expectedPosition)
+            throws SQLException {
+        try (Connection con = H2DataSource.getConnection();
+             PreparedStatement getSnapshot = con.prepareStatement(GET_SNAPSHOT_SQL)) {
+            getSnapshot.setLong(1, bankAccount.getId());
+
+            try (ResultSet snapshot = getSnapshot.executeQuery()) {
+                assertTrue(snapshot.next());
+                assertThat(snapshot.getBigDecimal(1), Matchers.comparesEqualTo(BigDecimal.valueOf(expectedBalance)));
+                assertEquals(snapshot.getLong(2), expectedPosition);
+            }
+        }
+    }
+}
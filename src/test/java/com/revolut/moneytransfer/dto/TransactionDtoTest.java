@@ -2,20 +2,36 @@ package com.revolut.moneytransfer.dto;
 
 import com.revolut.moneytransfer.constants.BankAccountConstants;
 import com.revolut.moneytransfer.db.DbUtils;
+import com.revolut.moneytransfer.db.H2DataSource;
+import com.revolut.moneytransfer.exceptions.ImpossibleOperationExecution;
 import com.revolut.moneytransfer.exceptions.ObjectModificationException;
 import com.revolut.moneytransfer.model.BankAccount;
 import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.DailyTurnover;
+import com.revolut.moneytransfer.model.Money;
 import com.revolut.moneytransfer.model.Transaction;
 import com.revolut.moneytransfer.model.TransactionStatus;
 import com.revolut.moneytransfer.service.ConstantMoneyExchangeService;
 import com.revolut.moneytransfer.service.MoneyExchangeService;
+import org.h2.api.ErrorCode;
 import org.hamcrest.Matchers;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -54,11 +70,11 @@ public class TransactionDtoTest {
 
         testList = Arrays.asList(transaction1, transaction2);
 
-        when(dbUtils.executeQuery(eq(TransactionDto.GET_ALL_TRANSACTIONS_SQL), any())).thenReturn(
+        when(dbUtils.executeReadOnlyQuery(eq(TransactionDto.GET_ALL_TRANSACTIONS_SQL), any())).thenReturn(
                 new DbUtils.QueryResult<>(testList)
         );
 
-        when(dbUtils.executeQuery(eq(TransactionDto.GET_TRANSACTIONS_BY_STATUS_SQL), any())).thenReturn(
+        when(dbUtils.executeReadOnlyQuery(eq(TransactionDto.GET_TRANSACTIONS_BY_STATUS_SQL), any())).thenReturn(
                 new DbUtils.QueryResult<>(testList.stream().map(Transaction::getId).collect(Collectors.toList()))
         );
 
@@ -98,8 +114,8 @@ public class TransactionDtoTest {
         BankAccount sakalya = bankAccountDto.getBankAccountById(BankAccountConstants.SAKALYA_DESHPANDE_BANK_ACCOUNT_ID);
         BankAccount john = bankAccountDto.getBankAccountById(BankAccountConstants.JOHN_DOE_BANK_ACCOUNT_ID);
 
-        BigDecimal sakalyaInitialBalance = sakalya.getBalance();
-        BigDecimal johnInitialBalance = john.getBalance();
+        BigDecimal sakalyaInitialBalance = sakalya.getBalance().toBigDecimal();
+        BigDecimal johnInitialBalance = john.getBalance().toBigDecimal();
 
         Transaction resultTransaction = transactionDto.createTransaction(transaction1);
 
@@ -108,9 +124,9 @@ public class TransactionDtoTest {
         sakalya = bankAccountDto.getBankAccountById(BankAccountConstants.SAKALYA_DESHPANDE_BANK_ACCOUNT_ID);
         john = bankAccountDto.getBankAccountById(BankAccountConstants.JOHN_DOE_BANK_ACCOUNT_ID);
 
-        assertThat(sakalyaInitialBalance, Matchers.comparesEqualTo(sakalya.getBalance()));
+        assertThat(sakalyaInitialBalance, Matchers.comparesEqualTo(sakalya.getBalance().toBigDecimal()));
 
-        assertThat(johnInitialBalance, Matchers.comparesEqualTo(john.getBalance()));
+        assertThat(johnInitialBalance, Matchers.comparesEqualTo(john.getBalance().toBigDecimal()));
     }
 
     @Test
@@ -121,8 +137,8 @@ public class TransactionDtoTest {
         BankAccount john = bankAccountDto.getBankAccountById(BankAccountConstants.JOHN_DOE_BANK_ACCOUNT_ID);
         BankAccount jane = bankAccountDto.getBankAccountById(BankAccountConstants.JANE_DOE_BANK_ACCOUNT_ID);
 
-        BigDecimal nikolayInitialBalance = john.getBalance();
-        BigDecimal vladInitialBalance = jane.getBalance();
+        BigDecimal nikolayInitialBalance = john.getBalance().toBigDecimal();
+        BigDecimal vladInitialBalance = jane.getBalance().toBigDecimal();
 
         Transaction resultTransaction = transactionDto.createTransaction(transaction2);
         transactionDto.executeTransaction(resultTransaction.getId());
@@ -132,20 +148,319 @@ public class TransactionDtoTest {
         jane = bankAccountDto.getBankAccountById(transaction2.getToBankAccountId());
         BigDecimal needToWithdraw = moneyExchangeService.exchange(
                 transaction2.getAmount(),
-                transaction2.getCurrency(),
                 john.getCurrency()
-        );
+        ).toBigDecimal();
         BigDecimal needToTransfer = moneyExchangeService.exchange(
                 transaction2.getAmount(),
-                transaction2.getCurrency(),
                 jane.getCurrency()
-        );
+        ).toBigDecimal();
 
         assertEquals(resultTransaction.getStatus(), TransactionStatus.SUCCEED);
-        assertThat(nikolayInitialBalance.subtract(needToWithdraw), Matchers.comparesEqualTo(john.getBalance()));
+        assertThat(nikolayInitialBalance.subtract(needToWithdraw), Matchers.comparesEqualTo(john.getBalance().toBigDecimal()));
+
+        assertThat(vladInitialBalance.add(needToTransfer), Matchers.comparesEqualTo(jane.getBalance().toBigDecimal()));
+
+    }
+
+    /**
+     * Tests that all transactions of the batch are committed except the one which could not be executed
+     */
+    @Test
+    public void testBatchTransactionExecution() throws ObjectModificationException {
+        TransactionDto transactionDto = TransactionDto.getInstance(moneyExchangeService);
+        BankAccountDto bankAccountDto = BankAccountDto.getInstance();
+
+        BankAccount from = bankAccountDto.createBankAccount(
+                new BankAccount("Batch From", BigDecimal.valueOf(100), Currency.EUR));
+        BankAccount to = bankAccountDto.createBankAccount(
+                new BankAccount("Batch To", BigDecimal.ZERO, Currency.EUR));
+
+        List<Long> transactionIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            transactionIds.add(transactionDto.createTransaction(
+                    new Transaction(from.getId(), to.getId(), BigDecimal.valueOf(40), Currency.EUR)).getId());
+        }
+
+        transactionDto.executeTransactions(transactionIds);
+
+        assertEquals(transactionDto.getTransactionById(transactionIds.get(0)).getStatus(), TransactionStatus.SUCCEED);
+        assertEquals(transactionDto.getTransactionById(transactionIds.get(1)).getStatus(), TransactionStatus.SUCCEED);
+        assertEquals(transactionDto.getTransactionById(transactionIds.get(2)).getStatus(), TransactionStatus.FAILED);
+
+        assertThat(bankAccountDto.getBankAccountById(from.getId()).getBalance().toBigDecimal(),
+                Matchers.comparesEqualTo(BigDecimal.valueOf(20)));
+        assertThat(bankAccountDto.getBankAccountById(to.getId()).getBalance().toBigDecimal(),
+                Matchers.comparesEqualTo(BigDecimal.valueOf(80)));
+    }
+
+    /**
+     * Tests that opposite transfers between the same Bank Accounts executed concurrently don't fail
+     */
+    @Test
+    public void testOppositeTransfersExecution() throws Exception {
+        TransactionDto transactionDto = TransactionDto.getInstance(moneyExchangeService);
+        BankAccountDto bankAccountDto = BankAccountDto.getInstance();
+
+        BankAccount first = bankAccountDto.createBankAccount(
+                new BankAccount("Opposite First", BigDecimal.valueOf(1000), Currency.EUR));
+        BankAccount second = bankAccountDto.createBankAccount(
+                new BankAccount("Opposite Second", BigDecimal.valueOf(1000), Currency.EUR));
+
+        List<Long> transactionIds = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            transactionIds.add(transactionDto.createTransaction(
+                    new Transaction(first.getId(), second.getId(), BigDecimal.ONE, Currency.EUR)).getId());
+            transactionIds.add(transactionDto.createTransaction(
+                    new Transaction(second.getId(), first.getId(), BigDecimal.ONE, Currency.EUR)).getId());
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Long transactionId : transactionIds) {
+            futures.add(executorService.submit(() -> {
+                try {
+                    transactionDto.executeTransaction(transactionId);
+                } catch (ObjectModificationException e) {
+                    //The transaction has been executed by the scheduled executor already
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+
+        for (Long transactionId : transactionIds) {
+            assertEquals(transactionDto.getTransactionById(transactionId).getStatus(), TransactionStatus.SUCCEED);
+        }
+
+        assertThat(bankAccountDto.getBankAccountById(first.getId()).getBalance().toBigDecimal(),
+                Matchers.comparesEqualTo(BigDecimal.valueOf(1000)));
+        assertThat(bankAccountDto.getBankAccountById(second.getId()).getBalance().toBigDecimal(),
+                Matchers.comparesEqualTo(BigDecimal.valueOf(1000)));
+    }
+
+    /**
+     * Tests that pages follow each other without gaps and overlaps and the streaming returns the same transactions
+     */
+    @Test
+    public void testTransactionsPagination() throws ObjectModificationException {
+        TransactionDto transactionDto = TransactionDto.getInstance(moneyExchangeService);
+        BankAccountDto bankAccountDto = BankAccountDto.getInstance();
+
+        BankAccount from = bankAccountDto.createBankAccount(
+                new BankAccount("Paging From", BigDecimal.valueOf(100), Currency.EUR));
+        BankAccount to = bankAccountDto.createBankAccount(
+                new BankAccount("Paging To", BigDecimal.ZERO, Currency.EUR));
+
+        List<Long> createdIds = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            createdIds.add(transactionDto.createTransaction(
+                    new Transaction(from.getId(), to.getId(), BigDecimal.ONE, Currency.EUR)).getId());
+        }
+
+        Long after = createdIds.get(0) - 1;
+        List<Long> pagedIds = new ArrayList<>();
+        List<Transaction> page;
+        do {
+            page = transactionDto.getTransactionsPage(after, 3);
+            for (Transaction transaction : page) {
+                pagedIds.add(transaction.getId());
+                after = transaction.getId();
+            }
+        } while (page.size() == 3);
+
+        List<Long> streamedIds = new ArrayList<>();
+        transactionDto.streamTransactions(createdIds.get(0) - 1, transaction -> streamedIds.add(transaction.getId()));
+
+        assertTrue(pagedIds.size() >= createdIds.size());
+        assertEquals(pagedIds.subList(0, createdIds.size()), createdIds);
+        assertEquals(streamedIds.subList(0, createdIds.size()), createdIds);
+        assertEquals(pagedIds.stream().distinct().sorted().collect(Collectors.toList()), pagedIds);
+    }
 
-        assertThat(vladInitialBalance.add(needToTransfer), Matchers.comparesEqualTo(jane.getBalance()));
+    /**
+     * Tests that PLANNED transactions are read by the status index in the order of creation
+     */
+    @Test
+    public void testTransactionsByStatusPage() throws ObjectModificationException, SQLException {
+        TransactionDto transactionDto = TransactionDto.getInstance(moneyExchangeService);
 
+        List<Transaction> page = transactionDto.getTransactionsByStatus(TransactionStatus.PLANNED, null, 2);
+
+        assertTrue(page.size() <= 2);
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals(page.get(i).getStatus(), TransactionStatus.PLANNED);
+            if (i > 0) {
+                assertTrue(page.get(i).getId() > page.get(i - 1).getId());
+            }
+        }
+
+        try (Connection con = H2DataSource.getConnection();
+             PreparedStatement explain = con.prepareStatement(
+                     "explain " + TransactionDto.GET_TRANSACTIONS_PAGE_BY_STATUS_SQL);
+             ResultSet plan = setPageParameters(explain).executeQuery()) {
+            assertTrue(plan.next());
+            assertThat(plan.getString(1), Matchers.containsString("TRANSACTION_STATUS_ID_IDX"));
+            assertThat(plan.getString(1), Matchers.containsString("index sorted"));
+        }
+    }
+
+    /**
+     * Tests that the statement of the Bank Account has both incoming and outgoing transactions, the newest ones first,
+     * and pages follow each other without gaps and overlaps
+     */
+    @Test
+    public void testBankAccountTransactionsPagination() throws ObjectModificationException, SQLException {
+        TransactionDto transactionDto = TransactionDto.getInstance(moneyExchangeService);
+        BankAccountDto bankAccountDto = BankAccountDto.getInstance();
+
+        BankAccount account = bankAccountDto.createBankAccount(
+                new BankAccount("Statement Account", BigDecimal.valueOf(100), Currency.EUR));
+        BankAccount other = bankAccountDto.createBankAccount(
+                new BankAccount("Statement Other", BigDecimal.valueOf(100), Currency.EUR));
+        BankAccount unrelated = bankAccountDto.createBankAccount(
+                new BankAccount("Statement Unrelated", BigDecimal.valueOf(100), Currency.EUR));
+
+        List<Long> createdIds = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            createdIds.add(0, transactionDto.createTransaction(i % 2 == 0 ?
+                    new Transaction(account.getId(), other.getId(), BigDecimal.ONE, Currency.EUR) :
+                    new Transaction(other.getId(), account.getId(), BigDecimal.ONE, Currency.EUR)).getId());
+            transactionDto.createTransaction(
+                    new Transaction(other.getId(), unrelated.getId(), BigDecimal.ONE, Currency.EUR));
+        }
+
+        Long before = null;
+        List<Long> pagedIds = new ArrayList<>();
+        List<Transaction> page;
+        do {
+            page = transactionDto.getBankAccountTransactionsPage(account.getId(), before, 3);
+            for (Transaction transaction : page) {
+                pagedIds.add(transaction.getId());
+                before = transaction.getId();
+            }
+        } while (page.size() == 3);
+
+        assertEquals(pagedIds, createdIds);
+
+        try (Connection con = H2DataSource.getConnection();
+             PreparedStatement explain = con.prepareStatement(
+                     "explain " + TransactionDto.GET_INCOMING_TRANSACTIONS_PAGE_SQL)) {
+            explain.setLong(1, account.getId());
+            explain.setLong(2, Long.MAX_VALUE);
+            explain.setInt(3, 3);
+
+            try (ResultSet plan = explain.executeQuery()) {
+                assertTrue(plan.next());
+                assertThat(plan.getString(1), Matchers.containsString("TRANSACTION_TO_ACCOUNT_ID_IDX"));
+            }
+        }
+    }
+
+    /**
+     * Tests that executed transfers are added to the daily turnover of both Bank Accounts and the rebuilt turnover
+     * is the same
+     */
+    @Test
+    public void testDailyTurnover() throws ObjectModificationException {
+        TransactionDto transactionDto = TransactionDto.getInstance(moneyExchangeService);
+        BankAccountDto bankAccountDto = BankAccountDto.getInstance();
+        AccountTurnover accountTurnover = transactionDto.getAccountTurnover();
+
+        BankAccount first = bankAccountDto.createBankAccount(
+                new BankAccount("Turnover First", BigDecimal.valueOf(100), Currency.EUR));
+        BankAccount second = bankAccountDto.createBankAccount(
+                new BankAccount("Turnover Second", BigDecimal.valueOf(100), Currency.EUR));
+
+        transactionDto.executeTransaction(transactionDto.createTransaction(
+                new Transaction(first.getId(), second.getId(), BigDecimal.TEN, Currency.EUR)).getId());
+        transactionDto.executeTransactions(Arrays.asList(
+                transactionDto.createTransaction(
+                        new Transaction(second.getId(), first.getId(), BigDecimal.valueOf(3), Currency.EUR)).getId(),
+                transactionDto.createTransaction(
+                        new Transaction(first.getId(), second.getId(), BigDecimal.valueOf(2), Currency.EUR)).getId()));
+
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 2; i++) {
+            List<DailyTurnover> firstTurnover = accountTurnover.getDailyTurnover(first.getId(), Currency.EUR,
+                    today.minusDays(1), today);
+            List<DailyTurnover> secondTurnover = accountTurnover.getDailyTurnover(second.getId(), Currency.EUR,
+                    today.minusDays(1), today);
+
+            assertEquals(firstTurnover.size(), 1);
+            assertEquals(firstTurnover.get(0).getDate(), today.toString());
+            assertThat(firstTurnover.get(0).getDebited().toBigDecimal(),
+                    Matchers.comparesEqualTo(BigDecimal.valueOf(12)));
+            assertThat(firstTurnover.get(0).getCredited().toBigDecimal(),
+                    Matchers.comparesEqualTo(BigDecimal.valueOf(3)));
+            assertEquals(secondTurnover.size(), 1);
+            assertThat(secondTurnover.get(0).getDebited().toBigDecimal(),
+                    Matchers.comparesEqualTo(BigDecimal.valueOf(3)));
+            assertThat(secondTurnover.get(0).getCredited().toBigDecimal(),
+                    Matchers.comparesEqualTo(BigDecimal.valueOf(12)));
+
+            accountTurnover.rebuild(moneyExchangeService);
+        }
+    }
+
+    /**
+     * Tests that the first turnover row of the day inserted by the concurrent transfer which is not committed yet
+     * fails the insert with the error retried by the executions, and the change is added to that row once it is
+     * committed
+     */
+    @Test
+    public void testConcurrentTurnoverInsert() throws ObjectModificationException, SQLException {
+        BankAccountDto bankAccountDto = BankAccountDto.getInstance();
+        AccountTurnover accountTurnover = new AccountTurnover(DbUtils.getInstance(), 1);
+
+        BankAccount bankAccount = bankAccountDto.createBankAccount(
+                new BankAccount("Turnover Concurrent", BigDecimal.ZERO, Currency.EUR));
+        List<Journal.Posting> credit = Collections.singletonList(
+                new Journal.Posting(bankAccount.getId(), 1L, Money.of(BigDecimal.ONE, Currency.EUR)));
+
+        Connection firstCon = H2DataSource.getConnection();
+        Connection secondCon = H2DataSource.getConnection();
+        try {
+            accountTurnover.add(credit, firstCon);
+
+            try {
+                accountTurnover.add(credit, secondCon);
+                fail("The turnover row inserted by the concurrent transaction should not be changed");
+            } catch (ImpossibleOperationExecution e) {
+                assertTrue(TransactionDto.isConcurrentUpdate(e));
+                assertTrue(TransactionDto.isLockConflict(e));
+            }
+            secondCon.rollback();
+
+            firstCon.commit();
+
+            accountTurnover.add(credit, secondCon);
+            secondCon.commit();
+        } finally {
+            DbUtils.quietlyClose(firstCon);
+            DbUtils.quietlyClose(secondCon);
+        }
+
+        List<DailyTurnover> turnover = accountTurnover.getDailyTurnover(bankAccount.getId(), Currency.EUR,
+                LocalDate.now(), LocalDate.now());
+
+        assertEquals(turnover.size(), 1);
+        assertThat(turnover.get(0).getCredited().toBigDecimal(), Matchers.comparesEqualTo(BigDecimal.valueOf(2)));
+    }
+
+    /**
+     * Tests that lock timeouts and deadlocks are recognized in the exception's causes chain
+     */
+    @Test
+    public void testLockConflictDetection() {
+        assertTrue(TransactionDto.isLockConflict(new ImpossibleOperationExecution(
+                new SQLException("Timeout trying to lock table", "HYT00", ErrorCode.LOCK_TIMEOUT_1))));
+        assertTrue(TransactionDto.isLockConflict(new ImpossibleOperationExecution(
+                new SQLException("Deadlock detected", "40001", ErrorCode.DEADLOCK_1))));
+        assertFalse(TransactionDto.isLockConflict(new ImpossibleOperationExecution(
+                new SQLException("Syntax error", "42000", ErrorCode.SYNTAX_ERROR_1))));
+        assertFalse(TransactionDto.isLockConflict(new NullPointerException()));
     }
 
     @Test(expectedExceptions = ObjectModificationException.class)
@@ -162,4 +477,12 @@ public class TransactionDtoTest {
 
         transactionDto.createTransaction(transaction);
     }
+
+    private static PreparedStatement setPageParameters(PreparedStatement preparedStatement) throws SQLException {
+        preparedStatement.setInt(1, TransactionStatus.PLANNED.getId());
+        preparedStatement.setLong(2, 0);
+        preparedStatement.setInt(3, 10);
+
+        return preparedStatement;
+    }
 }
@@ -0,0 +1,135 @@
+package com.revolut.moneytransfer.dto;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class WriteAheadLogTest {
+    //Fits three records
+    private static final int SEGMENT_SIZE = 200;
+
+    private File directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("wal").toFile();
+    }
+
+    @AfterMethod
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Tests that durable records are replayed in the same order by the log opened again and the next records go to
+     * the new segment
+     */
+    @Test
+    public void testReplay() {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, SEGMENT_SIZE);
+        for (long id = 1; id <= 5; id++) {
+            writeAheadLog.awaitDurable(writeAheadLog.append(record(id)));
+        }
+        writeAheadLog.close();
+
+        WriteAheadLog reopenedLog = new WriteAheadLog(directory, SEGMENT_SIZE);
+        try {
+            reopenedLog.append(record(6));
+
+            List<Long> ids = replay(reopenedLog);
+
+            assertEquals(ids.size(), 5);
+            for (int i = 0; i < ids.size(); i++) {
+                assertEquals(ids.get(i).longValue(), i + 1L);
+            }
+        } finally {
+            reopenedLog.close();
+        }
+    }
+
+    /**
+     * Tests that the record with the wrong checksum ends the replay
+     */
+    @Test
+    public void testTornRecordEndsReplay() throws IOException {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, SEGMENT_SIZE);
+        for (long id = 1; id <= 3; id++) {
+            writeAheadLog.awaitDurable(writeAheadLog.append(record(id)));
+        }
+        writeAheadLog.close();
+
+        //Corrupts the payload of the second record
+        try (RandomAccessFile segment = new RandomAccessFile(new File(directory, "0000000000000000.wal"), "rw")) {
+            segment.seek(56 + 20);
+            segment.write(0xFF);
+        }
+
+        WriteAheadLog reopenedLog = new WriteAheadLog(directory, SEGMENT_SIZE);
+        try {
+            List<Long> ids = replay(reopenedLog);
+
+            assertEquals(ids.size(), 1);
+            assertEquals(ids.get(0).longValue(), 1L);
+        } finally {
+            reopenedLog.close();
+        }
+    }
+
+    /**
+     * Tests that records before the checkpoint are not replayed and full segments before it are deleted
+     */
+    @Test
+    public void testCheckpoint() {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, SEGMENT_SIZE);
+        long position = 0;
+        for (long id = 1; id <= 4; id++) {
+            position = writeAheadLog.append(record(id));
+            writeAheadLog.awaitDurable(position);
+        }
+        writeAheadLog.checkpoint(position);
+        writeAheadLog.awaitDurable(writeAheadLog.append(record(5)));
+        writeAheadLog.close();
+
+        assertFalse(new File(directory, "0000000000000000.wal").exists());
+
+        WriteAheadLog reopenedLog = new WriteAheadLog(directory, SEGMENT_SIZE);
+        try {
+            List<Long> ids = replay(reopenedLog);
+
+            assertEquals(ids.size(), 1);
+            assertEquals(ids.get(0).longValue(), 5L);
+        } finally {
+            reopenedLog.close();
+        }
+    }
+
+    private static WriteAheadLog.Record record(long transactionId) {
+        return new WriteAheadLog.Record(transactionId, 1, 2, 100 * transactionId, 90 * transactionId, 1);
+    }
+
+    private static List<Long> replay(WriteAheadLog writeAheadLog) {
+        List<Long> ids = new ArrayList<>();
+        writeAheadLog.replay(record -> {
+            assertEquals(record.getAmountToWithdraw(), 100 * record.getTransactionId());
+            assertEquals(record.getAmountToTransfer(), 90 * record.getTransactionId());
+            ids.add(record.getTransactionId());
+        });
+
+        return ids;
+    }
+}
@@ -6,6 +6,7 @@ import com.revolut.moneytransfer.controller.BankAccountsController;
 import com.revolut.moneytransfer.dto.BankAccountDto;
 import com.revolut.moneytransfer.model.BankAccount;
 import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.Money;
 import com.revolut.moneytransfer.service.BankAccountService;
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.hamcrest.Matchers;
@@ -110,8 +111,8 @@ public class BankAccountControllerTest {
 
         BankAccount secondAccount = bankAccountService.getBankAccountById(BankAccountConstants.JOHN_DOE_BANK_ACCOUNT_ID);
         secondAccount.setAccountHolderName(OWNER_NAME);
-        BigDecimal accountBalance = secondAccount.getBalance();
-        secondAccount.setBalance(accountBalance.add(BigDecimal.TEN));
+        BigDecimal accountBalance = secondAccount.getBalance().toBigDecimal();
+        secondAccount.setBalance(secondAccount.getBalance().add(Money.of(BigDecimal.TEN, secondAccount.getCurrency())));
 
         Response response = target.path(BankAccountsController.BASE_URL)
                 .request()
@@ -122,7 +123,7 @@ public class BankAccountControllerTest {
         BankAccount updatedAccount = bankAccountService.getBankAccountById(BankAccountConstants.JOHN_DOE_BANK_ACCOUNT_ID);
 
         assertEquals(OWNER_NAME, updatedAccount.getAccountHolderName());
-        assertThat(accountBalance, Matchers.comparesEqualTo(updatedAccount.getBalance()));
+        assertThat(accountBalance, Matchers.comparesEqualTo(updatedAccount.getBalance().toBigDecimal()));
     }
 
     /**
@@ -69,7 +69,7 @@ public class ConcurrentlyTransactionCreationAndExecutionTest {
     public void checkResults() {
         transactionsService.executeTransactions();
         BankAccount fromBankAccount = bankAccountService.getBankAccountById(fromBankAccountId);
-        assertThat(fromBankAccount.getBalance(),
+        assertThat(fromBankAccount.getBalance().toBigDecimal(),
                 Matchers.comparesEqualTo(
                         INITIAL_BALANCE.subtract(
                                 TRANSACTION_AMOUNT.multiply(BigDecimal.valueOf(INVOCATION_COUNT)))
@@ -23,6 +23,7 @@ public class ConcurrentlyTransactionCreationTest {
     private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1000L);
     private static final BigDecimal TRANSACTION_AMOUNT = BigDecimal.ONE;
     private static final int INVOCATION_COUNT = 1000;
+    private static final BigDecimal EUR_TO_USD_RATE = new BigDecimal("1.12");
 
     private Long fromBankAccountId;
     private Long toBankAccountId;
@@ -57,16 +58,21 @@ public class ConcurrentlyTransactionCreationTest {
         transactionsService.createTransaction(transaction);
     }
 
+    /**
+     * Created transactions are executed immediately, so once the rest of them are executed by the executor's cycle
+     * all the money has been transferred and nothing has been lost
+     */
     @AfterClass
     public void checkResults() {
-        BankAccount bankAccount = bankAccountService.getBankAccountById(fromBankAccountId);
+        transactionsService.executeTransactions();
 
-        assertThat(bankAccount.getBalance(), Matchers.comparesEqualTo(INITIAL_BALANCE));
-        /*assertThat(bankAccount.getBlockedAmount(),
-                Matchers.comparesEqualTo(
-                        BigDecimal.ZERO.add(
-                            TRANSACTION_AMOUNT.multiply(BigDecimal.valueOf(INVOCATION_COUNT)))
-                )
-        );
-*/    }
+        BankAccount fromBankAccount = bankAccountService.getBankAccountById(fromBankAccountId);
+        BankAccount toBankAccount = bankAccountService.getBankAccountById(toBankAccountId);
+        BigDecimal transferred = TRANSACTION_AMOUNT.multiply(BigDecimal.valueOf(INVOCATION_COUNT));
+
+        assertThat(fromBankAccount.getBalance().toBigDecimal(),
+                Matchers.comparesEqualTo(INITIAL_BALANCE.subtract(transferred)));
+        assertThat(toBankAccount.getBalance().toBigDecimal(),
+                Matchers.comparesEqualTo(transferred.multiply(EUR_TO_USD_RATE)));
+    }
 }
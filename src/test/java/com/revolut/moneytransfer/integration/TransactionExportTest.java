@@ -0,0 +1,146 @@
+package com.revolut.moneytransfer.integration;
+
+import com.revolut.moneytransfer.MoneyTransferApp;
+import com.revolut.moneytransfer.constants.BankAccountConstants;
+import com.revolut.moneytransfer.controller.TransactionsController;
+import com.revolut.moneytransfer.db.H2DataSource;
+import com.revolut.moneytransfer.db.StorageMode;
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.TransactionStatus;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests that the export of millions of transactions streams them with constant heap usage. The export runs in the
+ * separate JVM with the heap much smaller than the exported transactions and the file database, so it fails with
+ * <code>OutOfMemoryError</code> once transactions or the response are held in memory.
+ * <p>
+ * The test takes minutes, so it is excluded from the build and run by the <code>export-test</code> profile.
+ */
+public class TransactionExportTest {
+    private static final int TRANSACTIONS_COUNT = 2_000_000;
+    private static final int INSERT_CHUNK_SIZE = 100_000;
+    private static final String MAX_HEAP = "-Xmx96m";
+    private static final long TIMEOUT_MINUTES = 10;
+
+    private static final String INSERT_TRANSACTIONS_SQL =
+            "insert into transaction (from_account_id, to_account_id, amount, currency_id, creation_date, " +
+                    "update_date, status_id, rate_version) " +
+                    "select ?, ?, 1.5, ?, current_date, current_date, ?, 1 from system_range(?, ?)";
+
+    @Test(groups = "export")
+    public void testExportUnderSmallHeap() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("moneytransfer-export");
+
+        String javaPath = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+
+        Process exporter = new ProcessBuilder(javaPath, MAX_HEAP, "-cp", classPath,
+                "-D" + H2DataSource.MODE_PROPERTY + "=" + StorageMode.FILE,
+                "-D" + H2DataSource.PATH_PROPERTY + "=" + directory.resolve("moneytransfer"),
+                "-D" + H2DataSource.CACHE_SIZE_PROPERTY + "=8192",
+                Exporter.class.getName())
+                .inheritIO()
+                .start();
+
+        try {
+            if (!exporter.waitFor(TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                throw new AssertionError("The export has not been finished in time");
+            }
+
+            assertEquals(exporter.exitValue(), 0);
+        } finally {
+            exporter.destroyForcibly();
+            for (File file : directory.toFile().listFiles()) {
+                file.delete();
+            }
+            directory.toFile().delete();
+        }
+    }
+
+    /**
+     * Fills the database with transactions and exports them through the HTTP server in both formats. Exits with
+     * non-zero code if the number of exported lines is wrong or the heap is exhausted.
+     */
+    public static class Exporter {
+        public static void main(String[] args) throws Exception {
+            insertTransactions();
+
+            HttpServer server = MoneyTransferApp.startServer();
+            try {
+                String today = LocalDate.now().toString();
+
+                //The header line and a line per transaction
+                assertEquals(countLines("format=csv", true), TRANSACTIONS_COUNT + 1);
+                assertEquals(countLines("format=ndjson&from=" + today + "&to=" + today, false), TRANSACTIONS_COUNT);
+            } catch (Throwable th) {
+                th.printStackTrace();
+                System.exit(1);
+            } finally {
+                server.shutdownNow();
+            }
+
+            System.exit(0);
+        }
+
+        private static void insertTransactions() throws SQLException {
+            try (Connection con = H2DataSource.getConnection();
+                 PreparedStatement insertTransactions = con.prepareStatement(INSERT_TRANSACTIONS_SQL)) {
+                for (int first = 1; first <= TRANSACTIONS_COUNT; first += INSERT_CHUNK_SIZE) {
+                    insertTransactions.setLong(1, BankAccountConstants.JOHN_DOE_BANK_ACCOUNT_ID);
+                    insertTransactions.setLong(2, BankAccountConstants.JANE_DOE_BANK_ACCOUNT_ID);
+                    insertTransactions.setInt(3, Currency.EUR.getId());
+                    insertTransactions.setInt(4, TransactionStatus.SUCCEED.getId());
+                    insertTransactions.setInt(5, first);
+                    insertTransactions.setInt(6, first + INSERT_CHUNK_SIZE - 1);
+                    insertTransactions.executeUpdate();
+                    con.commit();
+                }
+            }
+        }
+
+        private static long countLines(String query, boolean gzip) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL(MoneyTransferApp.BASE_URI +
+                    TransactionsController.BASE_URL.substring(1) + "/" + TransactionsController.EXPORT_PATH + "?" +
+                    query).openConnection();
+            if (gzip) {
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+            }
+
+            assertEquals(connection.getResponseCode(), 200);
+            assertEquals(connection.getHeaderField("Transfer-Encoding"), "chunked");
+            assertEquals(connection.getHeaderField("Content-Encoding"), gzip ? "gzip" : null);
+
+            long lines = 0;
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream body = gzip ? new GZIPInputStream(connection.getInputStream()) :
+                    connection.getInputStream()) {
+                for (int read; (read = body.read(buffer)) > 0; ) {
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] == '\n') {
+                            lines++;
+                        }
+                    }
+                }
+            }
+
+            return lines;
+        }
+    }
+}
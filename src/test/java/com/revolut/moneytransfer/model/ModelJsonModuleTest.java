@@ -0,0 +1,148 @@
+package com.revolut.moneytransfer.model;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class ModelJsonModuleTest {
+    private final ObjectMapper reflectiveMapper = new ObjectMapper();
+    private final ObjectMapper tunedMapper = new ObjectMapper().registerModule(new ModelJsonModule());
+
+    /**
+     * Tests that the transactions are written byte-for-byte the same as by the reflective serialization including
+     * null values, dates read from the database and escaped characters
+     */
+    @Test
+    public void testTransactionSerialization() throws IOException {
+        Transaction transaction = new Transaction(1L, 2L, new BigDecimal("16.1"), Currency.EUR);
+        transaction.setId(Long.MAX_VALUE);
+        transaction.setCreationDate(new java.sql.Date(1_500_000_000_000L));
+        transaction.setUpdateDate(new Timestamp(1_500_000_000_123L));
+        transaction.setStatus(TransactionStatus.FAILED);
+        transaction.setFailMessage("Not \"enough\" money,\n\u0001 \u00e9\u20ac\ud83d\udcb6");
+        transaction.setRateVersion(7L);
+        transaction.setIdempotencyKey("key");
+
+        Transaction empty = new Transaction();
+        empty.setCreationDate(null);
+        empty.setUpdateDate(null);
+        empty.setStatus(null);
+        empty.setFailMessage(null);
+
+        List<Transaction> transactions = Arrays.asList(transaction, empty);
+
+        assertEquals(tunedMapper.writeValueAsBytes(transactions), reflectiveMapper.writeValueAsBytes(transactions));
+        assertEquals(tunedMapper.writeValueAsString(transaction), reflectiveMapper.writeValueAsString(transaction));
+    }
+
+    /**
+     * Tests that dates are written by the serializers of their classes, so <code>java.sql.Date</code> read from
+     * the database keeps the format of the reflective serialization whatever the mapper settings are
+     */
+    @Test
+    public void testDateSerialization() throws IOException {
+        Transaction transaction = new Transaction(1L, 2L, new BigDecimal("16.1"), Currency.EUR);
+        transaction.setCreationDate(new java.sql.Date(1_500_000_000_000L));
+        transaction.setUpdateDate(new Date(1_500_000_000_123L));
+
+        ObjectMapper reflectiveTextMapper = new ObjectMapper()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        ObjectMapper tunedTextMapper = new ObjectMapper().registerModule(new ModelJsonModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        assertEquals(tunedTextMapper.writeValueAsString(transaction),
+                reflectiveTextMapper.writeValueAsString(transaction));
+        assertEquals(tunedMapper.writeValueAsString(transaction), reflectiveMapper.writeValueAsString(transaction));
+    }
+
+    @Test
+    public void testAmountFormatting() {
+        for (long minorUnits : new long[]{0, 1, -1, 50, -9999, 10000, -10000, 123456789, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            assertEquals(ModelJsonModule.formatMinorUnits(minorUnits),
+                    Money.ofMinor(minorUnits, Currency.EUR).toBigDecimal().toString());
+        }
+    }
+
+    @Test
+    public void testBankAccountSerialization() throws IOException {
+        List<BankAccount> bankAccounts = Arrays.asList(
+                new BankAccount(1L, "Sakalya \"Deshpande\"", new BigDecimal("-12.6"), Currency.GBP),
+                new BankAccount(null, null));
+
+        assertEquals(tunedMapper.writeValueAsBytes(bankAccounts), reflectiveMapper.writeValueAsBytes(bankAccounts));
+    }
+
+    /**
+     * Tests that the transaction is read the same way as by the reflective deserialization: the amount is tagged by
+     * the currency whichever goes first, lenient values are accepted and unknown properties are ignored
+     */
+    @Test
+    public void testTransactionDeserialization() throws IOException {
+        String json = "[{\"amount\":10.5,\"currency\":\"USD\",\"id\":1,\"unknown\":{\"a\":[1,2]}," +
+                "\"creationDate\":1500000000000,\"updateDate\":\"2017-07-14T02:40:00.000+0000\"," +
+                "\"status\":\"SUCCEED\",\"failMessage\":null,\"idempotencyKey\":\"key\",\"rateVersion\":\"3\"}," +
+                "{\"fromBankAccountId\":\"2\",\"toBankAccountId\":3,\"currency\":\"EUR\",\"amount\":\"0.0001\"," +
+                "\"creationDate\":0,\"updateDate\":null}]";
+        TypeReference<List<Transaction>> type = new TypeReference<List<Transaction>>() {
+        };
+
+        List<Transaction> expected = reflectiveMapper.readValue(json, type);
+        List<Transaction> result = tunedMapper.readValue(json, type);
+
+        assertEquals(result.size(), expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(tunedMapper.writeValueAsString(result.get(i)),
+                    reflectiveMapper.writeValueAsString(expected.get(i)));
+            assertEquals(result.get(i).getAmount(), expected.get(i).getAmount());
+            assertEquals(result.get(i).getAmount().getCurrency(), expected.get(i).getCurrency());
+        }
+        assertNull(result.get(0).getIdempotencyKey());
+    }
+
+    @Test
+    public void testBankAccountDeserialization() throws IOException {
+        BankAccount bankAccount = new BankAccount(5L, "Jane Doe", new BigDecimal("100.25"), Currency.USD);
+
+        BankAccount result = tunedMapper.readValue(tunedMapper.writeValueAsBytes(bankAccount), BankAccount.class);
+
+        assertEquals(result.getId(), bankAccount.getId());
+        assertEquals(result.getAccountHolderName(), bankAccount.getAccountHolderName());
+        assertEquals(result.getBalance(), bankAccount.getBalance());
+        assertEquals(result.getCurrency(), bankAccount.getCurrency());
+    }
+
+    @Test(expectedExceptions = UnrecognizedPropertyException.class)
+    public void testBankAccountUnknownProperty() throws IOException {
+        tunedMapper.readValue("{\"accountHolderName\":\"Jane Doe\",\"blockedAmount\":1}", BankAccount.class);
+    }
+
+    /**
+     * Tests that the amount more precise than the money is rounded like by the reflective deserialization and the
+     * amount which doesn't fit into minor units is reported as a mapping error
+     */
+    @Test
+    public void testAmountOutOfPrecision() throws IOException {
+        String json = "{\"amount\":0.00005,\"currency\":\"EUR\"}";
+
+        assertEquals(tunedMapper.readValue(json, Transaction.class).getAmount(),
+                reflectiveMapper.readValue(json, Transaction.class).getAmount());
+        assertEquals(tunedMapper.readValue(json, Transaction.class).getAmount(), Money.ofMinor(1L, Currency.EUR));
+    }
+
+    @Test(expectedExceptions = JsonMappingException.class)
+    public void testAmountOutOfRange() throws IOException {
+        tunedMapper.readValue("{\"amount\":1e20,\"currency\":\"EUR\"}", Transaction.class);
+    }
+}
@@ -0,0 +1,114 @@
+package com.revolut.moneytransfer.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.testng.Assert.*;
+
+public class MoneyTest {
+    /**
+     * Tests that values of <code>DECIMAL(19,4)</code> columns are mapped without any loss
+     */
+    @Test
+    public void testDecimalMapping() {
+        BigDecimal value = new BigDecimal("12345.6789");
+        Money money = Money.of(value, Currency.EUR);
+
+        assertEquals(money.getMinorUnits(), 123456789L);
+        assertEquals(money.toBigDecimal(), value);
+        assertEquals(Money.of(BigDecimal.ONE, Currency.EUR).toBigDecimal(), new BigDecimal("1.0000"));
+    }
+
+    @Test(expectedExceptions = ArithmeticException.class)
+    public void testImplicitRounding() {
+        Money.of(new BigDecimal("0.00001"), Currency.EUR);
+    }
+
+    @Test(expectedExceptions = ArithmeticException.class)
+    public void testOverflow() {
+        Money.ofMinor(Long.MAX_VALUE, Currency.EUR).add(Money.ofMinor(1, Currency.EUR));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDifferentCurrencies() {
+        Money.ofMinor(1, Currency.EUR).subtract(Money.ofMinor(1, Currency.USD));
+    }
+
+    @DataProvider
+    public Object[][] conversions() {
+        RoundingMode[] roundingModes = RoundingMode.values();
+        String[] amounts = {"0.0013", "-0.0013", "0.0025", "-0.0025", "0.0035", "123.4567", "-1.0001", "10"};
+        Object[][] result = new Object[roundingModes.length * amounts.length][];
+
+        int i = 0;
+        for (RoundingMode roundingMode : roundingModes) {
+            for (String amount : amounts) {
+                result[i++] = new Object[]{new BigDecimal(amount), roundingMode};
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Tests that the conversion rounds the same way as <code>BigDecimal</code> does
+     */
+    @Test(dataProvider = "conversions")
+    public void testConversion(BigDecimal amount, RoundingMode roundingMode) {
+        long rate = 500_000L;
+        BigDecimal expected = null;
+
+        try {
+            expected = amount.multiply(BigDecimal.valueOf(rate, 6)).setScale(Money.SCALE, roundingMode);
+        } catch (ArithmeticException e) {
+            try {
+                Money.of(amount, Currency.GBP).convert(rate, 6, Currency.EUR, roundingMode);
+                fail("Rounding necessary exception is expected");
+            } catch (ArithmeticException expectedException) {
+                return;
+            }
+        }
+
+        Money converted = Money.of(amount, Currency.GBP).convert(rate, 6, Currency.EUR, roundingMode);
+
+        assertEquals(converted.getCurrency(), Currency.EUR);
+        assertEquals(converted.toBigDecimal(), expected);
+    }
+
+    /**
+     * Tests that the conversion is correct when the intermediate product doesn't fit into <code>long</code>
+     */
+    @Test
+    public void testLargeConversion() {
+        Money money = Money.ofMinor(Long.MAX_VALUE / 2, Currency.USD);
+
+        assertEquals(money.convert(1_500_000L, 6, Currency.GBP, RoundingMode.DOWN).getMinorUnits(),
+                Long.MAX_VALUE / 2 + Long.MAX_VALUE / 4);
+    }
+
+    /**
+     * Tests that the amount is serialized as the decimal number and tagged by the currency once deserialized
+     */
+    @Test
+    public void testJsonMapping() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Transaction transaction = new Transaction(1L, 2L, new BigDecimal("10.5"), Currency.USD);
+
+        String json = objectMapper.writeValueAsString(transaction);
+
+        assertTrue(json.contains("\"amount\":10.5000"), json);
+
+        Transaction result = objectMapper.readValue("{\"amount\":10.5,\"currency\":\"USD\"}", Transaction.class);
+
+        assertEquals(result.getAmount(), Money.ofMinor(105000L, Currency.USD));
+
+        Transaction rounded = objectMapper.readValue("{\"amount\":10.12345,\"currency\":\"USD\"}", Transaction.class);
+
+        assertEquals(rounded.getAmount(), Money.ofMinor(101235L, Currency.USD));
+    }
+}
@@ -0,0 +1,78 @@
+package com.revolut.moneytransfer.service;
+
+import com.revolut.moneytransfer.model.Transaction;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.*;
+
+public class IdempotencyCacheTest {
+
+    /**
+     * Tests that the second request with the same key gets the future of the first one
+     */
+    @Test
+    public void testDuplicateGetsOriginalFuture() {
+        IdempotencyCache cache = new IdempotencyCache(10, 60, () -> 0L);
+        CompletableFuture<Transaction> original = new CompletableFuture<>();
+
+        assertNull(cache.putIfAbsent("key", original));
+        assertSame(cache.putIfAbsent("key", new CompletableFuture<>()), original);
+        assertNull(cache.putIfAbsent("another", new CompletableFuture<>()));
+
+        assertEquals(cache.getHitsCount(), 1L);
+        assertEquals(cache.getSize(), 2);
+    }
+
+    /**
+     * Tests that the key is forgotten once its time to live is over
+     */
+    @Test
+    public void testExpiration() {
+        AtomicLong now = new AtomicLong();
+        IdempotencyCache cache = new IdempotencyCache(10, 60, now::get);
+
+        cache.putIfAbsent("first", new CompletableFuture<>());
+        now.set(TimeUnit.SECONDS.toNanos(30));
+        cache.putIfAbsent("second", new CompletableFuture<>());
+        now.set(TimeUnit.SECONDS.toNanos(60));
+
+        assertNull(cache.putIfAbsent("first", new CompletableFuture<>()));
+        assertNotNull(cache.putIfAbsent("second", new CompletableFuture<>()));
+        assertEquals(cache.getSize(), 2);
+    }
+
+    /**
+     * Tests that the oldest key is evicted once the cache is full
+     */
+    @Test
+    public void testEviction() {
+        IdempotencyCache cache = new IdempotencyCache(2, 60, () -> 0L);
+
+        cache.putIfAbsent("first", new CompletableFuture<>());
+        cache.putIfAbsent("second", new CompletableFuture<>());
+        cache.putIfAbsent("third", new CompletableFuture<>());
+
+        assertEquals(cache.getSize(), 2);
+        assertNull(cache.putIfAbsent("first", new CompletableFuture<>()));
+    }
+
+    /**
+     * Tests that the key is removed only by the request which has registered it
+     */
+    @Test
+    public void testRemove() {
+        IdempotencyCache cache = new IdempotencyCache(10, 60, () -> 0L);
+        CompletableFuture<Transaction> original = new CompletableFuture<>();
+
+        cache.putIfAbsent("key", original);
+        cache.remove("key", new CompletableFuture<>());
+        assertEquals(cache.getSize(), 1);
+
+        cache.remove("key", original);
+        assertEquals(cache.getSize(), 0);
+    }
+}
@@ -0,0 +1,58 @@
+package com.revolut.moneytransfer.service;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class LatencyHistogramTest {
+
+    /**
+     * Tests that every value belongs to the bucket which bounds contain it, buckets do not overlap and the width of
+     * the bucket is not more than 1/{@value LatencyHistogram#SUB_BUCKETS} of its lower bound. Bigger values belong
+     * to the overflow bucket
+     */
+    @Test
+    public void testBucketBounds() {
+        long lowerBound = 0;
+
+        for (int bucket = 0; bucket < LatencyHistogram.OVERFLOW_BUCKET; bucket++) {
+            long upperBound = LatencyHistogram.upperBoundOf(bucket);
+
+            assertTrue(upperBound > lowerBound);
+            assertEquals(LatencyHistogram.bucketOf(lowerBound), bucket);
+            assertEquals(LatencyHistogram.bucketOf(upperBound - 1), bucket);
+            if (bucket >= LatencyHistogram.SUB_BUCKETS) {
+                assertTrue((upperBound - lowerBound) * LatencyHistogram.SUB_BUCKETS <= lowerBound);
+            }
+
+            lowerBound = upperBound;
+        }
+
+        assertEquals(lowerBound, 1L << (LatencyHistogram.MAX_EXPONENT + 1));
+        assertEquals(LatencyHistogram.bucketOf(lowerBound), LatencyHistogram.OVERFLOW_BUCKET);
+        assertEquals(LatencyHistogram.bucketOf(Long.MAX_VALUE), LatencyHistogram.OVERFLOW_BUCKET);
+        assertEquals(LatencyHistogram.upperBoundOf(LatencyHistogram.OVERFLOW_BUCKET), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(histogram.getPercentileMicros(99), 0L);
+
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.recordMicros(micros);
+        }
+        histogram.record(5, TimeUnit.MILLISECONDS);
+
+        assertEquals(histogram.getCount(), 1001L);
+        assertEquals(histogram.getMaxMicros(), 5000L);
+        assertEquals(histogram.getSumMicros(), 500_500L + 5000L);
+
+        long median = histogram.getPercentileMicros(50);
+        assertTrue(median >= 500 && median <= 500 * (1 + 1.0 / LatencyHistogram.SUB_BUCKETS), "Median is " + median);
+        assertEquals(histogram.getPercentileMicros(100), 5000L);
+    }
+}
@@ -0,0 +1,76 @@
+package com.revolut.moneytransfer.service;
+
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.Money;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.testng.Assert.*;
+
+public class ReloadableMoneyExchangeServiceTest {
+    private static final String RATES =
+            "GBP.EUR=1.16\nGBP.USD=1.3\nUSD.EUR=0.9\nUSD.GBP=0.77\nEUR.USD=1.12\nEUR.GBP=0.86\n";
+
+    /**
+     * Tests that hardcoded rates are used until the rates file is loaded
+     */
+    @Test
+    public void testHardcodedRates() {
+        ReloadableMoneyExchangeService service = new ReloadableMoneyExchangeService(null);
+
+        assertEquals(service.getRates().getVersion(), 0L);
+        assertEquals(service.exchange(Money.of(BigDecimal.TEN, Currency.GBP), Currency.EUR),
+                Money.of(new BigDecimal("11.6"), Currency.EUR));
+        assertEquals(service.getRates().getRate(Currency.USD, Currency.USD), ExchangeRates.ONE);
+    }
+
+    /**
+     * Tests that the newer version of rates replaces the current one, while older or malformed ones are ignored
+     */
+    @Test
+    public void testReload() throws IOException {
+        Path ratesFile = Files.createTempFile("rates", ".properties");
+        try {
+            write(ratesFile, "version=2\n" + RATES.replace("GBP.EUR=1.16", "GBP.EUR=1.2"), 1000);
+            ReloadableMoneyExchangeService service = new ReloadableMoneyExchangeService(ratesFile);
+
+            ExchangeRates loadedRates = service.getRates();
+            assertEquals(loadedRates.getVersion(), 2L);
+            assertEquals(service.exchange(Money.of(BigDecimal.TEN, Currency.GBP), Currency.EUR),
+                    Money.of(new BigDecimal("12"), Currency.EUR));
+
+            //The file has not been changed
+            assertFalse(service.reload());
+
+            write(ratesFile, "version=1\n" + RATES, 2000);
+            assertFalse(service.reload());
+            assertSame(service.getRates(), loadedRates);
+
+            write(ratesFile, "version=3\nGBP.EUR=1.16\n", 3000);
+            assertFalse(service.reload());
+            assertSame(service.getRates(), loadedRates);
+
+            write(ratesFile, "version=3\n" + RATES, 4000);
+            assertTrue(service.reload());
+            assertEquals(service.getRates().getVersion(), 3L);
+            assertEquals(service.exchange(Money.of(BigDecimal.TEN, Currency.GBP), Currency.EUR),
+                    Money.of(new BigDecimal("11.6"), Currency.EUR));
+
+            //The snapshot taken before the reload is not changed
+            assertEquals(loadedRates.getRate(Currency.GBP, Currency.EUR), 1_200_000L);
+        } finally {
+            Files.deleteIfExists(ratesFile);
+        }
+    }
+
+    private static void write(Path file, String content, long lastModified) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.ISO_8859_1));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+    }
+}
@@ -0,0 +1,245 @@
+package com.revolut.moneytransfer.service;
+
+import com.revolut.moneytransfer.dto.TransactionDto;
+import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.ExceptionType;
+import com.revolut.moneytransfer.model.Transaction;
+import com.revolut.moneytransfer.model.TransactionStatus;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+public class TransactionExecutorTest {
+    private static final Long FROM_BANK_ACCOUNT_ID = 1L;
+    private static final Long ANOTHER_FROM_BANK_ACCOUNT_ID = 2L;
+    private static final Long TO_BANK_ACCOUNT_ID = 3L;
+
+    /**
+     * Tests that transactions from the same Bank Account are executed in the order of submission
+     */
+    @Test
+    public void testSameAccountTransactionsOrder() throws ObjectModificationException {
+        TransactionDto transactionDto = mock(TransactionDto.class);
+        List<Long> executedIds = Collections.synchronizedList(new ArrayList<>());
+
+        doAnswer(invocation -> {
+            executedIds.add(invocation.getArgument(0));
+            return TransactionStatus.SUCCEED;
+        }).when(transactionDto).executeTransaction(anyLong());
+
+        TransactionExecutor transactionExecutor = new TransactionExecutor(transactionDto, 4, 1);
+
+        List<Transaction> transactions = new ArrayList<>();
+        List<Long> expectedIds = new ArrayList<>();
+        for (long id = 1; id <= 100; id++) {
+            transactions.add(createTransaction(id, FROM_BANK_ACCOUNT_ID));
+            expectedIds.add(id);
+        }
+
+        transactionExecutor.executeAll(transactions);
+
+        assertEquals(executedIds, expectedIds);
+        assertEquals(transactionExecutor.getStatistics().stream()
+                .mapToLong(TransactionExecutor.WorkerStatistics::getSucceeded).sum(), 100L);
+
+        transactionExecutor.shutdown();
+    }
+
+    /**
+     * Tests that transactions from different Bank Accounts are distributed between the workers and
+     * failures are counted by the responsible worker
+     */
+    @Test
+    public void testWorkerStatistics() throws ObjectModificationException {
+        TransactionDto transactionDto = mock(TransactionDto.class);
+
+        when(transactionDto.executeTransaction(1L)).thenReturn(TransactionStatus.SUCCEED);
+        doThrow(new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED))
+                .when(transactionDto).executeTransaction(2L);
+
+        TransactionExecutor transactionExecutor = new TransactionExecutor(transactionDto, 2, 100);
+        int firstPartition = transactionExecutor.partitionOf(FROM_BANK_ACCOUNT_ID);
+        int secondPartition = transactionExecutor.partitionOf(ANOTHER_FROM_BANK_ACCOUNT_ID);
+
+        assertNotEquals(firstPartition, secondPartition);
+
+        transactionExecutor.executeAll(Arrays.asList(
+                createTransaction(1L, FROM_BANK_ACCOUNT_ID),
+                createTransaction(2L, ANOTHER_FROM_BANK_ACCOUNT_ID)
+        ));
+
+        List<TransactionExecutor.WorkerStatistics> statistics = transactionExecutor.getStatistics();
+
+        assertEquals(statistics.get(firstPartition).getSucceeded(), 1L);
+        assertEquals(statistics.get(firstPartition).getErrors(), 0L);
+        assertEquals(statistics.get(secondPartition).getSucceeded(), 0L);
+        assertEquals(statistics.get(secondPartition).getErrors(), 1L);
+
+        transactionExecutor.shutdown();
+    }
+
+    /**
+     * Tests that executed transactions are counted by their final status and the ones left PLANNED after the lock
+     * conflicts are counted separately
+     */
+    @Test
+    public void testFinalStatusStatistics() throws ObjectModificationException {
+        TransactionDto transactionDto = mock(TransactionDto.class);
+
+        when(transactionDto.executeTransaction(1L)).thenReturn(TransactionStatus.SUCCEED);
+        when(transactionDto.executeTransaction(2L)).thenReturn(TransactionStatus.FAILED);
+        when(transactionDto.executeTransaction(3L)).thenReturn(TransactionStatus.PLANNED);
+
+        TransactionExecutor transactionExecutor = new TransactionExecutor(transactionDto, 1, 1);
+
+        transactionExecutor.executeAll(Arrays.asList(
+                createTransaction(1L, FROM_BANK_ACCOUNT_ID),
+                createTransaction(2L, FROM_BANK_ACCOUNT_ID),
+                createTransaction(3L, FROM_BANK_ACCOUNT_ID)
+        ));
+
+        TransactionExecutor.WorkerStatistics workerStatistics = transactionExecutor.getStatistics().get(0);
+
+        assertEquals(workerStatistics.getSucceeded(), 1L);
+        assertEquals(workerStatistics.getFailed(), 1L);
+        assertEquals(workerStatistics.getFellOut(), 1L);
+        assertEquals(workerStatistics.getErrors(), 0L);
+
+        transactionExecutor.shutdown();
+    }
+
+    /**
+     * Tests that transactions of the same worker are executed by batches of configured size in the order of
+     * submission
+     */
+    @Test
+    public void testBatchExecution() throws ObjectModificationException {
+        TransactionDto transactionDto = mock(TransactionDto.class);
+        List<Long> executedIds = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+        when(transactionDto.executeTransactions(anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> batch = invocation.getArgument(0);
+            executedIds.addAll(batch);
+            batchSizes.add(batch.size());
+
+            Map<TransactionStatus, Integer> statusCounts = new EnumMap<>(TransactionStatus.class);
+            statusCounts.put(TransactionStatus.SUCCEED, batch.size() - 2);
+            statusCounts.put(TransactionStatus.FAILED, 1);
+            statusCounts.put(TransactionStatus.PLANNED, 1);
+            return statusCounts;
+        });
+
+        TransactionExecutor transactionExecutor = new TransactionExecutor(transactionDto, 4, 10);
+
+        List<Transaction> transactions = new ArrayList<>();
+        List<Long> expectedIds = new ArrayList<>();
+        for (long id = 1; id <= 25; id++) {
+            transactions.add(createTransaction(id, FROM_BANK_ACCOUNT_ID));
+            expectedIds.add(id);
+        }
+
+        transactionExecutor.executeAll(transactions);
+
+        assertEquals(executedIds, expectedIds);
+        assertEquals(batchSizes, Arrays.asList(10, 10, 5));
+
+        TransactionExecutor.WorkerStatistics workerStatistics = transactionExecutor.getStatistics()
+                .get(transactionExecutor.partitionOf(FROM_BANK_ACCOUNT_ID));
+
+        assertEquals(workerStatistics.getSucceeded(), 19L);
+        assertEquals(workerStatistics.getFailed(), 3L);
+        assertEquals(workerStatistics.getFellOut(), 3L);
+        assertEquals(workerStatistics.getErrors(), 0L);
+
+        transactionExecutor.shutdown();
+    }
+
+    /**
+     * Tests that the transaction submitted on creation is not executed second time by the executor's cycle and
+     * the cycle waits for it anyway
+     */
+    @Test
+    public void testSubmittedTransactionIsNotExecutedTwice() throws Exception {
+        TransactionDto transactionDto = mock(TransactionDto.class);
+        CountDownLatch executionStarted = new CountDownLatch(1);
+        CountDownLatch executionAllowed = new CountDownLatch(1);
+
+        doAnswer(invocation -> {
+            executionStarted.countDown();
+            executionAllowed.await();
+            return null;
+        }).when(transactionDto).executeTransaction(anyLong());
+
+        TransactionExecutor transactionExecutor = new TransactionExecutor(transactionDto, 2, 10);
+        Transaction transaction = createTransaction(1L, FROM_BANK_ACCOUNT_ID);
+
+        Future<?> future = transactionExecutor.submit(transaction);
+        executionStarted.await();
+
+        assertEquals(transactionExecutor.getQueuedCount(), 1);
+
+        CompletableFuture<Void> cycle = CompletableFuture.runAsync(() ->
+                transactionExecutor.executeAll(Collections.singletonList(transaction)));
+        Thread.sleep(200);
+
+        assertFalse(cycle.isDone());
+
+        executionAllowed.countDown();
+        cycle.get(1, TimeUnit.SECONDS);
+
+        assertTrue(future.isDone());
+        assertEquals(transactionExecutor.getQueuedCount(), 0);
+        verify(transactionDto, times(1)).executeTransaction(1L);
+        verify(transactionDto, never()).executeTransactions(anyCollection());
+
+        transactionExecutor.shutdown();
+    }
+
+    /**
+     * Tests that the second execution of the transaction scheduled both on creation and by the executor's cycle is
+     * neither counted nor reported as a failure
+     */
+    @Test
+    public void testExecutedTransactionIsSkipped() throws ObjectModificationException {
+        TransactionDto transactionDto = mock(TransactionDto.class);
+
+        doThrow(new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED))
+                .when(transactionDto).executeTransaction(1L);
+        when(transactionDto.isExecuted(1L)).thenReturn(true);
+
+        TransactionExecutor transactionExecutor = new TransactionExecutor(transactionDto, 2, 100);
+
+        transactionExecutor.executeAll(Collections.singletonList(createTransaction(1L, FROM_BANK_ACCOUNT_ID)));
+
+        TransactionExecutor.WorkerStatistics workerStatistics = transactionExecutor.getStatistics()
+                .get(transactionExecutor.partitionOf(FROM_BANK_ACCOUNT_ID));
+
+        assertEquals(workerStatistics.getSucceeded(), 0L);
+        assertEquals(workerStatistics.getErrors(), 0L);
+
+        transactionExecutor.shutdown();
+    }
+
+    private static Transaction createTransaction(Long id, Long fromBankAccountId) {
+        Transaction transaction = new Transaction(fromBankAccountId, TO_BANK_ACCOUNT_ID, BigDecimal.ONE, Currency.EUR);
+        transaction.setId(id);
+
+        return transaction;
+    }
+}
@@ -4,7 +4,9 @@ import com.revolut.moneytransfer.constants.BankAccountConstants;
 import com.revolut.moneytransfer.dto.BankAccountDto;
 import com.revolut.moneytransfer.dto.TransactionDto;
 import com.revolut.moneytransfer.exceptions.ObjectModificationException;
+import com.revolut.moneytransfer.model.BatchItemResult;
 import com.revolut.moneytransfer.model.Currency;
+import com.revolut.moneytransfer.model.ExceptionType;
 import com.revolut.moneytransfer.model.Transaction;
 import com.revolut.moneytransfer.model.TransactionStatus;
 import org.testng.annotations.Test;
@@ -13,6 +15,11 @@ import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
@@ -105,7 +112,7 @@ public class TransactionsServiceTest {
 
     /**
      * Testing of Transaction creation and execution. Once transaction has been created
-     * the scheduled job will execute it.
+     * it is submitted for the execution immediately without waiting for the scheduled job.
      *
      * @throws ObjectModificationException
      */
@@ -125,10 +132,6 @@ public class TransactionsServiceTest {
 
         when(transactionDto.createTransaction(any())).thenReturn(transaction);
 
-        when(transactionDto.getAllTransactionIdsByStatus(any())).thenReturn(
-                Collections.singletonList(transaction.getId())
-        );
-
         doAnswer(invocation -> {
             transaction.setStatus(TransactionStatus.SUCCEED);
             return null;
@@ -138,7 +141,172 @@ public class TransactionsServiceTest {
         Transaction createdTransaction = transactionsService.createTransaction(transaction);
 
         assertEquals(createdTransaction, transaction);
-        assertEquals(createdTransaction.getStatus(), TransactionStatus.PLANNED);
+
+        verify(transactionDto, timeout(1000)).executeTransaction(TRANSACTION_ID);
+        assertEquals(transaction.getStatus(), TransactionStatus.SUCCEED);
+    }
+
+    /**
+     * Testing of the batch creation. Malformed transactions and the ones rejected by the database are reported
+     * by their indexes while the rest of them are created and submitted for the execution
+     *
+     * @throws ObjectModificationException
+     */
+    @Test
+    public void testCreateTransactions() throws ObjectModificationException {
+        Long TRANSACTION_ID = 125L;
+
+        TransactionDto transactionDto = mock(TransactionDto.class);
+
+        Transaction validTransaction = new Transaction(
+                BankAccountConstants.SAKALYA_DESHPANDE_BANK_ACCOUNT_ID,
+                BankAccountConstants.JOHN_DOE_BANK_ACCOUNT_ID,
+                BigDecimal.TEN,
+                Currency.GBP
+        );
+        Transaction sameAccountsTransaction = new Transaction(
+                BankAccountConstants.JOHN_DOE_BANK_ACCOUNT_ID,
+                BankAccountConstants.JOHN_DOE_BANK_ACCOUNT_ID,
+                BigDecimal.TEN,
+                Currency.GBP
+        );
+        Transaction poorTransaction = new Transaction(
+                BankAccountConstants.JANE_DOE_BANK_ACCOUNT_ID,
+                BankAccountConstants.JOHN_DOE_BANK_ACCOUNT_ID,
+                BigDecimal.TEN,
+                Currency.GBP
+        );
+
+        when(transactionDto.createTransactions(any())).thenAnswer(invocation -> {
+            validTransaction.setId(TRANSACTION_ID);
+            return Arrays.asList(null, new ObjectModificationException(ExceptionType.OBJECT_IS_MALFORMED));
+        });
+
+        TransactionsService transactionsService = new TransactionsService(transactionDto);
+        List<BatchItemResult> results = transactionsService.createTransactions(
+                Arrays.asList(sameAccountsTransaction, validTransaction, null, poorTransaction));
+
+        verify(transactionDto).createTransactions(Arrays.asList(validTransaction, poorTransaction));
+
+        assertEquals(results.size(), 4);
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(results.get(i).getIndex(), i);
+        }
+        assertEquals(results.get(0).getError().getType(), ExceptionType.OBJECT_IS_MALFORMED.name());
+        assertEquals(results.get(1).getTransaction(), validTransaction);
+        assertNull(results.get(1).getError());
+        assertEquals(results.get(2).getError().getType(), ExceptionType.OBJECT_IS_MALFORMED.name());
+        assertNull(results.get(3).getTransaction());
+        assertNotNull(results.get(3).getError());
+
+        verify(transactionDto, timeout(1000)).executeTransaction(TRANSACTION_ID);
+    }
+
+    /**
+     * Test that too big batch is rejected entirely
+     *
+     * @throws ObjectModificationException
+     */
+    @Test(expectedExceptions=ObjectModificationException.class)
+    public void testCreateTooBigBatch() throws ObjectModificationException {
+        staticTransactionService.createTransactions(Collections.nCopies(10001, null));
+    }
+
+    /**
+     * Testing that the retry with the same idempotency key is answered by the original transaction even if it is
+     * sent while the original request is in flight, and that the key could not be reused for another transfer
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCreateTransactionWithIdempotencyKey() throws Exception {
+        Long TRANSACTION_ID = 126L;
+        String IDEMPOTENCY_KEY = "payroll-2018-09-1";
+
+        TransactionDto transactionDto = mock(TransactionDto.class);
+        CountDownLatch creationStarted = new CountDownLatch(1);
+        CountDownLatch creationAllowed = new CountDownLatch(1);
+
+        when(transactionDto.createTransaction(any())).thenAnswer(invocation -> {
+            creationStarted.countDown();
+            creationAllowed.await();
+            Transaction transaction = invocation.getArgument(0);
+            transaction.setId(TRANSACTION_ID);
+            return transaction;
+        });
+
+        TransactionsService transactionsService = new TransactionsService(transactionDto);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<Transaction> original = executor.submit(() -> transactionsService.createTransaction(
+                    createTransaction(BigDecimal.TEN), IDEMPOTENCY_KEY));
+            creationStarted.await();
+            Future<Transaction> duplicate = executor.submit(() -> transactionsService.createTransaction(
+                    createTransaction(BigDecimal.TEN), IDEMPOTENCY_KEY));
+
+            creationAllowed.countDown();
+
+            assertEquals(original.get().getId(), TRANSACTION_ID);
+            assertEquals(duplicate.get().getId(), TRANSACTION_ID);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(transactionsService.createTransaction(createTransaction(BigDecimal.TEN), IDEMPOTENCY_KEY)
+                .getId(), TRANSACTION_ID);
+        verify(transactionDto, times(1)).createTransaction(any());
+        assertEquals(transactionsService.getIdempotentReplaysCount(), 2L);
+
+        try {
+            transactionsService.createTransaction(createTransaction(BigDecimal.ONE), IDEMPOTENCY_KEY);
+            fail("The idempotency key should not be reused for another transfer");
+        } catch (ObjectModificationException e) {
+            assertEquals(e.getType(), ExceptionType.OBJECT_IS_MALFORMED);
+        }
+    }
+
+    private static Transaction createTransaction(BigDecimal amount) {
+        return new Transaction(
+                BankAccountConstants.SAKALYA_DESHPANDE_BANK_ACCOUNT_ID,
+                BankAccountConstants.JOHN_DOE_BANK_ACCOUNT_ID,
+                amount,
+                Currency.GBP
+        );
+    }
+
+    /**
+     * Testing that the scheduled job executes PLANNED transactions which have not been submitted on creation
+     * (e.g. they were left after restart)
+     *
+     * @throws ObjectModificationException
+     */
+    @Test
+    public void testExecuteLostTransactions() throws ObjectModificationException {
+        Long TRANSACTION_ID = 124L;
+
+        TransactionDto transactionDto = mock(TransactionDto.class);
+
+        Transaction transaction = new Transaction(
+                BankAccountConstants.SAKALYA_DESHPANDE_BANK_ACCOUNT_ID,
+                BankAccountConstants.JOHN_DOE_BANK_ACCOUNT_ID,
+                BigDecimal.TEN,
+                Currency.GBP
+        );
+        transaction.setId(TRANSACTION_ID);
+
+        when(transactionDto.getTransactionsByStatus(any(), any(), anyInt())).thenReturn(
+                Collections.singletonList(transaction)
+        );
+
+        doAnswer(invocation -> {
+            transaction.setStatus(TransactionStatus.SUCCEED);
+            return null;
+        }).when(transactionDto).executeTransaction(anyLong());
+
+        TransactionsService transactionsService = new TransactionsService(transactionDto);
+
+        assertEquals(transaction.getStatus(), TransactionStatus.PLANNED);
 
         transactionsService.executeTransactions();
 